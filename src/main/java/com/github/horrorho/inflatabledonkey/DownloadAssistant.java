@@ -23,10 +23,16 @@
  */
 package com.github.horrorho.inflatabledonkey;
 
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.ChunkReferenceLog;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.ChunkReferences;
+import com.github.horrorho.inflatabledonkey.cloud.AssetProgress;
 import com.github.horrorho.inflatabledonkey.cloud.Donkey;
 import com.github.horrorho.inflatabledonkey.data.backup.Asset;
 import com.github.horrorho.inflatabledonkey.file.FileAssembler;
+import com.github.horrorho.inflatabledonkey.file.StreamingFileAssembler;
 import com.github.horrorho.inflatabledonkey.file.XFileKeyFactory;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -34,7 +40,9 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import static java.util.stream.Collectors.toList;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.http.client.HttpClient;
 import org.slf4j.Logger;
@@ -55,7 +63,9 @@ public final class DownloadAssistant {
     private final ForkJoinPool forkJoinPool;
     private final Optional<ForkJoinPool> forkJoinPoolAux;
     private final Donkey donkey;
+    private final ChunkReferences references;
     private final Path folder;
+    private final boolean streamAssembly;
 
     public DownloadAssistant(
             Function<Set<Asset>, List<Set<Asset>>> batchFunction,
@@ -63,33 +73,72 @@ public final class DownloadAssistant {
             ForkJoinPool forkJoinPool,
             Optional<ForkJoinPool> forkJoinPoolAux,
             Donkey donkey,
-            Path folder) {
+            ChunkReferences references,
+            Path folder,
+            boolean streamAssembly) {
 
         this.batchFunction = Objects.requireNonNull(batchFunction);
         this.keyBagManager = Objects.requireNonNull(keyBagManager);
         this.forkJoinPool = Objects.requireNonNull(forkJoinPool);
         this.forkJoinPoolAux = Objects.requireNonNull(forkJoinPoolAux);
         this.donkey = Objects.requireNonNull(donkey);
+        this.references = Objects.requireNonNull(references);
         this.folder = Objects.requireNonNull(folder);
+        this.streamAssembly = streamAssembly;
     }
 
-    public void download(HttpClient httpClient, Set<Asset> assets, Path relativePath) {
+    public DownloadAssistant(
+            Function<Set<Asset>, List<Set<Asset>>> batchFunction,
+            KeyBagManager keyBagManager,
+            ForkJoinPool forkJoinPool,
+            Optional<ForkJoinPool> forkJoinPoolAux,
+            Donkey donkey,
+            ChunkReferences references,
+            Path folder) {
+        this(batchFunction, keyBagManager, forkJoinPool, forkJoinPoolAux, donkey, references, folder, false);
+    }
+
+    public void download(HttpClient httpClient, Set<Asset> assets, Path relativePath) throws IOException {
         logger.trace("<< download() - assets: {}", assets.size());
         Path outputFolder = folder.resolve(relativePath);
         keyBagManager.update(httpClient, assets);
         XFileKeyFactory fileKeys = new XFileKeyFactory(keyBagManager::keyBag);
         FileAssembler fileAssembler = new FileAssembler(fileKeys, outputFolder);
         List<Set<Asset>> batchedAssets = batchFunction.apply(assets);
-        execute(httpClient, fileAssembler, batchedAssets);
+        try (ChunkReferenceLog log = references.log(relativePath)) {
+            if (streamAssembly) {
+                StreamingFileAssembler streaming = new StreamingFileAssembler(fileAssembler);
+                execute(httpClient, streaming.andThen(reference(log)), Optional.of(streaming), batchedAssets);
+            } else {
+                execute(httpClient, fileAssembler.andThen(reference(log)), Optional.empty(), batchedAssets);
+            }
+        }
         logger.trace(">> download()");
     }
 
-    public void execute(HttpClient httpClient, FileAssembler fileAssembler, List<Set<Asset>> batchedAssets) {
+    BiConsumer<Asset, Optional<List<Chunk>>> reference(ChunkReferenceLog log) {
+        return (asset, chunks) -> chunks.ifPresent(u -> {
+            try {
+                log.add(asset.name(), u.stream().map(Chunk::checksum).collect(toList()));
+            } catch (IOException ex) {
+                // Unreferenced chunks are only at risk of collection, they can be downloaded again.
+                logger.warn("-- reference() - failed to log chunk references: {} {}", asset.name(), ex);
+            }
+        });
+    }
+
+    public void execute(HttpClient httpClient, BiConsumer<Asset, Optional<List<Chunk>>> fileAssembler,
+            List<Set<Asset>> batchedAssets) {
+        execute(httpClient, fileAssembler, Optional.empty(), batchedAssets);
+    }
+
+    public void execute(HttpClient httpClient, BiConsumer<Asset, Optional<List<Chunk>>> fileAssembler,
+            Optional<AssetProgress> progress, List<Set<Asset>> batchedAssets) {
         logger.debug("-- execute() - threads: {} batch count: {}", forkJoinPool.getParallelism(), batchedAssets.size());
         try {
             forkJoinPool.submit(() -> batchedAssets
                     .parallelStream()
-                    .forEach(u -> donkey.apply(httpClient, forkJoinPoolAux, u, fileAssembler)))
+                    .forEach(u -> donkey.apply(httpClient, forkJoinPoolAux, u, fileAssembler, progress)))
                     .get();
 
         } catch (InterruptedException ex) {
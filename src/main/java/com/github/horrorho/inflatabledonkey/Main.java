@@ -24,8 +24,11 @@
 package com.github.horrorho.inflatabledonkey;
 
 import com.github.horrorho.inflatabledonkey.args.Property;
+import com.github.horrorho.inflatabledonkey.args.PropertyChunkStore;
+import com.github.horrorho.inflatabledonkey.args.PropertyDurability;
 import com.github.horrorho.inflatabledonkey.args.PropertyItemType;
 import com.github.horrorho.inflatabledonkey.args.PropertyLoader;
+import com.github.horrorho.inflatabledonkey.args.PropertyScrub;
 import com.github.horrorho.inflatabledonkey.args.filter.ArgsSelector;
 import com.github.horrorho.inflatabledonkey.args.filter.AssetFilter;
 import com.github.horrorho.inflatabledonkey.args.filter.AssetsFilter;
@@ -34,9 +37,27 @@ import com.github.horrorho.inflatabledonkey.args.filter.UserSelector;
 import com.github.horrorho.inflatabledonkey.cache.FileCache;
 import com.github.horrorho.inflatabledonkey.cache.InflatableData;
 import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkClient;
+import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkListDecrypter;
+import com.github.horrorho.inflatabledonkey.chunk.engine.Bandwidth;
+import com.github.horrorho.inflatabledonkey.chunk.engine.Hedger;
+import com.github.horrorho.inflatabledonkey.chunk.engine.HostLimiter;
+import com.github.horrorho.inflatabledonkey.chunk.engine.HostStats;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.chunk.store.cache.ChunkCache;
+import com.github.horrorho.inflatabledonkey.chunk.store.cache.CachingChunkStore;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkScrubber;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkScrubberReport;
 import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkSync;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkSyncs;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.ChunkCollector;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.ChunkCollectorReport;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.ChunkReferences;
+import com.github.horrorho.inflatabledonkey.chunk.store.gc.RetentionPolicy;
+import com.github.horrorho.inflatabledonkey.chunk.store.pack.PackChunkStore;
+import com.github.horrorho.inflatabledonkey.cloud.AuthorizeAssetsClient;
 import com.github.horrorho.inflatabledonkey.cloud.Donkey;
 import com.github.horrorho.inflatabledonkey.cloud.accounts.Account;
 import com.github.horrorho.inflatabledonkey.cloud.accounts.Accounts;
@@ -50,8 +71,10 @@ import com.github.horrorho.inflatabledonkey.data.backup.Snapshot;
 import com.github.horrorho.inflatabledonkey.data.der.DERUtils;
 import com.github.horrorho.inflatabledonkey.data.der.KeySet;
 import com.github.horrorho.inflatabledonkey.pcs.service.ServiceKeySet;
+import com.github.horrorho.inflatabledonkey.io.TokenBucket;
 import com.github.horrorho.inflatabledonkey.pcs.service.ServiceKeySetBuilder;
 import com.github.horrorho.inflatabledonkey.util.BatchSetIterator;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -63,7 +86,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import static java.util.stream.Collectors.toList;
@@ -186,11 +214,32 @@ public class Main {
         Path chunkOutputFolder = outputFolder.resolve("cache"); // TOFIX from Property normalize()
         Path cachedData = chunkOutputFolder.resolve("data.enc");
         Path tempOutputFolder = outputFolder.resolve("temp"); // TOFIX from Property normalize()
+        Path packOutputFolder = outputFolder.resolve("pack"); // TOFIX from Property normalize()
+        Path referencesFolder = outputFolder.resolve("refs"); // TOFIX from Property normalize()
         logger.info("-- main() - output folder backups: {}", assetOutputFolder.toAbsolutePath());
         logger.info("-- main() - output folder chunk cache: {}", chunkOutputFolder.toAbsolutePath());
         logger.info("-- main() - cached data: {}", cachedData.toAbsolutePath());
         System.out.println("\nOutput folder: " + assetOutputFolder.toAbsolutePath());
 
+        // Scrub chunk store option.
+        Optional<PropertyScrub> scrub = Property.SCRUB.as(PropertyScrub::valueOf);
+        if (scrub.isPresent()) {
+            Optional<Path> quarantineFolder = scrub.get() == PropertyScrub.QUARANTINE
+                    ? Optional.of(outputFolder.resolve("quarantine")) // TOFIX from Property normalize()
+                    : Optional.empty();
+            long scrubRate = Property.SCRUB_RATE_MB.asLong().orElse(0L) * 1024 * 1024;
+            Optional<TokenBucket> throttle = scrubRate > 0
+                    ? Optional.of(TokenBucket.perSecond(scrubRate))
+                    : Optional.empty();
+            DiskChunkScrubber scrubber = new DiskChunkScrubber(ChunkDigest::new, ChunkDigests::test,
+                    chunkOutputFolder, tempOutputFolder, quarantineFolder, throttle, threads);
+            DiskChunkScrubberReport report = scrubber.scrub();
+            System.out.println("\nChunk cache scrubbed, chunks checked: " + report.checked()
+                    + " bad: " + report.bad() + " temporary files swept: " + report.swept()
+                    + String.format(" rate: %.3f GB/s", report.gigabytesPerSecond()));
+            return;
+        }
+
         // Cached data if available
         byte[] bs = Base64.getDecoder().decode(auth.mmeAuthToken());
         byte[] cachedPassword = Arrays.copyOfRange(bs, bs.length - 16, bs.length);
@@ -237,18 +286,67 @@ public class Main {
         Property.DP_MODE.value().ifPresent(u -> logger.info("-- main() - decrypt mode override: {}", u));
 
         // Download tools.
-        DiskChunkStore chunkStore = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, chunkOutputFolder, tempOutputFolder);
+        ChunkStore baseChunkStore = chunkStore(chunkOutputFolder, tempOutputFolder, packOutputFolder);
+        long chunkCacheBytes = Property.ENGINE_CHUNK_CACHE_MB.asLong().orElse(0L) * 1024 * 1024;
+        Optional<ChunkCache> chunkCache = chunkCacheBytes > 0
+                ? Optional.of(new ChunkCache(chunkCacheBytes))
+                : Optional.empty();
+        ChunkStore chunkStore = chunkCache
+                .<ChunkStore>map(u -> new CachingChunkStore(baseChunkStore, u))
+                .orElse(baseChunkStore);
+        ChunkReferences chunkReferences = new ChunkReferences(referencesFolder);
         KeyBagManager keyBagManager = assistant.newKeyBagManager();
 
-        ChunkClient chunkClient = ChunkClient.defaults();
-
-        Donkey donkey = new Donkey(chunkClient, chunkStore, fragmentationThreshold);
-        int batchThreshold = Property.ENGINE_BATCH_THRESHOLD.asInteger().orElse(1048576);
+        Optional<Long> rangeGap = Property.ENGINE_RANGE_FETCH.asBoolean().orElse(false)
+                ? Property.ENGINE_RANGE_FETCH_GAP.asLong()
+                : Optional.empty();
+        int decryptThreads = Property.ENGINE_DECRYPT_THREADS.asInteger().orElse(0);
+        Optional<ExecutorService> decryptExecutor = decryptThreads > 0
+                ? Optional.of(Executors.newFixedThreadPool(decryptThreads, daemonThreads("decrypt")))
+                : Optional.empty();
+        ChunkListDecrypter decrypter = decryptExecutor
+                .map(u -> ChunkListDecrypter.pipelined(u, Property.ENGINE_DECRYPT_IN_FLIGHT.asInteger().orElse(64)))
+                .orElse(ChunkListDecrypter.instance());
+        logger.info("-- main() - decrypt threads: {}", decryptThreads);
+        int hedgePercentile = Property.ENGINE_HEDGE_PERCENTILE.asInteger().orElse(0);
+        Optional<ScheduledExecutorService> hedgeScheduler = hedgePercentile > 0
+                ? Optional.of(Executors.newSingleThreadScheduledExecutor(daemonThreads("hedge-monitor")))
+                : Optional.empty();
+        Optional<ExecutorService> hedgeExecutor = hedgePercentile > 0
+                ? Optional.of(Executors.newCachedThreadPool(daemonThreads("hedge")))
+                : Optional.empty();
+        Optional<Hedger> hedger = hedgeScheduler
+                .map(u -> new Hedger(u, hedgeExecutor.get(), hedgePercentile,
+                        Property.ENGINE_HEDGE_DELAY_MS.asLong().orElse(2000L),
+                        Property.ENGINE_HEDGE_MAX.asInteger().orElse(4),
+                        Property.ENGINE_HEDGE_WINDOW.asInteger().orElse(128)));
+        logger.info("-- main() - hedge percentile: {}", hedgePercentile);
+        ChunkClient chunkClient = ChunkClient.of(
+                rangeGap,
+                Property.ENGINE_RETRIES.asInteger().orElse(3),
+                Property.ENGINE_RETRY_BACKOFF_MS.asLong().orElse(500L),
+                decrypter,
+                hostLimiter(),
+                bandwidth(),
+                hedger);
+
+        ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("renew"));
+        long renewMarginMs = Property.ENGINE_RENEW_MARGIN_MS.asLong().orElse(600000L);
+        logger.info("-- main() - container renew margin (ms): {}", renewMarginMs);
+        int authorizeThreads = Property.ENGINE_AUTHORIZE_THREADS.asInteger().orElse(4);
+        ExecutorService authorizeExecutor = Executors.newFixedThreadPool(authorizeThreads, daemonThreads("authorize"));
+        AuthorizeAssetsClient authorizeAssets = AuthorizeAssetsClient.backupd(authorizeExecutor,
+                Property.ENGINE_AUTHORIZE_BATCH.asInteger().orElse(1024));
+        logger.info("-- main() - authorize threads: {}", authorizeThreads);
+        Donkey donkey = new Donkey(chunkClient, chunkStore, fragmentationThreshold, renewExecutor, renewMarginMs,
+                authorizeAssets);
+        long batchThreshold = Property.ENGINE_BATCH_THRESHOLD.asLong().orElse(1048576L);
 
         Function<Set<Asset>, List<Set<Asset>>> batchFunction
-                = u -> BatchSetIterator.batchedSetList(u, a -> a.size().map(Long::intValue).orElse(0), batchThreshold);
+                = u -> BatchSetIterator.batchedSetList(u, a -> a.size().orElse(0L), batchThreshold);
         DownloadAssistant downloadAssistant
-                = new DownloadAssistant(batchFunction, keyBagManager, forkJoinPool, forkJoinPoolAux, donkey, outputFolder);
+                = new DownloadAssistant(batchFunction, keyBagManager, forkJoinPool, forkJoinPoolAux, donkey, chunkReferences,
+                        outputFolder, Property.FILE_STREAM_ASSEMBLY.asBoolean().orElse(false));
         Backup backup = new Backup(assistant, downloadAssistant);
 
         // Retrieve snapshots.
@@ -350,6 +448,115 @@ public class Main {
         Predicate<Snapshot> snapshotFilter = new SnapshotFilter(snapshotDateMin);
 
         backup.download(httpClient, filtered, snapshotFilter, assetsFilter, assetFilter);
+        chunkCache.ifPresent(u -> logger.info("-- main() - chunk cache: {}", u));
+        if (chunkClient.hedges() > 0) {
+            System.out.println("\nHedged container downloads: " + chunkClient.hedges()
+                    + " won: " + chunkClient.hedgesWon());
+        }
+        if (chunkClient.resumes() > 0) {
+            System.out.println("\nResumed container downloads: " + chunkClient.resumes()
+                    + " bytes saved: " + chunkClient.resumeBytesSaved());
+        }
+
+        List<HostStats> hostStats = chunkClient.hostStats();
+        if (!hostStats.isEmpty()) {
+            System.out.println("\nStorage hosts:");
+            hostStats.forEach(u -> System.out.println(String.format("%s limit: %d circuit: %s requests: %d failures: %d"
+                    + " opened: %d bytes: %d MB/s: %.2f", u.hostname(), u.limit(), u.circuit(), u.requests(),
+                    u.failures(), u.opened(), u.bytes(), u.megabytesPerSecond())));
+        }
+
+        // Garbage collect chunks option.
+        Optional<Integer> retainSnapshots = Property.GC_RETAIN_SNAPSHOTS.asInteger();
+        if (retainSnapshots.isPresent()) {
+            ChunkCollector collector = new ChunkCollector(chunkStore, chunkReferences,
+                    RetentionPolicy.keepLast(retainSnapshots.get()), new ChunkDigest().getDigestSize(), threads);
+            ChunkCollectorReport report = collector.collect();
+            System.out.println("\nChunk cache collected, retained snapshots: " + report.retainedSnapshots()
+                    + " chunks deleted: " + report.deleted() + " bytes reclaimed: " + report.bytes());
+        }
+
+        decryptExecutor.ifPresent(ExecutorService::shutdown);
+        renewExecutor.shutdown();
+        authorizeExecutor.shutdown();
+        hedgeScheduler.ifPresent(ExecutorService::shutdown);
+        hedgeExecutor.ifPresent(ExecutorService::shutdown);
+
+        if (baseChunkStore instanceof Closeable) {
+            ((Closeable) baseChunkStore).close();
+        }
+    }
+
+    static ChunkStore chunkStore(Path chunkFolder, Path tempFolder, Path packFolder) throws IOException {
+        PropertyChunkStore type = Property.PATH_CHUNK_STORE_TYPE.as(PropertyChunkStore::valueOf)
+                .orElse(PropertyChunkStore.DISK);
+        logger.info("-- chunkStore() - type: {}", type);
+        switch (type) {
+            case PACK:
+                return new PackChunkStore(ChunkDigest::new, ChunkDigests::test, packFolder);
+            case DISK:
+            default:
+                boolean compress = Property.PATH_CHUNK_STORE_COMPRESS.asBoolean().orElse(false);
+                return new DiskChunkStore(compress, chunkSync(chunkFolder, tempFolder),
+                        ChunkDigest::new, ChunkDigests::test, chunkFolder, tempFolder);
+        }
+    }
+
+    static HostLimiter hostLimiter() {
+        int max = Property.ENGINE_HOST_CONCURRENCY_MAX.asInteger().orElse(0);
+        if (max < 1) {
+            logger.info("-- hostLimiter() - host concurrency: unlimited");
+            return HostLimiter.unlimited();
+        }
+        int initial = Math.min(max, Property.ENGINE_HOST_CONCURRENCY_INITIAL.asInteger().orElse(max));
+        int failures = Property.ENGINE_HOST_FAILURES_OPEN.asInteger().orElse(5);
+        logger.info("-- hostLimiter() - host concurrency initial: {} max: {} failures to open: {}",
+                initial, max, failures);
+        return new HostLimiter(initial, max, failures);
+    }
+
+    static Bandwidth bandwidth() {
+        long globalKB = Property.ENGINE_BANDWIDTH_KB.asLong().orElse(0L);
+        List<String> hosts = Property.ENGINE_HOST_BANDWIDTH_KB.asList().orElse(Collections.emptyList());
+        long hostKB = hosts.stream()
+                .filter(u -> u.indexOf('=') == -1)
+                .mapToLong(Long::parseLong)
+                .reduce((a, b) -> b)
+                .orElse(0L);
+        Bandwidth bandwidth = new Bandwidth(globalKB * 1024, hostKB * 1024);
+        hosts.stream()
+                .filter(u -> u.indexOf('=') != -1)
+                .forEach(u -> {
+                    int index = u.lastIndexOf('=');
+                    bandwidth.setHostRate(u.substring(0, index), Long.parseLong(u.substring(index + 1)) * 1024);
+                });
+        logger.info("-- bandwidth() - {}", bandwidth);
+        return bandwidth;
+    }
+
+    static DiskChunkSync chunkSync(Path chunkFolder, Path tempFolder) {
+        PropertyDurability durability = Property.PATH_CHUNK_STORE_DURABILITY.as(PropertyDurability::valueOf)
+                .orElse(PropertyDurability.NONE);
+        logger.info("-- chunkSync() - durability: {}", durability);
+        switch (durability) {
+            case GROUP:
+                long intervalMs = Property.PATH_CHUNK_STORE_GROUP_SYNC_MS.asLong().orElse(1000L);
+                return DiskChunkSyncs.group(chunkFolder, tempFolder, intervalMs);
+            case SYNC:
+                return DiskChunkSyncs.immediate(chunkFolder);
+            case NONE:
+            default:
+                return DiskChunkSyncs.none();
+        }
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     static void print(Map<Device, List<Snapshot>> deviceSnapshot) {
@@ -70,6 +70,23 @@ public final class ArgsFactory {
         args.add(filterStatusMin());
         args.add(filterStatusMax());
         args.add(mode());
+        args.add(store());
+        args.add(compress());
+        args.add(durability());
+        args.add(gc());
+        args.add(scrub());
+        args.add(scrubRate());
+        args.add(chunkCache());
+        args.add(authorizeThreads());
+        args.add(decryptThreads());
+        args.add(crypto());
+        args.add(bandwidth());
+        args.add(hedge());
+        args.add(hostBandwidth());
+        args.add(hostConcurrency());
+        args.add(rangeFetch());
+        args.add(retries());
+        args.add(streamAssembly());
         args.add(threads());
         args.add(turbo());
         args.add(snapshots());
@@ -79,6 +96,69 @@ public final class ArgsFactory {
         return args;
     }
 
+    static Arg authorizeThreads() {
+        Option option = Option.builder()
+                .longOpt("authorize-threads")
+                .desc("Concurrent asset authorization requests." + defaultValue(Property.ENGINE_AUTHORIZE_THREADS))
+                .argName("int")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_AUTHORIZE_THREADS, option, ArgsFactory::mapNumber);
+    }
+
+    static Arg bandwidth() {
+        Option option = Option.builder()
+                .longOpt("bandwidth")
+                .desc("Global download cap in KB/s, 0 for unlimited." + defaultValue(Property.ENGINE_BANDWIDTH_KB))
+                .argName("KB/s")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_BANDWIDTH_KB, option, ArgsFactory::mapRateKB);
+    }
+
+    static Arg chunkCache() {
+        Option option = Option.builder()
+                .longOpt("chunk-cache")
+                .desc("In-memory chunk cache size, 0 to disable." + defaultValue(Property.ENGINE_CHUNK_CACHE_MB))
+                .argName("MB")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_CHUNK_CACHE_MB, option, ArgsFactory::mapNumber);
+    }
+
+    static Arg crypto() {
+        Option option = Option.builder()
+                .longOpt("crypto")
+                .desc("AES engine provider: "
+                        + optionsDefault(PropertyCryptoProvider.class, Property.CRYPTO_PROVIDER))
+                .argName("provider")
+                .hasArg()
+                .build();
+        return new Arg(Property.CRYPTO_PROVIDER, option, mapEnum(PropertyCryptoProvider::valueOf));
+    }
+
+    static Arg decryptThreads() {
+        Option option = Option.builder()
+                .longOpt("decrypt-threads")
+                .desc("Chunk decryption worker threads, 0 to decrypt on the download threads."
+                        + defaultValue(Property.ENGINE_DECRYPT_THREADS))
+                .argName("int")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_DECRYPT_THREADS, option, ArgsFactory::mapNumber);
+    }
+
+    static Arg durability() {
+        Option option = Option.builder()
+                .longOpt("durability")
+                .desc("DISK store chunk commit durability: "
+                        + optionsDefault(PropertyDurability.class, Property.PATH_CHUNK_STORE_DURABILITY))
+                .argName("mode")
+                .hasArg()
+                .build();
+        return new Arg(Property.PATH_CHUNK_STORE_DURABILITY, option, mapEnum(PropertyDurability::valueOf));
+    }
+
     static Arg filterBirthMax() {
         Option option = Option.builder()
                 .longOpt("date-max")
@@ -201,6 +281,28 @@ public final class ArgsFactory {
         return new Arg(Property.FILTER_ASSET_STATUS_CHANGED_MIN, option, ArgsFactory::mapTimestamp);
     }
 
+    static Arg gc() {
+        Option option = Option.builder()
+                .longOpt("gc")
+                .desc("After downloading, delete cached chunks of older snapshots not referenced by the last n "
+                        + "snapshots per device.")
+                .argName("int")
+                .hasArg()
+                .build();
+        return new Arg(Property.GC_RETAIN_SNAPSHOTS, option, ArgsFactory::mapNumber);
+    }
+
+    static Arg hedge() {
+        Option option = Option.builder()
+                .longOpt("hedge")
+                .desc("Hedge container downloads slower than this percentile of recent downloads, 0 to disable."
+                        + defaultValue(Property.ENGINE_HEDGE_PERCENTILE))
+                .argName("percentile")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_HEDGE_PERCENTILE, option, ArgsFactory::mapPercentile);
+    }
+
     static Arg help() {
         Option option = Option.builder()
                 .longOpt("help")
@@ -210,6 +312,27 @@ public final class ArgsFactory {
         return new Arg(Property.ARGS_HELP, option);
     }
 
+    static Arg hostBandwidth() {
+        Option option = Option.builder()
+                .longOpt("host-bandwidth")
+                .desc("Per storage host download cap in KB/s, with optional host=KB/s overrides, 0 for unlimited.")
+                .argName("[host=]KB/s")
+                .hasArgs()
+                .build();
+        return new Arg(Property.ENGINE_HOST_BANDWIDTH_KB, option, ArgsFactory::mapHostRateKB);
+    }
+
+    static Arg hostConcurrency() {
+        Option option = Option.builder()
+                .longOpt("host-concurrency")
+                .desc("Maximum adaptive concurrent requests per storage host, 0 to disable."
+                        + defaultValue(Property.ENGINE_HOST_CONCURRENCY_MAX))
+                .argName("int")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_HOST_CONCURRENCY_MAX, option, ArgsFactory::mapNumber);
+    }
+
     static Arg mode() {
         Option option = Option.builder()
                 .longOpt("mode")
@@ -230,6 +353,47 @@ public final class ArgsFactory {
         return new Arg(Property.OUTPUT_FOLDER, option);
     }
 
+    static Arg rangeFetch() {
+        Option option = Option.builder()
+                .longOpt("range-fetch")
+                .desc("Fetch only the missing chunks of partially cached containers using HTTP Range requests.")
+                .hasArg(false)
+                .build();
+        return new Arg(Property.ENGINE_RANGE_FETCH, option);
+    }
+
+    static Arg retries() {
+        Option option = Option.builder()
+                .longOpt("retries")
+                .desc("Interrupted container download retries, resumed from the first missing chunk."
+                        + defaultValue(Property.ENGINE_RETRIES))
+                .argName("int")
+                .hasArg()
+                .build();
+        return new Arg(Property.ENGINE_RETRIES, option, ArgsFactory::mapNumber);
+    }
+
+    static Arg scrub() {
+        Option option = Option.builder()
+                .longOpt("scrub")
+                .desc("Verify DISK store chunks, sweep temporary files and exit. Corrupt chunks: "
+                        + values(PropertyScrub.class) + ".")
+                .argName("action")
+                .hasArg()
+                .build();
+        return new Arg(Property.SCRUB, option, mapEnum(PropertyScrub::valueOf));
+    }
+
+    static Arg scrubRate() {
+        Option option = Option.builder()
+                .longOpt("scrub-rate")
+                .desc("Scrub read rate limit, 0 for unlimited." + defaultValue(Property.SCRUB_RATE_MB))
+                .argName("MB/s")
+                .hasArg()
+                .build();
+        return new Arg(Property.SCRUB_RATE_MB, option, ArgsFactory::mapNumber);
+    }
+
     static Arg snapshots() {
         Option option = Option.builder()
                 .longOpt("snapshots")
@@ -239,6 +403,15 @@ public final class ArgsFactory {
         return new Arg(Property.PRINT_SNAPSHOTS, option);
     }
 
+    static Arg compress() {
+        Option option = Option.builder()
+                .longOpt("compress")
+                .desc("Deflate compress DISK store chunks.")
+                .hasArg(false)
+                .build();
+        return new Arg(Property.PATH_CHUNK_STORE_COMPRESS, option);
+    }
+
     static Arg domains() {
         Option option = Option.builder()
                 .longOpt("domains")
@@ -248,6 +421,26 @@ public final class ArgsFactory {
         return new Arg(Property.PRINT_DOMAIN_LIST, option, ArgsFactory::mapToLowerCase);
     }
 
+    static Arg store() {
+        Option option = Option.builder()
+                .longOpt("store")
+                .desc("Chunk store: " + optionsDefault(PropertyChunkStore.class, Property.PATH_CHUNK_STORE_TYPE)
+                        + " PACK does not reclaim the space of deleted chunks.")
+                .argName("type")
+                .hasArg()
+                .build();
+        return new Arg(Property.PATH_CHUNK_STORE_TYPE, option, mapEnum(PropertyChunkStore::valueOf));
+    }
+
+    static Arg streamAssembly() {
+        Option option = Option.builder()
+                .longOpt("stream-assembly")
+                .desc("Assemble large files incrementally as their containers arrive.")
+                .hasArg(false)
+                .build();
+        return new Arg(Property.FILE_STREAM_ASSEMBLY, option);
+    }
+
     static Arg threads() {
         Option option = Option.builder()
                 .longOpt("threads")
@@ -313,6 +506,34 @@ public final class ArgsFactory {
         return "" + Long.parseLong(number);
     }
 
+    static String mapRateKB(String rate) {
+        long kb = Long.parseLong(rate);
+        // Scaled to bytes per second.
+        if (kb < 0 || kb > Long.MAX_VALUE / 1024) {
+            throw new IllegalArgumentException("bad rate: " + rate);
+        }
+        return "" + kb;
+    }
+
+    static String mapPercentile(String percentile) {
+        long p = Long.parseLong(percentile);
+        // 0 disables.
+        if (p < 0 || p > 99) {
+            throw new IllegalArgumentException("bad percentile: " + percentile);
+        }
+        return "" + p;
+    }
+
+    static String mapHostRateKB(String hostRate) {
+        int index = hostRate.lastIndexOf('=');
+        if (index == 0) {
+            throw new IllegalArgumentException("missing host: " + hostRate);
+        }
+        return index == -1
+                ? mapRateKB(hostRate)
+                : hostRate.substring(0, index).toLowerCase(Locale.US) + "=" + mapRateKB(hostRate.substring(index + 1));
+    }
+
     static String mapTimestamp(String date) {
         return "" + LocalDate.parse(date, DateTimeFormatter.ISO_DATE)
                 .atStartOfDay(ZoneId.systemDefault())
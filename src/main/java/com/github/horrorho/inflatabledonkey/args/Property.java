@@ -52,12 +52,32 @@ public enum Property {
     AUTHENTICATION_APPLEID,
     AUTHENTICATION_PASSWORD,
     AUTHENTICATION_TOKEN,
+    CRYPTO_PROVIDER("AUTO"),
     DP_AESCBC_BLOCK_SIZE("4096"),
     DP_AESXTS_BLOCK_SIZE("4096"),
     DP_MODE("AUTO"),
+    ENGINE_AUTHORIZE_BATCH("1024"),
+    ENGINE_AUTHORIZE_THREADS("4"),
+    ENGINE_BANDWIDTH_KB("0"),
     ENGINE_BATCH_THRESHOLD("1048576"),
+    ENGINE_CHUNK_CACHE_MB("0"),
+    ENGINE_DECRYPT_IN_FLIGHT("64"),
+    ENGINE_DECRYPT_THREADS("0"),
     ENGINE_FRAGMENTATION_THRESHOLD("64"),
+    ENGINE_HEDGE_DELAY_MS("2000"),
+    ENGINE_HEDGE_MAX("4"),
+    ENGINE_HEDGE_PERCENTILE("0"),
+    ENGINE_HEDGE_WINDOW("128"),
+    ENGINE_HOST_BANDWIDTH_KB,
+    ENGINE_HOST_CONCURRENCY_INITIAL("4"),
+    ENGINE_HOST_CONCURRENCY_MAX("32"),
+    ENGINE_HOST_FAILURES_OPEN("5"),
     ENGINE_FRAGMENTATION_POOL_MULTIPLIER("2"),
+    ENGINE_RANGE_FETCH("false"),
+    ENGINE_RANGE_FETCH_GAP("65536"),
+    ENGINE_RENEW_MARGIN_MS("600000"),
+    ENGINE_RETRIES("3"),
+    ENGINE_RETRY_BACKOFF_MS("500"),
     ENGINE_THREADS("4"),
     FILTER_ASSET_BIRTH_MAX(),
     FILTER_ASSET_BIRTH_MIN(),
@@ -71,7 +91,9 @@ public enum Property {
     FILTER_ASSET_STATUS_CHANGED_MIN(),
     FILTER_DEVICE(),
     FILTER_SNAPSHOT(),
+    FILE_STREAM_ASSEMBLY("false"),
     FILE_WRITER_BUFFER_LENGTH("16384"),
+    GC_RETAIN_SNAPSHOTS(),
     HTTP_CLIENT_CONNECTIONS_MAX_TOTAL("256"),
     HTTP_CLIENT_CONNECTIONS_MAX_PER_ROUTE("32"),
     HTTP_CLIENT_TIMEOUT_MS("60000"),
@@ -79,8 +101,14 @@ public enum Property {
     PRINT_DOMAIN_LIST("false"),
     PRINT_SNAPSHOTS("false"),
     PATH_CHUNK_STORE("chunks"),
+    PATH_CHUNK_STORE_COMPRESS("false"),
+    PATH_CHUNK_STORE_DURABILITY("NONE"),
+    PATH_CHUNK_STORE_GROUP_SYNC_MS("1000"),
+    PATH_CHUNK_STORE_TYPE("DISK"),
     PATH_CHUNK_STORE_SUBSPLIT("3"),
     PATH_TEMP("temp"),
+    SCRUB(),
+    SCRUB_RATE_MB("0"),
     SRP_REMAINING_ATTEMPTS_THRESHOLD("3"),
     PROPERTIES_RESOURCE("/inflatable_donkey.properties");
 
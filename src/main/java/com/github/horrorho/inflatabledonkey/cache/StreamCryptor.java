@@ -23,6 +23,7 @@
  */
 package com.github.horrorho.inflatabledonkey.cache;
 
+import com.github.horrorho.inflatabledonkey.crypto.AESProviders;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -30,7 +31,6 @@ import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
 import net.jcip.annotations.Immutable;
 import org.apache.commons.io.IOUtils;
-import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.io.CipherInputStream;
 import org.bouncycastle.crypto.io.CipherOutputStream;
 import org.bouncycastle.crypto.modes.GCMBlockCipher;
@@ -78,7 +78,7 @@ public final class StreamCryptor {
         os.write(salt);
         os.write(nonce);
         byte[] dk = kdf.apply(password, salt);
-        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        GCMBlockCipher cipher = new GCMBlockCipher(AESProviders.instance().engine());
         AEADParameters parameters = new AEADParameters(new KeyParameter(dk), tagLength * 8, nonce);
         cipher.init(true, parameters);
         return new CipherOutputStream(os, cipher);
@@ -88,7 +88,7 @@ public final class StreamCryptor {
         byte[] salt = IOUtils.readFully(is, saltLength);
         byte[] nonce = IOUtils.readFully(is, nonceLength);
         byte[] dk = kdf.apply(password, salt);
-        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        GCMBlockCipher cipher = new GCMBlockCipher(AESProviders.instance().engine());
         AEADParameters parameters = new AEADParameters(new KeyParameter(dk), tagLength * 8, nonce);
         cipher.init(false, parameters);
         return new CipherInputStream(is, cipher);
@@ -25,8 +25,10 @@ package com.github.horrorho.inflatabledonkey.chunk;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.io.IOUtils;
 
 /**
  * Chunk. SHALL implement hashcode/ equals methods based solely on the chunk checksum. Not immutable, as the underlying
@@ -40,4 +42,20 @@ public interface Chunk {
     byte[] checksum();
 
     Optional<InputStream> inputStream() throws IOException;
+
+    /**
+     * Returns the chunk data as a read only ByteBuffer, which implementations may back with a mapped file region.
+     *
+     * @return ByteBuffer, or empty if the chunk data has been deleted
+     * @throws IOException
+     */
+    default Optional<ByteBuffer> buffer() throws IOException {
+        Optional<InputStream> inputStream = inputStream();
+        if (!inputStream.isPresent()) {
+            return Optional.empty();
+        }
+        try (InputStream is = inputStream.get()) {
+            return Optional.of(ByteBuffer.wrap(IOUtils.toByteArray(is)).asReadOnlyBuffer());
+        }
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import com.github.horrorho.inflatabledonkey.io.ThrottledInputStream;
+import com.github.horrorho.inflatabledonkey.io.TokenBucket;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Container stream bandwidth caps: an optional global cap and optional per storage host caps, in bytes per second.
+ * Caps may be adjusted at runtime and apply to streams already in flight. A rate of 0 is unlimited.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class Bandwidth {
+
+    public static Bandwidth unlimited() {
+        return new Bandwidth(0, 0);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(Bandwidth.class);
+
+    private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Long> hostRates = new ConcurrentHashMap<>();
+    private volatile Optional<TokenBucket> global = Optional.empty();
+    @GuardedBy("this")
+    private long defaultHostRate;
+
+    /**
+     * @param globalRate global cap, 0 for unlimited
+     * @param defaultHostRate per host cap, 0 for unlimited
+     */
+    public Bandwidth(long globalRate, long defaultHostRate) {
+        setGlobalRate(globalRate);
+        setDefaultHostRate(defaultHostRate);
+    }
+
+    public synchronized void setGlobalRate(long rate) {
+        logger.debug("-- setGlobalRate() - rate: {}", rate);
+        validate(rate);
+        if (rate == 0) {
+            global = Optional.empty();
+        } else if (global.isPresent()) {
+            global.get().setRate(rate);
+        } else {
+            global = Optional.of(TokenBucket.perSecond(rate));
+        }
+    }
+
+    /**
+     * @param rate cap for hosts without a specific cap
+     */
+    public synchronized void setDefaultHostRate(long rate) {
+        logger.debug("-- setDefaultHostRate() - rate: {}", rate);
+        validate(rate);
+        defaultHostRate = rate;
+        hostBuckets.keySet().forEach(this::update);
+    }
+
+    /**
+     * @param hostname
+     * @param rate specific host cap
+     */
+    public synchronized void setHostRate(String hostname, long rate) {
+        logger.debug("-- setHostRate() - host: {} rate: {}", hostname, rate);
+        validate(rate);
+        hostRates.put(Objects.requireNonNull(hostname, "hostname"), rate);
+        update(hostname);
+    }
+
+    /**
+     * Reverts the host to the default cap.
+     *
+     * @param hostname
+     */
+    public synchronized void clearHostRate(String hostname) {
+        hostRates.remove(hostname);
+        update(hostname);
+    }
+
+    public Optional<Long> globalRate() {
+        return global.map(TokenBucket::ratePerSecond);
+    }
+
+    public synchronized long hostRate(String hostname) {
+        return hostRates.getOrDefault(hostname, defaultHostRate);
+    }
+
+    @GuardedBy("this")
+    void update(String hostname) {
+        long rate = hostRate(hostname);
+        if (rate == 0) {
+            hostBuckets.remove(hostname);
+        } else {
+            hostBuckets.compute(hostname, (k, v) -> {
+                if (v == null) {
+                    return TokenBucket.perSecond(rate);
+                }
+                v.setRate(rate);
+                return v;
+            });
+        }
+    }
+
+    void validate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("bad rate: " + rate);
+        }
+    }
+
+    /**
+     * @param hostname
+     * @param in container stream
+     * @return throttled stream
+     */
+    public InputStream throttle(String hostname, InputStream in) {
+        return new ThrottledInputStream(in, n -> acquire(hostname, n));
+    }
+
+    void acquire(String hostname, long n) throws InterruptedIOException {
+        long wait = global.map(u -> u.reserve(n)).orElse(0L);
+        TokenBucket host = hostBucket(hostname);
+        if (host != null) {
+            wait = Math.max(wait, host.reserve(n));
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("throttle interrupted");
+            }
+        }
+    }
+
+    TokenBucket hostBucket(String hostname) {
+        TokenBucket bucket = hostBuckets.get(hostname);
+        if (bucket != null || hostRate(hostname) == 0) {
+            return bucket;
+        }
+        synchronized (this) {
+            update(hostname);
+            return hostBuckets.get(hostname);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Bandwidth{"
+                + "global=" + global
+                + ", defaultHostRate=" + defaultHostRate
+                + ", hostRates=" + hostRates
+                + '}';
+    }
+}
@@ -24,18 +24,35 @@
 package com.github.horrorho.inflatabledonkey.chunk.engine;
 
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.exception.BadDataException;
+import com.github.horrorho.inflatabledonkey.exception.ContainerExpiredException;
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import com.github.horrorho.inflatabledonkey.io.IOBiFunction;
 import com.github.horrorho.inflatabledonkey.io.IOFunction;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.HostInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.github.horrorho.inflatabledonkey.requests.ByteRange;
 import com.github.horrorho.inflatabledonkey.requests.ChunkListRequestFactory;
 import com.github.horrorho.inflatabledonkey.responsehandler.InputStreamResponseHandler;
+import com.github.horrorho.inflatabledonkey.responsehandler.RangeResponseHandler;
+import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import static java.util.stream.Collectors.toList;
-import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.slf4j.Logger;
@@ -43,10 +60,20 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Fetches and decrypts chunk data from the server.
+ * <p>
+ * Optionally, partially cached containers are fetched with Range requests covering only the missing chunks. Ranges
+ * separated by no more than the specified gap are coalesced. Servers ignoring Range headers are handled, the full
+ * container is then decrypted from the first response.
+ * <p>
+ * Interrupted transfers are retried, with exponential backoff and jitter, up to the specified number of times. Retries
+ * resume with a Range request from the offset of the first uncommitted chunk. Corrupt data and client errors are not
+ * retried.
+ * <p>
+ * Optionally, stalled transfers are hedged with a Range request from the first uncommitted chunk.
  *
  * @author Ahseya
  */
-@Immutable
+@ThreadSafe
 public final class ChunkClient {
 
     public static ChunkClient defaults() {
@@ -57,17 +84,80 @@ public final class ChunkClient {
 
     // TODO inject
     private static final long DEFAULT_EXPIRY_TIMESTAMP_GRACE = -5 * 60 * 1000;  // Negative 5 min grace period.
+    private static final int DEFAULT_RETRIES = 3;
+    private static final long DEFAULT_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
 
     private static final ChunkClient DEFAULTS
             = new ChunkClient(ChunkListRequestFactory.instance(), DEFAULT_EXPIRY_TIMESTAMP_GRACE);
-    private static final ChunkListDecrypter DECRYPTER = ChunkListDecrypter.instance();
+
+    private static final Comparator<ChunkInfo> CHUNK_OFFSET_COMPARATOR
+            = Comparator.comparingLong(ChunkRanges::offset);
+
+    /**
+     * @param rangeGap if present, partially cached containers are fetched with Range requests coalescing missing
+     * chunks separated by no more than the specified number of bytes
+     * @param retries maximum retries per container
+     * @param backoffMs initial backoff
+     * @param decrypter serial or pipelined decrypter
+     * @param limiter per storage host concurrency limiter
+     * @param bandwidth container stream bandwidth caps
+     * @param hedger if present, stalled transfers are hedged
+     * @return client
+     */
+    public static ChunkClient of(Optional<Long> rangeGap, int retries, long backoffMs, ChunkListDecrypter decrypter,
+            HostLimiter limiter, Bandwidth bandwidth, Optional<Hedger> hedger) {
+        ChunkListRequestFactory factory = ChunkListRequestFactory.instance();
+        return new ChunkClient(factory, factory::apply, DEFAULT_EXPIRY_TIMESTAMP_GRACE, rangeGap, retries, backoffMs,
+                decrypter, limiter, bandwidth, hedger);
+    }
 
     private final Function<HostInfo, HttpUriRequest> requestFactory;
+    private final BiFunction<HostInfo, ByteRange, HttpUriRequest> rangeRequestFactory;
     private final long expiryTimestampGrace;
+    private final Optional<Long> rangeGap;
+    private final int retries;
+    private final long backoffMs;
+    private final ChunkListDecrypter decrypter;
+    private final HostLimiter limiter;
+    private final Bandwidth bandwidth;
+    private final Optional<Hedger> hedger;
+    private final LongAdder resumes = new LongAdder();
+    private final LongAdder resumeBytesSaved = new LongAdder();
 
-    public ChunkClient(Function<HostInfo, HttpUriRequest> requestFactory, long expiryTimestampGrace) {
+    public ChunkClient(Function<HostInfo, HttpUriRequest> requestFactory,
+            BiFunction<HostInfo, ByteRange, HttpUriRequest> rangeRequestFactory, long expiryTimestampGrace,
+            Optional<Long> rangeGap, int retries, long backoffMs, ChunkListDecrypter decrypter, HostLimiter limiter,
+            Bandwidth bandwidth, Optional<Hedger> hedger) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("bad retry count: " + retries);
+        }
+        if (backoffMs < 0) {
+            throw new IllegalArgumentException("bad backoff: " + backoffMs);
+        }
         this.requestFactory = Objects.requireNonNull(requestFactory);
+        this.rangeRequestFactory = Objects.requireNonNull(rangeRequestFactory);
         this.expiryTimestampGrace = expiryTimestampGrace;
+        this.rangeGap = Objects.requireNonNull(rangeGap);
+        this.retries = retries;
+        this.backoffMs = backoffMs;
+        this.decrypter = Objects.requireNonNull(decrypter);
+        this.limiter = Objects.requireNonNull(limiter);
+        this.bandwidth = Objects.requireNonNull(bandwidth);
+        this.hedger = Objects.requireNonNull(hedger);
+    }
+
+    public ChunkClient(Function<HostInfo, HttpUriRequest> requestFactory,
+            BiFunction<HostInfo, ByteRange, HttpUriRequest> rangeRequestFactory, long expiryTimestampGrace,
+            Optional<Long> rangeGap, int retries, long backoffMs, ChunkListDecrypter decrypter) {
+        this(requestFactory, rangeRequestFactory, expiryTimestampGrace, rangeGap, retries, backoffMs, decrypter,
+                HostLimiter.unlimited(), Bandwidth.unlimited(),
+                Optional.empty());
+    }
+
+    public ChunkClient(Function<HostInfo, HttpUriRequest> requestFactory, long expiryTimestampGrace) {
+        this(requestFactory, (u, v) -> requestFactory.apply(u), expiryTimestampGrace, Optional.empty(),
+                DEFAULT_RETRIES, DEFAULT_BACKOFF_MS, ChunkListDecrypter.instance());
     }
 
     /**
@@ -77,36 +167,253 @@ public final class ChunkClient {
      * @param store
      * @throws IOException
      * @throws IllegalArgumentException on non 0x01 chunk keys
+     * @throws ContainerExpiredException if the container has expired
      */
     public void apply(HttpClient client, StorageHostChunkList container, ChunkStore store) throws IOException {
-        List<byte[]> checksums = checksums(container);
-        if (store.allChunks(checksums).isPresent()) {
-            logger.debug("-- apply() - all chunks are already present in the store");
-            return;
+        List<ChunkInfo> chunkInfos = container.getChunkInfoList()
+                .stream()
+                .sorted(CHUNK_OFFSET_COMPARATOR)
+                .collect(toList());
+        List<ByteString> checksums = checksums(chunkInfos);
+        BitSet previous = null;
+
+        for (int attempt = 0;; attempt++) {
+            BitSet present = store.contains(checksums);
+            if (present.cardinality() == chunkInfos.size()) {
+                logger.debug("-- apply() - all chunks are already present in the store");
+                return;
+            }
+            // Chunks committed by the failed attempt, if any.
+            Optional<BitSet> committed = Optional.ofNullable(previous)
+                    .map(u -> {
+                        BitSet bitSet = (BitSet) present.clone();
+                        bitSet.andNot(u);
+                        return bitSet;
+                    });
+            previous = present;
+            HostLimiter.Permit permit = limiter.acquire(container.getHostInfo().getHostname());
+            try {
+                if (container.getHostInfo().getExpiry() + expiryTimestampGrace < System.currentTimeMillis()) {
+                    throw new ContainerExpiredException("container has expired");
+                }
+                long bytes = fetch(client, store, container, chunkInfos, checksums, present, committed);
+                permit.success(bytes);
+                return;
+
+            } catch (IOException ex) {
+                boolean isRetryable = isRetryable(ex);
+                if (isRetryable) {
+                    permit.failure();
+                } else {
+                    permit.cancel();
+                }
+                if (attempt >= retries || !isRetryable) {
+                    throw ex;
+                }
+                logger.debug("-- apply() - attempt: {} {} {}",
+                        attempt, ex.getClass().getCanonicalName(), ex.getMessage());
+                backoff(attempt);
+            } finally {
+                permit.cancel();
+            }
         }
-        if (container.getHostInfo().getExpiry() + expiryTimestampGrace < System.currentTimeMillis()) {
-            // TOFIX more specific exception
-            throw new IllegalStateException("container has expired");
+    }
+
+    /**
+     * @return bytes requested
+     */
+    long fetch(HttpClient client, ChunkStore store, StorageHostChunkList container, List<ChunkInfo> chunkInfos,
+            List<ByteString> checksums, BitSet present, Optional<BitSet> committed) throws IOException {
+        if (!hedger.isPresent()) {
+            return fetch(client, store, container, chunkInfos, present, committed, new Hedger.Transfer());
         }
-        fetch(client, store, container);
+        return hedger.get().apply(
+                t -> fetch(client, store, container, chunkInfos, present, committed, t),
+                t -> hedge(client, store, container, chunkInfos, checksums, t));
     }
 
-    List<byte[]> checksums(StorageHostChunkList container) {
-        return container.getChunkInfoList()
-                .stream()
-                .map(chunkInfo -> chunkInfo.getChunkChecksum().toByteArray())
+    long fetch(HttpClient client, ChunkStore store, StorageHostChunkList container, List<ChunkInfo> chunkInfos,
+            BitSet present, Optional<BitSet> committed, Hedger.Transfer transfer) throws IOException {
+        long length = ChunkRanges.length(chunkInfos);
+        boolean resume = committed.isPresent();
+        Optional<List<ByteRange>> ranges = ranges(chunkInfos, present, resume);
+        if (!ranges.isPresent()) {
+            fetch(client, store, container, transfer);
+            return length;
+        }
+        long bytes = ranges.get().stream().mapToLong(ByteRange::length).sum();
+        logger.debug("-- fetch() - ranges: {} bytes: {} container length: {} resume: {}",
+                ranges.get().size(), bytes, length, resume);
+        if (resume) {
+            resumes.increment();
+            resumeBytesSaved.add(saved(chunkInfos, committed.get(), ranges.get()));
+        }
+        fetch(client, store, container, ranges.get(), transfer);
+        return bytes;
+    }
+
+    /**
+     * @return bytes of the chunks committed by the failed attempt that the specified ranges do not fetch again
+     */
+    long saved(List<ChunkInfo> chunkInfos, BitSet committed, List<ByteRange> ranges) {
+        return committed.stream()
+                .mapToObj(chunkInfos::get)
+                .filter(u -> ranges.stream()
+                        .noneMatch(v -> v.contains(ChunkRanges.offset(u), ChunkRanges.length(u))))
+                .mapToLong(ChunkRanges::length)
+                .sum();
+    }
+
+    /**
+     * Runs under the primary's permit. Acquiring a second permit on the same host would wait on the primary it is
+     * meant to replace. Concurrent hedges are bounded by the Hedger.
+     *
+     * @return bytes requested
+     */
+    long hedge(HttpClient client, ChunkStore store, StorageHostChunkList container, List<ChunkInfo> chunkInfos,
+            List<ByteString> checksums, Hedger.Transfer transfer) throws IOException {
+        BitSet present = store.contains(checksums);
+        if (present.cardinality() == chunkInfos.size()) {
+            return 0;
+        }
+        Optional<List<ByteRange>> ranges = ranges(chunkInfos, present, true);
+        if (!ranges.isPresent()) {
+            fetch(client, store, container, transfer);
+            return ChunkRanges.length(chunkInfos);
+        }
+        long bytes = ranges.get().stream().mapToLong(ByteRange::length).sum();
+        logger.debug("-- hedge() - ranges: {} bytes: {}", ranges.get().size(), bytes);
+        fetch(client, store, container, ranges.get(), transfer);
+        return bytes;
+    }
+
+    /**
+     * @return ranges to fetch, or empty to fetch the full container
+     */
+    Optional<List<ByteRange>> ranges(List<ChunkInfo> chunkInfos, BitSet present, boolean resume) {
+        if (present.isEmpty()) {
+            return Optional.empty();
+        }
+        List<ByteRange> ranges;
+        if (rangeGap.isPresent()) {
+            ranges = ChunkRanges.missing(chunkInfos, present, rangeGap.get());
+        } else if (resume) {
+            // Single range from the first uncommitted chunk.
+            ranges = ChunkRanges.missing(chunkInfos, present, Long.MAX_VALUE);
+        } else {
+            return Optional.empty();
+        }
+        return ranges.size() == 1 && ranges.get(0).length() >= ChunkRanges.length(chunkInfos)
+                ? Optional.empty()
+                : Optional.of(ranges);
+    }
+
+    /**
+     * @param ex
+     * @return true if the failure is transient, false for corrupt data and client errors
+     */
+    public static boolean isRetryable(IOException ex) {
+        if (ex instanceof BadDataException) {
+            return false;
+        }
+        if (ex instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) ex).getStatusCode();
+            return statusCode >= 500
+                    || statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+                    || statusCode == 429; // Too Many Requests
+        }
+        return true;
+    }
+
+    void backoff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt, 16));
+        long sleep = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        try {
+            TimeUnit.MILLISECONDS.sleep(sleep);
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        }
+    }
+
+    /**
+     * @return per storage host statistics
+     */
+    public List<HostStats> hostStats() {
+        return limiter.stats();
+    }
+
+    /**
+     * @return hedge transfers started
+     */
+    public long hedges() {
+        return hedger.map(Hedger::started).orElse(0L);
+    }
+
+    /**
+     * @return hedge transfers that completed ahead of their primary
+     */
+    public long hedgesWon() {
+        return hedger.map(Hedger::won).orElse(0L);
+    }
+
+    /**
+     * @return number of resumed transfers
+     */
+    public long resumes() {
+        return resumes.sum();
+    }
+
+    /**
+     * @return bytes not downloaded again as transfers were resumed
+     */
+    public long resumeBytesSaved() {
+        return resumeBytesSaved.sum();
+    }
+
+    List<ByteString> checksums(List<ChunkInfo> chunkInfos) {
+        return chunkInfos.stream()
+                .map(ChunkInfo::getChunkChecksum)
                 .collect(toList());
     }
 
-    void fetch(HttpClient client, ChunkStore store, StorageHostChunkList container) throws IOException {
+    InputStream throttle(StorageHostChunkList container, InputStream is) {
+        return bandwidth.throttle(container.getHostInfo().getHostname(), is);
+    }
+
+    void fetch(HttpClient client, ChunkStore store, StorageHostChunkList container, Hedger.Transfer transfer)
+            throws IOException {
         IOFunction<InputStream, Void> decrypt
                 = is -> {
-                    DECRYPTER.apply(container, is, store);
+                    decrypter.apply(container, transfer.track(throttle(container, is)), store);
                     return null;
                 };
 
         InputStreamResponseHandler<Void> handler = new InputStreamResponseHandler<>(decrypt);
         HttpUriRequest request = requestFactory.apply(container.getHostInfo());
+        transfer.request(request);
         client.execute(request, handler);
     }
+
+    void fetch(HttpClient client, ChunkStore store, StorageHostChunkList container, List<ByteRange> ranges,
+            Hedger.Transfer transfer) throws IOException {
+        for (ByteRange range : ranges) {
+            IOBiFunction<InputStream, Boolean, Boolean> decrypt
+                    = (is, partial) -> {
+                        if (partial) {
+                            decrypter.apply(container, transfer.track(throttle(container, is)), store, range);
+                        } else {
+                            decrypter.apply(container, transfer.track(throttle(container, is)), store);
+                        }
+                        return partial;
+                    };
+
+            RangeResponseHandler<Boolean> handler = new RangeResponseHandler<>(decrypt);
+            HttpUriRequest request = rangeRequestFactory.apply(container.getHostInfo(), range);
+            transfer.request(request);
+            if (!client.execute(request, handler)) {
+                logger.debug("-- fetch() - Range header ignored, full container decrypted");
+                return;
+            }
+        }
+    }
 }
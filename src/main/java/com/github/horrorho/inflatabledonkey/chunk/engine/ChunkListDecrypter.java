@@ -24,24 +24,36 @@
 package com.github.horrorho.inflatabledonkey.chunk.engine;
 
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.crypto.AESProviders;
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.github.horrorho.inflatabledonkey.requests.ByteRange;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
-import net.jcip.annotations.Immutable;
+import java.util.stream.IntStream;
+import net.jcip.annotations.ThreadSafe;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.io.input.CountingInputStream;
-import org.bouncycastle.crypto.engines.AESFastEngine;
-import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.StreamCipher;
 import org.bouncycastle.crypto.io.CipherInputStream;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.util.encoders.Hex;
@@ -49,25 +61,46 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Decrypts storage host chunk list streams. Limited to type 0x01 chunk decryption and streams under 2 Gb in length.
+ * Decrypts storage host chunk list streams. Limited to type 0x01 chunk decryption. Stream positions and chunk offsets
+ * are 64 bit, containers over 2 Gb are streamed with flat memory use.
+ * <p>
+ * Pipelined instances only slice the stream into chunk buffers on the calling thread. Decryption, digest verification
+ * and store commits run on the executor. In-flight buffers, across all containers sharing the instance, are bounded.
  *
  * @author Ahseya
  */
-@Immutable
+@ThreadSafe
 public final class ChunkListDecrypter {
 
     public static ChunkListDecrypter instance() {
         return INSTANCE;
     }
 
+    /**
+     * @param executor decryption workers
+     * @param maxInFlight maximum chunk buffers awaiting or undergoing decryption
+     * @return pipelined decrypter
+     */
+    public static ChunkListDecrypter pipelined(Executor executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("bad in-flight buffer count: " + maxInFlight);
+        }
+        return new ChunkListDecrypter(Optional.of(executor), new Semaphore(maxInFlight));
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(ChunkListDecrypter.class);
 
-    private static final ChunkListDecrypter INSTANCE = new ChunkListDecrypter();
+    private static final ChunkListDecrypter INSTANCE = new ChunkListDecrypter(Optional.empty(), new Semaphore(1));
 
     private static final Comparator<ChunkInfo> CHUNK_OFFSET_COMPARATOR
-            = Comparator.comparing(ChunkInfo::getChunkOffset);
+            = Comparator.comparingLong(ChunkRanges::offset);
+
+    private final Optional<Executor> executor;
+    private final Semaphore inFlight;
 
-    private ChunkListDecrypter() {
+    private ChunkListDecrypter(Optional<Executor> executor, Semaphore inFlight) {
+        this.executor = Objects.requireNonNull(executor);
+        this.inFlight = Objects.requireNonNull(inFlight);
     }
 
     /**
@@ -76,7 +109,6 @@ public final class ChunkListDecrypter {
      * @param inputStream closed on exit
      * @param store
      * @throws IOException
-     * @throws ArithmeticException on input streams over 2 Gb.
      * @throws IllegalArgumentException on non 0x01 chunk keys
      */
     public void apply(StorageHostChunkList container, InputStream inputStream, ChunkStore store) throws IOException {
@@ -86,19 +118,51 @@ public final class ChunkListDecrypter {
                 .stream()
                 .sorted(CHUNK_OFFSET_COMPARATOR)
                 .collect(toList());
+        apply(list, inputStream, 0, store);
+        logger.trace(">> apply()");
+    }
 
+    /**
+     * Decrypts a partial stream, as returned by a Range request. Only chunks lying wholly within the range are
+     * decrypted. Discontiguous ranges are decrypted with one call per range.
+     *
+     * @param container
+     * @param inputStream closed on exit, positioned at the start of the range
+     * @param store
+     * @param range
+     * @throws IOException
+     * @throws IllegalArgumentException on non 0x01 chunk keys
+     */
+    public void apply(StorageHostChunkList container, InputStream inputStream, ChunkStore store, ByteRange range)
+            throws IOException {
+        logger.trace("<< apply() - input: {} range: {}", inputStream, range);
+        List<ChunkInfo> list = container.getChunkInfoList()
+                .stream()
+                .filter(u -> range.contains(ChunkRanges.offset(u), ChunkRanges.length(u)))
+                .sorted(CHUNK_OFFSET_COMPARATOR)
+                .collect(toList());
+        apply(list, inputStream, range.start(), store);
+        logger.trace(">> apply()");
+    }
+
+    void apply(List<ChunkInfo> list, InputStream inputStream, long start, ChunkStore store) throws IOException {
         try (CountingInputStream countingInputStream = new CountingInputStream(inputStream)) {
-            streamChunks(list, countingInputStream, store);
+            if (executor.isPresent()) {
+                pipeChunks(list, countingInputStream, start, store, executor.get());
+            } else {
+                streamChunks(list, countingInputStream, start, store);
+            }
         } catch (UncheckedIOException ex) {
             throw ex.getCause();
         }
 
         if (logger.isDebugEnabled()) {
             // Sanity check. Has a minor IO cost with a disk based chunk store.
-            String missingChunks = list.stream()
-                    .map(ci -> ci.getChunkChecksum().toByteArray())
-                    .filter(c -> !store.contains(c))
-                    .map(c -> "0x" + Hex.toHexString(c))
+            List<ByteString> checksums = checksums(list);
+            BitSet present = store.contains(checksums);
+            String missingChunks = IntStream.range(0, checksums.size())
+                    .filter(i -> !present.get(i))
+                    .mapToObj(i -> "0x" + Hex.toHexString(checksums.get(i).toByteArray()))
                     .collect(joining(" "));
             if (missingChunks.isEmpty()) {
                 logger.debug("-- apply() - all chunks have been stored");
@@ -106,40 +170,118 @@ public final class ChunkListDecrypter {
                 logger.warn("-- apply() - missing chunks: {}", missingChunks);
             }
         }
-        logger.trace(">> apply()");
     }
 
-    void streamChunks(List<ChunkInfo> chunkInfos, CountingInputStream inputStream, ChunkStore store) {
+    void streamChunks(List<ChunkInfo> chunkInfos, CountingInputStream inputStream, long start, ChunkStore store) {
         logger.debug("-- streamChunks() - chunk count: {}", chunkInfos.size());
-        chunkInfos.stream()
-                .peek(ci -> logger.debug("-- streamChunks() - chunk info: {}", ci))
-                .filter(u -> isChunkMissing(u, store))
-                .forEach(u -> streamChunk(inputStream, inputStream.getCount(), u, store));
+        // Chunks committed by competing threads after this check are resolved by the store on commit.
+        BitSet present = store.contains(checksums(chunkInfos));
+        IntStream.range(0, chunkInfos.size())
+                .peek(i -> logger.debug("-- streamChunks() - chunk info: {}", chunkInfos.get(i)))
+                .filter(i -> isChunkMissing(chunkInfos.get(i), present.get(i)))
+                .forEach(i -> streamChunk(inputStream, start + inputStream.getByteCount(), chunkInfos.get(i), store));
     }
 
-    boolean isChunkMissing(ChunkInfo chunkInfo, ChunkStore store) {
+    void pipeChunks(List<ChunkInfo> chunkInfos, CountingInputStream inputStream, long start, ChunkStore store,
+            Executor executor) {
+        logger.debug("-- pipeChunks() - chunk count: {}", chunkInfos.size());
+        BitSet present = store.contains(checksums(chunkInfos));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        RuntimeException failure = null;
+        try {
+            for (int i = 0; i < chunkInfos.size(); i++) {
+                ChunkInfo chunkInfo = chunkInfos.get(i);
+                if (!isChunkMissing(chunkInfo, present.get(i))) {
+                    continue;
+                }
+                if (futures.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    break;
+                }
+                long position = start + inputStream.getByteCount();
+                if (positionedStream(inputStream, position, ChunkRanges.offset(chunkInfo)).isPresent()) {
+                    futures.add(pipeChunk(inputStream, chunkInfo, store, executor));
+                }
+            }
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+
+        // Outstanding chunks are committed regardless, as the serial decrypter would have done.
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException
+                            ? (RuntimeException) ex.getCause()
+                            : ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    CompletableFuture<Void> pipeChunk(InputStream inputStream, ChunkInfo chunkInfo, ChunkStore store,
+            Executor executor) {
         byte[] checksum = chunkInfo.getChunkChecksum().toByteArray();
-        if (store.contains(checksum)) {
-            logger.debug("-- isChunkMissing() - chunk already present in store: 0x{}", Hex.toHexString(checksum));
+        byte[] key = key(chunkInfo);
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        }
+        try {
+            byte[] ciphertext = new byte[Math.toIntExact(ChunkRanges.length(chunkInfo))];
+            IOUtils.readFully(inputStream, ciphertext);
+            logger.debug("-- pipeChunk() - piping chunk: 0x{}", Hex.toHexString(checksum));
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    copy(cipherInputStream(new ByteArrayInputStream(ciphertext), key, checksum), checksum, store);
+                } finally {
+                    inFlight.release();
+                }
+            }, executor);
+
+        } catch (IOException ex) {
+            inFlight.release();
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            inFlight.release();
+            throw ex;
+        }
+    }
+
+    List<ByteString> checksums(List<ChunkInfo> chunkInfos) {
+        return chunkInfos.stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .collect(toList());
+    }
+
+    boolean isChunkMissing(ChunkInfo chunkInfo, boolean present) {
+        if (present) {
+            logger.debug("-- isChunkMissing() - chunk already present in store: 0x{}",
+                    Hex.toHexString(chunkInfo.getChunkChecksum().toByteArray()));
             return false;
         }
         return true;
     }
 
-    void streamChunk(InputStream inputStream, int position, ChunkInfo chunkInfo, ChunkStore store) {
+    void streamChunk(InputStream inputStream, long position, ChunkInfo chunkInfo, ChunkStore store) {
         byte[] checksum = chunkInfo.getChunkChecksum().toByteArray();
-        int chunkOffset = chunkInfo.getChunkOffset();
-        int chunkLength = chunkInfo.getChunkLength();
+        long chunkOffset = ChunkRanges.offset(chunkInfo);
+        long chunkLength = ChunkRanges.length(chunkInfo);
         byte[] key = key(chunkInfo);
 
         logger.debug("-- streamChunk() - streaming chunk: 0x{}", Hex.toHexString(checksum));
-        positionedStream(inputStream, position, chunkOffset, chunkLength)
+        positionedStream(inputStream, position, chunkOffset)
                 .map(s -> boundedInputStream(s, chunkLength))
                 .map(s -> cipherInputStream(s, key, checksum))
                 .ifPresent(s -> copy(s, checksum, store));
     }
 
-    Optional<InputStream> positionedStream(InputStream inputStream, int position, int chunkOffset, int chunkLength) {
+    Optional<InputStream> positionedStream(InputStream inputStream, long position, long chunkOffset) {
         // Align stream offset with chunk offset, although we cannot back track nor should we need to.
         try {
             if (chunkOffset < position) {
@@ -147,9 +289,9 @@ public final class ChunkListDecrypter {
                 return Optional.empty();
             }
             if (chunkOffset > position) {
-                int bytes = chunkOffset - position;
+                long bytes = chunkOffset - position;
                 logger.debug("-- positionedStream() - skipping: {}", bytes);
-                inputStream.skip(bytes);
+                IOUtils.skipFully(inputStream, bytes);
             }
             return Optional.of(inputStream);
 
@@ -158,14 +300,14 @@ public final class ChunkListDecrypter {
         }
     }
 
-    BoundedInputStream boundedInputStream(InputStream inputStream, int length) {
+    BoundedInputStream boundedInputStream(InputStream inputStream, long length) {
         BoundedInputStream bis = new BoundedInputStream(inputStream, length); // No close() required/ not propagated.
         bis.setPropagateClose(false);
         return bis;
     }
 
     CipherInputStream cipherInputStream(InputStream inputStream, byte[] key, byte[] checksum) {
-        CFBBlockCipher cipher = new CFBBlockCipher(new AESFastEngine(), 128);
+        StreamCipher cipher = AESProviders.instance().cfb();
         KeyParameter keyParameter = new KeyParameter(key);
         cipher.init(false, keyParameter);
         return new CipherInputStream(inputStream, cipher);
@@ -198,8 +340,15 @@ public final class ChunkListDecrypter {
     void doCopy(InputStream is, OutputStream os) throws IOException {
         try {
             IOUtils.copy(is, os);
-        } finally {
-            os.close(); // May throw an error/ bad checksum.
+        } catch (IOException ex) {
+            // Interrupted transfer. The partial chunk fails verification on close, report the transfer failure.
+            try {
+                os.close();
+            } catch (IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            throw ex;
         }
+        os.close(); // May throw an error/ bad checksum.
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.requests.ByteRange;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Container byte ranges of missing chunks. Chunk offsets and lengths are unsigned 32 bit values.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class ChunkRanges {
+
+    private ChunkRanges() {
+        // Utility class.
+    }
+
+    /**
+     * Byte ranges covering the missing chunks. Ranges separated by no more than the specified gap are coalesced, the
+     * present chunks they span are downloaded and skipped.
+     *
+     * @param chunkInfos chunk infos, sorted by chunk offset
+     * @param present present chunks, indexed as chunkInfos
+     * @param gap maximum gap in bytes to coalesce
+     * @return ranges, ordered
+     */
+    public static List<ByteRange> missing(List<ChunkInfo> chunkInfos, BitSet present, long gap) {
+        List<ByteRange> ranges = new ArrayList<>();
+        long start = -1;
+        long end = -1;
+        for (int i = 0; i < chunkInfos.size(); i++) {
+            if (present.get(i)) {
+                continue;
+            }
+            ChunkInfo chunkInfo = chunkInfos.get(i);
+            long offset = offset(chunkInfo);
+            long limit = offset + length(chunkInfo);
+            if (start == -1) {
+                start = offset;
+                end = limit;
+            } else if (offset - end <= gap) {
+                end = Math.max(end, limit);
+            } else {
+                ranges.add(new ByteRange(start, end));
+                start = offset;
+                end = limit;
+            }
+        }
+        if (start != -1) {
+            ranges.add(new ByteRange(start, end));
+        }
+        return ranges;
+    }
+
+    /**
+     * @param chunkInfos chunk infos
+     * @return container length as described by the chunk infos
+     */
+    public static long length(List<ChunkInfo> chunkInfos) {
+        return chunkInfos.stream()
+                .mapToLong(u -> offset(u) + length(u))
+                .max()
+                .orElse(0);
+    }
+
+    /**
+     * @param chunkInfo
+     * @return chunk offset, unsigned
+     */
+    public static long offset(ChunkInfo chunkInfo) {
+        return Integer.toUnsignedLong(chunkInfo.getChunkOffset());
+    }
+
+    /**
+     * @param chunkInfo
+     * @return chunk length, unsigned
+     */
+    public static long length(ChunkInfo chunkInfo) {
+        return Integer.toUnsignedLong(chunkInfo.getChunkLength());
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import com.github.horrorho.inflatabledonkey.io.IOFunction;
+import com.github.horrorho.inflatabledonkey.io.ThrottledInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedged container transfers. Transfers whose throughput falls below the specified percentile of recently completed
+ * transfers are duplicated. The first copy to complete wins and the other is cancelled.
+ * <p>
+ * Both copies write to the same ChunkStore, which commits the first writer of any given chunk and discards the rest.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class Hedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(Hedger.class);
+
+    private static final int MIN_SAMPLES = 16;
+    private static final long CHECK_INTERVAL_MS = 500;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final double percentile;
+    private final long delayMs;
+    private final Semaphore hedges;
+    @GuardedBy("this")
+    private final double[] samples;
+    @GuardedBy("this")
+    private long count;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder won = new LongAdder();
+
+    /**
+     * @param scheduler throughput monitor
+     * @param executor hedge transfers
+     * @param percentile hedge transfers slower than this percentile of recent transfers, (0, 100)
+     * @param delayMs minimum transfer age before hedging
+     * @param maxHedges maximum concurrent hedge transfers
+     * @param window number of recent transfers sampled
+     */
+    public Hedger(ScheduledExecutorService scheduler, ExecutorService executor, double percentile, long delayMs,
+            int maxHedges, int window) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("bad percentile: " + percentile);
+        }
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("bad delay: " + delayMs);
+        }
+        if (maxHedges < 1) {
+            throw new IllegalArgumentException("bad max hedges: " + maxHedges);
+        }
+        if (window < MIN_SAMPLES) {
+            throw new IllegalArgumentException("bad window: " + window);
+        }
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.percentile = percentile;
+        this.delayMs = delayMs;
+        this.hedges = new Semaphore(maxHedges);
+        this.samples = new double[window];
+    }
+
+    /**
+     * Runs the primary transfer on the calling thread, hedging if it stalls.
+     *
+     * @param primary primary transfer
+     * @param hedge hedge transfer, which should fetch whatever the primary has not yet committed
+     * @return bytes requested by the winning transfer
+     * @throws IOException if the primary fails and the hedge, if any, also fails
+     */
+    public long apply(IOFunction<Transfer, Long> primary, IOFunction<Transfer, Long> hedge) throws IOException {
+        Race race = new Race(hedge);
+        ScheduledFuture<?> monitor
+                = scheduler.scheduleWithFixedDelay(() -> check(race), delayMs, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        try {
+            long bytes = primary.apply(race.primary);
+            record(race.primary);
+            return bytes;
+
+        } catch (IOException ex) {
+            Optional<Transfer> transfer = race.stop();
+            if (!transfer.isPresent()) {
+                throw ex;
+            }
+            try {
+                long bytes = race.result.get();
+                logger.debug("-- apply() - hedge won, primary: {}", ex.getMessage());
+                won.increment();
+                return bytes;
+            } catch (ExecutionException e) {
+                ex.addSuppressed(e.getCause());
+                throw ex;
+            } catch (InterruptedException e) {
+                throw new UncheckedInterruptedException(e);
+            }
+        } finally {
+            monitor.cancel(false);
+            race.stop().ifPresent(Transfer::cancel);
+        }
+    }
+
+    void check(Race race) {
+        OptionalDouble threshold = threshold();
+        if (!threshold.isPresent() || race.primary.bytesPerSecond() >= threshold.getAsDouble()) {
+            return;
+        }
+        if (!hedges.tryAcquire()) {
+            return;
+        }
+        Optional<Transfer> transfer = race.hedge();
+        if (!transfer.isPresent()) {
+            hedges.release();
+            return;
+        }
+        logger.debug("-- check() - hedging, primary bytes/s: {} threshold: {}",
+                race.primary.bytesPerSecond(), threshold.getAsDouble());
+        started.increment();
+        try {
+            executor.execute(() -> hedge(race, transfer.get()));
+        } catch (RejectedExecutionException ex) {
+            hedges.release();
+            race.result.completeExceptionally(ex);
+        }
+    }
+
+    void hedge(Race race, Transfer transfer) {
+        try {
+            long bytes = race.hedge.apply(transfer);
+            record(transfer);
+            race.result.complete(bytes);
+            race.primary.cancel();
+
+        } catch (IOException | RuntimeException ex) {
+            logger.debug("-- hedge() - hedge failed: {}", ex.getMessage());
+            race.result.completeExceptionally(ex);
+        } finally {
+            hedges.release();
+        }
+    }
+
+    void record(Transfer transfer) {
+        record(transfer.bytesPerSecond());
+    }
+
+    synchronized void record(double bytesPerSecond) {
+        samples[(int) (count++ % samples.length)] = bytesPerSecond;
+    }
+
+    synchronized OptionalDouble threshold() {
+        int n = (int) Math.min(count, samples.length);
+        if (n < MIN_SAMPLES) {
+            return OptionalDouble.empty();
+        }
+        double[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        return OptionalDouble.of(sorted[(int) (percentile / 100 * (n - 1))]);
+    }
+
+    /**
+     * @return hedge transfers started
+     */
+    public long started() {
+        return started.sum();
+    }
+
+    /**
+     * @return hedge transfers that completed ahead of their primary
+     */
+    public long won() {
+        return won.sum();
+    }
+
+    @ThreadSafe
+    static final class Race {
+
+        final Transfer primary = new Transfer();
+        final IOFunction<Transfer, Long> hedge;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        @GuardedBy("this")
+        private Transfer transfer;
+        @GuardedBy("this")
+        private boolean stopped;
+
+        Race(IOFunction<Transfer, Long> hedge) {
+            this.hedge = Objects.requireNonNull(hedge, "hedge");
+        }
+
+        synchronized Optional<Transfer> hedge() {
+            if (stopped || transfer != null) {
+                return Optional.empty();
+            }
+            transfer = new Transfer();
+            return Optional.of(transfer);
+        }
+
+        synchronized Optional<Transfer> stop() {
+            stopped = true;
+            return Optional.ofNullable(transfer);
+        }
+    }
+
+    /**
+     * Cancellable transfer with progress.
+     */
+    @ThreadSafe
+    public static final class Transfer {
+
+        private final AtomicLong bytes = new AtomicLong();
+        private final long start = System.nanoTime();
+        private volatile HttpUriRequest request;
+        private volatile boolean cancelled;
+
+        /**
+         * @param in response stream
+         * @return stream that counts bytes read and fails once cancelled
+         */
+        public InputStream track(InputStream in) {
+            return new ThrottledInputStream(in, n -> {
+                if (cancelled) {
+                    throw new InterruptedIOException("transfer cancelled");
+                }
+                bytes.addAndGet(n);
+            });
+        }
+
+        /**
+         * @param request current request, aborted if the transfer is cancelled
+         */
+        public void request(HttpUriRequest request) {
+            this.request = request;
+            if (cancelled) {
+                request.abort();
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            HttpUriRequest r = request;
+            if (r != null) {
+                r.abort();
+            }
+        }
+
+        public long bytes() {
+            return bytes.get();
+        }
+
+        double bytesPerSecond() {
+            long nanos = Math.max(1, System.nanoTime() - start);
+            return bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import static java.util.stream.Collectors.toList;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per storage host adaptive concurrency limits with circuit breakers.
+ * <p>
+ * Limits follow AIMD: a fully utilized limit grows by one per limit's worth of successful requests and halves on
+ * errors or when the short run average of size normalized latency climbs well above its long run average, at most
+ * once per average request time.
+ * Consecutive failures trip the host's circuit breaker. Requests then back off for an exponentially increasing cool
+ * down after which a single trial request either closes or re-opens the circuit.
+ * <p>
+ * Blocking is ForkJoinPool aware.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class HostLimiter {
+
+    public static HostLimiter unlimited() {
+        return UNLIMITED;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(HostLimiter.class);
+
+    private static final HostLimiter UNLIMITED = new HostLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private static final double DECREASE = 0.5;
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double SHORT_ALPHA = 0.25;
+    private static final double LONG_ALPHA = 0.02;
+    private static final int MIN_SAMPLES = 10;
+    private static final long MIN_NORMALIZED_BYTES = 65536;
+    private static final long COOL_DOWN_MS = 1000;
+    private static final long MAX_COOL_DOWN_MS = 60000;
+    private static final long MAX_WAIT_MS = 1000;
+
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final int failureThreshold;
+
+    /**
+     * @param initialLimit initial concurrent requests per host
+     * @param maxLimit maximum concurrent requests per host
+     * @param failureThreshold consecutive failures that open a host's circuit
+     */
+    public HostLimiter(int initialLimit, int maxLimit, int failureThreshold) {
+        this(System::nanoTime, initialLimit, maxLimit, failureThreshold);
+    }
+
+    HostLimiter(LongSupplier nanoClock, int initialLimit, int maxLimit, int failureThreshold) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("bad limits, initial: " + initialLimit + " max: " + maxLimit);
+        }
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("bad failure threshold: " + failureThreshold);
+        }
+        this.nanoClock = Objects.requireNonNull(nanoClock, "nanoClock");
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Blocks until the host admits another request. The returned permit must be released exactly once.
+     *
+     * @param hostname
+     * @return permit
+     * @throws UncheckedInterruptedException
+     */
+    public Permit acquire(String hostname) {
+        if (this == UNLIMITED) {
+            return new Permit(null, 0);
+        }
+        Host host = hosts.computeIfAbsent(hostname, Host::new);
+        try {
+            ForkJoinPool.managedBlock(new Acquire(host));
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        }
+        return new Permit(host, nanoClock.getAsLong());
+    }
+
+    /**
+     * @return per host statistics
+     */
+    public List<HostStats> stats() {
+        return hosts.values()
+                .stream()
+                .map(Host::stats)
+                .sorted((u, v) -> u.hostname().compareTo(v.hostname()))
+                .collect(toList());
+    }
+
+    @ThreadSafe
+    public static final class Permit {
+
+        private final Host host;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Host host, long start) {
+            this.host = host;
+            this.start = start;
+        }
+
+        /**
+         * @param bytes bytes transferred
+         */
+        public void success(long bytes) {
+            if (host != null && released.compareAndSet(false, true)) {
+                host.success(bytes, start);
+            }
+        }
+
+        /**
+         * Congestion or host failure.
+         */
+        public void failure() {
+            if (host != null && released.compareAndSet(false, true)) {
+                host.failure();
+            }
+        }
+
+        /**
+         * Release without feedback.
+         */
+        public void cancel() {
+            if (host != null && released.compareAndSet(false, true)) {
+                host.cancel();
+            }
+        }
+    }
+
+    static final class Acquire implements ForkJoinPool.ManagedBlocker {
+
+        private final Host host;
+        private boolean acquired;
+
+        Acquire(Host host) {
+            this.host = Objects.requireNonNull(host);
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            synchronized (host) {
+                while (!host.tryAcquire()) {
+                    host.wait(host.waitMs());
+                }
+            }
+            acquired = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!acquired) {
+                synchronized (host) {
+                    acquired = host.tryAcquire();
+                }
+            }
+            return acquired;
+        }
+    }
+
+    enum Circuit {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    final class Host {
+
+        private final String hostname;
+        @GuardedBy("this")
+        private double limit = initialLimit;
+        @GuardedBy("this")
+        private int inFlight;
+        @GuardedBy("this")
+        private Circuit circuit = Circuit.CLOSED;
+        @GuardedBy("this")
+        private boolean trial;
+        @GuardedBy("this")
+        private int consecutiveFailures;
+        @GuardedBy("this")
+        private long coolDownMs = COOL_DOWN_MS;
+        @GuardedBy("this")
+        private long openUntil;
+        @GuardedBy("this")
+        private double shortNanosPerByte;
+        @GuardedBy("this")
+        private double longNanosPerByte;
+        @GuardedBy("this")
+        private long samples;
+        @GuardedBy("this")
+        private double averageNanos;
+        @GuardedBy("this")
+        private boolean decreased;
+        @GuardedBy("this")
+        private long lastDecrease;
+        @GuardedBy("this")
+        private long activeSince;
+        @GuardedBy("this")
+        private long activeNanos;
+        @GuardedBy("this")
+        private long requests;
+        @GuardedBy("this")
+        private long failures;
+        @GuardedBy("this")
+        private long opened;
+        @GuardedBy("this")
+        private long bytes;
+
+        Host(String hostname) {
+            this.hostname = hostname;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = nanoClock.getAsLong();
+            switch (circuit) {
+                case OPEN:
+                    if (now - openUntil < 0) {
+                        return false;
+                    }
+                    logger.debug("-- tryAcquire() - host: {} circuit half open", hostname);
+                    circuit = Circuit.HALF_OPEN;
+                // Fall through.
+                case HALF_OPEN:
+                    // A single trial once stragglers from the closed circuit have cleared.
+                    if (trial || inFlight > 0) {
+                        return false;
+                    }
+                    trial = true;
+                    break;
+                default:
+                    if (inFlight >= (int) limit) {
+                        return false;
+                    }
+            }
+            if (inFlight++ == 0) {
+                activeSince = now;
+            }
+            return true;
+        }
+
+        synchronized long waitMs() {
+            if (circuit == Circuit.OPEN) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(openUntil - nanoClock.getAsLong());
+                return Math.max(1, Math.min(remaining, MAX_WAIT_MS));
+            }
+            return MAX_WAIT_MS;
+        }
+
+        synchronized void success(long length, long start) {
+            long now = release();
+            long nanos = now - start;
+            requests++;
+            bytes += length;
+            consecutiveFailures = 0;
+            if (circuit == Circuit.HALF_OPEN) {
+                logger.debug("-- success() - host: {} circuit closed", hostname);
+                circuit = Circuit.CLOSED;
+                coolDownMs = COOL_DOWN_MS;
+            }
+
+            double nanosPerByte = (double) nanos / Math.max(length, MIN_NORMALIZED_BYTES);
+            if (samples++ == 0) {
+                shortNanosPerByte = nanosPerByte;
+                longNanosPerByte = nanosPerByte;
+                averageNanos = nanos;
+            } else {
+                shortNanosPerByte += SHORT_ALPHA * (nanosPerByte - shortNanosPerByte);
+                longNanosPerByte += LONG_ALPHA * (nanosPerByte - longNanosPerByte);
+                averageNanos += LONG_ALPHA * (nanos - averageNanos);
+            }
+            boolean congested = samples >= MIN_SAMPLES && shortNanosPerByte > longNanosPerByte * LATENCY_TOLERANCE;
+
+            if (congested) {
+                decrease(now);
+            } else if (inFlight + 1 >= (int) limit) {
+                // Only grow limits that are being used.
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            notifyAll();
+        }
+
+        synchronized void failure() {
+            long now = release();
+            requests++;
+            failures++;
+            consecutiveFailures++;
+            decrease(now);
+            if (circuit == Circuit.HALF_OPEN
+                    || circuit == Circuit.CLOSED && consecutiveFailures >= failureThreshold) {
+                if (circuit == Circuit.HALF_OPEN) {
+                    coolDownMs = Math.min(MAX_COOL_DOWN_MS, coolDownMs * 2);
+                }
+                circuit = Circuit.OPEN;
+                openUntil = now + TimeUnit.MILLISECONDS.toNanos(coolDownMs);
+                opened++;
+                logger.debug("-- failure() - host: {} circuit open, cool down (ms): {}", hostname, coolDownMs);
+            }
+            notifyAll();
+        }
+
+        synchronized void cancel() {
+            release();
+            notifyAll();
+        }
+
+        @GuardedBy("this")
+        long release() {
+            long now = nanoClock.getAsLong();
+            if (--inFlight == 0) {
+                trial = false;
+                activeNanos += now - activeSince;
+            }
+            return now;
+        }
+
+        @GuardedBy("this")
+        void decrease(long now) {
+            if (decreased && now - lastDecrease < averageNanos) {
+                return;
+            }
+            decreased = true;
+            lastDecrease = now;
+            limit = Math.max(1, limit * DECREASE);
+            logger.debug("-- decrease() - host: {} limit: {}", hostname, limit);
+        }
+
+        synchronized HostStats stats() {
+            long active = inFlight == 0
+                    ? activeNanos
+                    : activeNanos + nanoClock.getAsLong() - activeSince;
+            return new HostStats(hostname, (int) limit, circuit.name(), requests, failures, opened, bytes,
+                    TimeUnit.NANOSECONDS.toMillis(active));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import java.util.Objects;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Storage host statistics snapshot.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class HostStats {
+
+    private final String hostname;
+    private final int limit;
+    private final String circuit;
+    private final long requests;
+    private final long failures;
+    private final long opened;
+    private final long bytes;
+    private final long activeMilliseconds;
+
+    HostStats(String hostname, int limit, String circuit, long requests, long failures, long opened, long bytes,
+            long activeMilliseconds) {
+        this.hostname = Objects.requireNonNull(hostname, "hostname");
+        this.limit = limit;
+        this.circuit = Objects.requireNonNull(circuit, "circuit");
+        this.requests = requests;
+        this.failures = failures;
+        this.opened = opened;
+        this.bytes = bytes;
+        this.activeMilliseconds = activeMilliseconds;
+    }
+
+    public String hostname() {
+        return hostname;
+    }
+
+    /**
+     * @return current concurrency limit
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * @return circuit breaker state
+     */
+    public String circuit() {
+        return circuit;
+    }
+
+    public long requests() {
+        return requests;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * @return number of times the circuit breaker opened
+     */
+    public long opened() {
+        return opened;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return time with at least one request in flight
+     */
+    public long activeMilliseconds() {
+        return activeMilliseconds;
+    }
+
+    /**
+     * @return throughput over the time the host was active
+     */
+    public double megabytesPerSecond() {
+        return activeMilliseconds == 0
+                ? 0
+                : (double) bytes / 1000 / activeMilliseconds;
+    }
+
+    @Override
+    public String toString() {
+        return "HostStats{"
+                + "hostname=" + hostname
+                + ", limit=" + limit
+                + ", circuit=" + circuit
+                + ", requests=" + requests
+                + ", failures=" + failures
+                + ", opened=" + opened
+                + ", bytes=" + bytes
+                + ", activeMilliseconds=" + activeMilliseconds
+                + '}';
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Open addressing hash table of fixed length chunk checksums with linear probing. Checksums are packed into a primitive
+ * byte array alongside a state byte per slot, with an optional fixed number of long values per slot. No per entry
+ * objects are created. Removed entries leave tombstones that are purged on rehashing.
+ * <p>
+ * Hashes are supplied by the caller, see {@link ChunkIndex#hash(byte[], int, int)}.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public final class ChecksumTable {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    private final int keyLength;
+    private final int width;
+    private byte[] keys;
+    private byte[] states;
+    private long[] values;
+    private int size;
+    private int used;
+
+    /**
+     * @param keyLength checksum length
+     * @param width long values per slot, may be zero
+     * @param capacity initial capacity, power of 2
+     */
+    public ChecksumTable(int keyLength, int width, int capacity) {
+        if (keyLength < 1) {
+            throw new IllegalArgumentException("bad key length: " + keyLength);
+        }
+        if (width < 0) {
+            throw new IllegalArgumentException("bad width: " + width);
+        }
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("bad capacity: " + capacity);
+        }
+        this.keyLength = keyLength;
+        this.width = width;
+        allocate(capacity);
+    }
+
+    /**
+     * @param checksum
+     * @param offset checksum offset
+     * @param hash
+     * @return slot, or -1 if not present
+     */
+    public int find(byte[] checksum, int offset, int hash) {
+        int mask = states.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            byte state = states[slot];
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == FULL && matches(slot, checksum, offset)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Adds a checksum that is not present, growing the table as required. Values are not cleared.
+     *
+     * @param checksum
+     * @param hash
+     * @return slot
+     */
+    public int add(byte[] checksum, int hash) {
+        if (used + 1 > states.length * LOAD_FACTOR) {
+            // Double if genuinely full, otherwise just purge tombstones.
+            rehash(size + 1 > states.length * LOAD_FACTOR / 2 ? states.length * 2 : states.length);
+        }
+        size++;
+        return insert(checksum, hash);
+    }
+
+    /**
+     * @param checksum
+     * @param hash
+     * @return true if the checksum was present
+     */
+    public boolean remove(byte[] checksum, int hash) {
+        int slot = find(checksum, 0, hash);
+        if (slot < 0) {
+            return false;
+        }
+        states[slot] = DELETED;
+        size--;
+        return true;
+    }
+
+    public long value(int slot, int index) {
+        return values[slot * width + index];
+    }
+
+    public void value(int slot, int index, long value) {
+        values[slot * width + index] = value;
+    }
+
+    /**
+     * Copies out each checksum present together with its slot.
+     *
+     * @param consumer
+     */
+    public void forEach(ObjIntConsumer<byte[]> consumer) {
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] == FULL) {
+                consumer.accept(Arrays.copyOfRange(keys, slot * keyLength, (slot + 1) * keyLength), slot);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate heap use in bytes
+     */
+    public long memory() {
+        return (long) keys.length + states.length + values.length * 8L;
+    }
+
+    int insert(byte[] checksum, int hash) {
+        int mask = states.length - 1;
+        int slot = hash & mask;
+        while (states[slot] == FULL) {
+            slot = (slot + 1) & mask;
+        }
+        if (states[slot] == EMPTY) {
+            used++;
+        }
+        states[slot] = FULL;
+        System.arraycopy(checksum, 0, keys, slot * keyLength, keyLength);
+        return slot;
+    }
+
+    boolean matches(int slot, byte[] checksum, int offset) {
+        int base = slot * keyLength;
+        for (int i = 0; i < keyLength; i++) {
+            if (keys[base + i] != checksum[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void rehash(int capacity) {
+        byte[] oldKeys = keys;
+        byte[] oldStates = states;
+        long[] oldValues = values;
+        allocate(capacity);
+        byte[] checksum = new byte[keyLength];
+        for (int old = 0; old < oldStates.length; old++) {
+            if (oldStates[old] == FULL) {
+                System.arraycopy(oldKeys, old * keyLength, checksum, 0, keyLength);
+                int slot = insert(checksum, ChunkIndex.hash(checksum));
+                System.arraycopy(oldValues, old * width, values, slot * width, width);
+            }
+        }
+    }
+
+    final void allocate(int capacity) {
+        keys = new byte[capacity * keyLength];
+        states = new byte[capacity];
+        values = new long[capacity * width];
+        used = 0;
+    }
+}
@@ -23,8 +23,9 @@
  */
 package com.github.horrorho.inflatabledonkey.chunk.store;
 
+import com.github.horrorho.inflatabledonkey.crypto.Digests;
+import java.util.Objects;
 import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.SHA256Digest;
 
 /**
  *
@@ -35,9 +36,15 @@ public class ChunkDigest implements Digest {
     private static final int SIZE = 21;
 
     private final Digest digest;
+    private final byte[] hash;
+
+    public ChunkDigest(Digest digest) {
+        this.digest = Objects.requireNonNull(digest, "digest");
+        this.hash = new byte[digest.getDigestSize()];
+    }
 
     public ChunkDigest() {
-        this.digest = new SHA256Digest();
+        this(Digests.sha256());
     }
 
     @Override
@@ -62,7 +69,6 @@ public class ChunkDigest implements Digest {
 
     @Override
     public int doFinal(byte[] out, int outOff) {
-        byte[] hash = new byte[digest.getDigestSize()];
         digest.doFinal(hash, 0);
         digest.update(hash, 0, hash.length);
         digest.doFinal(hash, 0);
@@ -23,7 +23,6 @@
  */
 package com.github.horrorho.inflatabledonkey.chunk.store;
 
-import java.util.Arrays;
 import net.jcip.annotations.Immutable;
 
 /**
@@ -40,6 +39,14 @@ public final class ChunkDigests {
         if ((a[0] & 0x7F) != (b[0] & 0x7F)) {
             return false;
         }
-        return Arrays.equals(Arrays.copyOfRange(a, 1, a.length), Arrays.copyOfRange(b, 1, b.length));
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store;
+
+import com.google.protobuf.ByteString;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Compact in-memory set of fixed length chunk checksums. Checksums are packed into {@link ChecksumTable}s, no per entry
+ * objects are created. The set is split into independently locked segments.
+ * <p>
+ * Each slot costs the checksum length plus one state byte, 22 bytes for 21 byte {@link ChunkDigest} checksums. With a
+ * load factor between 0.375 and 0.75 the footprint is ~29-59 MB per million checksums.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class ChunkIndex {
+
+    private static final int SEGMENTS = 16;                 // power of 2
+    private static final int INITIAL_CAPACITY = 1024;       // per segment, power of 2
+
+    private final int keyLength;
+    private final Segment[] segments;
+
+    public ChunkIndex(int keyLength) {
+        if (keyLength < 1) {
+            throw new IllegalArgumentException("bad key length: " + keyLength);
+        }
+        this.keyLength = keyLength;
+        this.segments = new Segment[SEGMENTS];
+        Arrays.setAll(segments, i -> new Segment(keyLength, INITIAL_CAPACITY));
+    }
+
+    public int keyLength() {
+        return keyLength;
+    }
+
+    public boolean accepts(byte[] checksum) {
+        return checksum.length == keyLength;
+    }
+
+    public boolean contains(byte[] checksum) {
+        if (!accepts(checksum)) {
+            return false;
+        }
+        int hash = hash(checksum);
+        return segment(hash).contains(checksum, hash);
+    }
+
+    /**
+     * Bulk membership test. Checksums are packed into a single array and grouped by segment, each segment lock is
+     * acquired at most once. Checksums of unexpected length are reported as not present.
+     *
+     * @param checksums
+     * @return bit i set if checksums.get(i) is present
+     */
+    public BitSet contains(List<ByteString> checksums) {
+        int n = checksums.size();
+        BitSet found = new BitSet(n);
+        byte[] packed = new byte[n * keyLength];
+        int[] hashes = new int[n];
+        int[] counts = new int[SEGMENTS + 1];
+        for (int i = 0; i < n; i++) {
+            ByteString checksum = checksums.get(i);
+            if (checksum.size() == keyLength) {
+                checksum.copyTo(packed, i * keyLength);
+                hashes[i] = hash(packed, i * keyLength, keyLength);
+                counts[segmentIndex(hashes[i]) + 1]++;
+            }
+        }
+        // Counting sort of checksum indices by segment.
+        for (int i = 0; i < SEGMENTS; i++) {
+            counts[i + 1] += counts[i];
+        }
+        int[] order = new int[counts[SEGMENTS]];
+        int[] next = Arrays.copyOf(counts, SEGMENTS);
+        for (int i = 0; i < n; i++) {
+            if (checksums.get(i).size() == keyLength) {
+                order[next[segmentIndex(hashes[i])]++] = i;
+            }
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            if (counts[i] < counts[i + 1]) {
+                segments[i].contains(packed, hashes, order, counts[i], counts[i + 1], found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds the checksum.
+     *
+     * @param checksum
+     * @return true if the checksum was not already present
+     * @throws IllegalArgumentException if the checksum is not of the expected length
+     */
+    public boolean add(byte[] checksum) {
+        check(checksum);
+        int hash = hash(checksum);
+        return segment(hash).add(checksum, hash);
+    }
+
+    /**
+     * Removes the checksum.
+     *
+     * @param checksum
+     * @return true if the checksum was present
+     */
+    public boolean remove(byte[] checksum) {
+        if (!accepts(checksum)) {
+            return false;
+        }
+        int hash = hash(checksum);
+        return segment(hash).remove(checksum, hash);
+    }
+
+    /**
+     * Copies out each checksum present at the time of the call for its segment. Concurrent modifications to other
+     * segments may or may not be visible.
+     *
+     * @param consumer
+     */
+    public void forEach(Consumer<byte[]> consumer) {
+        for (Segment segment : segments) {
+            segment.forEach(consumer);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return approximate heap use in bytes
+     */
+    public long memory() {
+        long memory = 0;
+        for (Segment segment : segments) {
+            memory += segment.memory();
+        }
+        return memory;
+    }
+
+    void check(byte[] checksum) {
+        if (!accepts(checksum)) {
+            throw new IllegalArgumentException("bad checksum length: " + checksum.length + " expected: " + keyLength);
+        }
+    }
+
+    Segment segment(int hash) {
+        return segments[segmentIndex(hash)];
+    }
+
+    static int segmentIndex(int hash) {
+        return hash >>> 28 & (SEGMENTS - 1);
+    }
+
+    public static int hash(byte[] checksum) {
+        return hash(checksum, 0, checksum.length);
+    }
+
+    public static int hash(byte[] checksum, int offset, int length) {
+        // Checksums are digests and already well distributed, we just need to fold all the bytes in.
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ checksum[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 15);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkIndex{" + "keyLength=" + keyLength + ", size=" + size() + ", memory=" + memory() + '}';
+    }
+
+    @ThreadSafe
+    static final class Segment {
+
+        private final int keyLength;
+        @GuardedBy("this")
+        private final ChecksumTable table;
+
+        Segment(int keyLength, int capacity) {
+            this.keyLength = keyLength;
+            this.table = new ChecksumTable(keyLength, 0, capacity);
+        }
+
+        synchronized boolean contains(byte[] checksum, int hash) {
+            return table.find(checksum, 0, hash) >= 0;
+        }
+
+        synchronized void contains(byte[] packed, int[] hashes, int[] order, int from, int to, BitSet found) {
+            for (int i = from; i < to; i++) {
+                int index = order[i];
+                if (table.find(packed, index * keyLength, hashes[index]) >= 0) {
+                    found.set(index);
+                }
+            }
+        }
+
+        synchronized boolean add(byte[] checksum, int hash) {
+            if (table.find(checksum, 0, hash) >= 0) {
+                return false;
+            }
+            table.add(checksum, hash);
+            return true;
+        }
+
+        synchronized boolean remove(byte[] checksum, int hash) {
+            return table.remove(checksum, hash);
+        }
+
+        synchronized void forEach(Consumer<byte[]> consumer) {
+            table.forEach((checksum, slot) -> consumer.accept(checksum));
+        }
+
+        synchronized int size() {
+            return table.size();
+        }
+
+        synchronized long memory() {
+            return table.memory();
+        }
+    }
+}
@@ -24,9 +24,11 @@
 package com.github.horrorho.inflatabledonkey.chunk.store;
 
 import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -44,6 +46,22 @@ public interface ChunkStore {
 
     boolean contains(byte[] checksum);
 
+    /**
+     * Bulk membership test. Implementations SHOULD override to answer the batch in a single operation.
+     *
+     * @param checksums
+     * @return bit i set if checksums.get(i) is present
+     */
+    default BitSet contains(List<ByteString> checksums) {
+        BitSet found = new BitSet(checksums.size());
+        for (int i = 0; i < checksums.size(); i++) {
+            if (contains(checksums.get(i).toByteArray())) {
+                found.set(i);
+            }
+        }
+        return found;
+    }
+
     Optional<Chunk> chunk(byte[] checksum);
 
     /**
@@ -66,6 +84,20 @@ public interface ChunkStore {
      */
     boolean delete(byte[] checksum) throws IOException;
 
+    /**
+     * Deletes the checksum referenced chunk data, reporting the storage freed. Stores that do not free storage on
+     * deletion report 0.
+     *
+     * @param checksum
+     * @return storage bytes freed if the specified chunk data was present and deleted
+     * @throws IOException
+     */
+    default Optional<Long> reclaim(byte[] checksum) throws IOException {
+        return delete(checksum)
+                ? Optional.of(0L)
+                : Optional.empty();
+    }
+
     default Set<Chunk> anyChunks(Collection<byte[]> checksums) {
         return checksums.stream()
                 .map(this::chunk)
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.cache;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.io.ByteBufferInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Optional;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Chunk served from the {@link ChunkCache} where present, otherwise read from the underlying chunk and offered to the
+ * cache.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class CachedChunk implements Chunk {
+
+    private final Chunk chunk;
+    private final ChunkCache cache;
+
+    CachedChunk(Chunk chunk, ChunkCache cache) {
+        this.chunk = Objects.requireNonNull(chunk, "chunk");
+        this.cache = Objects.requireNonNull(cache, "cache");
+    }
+
+    @Override
+    public byte[] checksum() {
+        return chunk.checksum();
+    }
+
+    @Override
+    public Optional<InputStream> inputStream() throws IOException {
+        return buffer()
+                .map(ByteBufferInputStream::new);
+    }
+
+    @Override
+    public Optional<ByteBuffer> buffer() throws IOException {
+        byte[] checksum = chunk.checksum();
+        Optional<ByteBuffer> cached = cache.get(checksum);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        // Heap buffers are not copied, the cache holds its own read only view of the same data. Direct and mapped
+        // buffers are copied to the heap, the cache should not pin file mappings or off-heap memory.
+        Optional<ByteBuffer> buffer = chunk.buffer()
+                .map(u -> u.isDirect() ? heap(u) : u);
+        buffer.ifPresent(u -> cache.put(checksum, u, false));
+        return buffer;
+    }
+
+    static ByteBuffer heap(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        return chunk.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final CachedChunk other = (CachedChunk) obj;
+        return chunk.equals(other.chunk);
+    }
+
+    @Override
+    public String toString() {
+        return "CachedChunk{" + "chunk=" + chunk + '}';
+    }
+}
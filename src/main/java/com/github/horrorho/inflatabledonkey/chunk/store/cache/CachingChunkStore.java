@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.cache;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.io.HookOutputStream;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import net.jcip.annotations.ThreadSafe;
+import org.bouncycastle.util.io.TeeOutputStream;
+
+/**
+ * ChunkStore decorator serving chunk data from a bounded in-memory {@link ChunkCache}. Chunk data is cached on
+ * successful commit and on read.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class CachingChunkStore implements ChunkStore {
+
+    private final ChunkStore store;
+    private final ChunkCache cache;
+
+    public CachingChunkStore(ChunkStore store, ChunkCache cache) {
+        this.store = Objects.requireNonNull(store, "store");
+        this.cache = Objects.requireNonNull(cache, "cache");
+    }
+
+    @Override
+    public boolean contains(byte[] checksum) {
+        return store.contains(checksum);
+    }
+
+    @Override
+    public BitSet contains(List<ByteString> checksums) {
+        return store.contains(checksums);
+    }
+
+    @Override
+    public Optional<Chunk> chunk(byte[] checksum) {
+        return store.chunk(checksum)
+                .map(u -> new CachedChunk(u, cache));
+    }
+
+    @Override
+    public Optional<OutputStream> outputStream(byte[] checksum) throws IOException {
+        return store.outputStream(checksum)
+                .map(u -> outputStream(checksum, u));
+    }
+
+    OutputStream outputStream(byte[] checksum, OutputStream os) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // Cached only once the underlying store has verified and committed the data. The commit counts as an access,
+        // the chunk is about to be read back for assembly.
+        return new HookOutputStream<>(new TeeOutputStream(os, baos), u -> cache.put(checksum, ByteBuffer.wrap(baos.toByteArray())));
+    }
+
+    @Override
+    public boolean delete(byte[] checksum) throws IOException {
+        cache.remove(checksum);
+        return store.delete(checksum);
+    }
+
+    @Override
+    public Optional<Long> reclaim(byte[] checksum) throws IOException {
+        cache.remove(checksum);
+        return store.reclaim(checksum);
+    }
+
+    public ChunkCache cache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingChunkStore{" + "store=" + store + ", cache=" + cache + '}';
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Byte bounded in-memory chunk data cache with W-TinyLFU eviction. New entries enter a small LRU window. Entries
+ * leaving the window are admitted to the main LRU region only if their estimated access frequency exceeds that of the
+ * main region's eviction victim. Recent entries are given a chance to build frequency, one-off reads do not flush
+ * frequently used chunks.
+ * <p>
+ * Data is held as read only ByteBuffers and is not copied in or out. Callers receive independent duplicates. Callers
+ * should offer heap buffers, cached mapped buffers pin their file mappings until evicted.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class ChunkCache {
+
+    public static final int DEFAULT_AVERAGE_CHUNK_SIZE = 16384;
+
+    private static final int WINDOW_PERCENT = 1;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final long capacity;
+    private final long windowCapacity;
+    private final long mainCapacity;
+    @GuardedBy("this")
+    private final LinkedHashMap<ByteBuffer, ByteBuffer> window = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("this")
+    private final LinkedHashMap<ByteBuffer, ByteBuffer> main = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("this")
+    private final FrequencySketch sketch;
+    @GuardedBy("this")
+    private long windowSize;
+    @GuardedBy("this")
+    private long mainSize;
+
+    public ChunkCache(long capacity, int averageChunkSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("bad cache capacity: " + capacity);
+        }
+        if (averageChunkSize < 1) {
+            throw new IllegalArgumentException("bad average chunk size: " + averageChunkSize);
+        }
+        this.capacity = capacity;
+        this.windowCapacity = capacity * WINDOW_PERCENT / 100;
+        this.mainCapacity = capacity - windowCapacity;
+        this.sketch = new FrequencySketch(capacity / averageChunkSize);
+    }
+
+    public ChunkCache(long capacity) {
+        this(capacity, DEFAULT_AVERAGE_CHUNK_SIZE);
+    }
+
+    /**
+     * Records an access.
+     *
+     * @param checksum
+     * @return read only duplicate of the cached chunk data
+     */
+    public Optional<ByteBuffer> get(byte[] checksum) {
+        ByteBuffer key = ByteBuffer.wrap(checksum);
+        ByteBuffer data;
+        synchronized (this) {
+            sketch.increment(key);
+            data = window.get(key);
+            if (data == null) {
+                data = main.get(key);
+            }
+        }
+        if (data == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(data.duplicate());
+    }
+
+    /**
+     * Records an access and caches the data.
+     *
+     * @param checksum
+     * @param data chunk data from position to limit, SHALL NOT be modified after caching
+     */
+    public void put(byte[] checksum, ByteBuffer data) {
+        put(checksum, data, true);
+    }
+
+    /**
+     * @param checksum
+     * @param data chunk data from position to limit, SHALL NOT be modified after caching
+     * @param access true to record an access, false if already recorded by a missed {@link #get}
+     */
+    synchronized void put(byte[] checksum, ByteBuffer data, boolean access) {
+        ByteBuffer key = ByteBuffer.wrap(checksum.clone());
+        if (access) {
+            sketch.increment(key);
+        }
+        int length = data.remaining();
+        if (length > mainCapacity || window.containsKey(key) || main.containsKey(key)) {
+            return;
+        }
+        window.put(key, data.asReadOnlyBuffer());
+        windowSize += length;
+
+        Iterator<Map.Entry<ByteBuffer, ByteBuffer>> it = window.entrySet().iterator();
+        while (windowSize > windowCapacity && it.hasNext()) {
+            Map.Entry<ByteBuffer, ByteBuffer> candidate = it.next();
+            it.remove();
+            windowSize -= candidate.getValue().remaining();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    @GuardedBy("this")
+    void admit(ByteBuffer key, ByteBuffer data) {
+        int frequency = sketch.frequency(key);
+        int length = data.remaining();
+        Iterator<Map.Entry<ByteBuffer, ByteBuffer>> it = main.entrySet().iterator();
+        while (mainSize + length > mainCapacity && it.hasNext()) {
+            Map.Entry<ByteBuffer, ByteBuffer> victim = it.next();
+            if (frequency <= sketch.frequency(victim.getKey())) {
+                rejections.increment();
+                return;
+            }
+            it.remove();
+            mainSize -= victim.getValue().remaining();
+            evictions.increment();
+        }
+        main.put(key, data);
+        mainSize += length;
+    }
+
+    public synchronized void remove(byte[] checksum) {
+        ByteBuffer key = ByteBuffer.wrap(checksum);
+        ByteBuffer data = window.remove(key);
+        if (data != null) {
+            windowSize -= data.remaining();
+        }
+        data = main.remove(key);
+        if (data != null) {
+            mainSize -= data.remaining();
+        }
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return cached chunk data bytes
+     */
+    public synchronized long size() {
+        return windowSize + mainSize;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return entries refused admission to the main region
+     */
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkCache{"
+                + "capacity=" + capacity
+                + ", size=" + size()
+                + ", hits=" + hits()
+                + ", misses=" + misses()
+                + ", evictions=" + evictions()
+                + ", rejections=" + rejections()
+                + '}';
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.io.FileChannelOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Deflate compressing file writer that gives up early on data that does not compress, such as media chunks. Input and
+ * compressed output are held in memory only until the probe length is reached. If the compressed output is then within
+ * the ratio threshold of the input, compressed data is streamed into the file after a plaintext length header,
+ * otherwise the probe input and all further data is written raw. Inputs shorter than the probe length are stored
+ * whichever way is smaller.
+ * <p>
+ * The file channel is closed on {@link #close()}, after which {@link #deflated()} reports the stored form.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+final class DeflateSink extends OutputStream {
+
+    static final int PROBE_LENGTH = 16384;
+    static final double RATIO_THRESHOLD = 0.9;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private enum Mode {
+        PROBE, DEFLATE, RAW, CLOSED
+    }
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final FileChannel channel;
+    private final Deflater deflater;
+    private ByteArrayOutputStream probe = new ByteArrayOutputStream();
+    private ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private OutputStream out;
+    private Mode mode = Mode.PROBE;
+    private boolean deflated;
+    private long input;
+
+    DeflateSink(int level, FileChannel channel) {
+        this.channel = Objects.requireNonNull(channel, "channel");
+        this.deflater = new Deflater(level);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        input += len;
+        switch (mode) {
+            case PROBE:
+                probe.write(b, off, len);
+                deflate(b, off, len, compressed);
+                if (input >= PROBE_LENGTH) {
+                    decide();
+                }
+                break;
+            case DEFLATE:
+                deflate(b, off, len, out);
+                break;
+            case RAW:
+                out.write(b, off, len);
+                break;
+            default:
+                throw new IOException("DeflateSink closed");
+        }
+    }
+
+    void deflate(byte[] b, int off, int len, OutputStream os) throws IOException {
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drain(os);
+        }
+    }
+
+    void drain(OutputStream os) throws IOException {
+        drain(os, Deflater.NO_FLUSH);
+    }
+
+    int drain(OutputStream os, int flush) throws IOException {
+        int n = deflater.deflate(buffer, 0, buffer.length, flush);
+        os.write(buffer, 0, n);
+        return n;
+    }
+
+    void decide() throws IOException {
+        // Flushed, otherwise the deflater may still be holding back most of the probe.
+        int n;
+        do {
+            n = drain(compressed, Deflater.SYNC_FLUSH);
+        } while (n == buffer.length);
+        if (compressed.size() > input * RATIO_THRESHOLD) {
+            deflater.end();
+            raw();
+        } else {
+            // Header written on close, once the plaintext length is known.
+            out = new BufferedOutputStream(
+                    new FileChannelOutputStream(channel, DiskChunkFiles.DEFLATE_HEADER_LENGTH), BUFFER_SIZE);
+            compressed.writeTo(out);
+            mode = Mode.DEFLATE;
+        }
+        probe = null;
+        compressed = null;
+    }
+
+    void raw() throws IOException {
+        out = new BufferedOutputStream(new FileChannelOutputStream(channel, 0), BUFFER_SIZE);
+        probe.writeTo(out);
+        mode = Mode.RAW;
+    }
+
+    void finish(OutputStream os) throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain(os);
+        }
+    }
+
+    void header() throws IOException {
+        if (input > Integer.MAX_VALUE) {
+            throw new IOException("DeflateSink, chunk too large: " + input);
+        }
+        ByteBuffer header = ByteBuffer.allocate(DiskChunkFiles.DEFLATE_HEADER_LENGTH).putInt((int) input);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * @return true if the data was stored Deflate compressed, valid once closed
+     */
+    boolean deflated() {
+        return deflated;
+    }
+
+    long input() {
+        return input;
+    }
+
+    /**
+     * Completes the file and closes the channel.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mode == Mode.CLOSED) {
+            return;
+        }
+        try {
+            switch (mode) {
+                case PROBE:
+                    finish(compressed);
+                    if (compressed.size() + DiskChunkFiles.DEFLATE_HEADER_LENGTH < input) {
+                        out = new FileChannelOutputStream(channel, DiskChunkFiles.DEFLATE_HEADER_LENGTH);
+                        compressed.writeTo(out);
+                        header();
+                        deflated = true;
+                    } else {
+                        raw();
+                    }
+                    break;
+                case DEFLATE:
+                    finish(out);
+                    out.flush();
+                    header();
+                    deflated = true;
+                    break;
+                default:
+            }
+            out.flush();
+        } finally {
+            deflater.end();
+            mode = Mode.CLOSED;
+            probe = null;
+            compressed = null;
+            channel.close();
+        }
+    }
+}
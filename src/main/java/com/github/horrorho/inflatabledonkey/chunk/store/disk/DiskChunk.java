@@ -25,15 +25,21 @@ package com.github.horrorho.inflatabledonkey.chunk.store.disk;
 
 import com.github.horrorho.inflatabledonkey.io.HookInputStream;
 import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.io.FileChannelBuffers;
 import com.github.horrorho.inflatabledonkey.io.IOConsumer;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import static java.nio.file.StandardOpenOption.READ;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import net.jcip.annotations.ThreadSafe;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
@@ -41,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Disk chunk, stored either raw or Deflate compressed. Compressed data is inflated transparently.
  *
  * @author Ahseya
  */
@@ -51,9 +58,11 @@ public final class DiskChunk implements Chunk {
 
     private final byte[] checksum;
     private final Path file;
+    private final Path deflated;
 
     DiskChunk(byte[] checksum, Path file) {
         this.file = Objects.requireNonNull(file, "file");
+        this.deflated = DiskChunkFiles.deflated(file);
         this.checksum = Arrays.copyOf(checksum, checksum.length);
     }
 
@@ -64,9 +73,26 @@ public final class DiskChunk implements Chunk {
 
     @Override
     public Optional<InputStream> inputStream() throws IOException {
-        return Files.exists(file)
-                ? doInputStream()
-                : Optional.empty();
+        // Opened optimistically, raw then deflated, without prior existence checks.
+        Optional<InputStream> is = doInputStream();
+        return is.isPresent()
+                ? is
+                : inflaterInputStream();
+    }
+
+    Optional<InputStream> inflaterInputStream() throws IOException {
+        try {
+            InputStream is = Files.newInputStream(deflated, READ);
+            if (is.skip(DiskChunkFiles.DEFLATE_HEADER_LENGTH) != DiskChunkFiles.DEFLATE_HEADER_LENGTH) {
+                is.close();
+                throw new IOException("DiskChunk, truncated deflated chunk: " + deflated);
+            }
+            return Optional.of(new InflaterInputStream(is));
+
+        } catch (NoSuchFileException ex) {
+            logger.warn("-- inflaterInputStream() - file was just deleted: {}", ex);
+            return Optional.empty();
+        }
     }
 
     Optional<InputStream> doInputStream() throws IOException {
@@ -81,9 +107,70 @@ public final class DiskChunk implements Chunk {
             return Optional.of(is);
 
         } catch (NoSuchFileException ex) {
-            logger.warn("-- doInputStream() - file was just deleted: {}", ex);
+            logger.trace("-- doInputStream() - not a raw chunk: {}", file);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<ByteBuffer> buffer() throws IOException {
+        // Mapped regions outlive the channel, no file handles are held whilst the buffer is consumed. Chunk files are
+        // typically read once per assembly, so channels are not cached.
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("DiskChunk, chunk too large: " + size);
+            }
+            return Optional.of(FileChannelBuffers.buffer(channel, 0, (int) size));
+
+        } catch (NoSuchFileException ex) {
+            return inflate();
+        }
+    }
+
+    Optional<ByteBuffer> inflate() throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(deflated);
+        } catch (NoSuchFileException ex) {
+            logger.warn("-- inflate() - file was just deleted: {}", ex);
             return Optional.empty();
         }
+        int length = plaintextLength(data);
+        Inflater inflater = new Inflater();
+        try {
+            int header = DiskChunkFiles.DEFLATE_HEADER_LENGTH;
+            inflater.setInput(data, header, data.length - header);
+            byte[] out = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int inflated = inflater.inflate(out, n, length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != length) {
+                throw new IOException("DiskChunk, corrupt deflated chunk: " + deflated);
+            }
+            return Optional.of(ByteBuffer.wrap(out).asReadOnlyBuffer());
+
+        } catch (DataFormatException ex) {
+            throw new IOException("DiskChunk, corrupt deflated chunk: " + deflated, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    int plaintextLength(byte[] data) throws IOException {
+        if (data.length < DiskChunkFiles.DEFLATE_HEADER_LENGTH) {
+            throw new IOException("DiskChunk, truncated deflated chunk: " + deflated);
+        }
+        int length = ByteBuffer.wrap(data).getInt();
+        if (length < 0) {
+            throw new IOException("DiskChunk, bad deflated chunk length: " + deflated);
+        }
+        return length;
     }
 
 //    Optional<InputStream> doInputStream() throws IOException {
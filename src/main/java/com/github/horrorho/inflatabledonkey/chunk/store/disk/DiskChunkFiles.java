@@ -26,6 +26,8 @@ package com.github.horrorho.inflatabledonkey.chunk.store.disk;
 import com.github.horrorho.inflatabledonkey.args.Property;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
+import org.bouncycastle.util.encoders.DecoderException;
 import org.bouncycastle.util.encoders.Hex;
 
 /**
@@ -38,6 +40,16 @@ public class DiskChunkFiles {
             .asInteger()
             .orElse(3);
 
+    /**
+     * Deflate compressed chunk files: (int) plaintext length | zlib stream.
+     */
+    static final String DEFLATE_SUFFIX = ".z";
+    static final int DEFLATE_HEADER_LENGTH = 4;
+
+    static Path deflated(Path file) {
+        return file.resolveSibling(file.getFileName() + DEFLATE_SUFFIX);
+    }
+
     static Path filename(byte[] chunkChecksum) {
         return filename(chunkChecksum, SUBSPLIT);
     }
@@ -59,5 +71,32 @@ public class DiskChunkFiles {
         return path.resolve(filename.substring(subSplit))
                 .normalize();
     }
+
+    static boolean isHex(int c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * Inverse of {@link #filename(byte[])}, also accepting deflated chunk files.
+     *
+     * @param relative chunk file path relative to the chunk folder
+     * @return chunk checksum, or empty if the path does not describe a chunk file
+     */
+    static Optional<byte[]> checksum(Path relative) {
+        StringBuilder sb = new StringBuilder();
+        relative.forEach(sb::append);
+        String filename = sb.toString();
+        if (filename.endsWith(DEFLATE_SUFFIX)) {
+            filename = filename.substring(0, filename.length() - DEFLATE_SUFFIX.length());
+        }
+        if (filename.isEmpty() || filename.length() % 2 != 0 || !filename.chars().allMatch(DiskChunkFiles::isHex)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Hex.decode(filename));
+        } catch (DecoderException ex) {
+            return Optional.empty();
+        }
+    }
 }
 // TODO rework as object
@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
+import com.github.horrorho.inflatabledonkey.io.TokenBucket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+import static java.util.stream.Collectors.toList;
+import java.util.stream.Stream;
+import java.util.zip.InflaterInputStream;
+import net.jcip.annotations.Immutable;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk chunk store scrubber. Every chunk file, raw or Deflate compressed, is re-hashed and tested against the checksum
+ * encoded in its filename, with at most the specified number of concurrent verifications. Corrupt chunks are moved into
+ * the quarantine folder, preserving their relative paths, or deleted if no quarantine folder is specified. Orphaned
+ * temporary files are swept from the temp folder.
+ * <p>
+ * SHALL NOT run concurrently with a {@link DiskChunkStore} over the same folders, as in-flight temporary files are
+ * swept and the store's index is not updated.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class DiskChunkScrubber {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskChunkScrubber.class);
+
+    private static final int BUFFER_LENGTH = 65536;
+
+    private final Supplier<Digest> digests;
+    private final BiPredicate<byte[], byte[]> testDigest;
+    private final Path chunkFolder;
+    private final Path tempFolder;
+    private final Optional<Path> quarantineFolder;
+    private final Optional<TokenBucket> throttle;
+    private final int threads;
+
+    public DiskChunkScrubber(Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest, Path chunkFolder,
+            Path tempFolder, Optional<Path> quarantineFolder, Optional<TokenBucket> throttle, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("bad thread count: " + threads);
+        }
+        this.digests = Objects.requireNonNull(digests, "digests");
+        this.testDigest = Objects.requireNonNull(testDigest, "testDigest");
+        this.chunkFolder = chunkFolder.normalize().toAbsolutePath();
+        this.tempFolder = tempFolder.normalize().toAbsolutePath();
+        this.quarantineFolder = quarantineFolder.map(u -> u.normalize().toAbsolutePath());
+        this.throttle = Objects.requireNonNull(throttle, "throttle");
+        this.threads = threads;
+    }
+
+    public DiskChunkScrubberReport scrub() throws IOException {
+        long timestamp = System.currentTimeMillis();
+        long swept = sweep();
+
+        List<Path> files = files();
+        logger.debug("-- scrub() - chunk files: {}", files.size());
+
+        LongAdder checked = new LongAdder();
+        LongAdder bad = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> files.parallelStream().forEach(u -> scrub(u, checked, bad, bytes))).get();
+
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdown();
+        }
+
+        DiskChunkScrubberReport report = new DiskChunkScrubberReport(
+                checked.sum(), bad.sum(), bytes.sum(), swept, System.currentTimeMillis() - timestamp);
+        logger.info("-- scrub() - report: {}", report);
+        return report;
+    }
+
+    long sweep() throws IOException {
+        if (!Files.isDirectory(tempFolder)) {
+            return 0;
+        }
+        long swept = 0;
+        try (Stream<Path> paths = Files.list(tempFolder)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)
+                        && path.getFileName().toString().endsWith(DiskChunkStore.TEMP_SUFFIX)
+                        && Files.deleteIfExists(path)) {
+                    logger.debug("-- sweep() - deleted: {}", path);
+                    swept++;
+                }
+            }
+        }
+        return swept;
+    }
+
+    List<Path> files() throws IOException {
+        if (!Files.isDirectory(chunkFolder)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.walk(chunkFolder)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(u -> DiskChunkFiles.checksum(chunkFolder.relativize(u)).isPresent())
+                    .collect(toList());
+        }
+    }
+
+    void scrub(Path file, LongAdder checked, LongAdder bad, LongAdder bytes) {
+        byte[] checksum = DiskChunkFiles.checksum(chunkFolder.relativize(file)).get();
+        try {
+            Optional<Boolean> verified = verify(file, checksum, bytes);
+            if (!verified.isPresent()) {
+                return;
+            }
+            checked.increment();
+            if (!verified.get()) {
+                logger.warn("-- scrub() - corrupt chunk: {}", file);
+                bad.increment();
+                dispose(file);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return verification result, or empty if the file was deleted whilst scrubbing
+     */
+    Optional<Boolean> verify(Path file, byte[] checksum, LongAdder bytes) throws IOException {
+        boolean deflated = file.getFileName().toString().endsWith(DiskChunkFiles.DEFLATE_SUFFIX);
+        Digest digest = digests.get();
+        try (InputStream is = deflated ? inflaterInputStream(file) : Files.newInputStream(file, READ)) {
+            long length = update(digest, is);
+            bytes.add(length);
+            if (deflated && length != plaintextLength(file)) {
+                logger.debug("-- verify() - deflated length mismatch: {}", file);
+                return Optional.of(false);
+            }
+        } catch (NoSuchFileException ex) {
+            logger.debug("-- verify() - file was just deleted: {}", file);
+            return Optional.empty();
+        } catch (IOException ex) {
+            // Truncated headers, corrupt zlib streams.
+            logger.debug("-- verify() - unreadable chunk: {} {}", file, ex);
+            return Optional.of(false);
+        }
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        boolean match = testDigest.test(out, checksum);
+        logger.trace("-- verify() - file: {} digest: {} match: {}", file, Hex.toHexString(out), match);
+        return Optional.of(match);
+    }
+
+    long update(Digest digest, InputStream is) throws IOException {
+        byte[] buffer = new byte[BUFFER_LENGTH];
+        long length = 0;
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+            length += n;
+            throttle(n);
+        }
+        return length;
+    }
+
+    void throttle(int n) {
+        if (throttle.isPresent()) {
+            try {
+                throttle.get().acquire(n);
+            } catch (InterruptedException ex) {
+                throw new UncheckedInterruptedException(ex);
+            }
+        }
+    }
+
+    InputStream inflaterInputStream(Path file) throws IOException {
+        InputStream is = Files.newInputStream(file, READ);
+        if (is.skip(DiskChunkFiles.DEFLATE_HEADER_LENGTH) != DiskChunkFiles.DEFLATE_HEADER_LENGTH) {
+            is.close();
+            throw new IOException("DiskChunkScrubber, truncated deflated chunk: " + file);
+        }
+        return new InflaterInputStream(is);
+    }
+
+    long plaintextLength(Path file) throws IOException {
+        byte[] header = new byte[DiskChunkFiles.DEFLATE_HEADER_LENGTH];
+        try (InputStream is = Files.newInputStream(file, READ)) {
+            if (is.read(header) != header.length) {
+                throw new IOException("DiskChunkScrubber, truncated deflated chunk: " + file);
+            }
+        }
+        return ByteBuffer.wrap(header).getInt();
+    }
+
+    void dispose(Path file) throws IOException {
+        if (quarantineFolder.isPresent()) {
+            Path to = quarantineFolder.get().resolve(chunkFolder.relativize(file));
+            if (!DirectoryAssistant.createParent(to)) {
+                throw new IOException("DiskChunkScrubber, failed to create quarantine directory: " + to);
+            }
+            Files.move(file, to, REPLACE_EXISTING);
+            logger.info("-- dispose() - quarantined: {} -> {}", file, to);
+        } else {
+            Files.deleteIfExists(file);
+            logger.info("-- dispose() - deleted: {}", file);
+        }
+        DirectoryAssistant.deleteEmptyBranch(chunkFolder, file.getParent());
+    }
+
+    @Override
+    public String toString() {
+        return "DiskChunkScrubber{"
+                + "digests=" + digests
+                + ", chunkFolder=" + chunkFolder
+                + ", tempFolder=" + tempFolder
+                + ", quarantineFolder=" + quarantineFolder
+                + ", throttle=" + throttle
+                + ", threads=" + threads
+                + '}';
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Chunk store scrub summary.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class DiskChunkScrubberReport {
+
+    private final long checked;
+    private final long bad;
+    private final long bytes;
+    private final long swept;
+    private final long milliseconds;
+
+    public DiskChunkScrubberReport(long checked, long bad, long bytes, long swept, long milliseconds) {
+        this.checked = checked;
+        this.bad = bad;
+        this.bytes = bytes;
+        this.swept = swept;
+        this.milliseconds = milliseconds;
+    }
+
+    public long checked() {
+        return checked;
+    }
+
+    /**
+     * @return chunks that failed verification and were quarantined or deleted
+     */
+    public long bad() {
+        return bad;
+    }
+
+    /**
+     * @return chunk data bytes hashed
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return orphaned temporary files deleted
+     */
+    public long swept() {
+        return swept;
+    }
+
+    public long milliseconds() {
+        return milliseconds;
+    }
+
+    public double gigabytesPerSecond() {
+        return milliseconds == 0
+                ? 0
+                : bytes / (double) (1L << 30) / (milliseconds / 1000d);
+    }
+
+    @Override
+    public String toString() {
+        return "DiskChunkScrubberReport{"
+                + "checked=" + checked
+                + ", bad=" + bad
+                + ", bytes=" + bytes
+                + ", swept=" + swept
+                + ", milliseconds=" + milliseconds
+                + '}';
+    }
+}
@@ -25,20 +25,33 @@ package com.github.horrorho.inflatabledonkey.chunk.store.disk;
 
 import com.github.horrorho.inflatabledonkey.io.HookOutputStream;
 import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkIndex;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.exception.BadDataException;
 import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
 import com.github.horrorho.inflatabledonkey.io.IOConsumer;
+import com.google.protobuf.ByteString;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiPredicate;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import org.bouncycastle.crypto.Digest;
@@ -49,26 +62,58 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Thread safe disk based chunk store.
+ * Thread safe disk based chunk store. The store lock is only held whilst a verified chunk is moved into place or
+ * deleted. Membership queries, temporary file creation and digest verification are lock free.
+ * <p>
+ * On opening, the chunk folder is scanned into an in-memory {@link ChunkIndex} which is then maintained on commit and
+ * delete. Membership queries are answered from the index and do not touch the file system.
+ * <p>
+ * Optionally chunks are stored Deflate compressed, see {@link DiskChunkFiles#DEFLATE_SUFFIX}. Data is compressed as
+ * it streams into the temporary file and verified against the plaintext digest. Chunks that do not compress are
+ * stored raw, see {@link DeflateSink}.
+ * <p>
+ * Commit durability is delegated to the {@link DiskChunkSync} policy, which is flushed on {@link #close()}.
  *
  * @author Ahseya
  */
 @ThreadSafe
-public final class DiskChunkStore implements ChunkStore {
+public final class DiskChunkStore implements ChunkStore, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(DiskChunkStore.class);
 
+    public static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
     private static final int TEMP_FILE_RETRY = 3;   // ~ 2^190 collision risk with 4 threads
-    private static final String TEMP_SUFFIX = ".tmp";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    static ChunkIndex index(Path chunkFolder, int keyLength) throws IOException {
+        long timestamp = System.currentTimeMillis();
+        ChunkIndex index = new ChunkIndex(keyLength);
+        try (Stream<Path> paths = Files.walk(chunkFolder)) {
+            paths.filter(Files::isRegularFile)
+                    .map(chunkFolder::relativize)
+                    .map(DiskChunkFiles::checksum)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .filter(index::accepts)
+                    .forEach(index::add);
+        }
+        logger.info("-- index() - chunk folder: {} chunks: {} index memory (bytes): {} time (ms): {}",
+                chunkFolder, index.size(), index.memory(), System.currentTimeMillis() - timestamp);
+        return index;
+    }
 
     private final Object lock;
     private final Supplier<Digest> digests;
     private final BiPredicate<byte[], byte[]> testDigest;
     private final Path chunkFolder;
     private final Path tempFolder;
+    private final ChunkIndex index;
+    private final boolean compress;
+    private final DiskChunkSync sync;
 
-    DiskChunkStore(Object lock, Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest,
-            Path chunkFolder, Path tempFolder) throws IOException {
+    DiskChunkStore(Object lock, boolean compress, DiskChunkSync sync, Supplier<Digest> digests,
+            BiPredicate<byte[], byte[]> testDigest, Path chunkFolder, Path tempFolder) throws IOException {
         if (!DirectoryAssistant.create(chunkFolder)) {
             throw new IOException("DiskChunkStore failed to create chunk folder: "
                     + chunkFolder.normalize().toAbsolutePath());
@@ -77,102 +122,153 @@ public final class DiskChunkStore implements ChunkStore {
             throw new IOException("DiskChunkStore failed to create temp folder: "
                     + tempFolder.normalize().toAbsolutePath());
         }
-        this.lock = Objects.requireNonNull(lock);
+        this.lock = Objects.requireNonNull(lock, "lock");
+        this.compress = compress;
+        this.sync = Objects.requireNonNull(sync, "sync");
         this.digests = Objects.requireNonNull(digests);
         this.testDigest = Objects.requireNonNull(testDigest);
         this.chunkFolder = chunkFolder.normalize().toAbsolutePath();
         this.tempFolder = tempFolder.normalize().toAbsolutePath();
+        this.index = index(this.chunkFolder, digests.get().getDigestSize());
+    }
+
+    public DiskChunkStore(boolean compress, DiskChunkSync sync, Supplier<Digest> digests,
+            BiPredicate<byte[], byte[]> testDigest, Path chunkFolder, Path tempFolder) throws IOException {
+        this(new Object(), compress, sync, digests, testDigest, chunkFolder, tempFolder);
+    }
+
+    public DiskChunkStore(boolean compress, Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest,
+            Path chunkFolder, Path tempFolder) throws IOException {
+        this(compress, DiskChunkSyncs.none(), digests, testDigest, chunkFolder, tempFolder);
     }
 
     public DiskChunkStore(Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest, Path chunkFolder,
             Path tempFolder) throws IOException {
-        this(new Object(), digests, testDigest, chunkFolder, tempFolder);
+        this(false, digests, testDigest, chunkFolder, tempFolder);
     }
 
     @Override
     public boolean contains(byte[] checksum) {
-        synchronized (lock) {
-            Path file = path(checksum);
-            return Files.exists(file);
+        return index.accepts(checksum)
+                ? index.contains(checksum)
+                : exists(path(checksum));
+    }
+
+    @Override
+    public BitSet contains(List<ByteString> checksums) {
+        BitSet found = index.contains(checksums);
+        for (int i = 0; i < checksums.size(); i++) {
+            ByteString checksum = checksums.get(i);
+            if (checksum.size() != index.keyLength() && exists(path(checksum.toByteArray()))) {
+                found.set(i);
+            }
         }
+        return found;
     }
 
     @Override
     public Optional<Chunk> chunk(byte[] checksum) {
-        synchronized (lock) {
-            Path file = path(checksum);
-            // DiskChunk instances are lightweight, not cached.
-            return Files.exists(file)
-                    ? Optional.of(new DiskChunk(checksum, file))
-                    : Optional.empty();
-        }
+        // DiskChunk instances are lightweight, not cached.
+        return contains(checksum)
+                ? Optional.of(new DiskChunk(checksum, path(checksum)))
+                : Optional.empty();
     }
 
     @Override
     public Optional<OutputStream> outputStream(byte[] checksum) throws IOException {
-        synchronized (lock) {
-            Path to = path(checksum);
-            return Files.exists(to)
-                    ? Optional.empty()
-                    : getOutputStream(checksum, to);
-        }
+        // Optimistic. Competing writers are resolved on commit, the first writer wins.
+        return contains(checksum)
+                ? Optional.empty()
+                : getOutputStream(checksum, path(checksum));
     }
 
-    @GuardedBy("lock")
     Optional<OutputStream> getOutputStream(byte[] checksum, Path to) throws IOException {
-        Path temp = tempFile(TEMP_FILE_RETRY);
         // Possibly superfluous. Is user likely to delete the temp folder whilst a backup is in progress?
         if (!DirectoryAssistant.create(tempFolder)) {
             logger.warn("-- getOutputStream() - failed to create temp folder: {}", tempFolder);
             return Optional.empty();
         }
+        Path temp = tempFile(TEMP_FILE_RETRY);
 
-        OutputStream os = Files.newOutputStream(temp);
+        // Compressed, or raw if the data does not compress, as it streams into the temporary file.
+        Optional<DeflateSink> sink = compress
+                ? Optional.of(new DeflateSink(DEFLATE_LEVEL, FileChannel.open(temp, WRITE)))
+                : Optional.empty();
+        OutputStream os = sink.isPresent()
+                ? sink.get()
+                : Files.newOutputStream(temp, WRITE);
         DigestOutputStream dos = new DigestOutputStream(digests.get());
         TeeOutputStream tos = new TeeOutputStream(os, dos);
 
-        HookOutputStream<OutputStream> hos = new HookOutputStream<>(tos, callback(checksum, dos, temp, to));
+        HookOutputStream<OutputStream> hos = new HookOutputStream<>(tos, callback(checksum, dos, sink, temp, to));
         return Optional.of(hos);
     }
 
-    IOConsumer<OutputStream> callback(byte[] checksum, DigestOutputStream dos, Path temp, Path to) {
-        return os -> copy(checksum, dos, os, temp, to);
+    IOConsumer<OutputStream> callback(byte[] checksum, DigestOutputStream dos, Optional<DeflateSink> sink, Path temp,
+            Path to) {
+        return os -> copy(checksum, dos, sink, temp, to);
     }
 
-    void copy(byte[] checksum, DigestOutputStream dos, OutputStream os, Path temp, Path to) throws IOException {
-        synchronized (lock) {
-            byte[] digest = dos.getDigest();
-            if (testDigest.test(digest, checksum)) {
-                logger.debug("-- copy() - positive checksum match: {}", Hex.toHexString(digest));
-            } else {
-                Files.deleteIfExists(temp);
-                throw new IOException("DiskChunkStore copy, bad digest/ corrupt data: " + Hex.toHexString(digest));
-            }
+    void copy(byte[] checksum, DigestOutputStream dos, Optional<DeflateSink> sink, Path temp, Path to)
+            throws IOException {
+        byte[] digest = dos.getDigest();
+        if (testDigest.test(digest, checksum)) {
+            logger.debug("-- copy() - positive checksum match: {}", Hex.toHexString(digest));
+        } else {
+            Files.deleteIfExists(temp);
+            throw new BadDataException("DiskChunkStore copy, bad digest/ corrupt data: " + Hex.toHexString(digest));
+        }
 
-            if (Files.exists(to)) {
-                logger.debug("-- copy() - duplicate chunk ignored: {}", to);
+        boolean deflated = sink.map(DeflateSink::deflated).orElse(false);
+        if (deflated) {
+            logger.debug("-- copy() - deflated: {} -> {}", sink.get().input(), Files.size(temp));
+        }
+        Path target = deflated
+                ? DiskChunkFiles.deflated(to)
+                : to;
+
+        // Syncs are outside the lock.
+        if (!exists(to)) {
+            sync.beforeMove(temp);
+        }
+        if (commit(checksum, temp, to, target)) {
+            sync.afterMove(target);
+        }
+    }
+
+    boolean commit(byte[] checksum, Path temp, Path to, Path target) throws IOException {
+        synchronized (lock) {
+            if (exists(to)) {
+                logger.debug("-- commit() - duplicate chunk ignored: {}", to);
                 Files.deleteIfExists(temp);
-                return;
+                index(checksum);
+                return false;
             }
 
             if (!Files.exists(temp)) {
                 throw new IOException("DiskChunkStore copy, temporary file missing: " + temp);
             }
-            if (!DirectoryAssistant.createParent(to)) {
-                throw new IOException("DiskChunkStore copy, failed to create cache directory: " + to);
-            }
-
-            try {
-                Files.move(temp, to);
-            } catch (IOException ex) {
-                logger.warn("-- copy() - IOException: {}", ex);
-                throw new IOException("DiskChunkStore copy, failed", ex);
-            }
-            logger.debug("-- copy() - chunk created: {}", to);
+            move(temp, target);
+            index(checksum);
+            logger.debug("-- commit() - chunk created: {}", target);
+            return true;
         }
     }
 
     @GuardedBy("lock")
+    void move(Path temp, Path to) throws IOException {
+        if (!DirectoryAssistant.createParent(to)) {
+            throw new IOException("DiskChunkStore copy, failed to create cache directory: " + to);
+        }
+
+        try {
+            Files.move(temp, to);
+        } catch (IOException ex) {
+            logger.warn("-- move() - IOException: {}", ex);
+            throw new IOException("DiskChunkStore copy, failed", ex);
+        }
+    }
+
     Path tempFile(int retry) throws IOException {
         if (retry == 0) {
             throw new IOException("failed to create temporary file");
@@ -180,21 +276,63 @@ public final class DiskChunkStore implements ChunkStore {
         String random = new BigInteger(64, ThreadLocalRandom.current()).toString(16).toLowerCase(Locale.US);
         String filename = random + TEMP_SUFFIX;
         Path path = tempFolder.resolve(filename);
-        return Files.exists(path)
-                ? tempFile(--retry)
-                : path;
+        try {
+            // Atomic, no lock required.
+            Files.newOutputStream(path, CREATE_NEW, WRITE).close();
+            return path;
+        } catch (FileAlreadyExistsException ex) {
+            return tempFile(--retry);
+        }
+    }
+
+    @GuardedBy("lock")
+    void index(byte[] checksum) {
+        if (index.accepts(checksum)) {
+            index.add(checksum);
+        }
     }
 
     @Override
     public boolean delete(byte[] checksum) throws IOException {
+        return reclaim(checksum).isPresent();
+    }
+
+    /**
+     * @param checksum
+     * @return on disk size of the deleted chunk files, deflated chunks report their compressed size
+     * @throws IOException
+     */
+    @Override
+    public Optional<Long> reclaim(byte[] checksum) throws IOException {
         synchronized (lock) {
             Path to = path(checksum);
-            return Files.exists(to)
-                    ? doDelete(to)
-                    : false;
+            Optional<Long> raw = reclaim(to);
+            Optional<Long> deflated = reclaim(DiskChunkFiles.deflated(to));
+            // Only once the files are gone, a failed delete leaves the chunk indexed.
+            index.remove(checksum);
+            return raw.isPresent() || deflated.isPresent()
+                    ? Optional.of(raw.orElse(0L) + deflated.orElse(0L))
+                    : Optional.empty();
         }
     }
 
+    @GuardedBy("lock")
+    Optional<Long> reclaim(Path file) throws IOException {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        }
+        return doDelete(file)
+                ? Optional.of(size)
+                : Optional.empty();
+    }
+
+    boolean exists(Path file) {
+        return Files.exists(file) || Files.exists(DiskChunkFiles.deflated(file));
+    }
+
     @GuardedBy("lock")
     public boolean doDelete(Path to) throws IOException {
         logger.trace("-- doDelete() - to: {}", to);
@@ -207,6 +345,11 @@ public final class DiskChunkStore implements ChunkStore {
         return deleted;
     }
 
+    @Override
+    public void close() throws IOException {
+        sync.close();
+    }
+
     Path path(byte[] checksum) {
         Path filename = DiskChunkFiles.filename(checksum);
         return chunkFolder.resolve(filename);
@@ -215,12 +358,12 @@ public final class DiskChunkStore implements ChunkStore {
     @Override
     public String toString() {
         return "DiskChunkStore{"
-                + "lock=" + lock
-                + ", digests=" + digests
+                + "digests=" + digests
                 + ", chunkFolder=" + chunkFolder
                 + ", tempFolder=" + tempFolder
+                + ", index=" + index
+                + ", sync=" + sync
                 + '}';
     }
 }
 // TODO consider interruptable ReentrantLock methods.
-
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Chunk commit durability policy. Callbacks are invoked outside of the store lock.
+ *
+ * @author Ahseya
+ * @see DiskChunkSyncs
+ */
+public interface DiskChunkSync extends Closeable {
+
+    /**
+     * Invoked with the verified temporary file before it is moved into place.
+     *
+     * @param temp temporary file
+     * @throws IOException
+     */
+    void beforeMove(Path temp) throws IOException;
+
+    /**
+     * Invoked with the chunk file after it has been moved into place.
+     *
+     * @param chunk chunk file
+     * @throws IOException
+     */
+    void afterMove(Path chunk) throws IOException;
+
+    /**
+     * Flushes outstanding work.
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import net.jcip.annotations.Immutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DiskChunkSync implementations.
+ * <p>
+ * {@link #none()} leaves write back to the operating system. {@link #immediate(Path)} syncs the chunk data before it
+ * is moved into place and the directory entries afterwards, a committed chunk survives power loss. {@link #group}
+ * defers the syncs of all chunks committed within each interval to a background thread and syncs each directory once
+ * per interval, chunks committed within the last interval may be lost or torn on power loss, the scrubber detects the
+ * latter.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class DiskChunkSyncs {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskChunkSyncs.class);
+
+    private static final DiskChunkSync NONE = new DiskChunkSync() {
+        @Override
+        public void beforeMove(Path temp) {
+        }
+
+        @Override
+        public void afterMove(Path chunk) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "DiskChunkSync{NONE}";
+        }
+    };
+
+    private DiskChunkSyncs() {
+        // Utility class.
+    }
+
+    public static DiskChunkSync none() {
+        return NONE;
+    }
+
+    public static DiskChunkSync immediate(Path chunkFolder) {
+        Path folder = chunkFolder.normalize().toAbsolutePath();
+        return new DiskChunkSync() {
+            @Override
+            public void beforeMove(Path temp) throws IOException {
+                force(temp);
+            }
+
+            @Override
+            public void afterMove(Path chunk) throws IOException {
+                for (Path directory : directories(chunk, folder)) {
+                    force(directory);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String toString() {
+                return "DiskChunkSync{SYNC, chunkFolder=" + folder + '}';
+            }
+        };
+    }
+
+    public static DiskChunkSync group(Path chunkFolder, Path tempFolder, long intervalMs) {
+        return new GroupDiskChunkSync(chunkFolder, tempFolder, intervalMs);
+    }
+
+    /**
+     * Directories from the chunk's parent up to and including the chunk folder, as intermediate folders may have just
+     * been created.
+     *
+     * @param chunk chunk file
+     * @param chunkFolder chunk folder
+     * @return directories, innermost first
+     */
+    static Set<Path> directories(Path chunk, Path chunkFolder) {
+        Set<Path> directories = new LinkedHashSet<>();
+        addDirectories(directories, chunk, chunkFolder);
+        return directories;
+    }
+
+    static void addDirectories(Collection<Path> directories, Path chunk, Path chunkFolder) {
+        Path directory = chunk.toAbsolutePath().getParent();
+        while (directory != null && directory.startsWith(chunkFolder)) {
+            directories.add(directory);
+            directory = directory.getParent();
+        }
+    }
+
+    /**
+     * Forces file data or directory entries to the storage device.
+     *
+     * @param path file or directory
+     * @return true if synced, false if the path no longer exists or the platform cannot sync directories
+     * @throws IOException
+     */
+    static boolean force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            channel.force(true);
+            return true;
+
+        } catch (NoSuchFileException ex) {
+            logger.debug("-- force() - deleted: {}", path);
+            return false;
+        } catch (IOException ex) {
+            // Directories cannot be opened/ synced on some platforms, notably Windows.
+            if (path.toFile().isDirectory()) {
+                logger.debug("-- force() - directory sync unsupported: {} {}", path, ex);
+                return false;
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group commit DiskChunkSync. Chunks committed are queued and synced, together with their directories and the temp
+ * folder, by a single background thread once per interval.
+ * <p>
+ * Only directory syncs are batched, each directory is synced once per batch however many chunks it received. Chunk
+ * files are still synced individually, the saving being that those syncs are deferred off the commit path rather than
+ * reduced in number.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+final class GroupDiskChunkSync implements DiskChunkSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupDiskChunkSync.class);
+
+    private final Path chunkFolder;
+    private final Path tempFolder;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor;
+    private final Object flushLock = new Object();
+
+    @GuardedBy("this")
+    private List<Path> pending = new ArrayList<>();
+    @GuardedBy("this")
+    private boolean closed;
+
+    GroupDiskChunkSync(Path chunkFolder, Path tempFolder, long intervalMs) {
+        if (intervalMs < 1) {
+            throw new IllegalArgumentException("bad group sync interval: " + intervalMs);
+        }
+        this.chunkFolder = chunkFolder.normalize().toAbsolutePath();
+        this.tempFolder = tempFolder.normalize().toAbsolutePath();
+        this.intervalMs = intervalMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "GroupDiskChunkSync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::scheduledFlush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void beforeMove(Path temp) {
+    }
+
+    @Override
+    public synchronized void afterMove(Path chunk) throws IOException {
+        if (closed) {
+            throw new IOException("GroupDiskChunkSync closed");
+        }
+        pending.add(chunk);
+    }
+
+    synchronized List<Path> drain() {
+        List<Path> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    void scheduledFlush() {
+        try {
+            flush();
+        } catch (IOException ex) {
+            // Unchecked exceptions would silently cancel further flushes.
+            logger.warn("-- scheduledFlush() - IOException: {}", ex);
+        }
+    }
+
+    /**
+     * Syncs all chunks committed so far.
+     *
+     * @return number of chunks synced
+     * @throws IOException
+     */
+    int flush() throws IOException {
+        synchronized (flushLock) {
+            List<Path> batch = drain();
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            long timestamp = System.nanoTime();
+            Set<Path> directories = new LinkedHashSet<>();
+            for (Path chunk : batch) {
+                DiskChunkSyncs.force(chunk);
+                DiskChunkSyncs.addDirectories(directories, chunk, chunkFolder);
+            }
+            directories.add(tempFolder);
+            for (Path directory : directories) {
+                DiskChunkSyncs.force(directory);
+            }
+            logger.debug("-- flush() - chunks: {} directories: {} time (us): {}",
+                    batch.size(), directories.size(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - timestamp));
+            return batch.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return "GroupDiskChunkSync{"
+                + "chunkFolder=" + chunkFolder
+                + ", tempFolder=" + tempFolder
+                + ", intervalMs=" + intervalMs
+                + '}';
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkIndex;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.Immutable;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chunk store garbage collector. Chunks referenced by the reference logs of expired snapshots, and by none of the
+ * snapshots retained under the retention policy, are deleted with at most the specified number of concurrent
+ * deletions. Chunks that no log mentions, such as those cached before reference logging or by runs that did not log,
+ * are never candidates. Reference logs of expired snapshots are deleted once their chunks have been collected.
+ * <p>
+ * SHALL NOT run concurrently with downloads into the same store, as chunks reused since the reference logs were read
+ * are not referenced by them.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class ChunkCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkCollector.class);
+
+    private final ChunkStore store;
+    private final ChunkReferences references;
+    private final RetentionPolicy policy;
+    private final int keyLength;
+    private final int threads;
+
+    public ChunkCollector(ChunkStore store, ChunkReferences references, RetentionPolicy policy, int keyLength,
+            int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("bad thread count: " + threads);
+        }
+        this.store = Objects.requireNonNull(store, "store");
+        this.references = Objects.requireNonNull(references, "references");
+        this.policy = Objects.requireNonNull(policy, "policy");
+        this.keyLength = keyLength;
+        this.threads = threads;
+    }
+
+    public ChunkCollectorReport collect() throws IOException {
+        long timestamp = System.currentTimeMillis();
+        Map<String, List<Path>> snapshots = references.snapshots();
+        Set<Path> retained = new HashSet<>(policy.retain(snapshots));
+        logger.debug("-- collect() - snapshots: {} retained: {}", snapshots, retained);
+
+        ChunkIndex referenced = new ChunkIndex(keyLength);
+        for (Path log : retained) {
+            ChunkReferenceLog.read(log, (name, checksums) -> checksums.stream()
+                    .filter(referenced::accepts)
+                    .forEach(referenced::add));
+        }
+
+        Collection<Path> expired = expired(snapshots, retained);
+        ChunkIndex candidates = new ChunkIndex(keyLength);
+        for (Path log : expired) {
+            ChunkReferenceLog.read(log, (name, checksums) -> checksums.stream()
+                    .filter(candidates::accepts)
+                    .filter(u -> !referenced.contains(u))
+                    .forEach(candidates::add));
+        }
+
+        List<byte[]> unreferenced = new ArrayList<>();
+        candidates.forEach(unreferenced::add);
+        logger.debug("-- collect() - referenced: {} unreferenced: {}", referenced.size(), unreferenced.size());
+
+        LongAdder deleted = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        delete(unreferenced, deleted, bytes);
+
+        int expiredSnapshots = 0;
+        for (Path log : expired) {
+            if (Files.deleteIfExists(log)) {
+                expiredSnapshots++;
+            }
+        }
+
+        ChunkCollectorReport report = new ChunkCollectorReport(
+                retained.size(), expiredSnapshots, unreferenced.size(), deleted.sum(), bytes.sum(),
+                System.currentTimeMillis() - timestamp);
+        logger.info("-- collect() - report: {}", report);
+        return report;
+    }
+
+    void delete(List<byte[]> checksums, LongAdder deleted, LongAdder bytes) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> checksums.parallelStream().forEach(u -> delete(u, deleted, bytes))).get();
+
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    void delete(byte[] checksum, LongAdder deleted, LongAdder bytes) {
+        try {
+            Optional<Long> size = store.reclaim(checksum);
+            if (size.isPresent()) {
+                logger.trace("-- delete() - deleted: {} size: {}", Hex.toHexString(checksum), size.get());
+                deleted.increment();
+                bytes.add(size.get());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static Collection<Path> expired(Map<String, List<Path>> snapshots, Set<Path> retained) {
+        List<Path> expired = new ArrayList<>();
+        snapshots.values().forEach(u -> u.stream().filter(v -> !retained.contains(v)).forEach(expired::add));
+        return expired;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkCollector{"
+                + "store=" + store
+                + ", references=" + references
+                + ", keyLength=" + keyLength
+                + ", threads=" + threads
+                + '}';
+    }
+}
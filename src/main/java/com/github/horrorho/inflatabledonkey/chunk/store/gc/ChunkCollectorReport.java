@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Chunk collection summary.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class ChunkCollectorReport {
+
+    private final int retainedSnapshots;
+    private final int expiredSnapshots;
+    private final long candidates;
+    private final long deleted;
+    private final long bytes;
+    private final long milliseconds;
+
+    public ChunkCollectorReport(int retainedSnapshots, int expiredSnapshots, long candidates, long deleted, long bytes,
+            long milliseconds) {
+        this.retainedSnapshots = retainedSnapshots;
+        this.expiredSnapshots = expiredSnapshots;
+        this.candidates = candidates;
+        this.deleted = deleted;
+        this.bytes = bytes;
+        this.milliseconds = milliseconds;
+    }
+
+    public int retainedSnapshots() {
+        return retainedSnapshots;
+    }
+
+    public int expiredSnapshots() {
+        return expiredSnapshots;
+    }
+
+    public long candidates() {
+        return candidates;
+    }
+
+    public long deleted() {
+        return deleted;
+    }
+
+    /**
+     * @return storage bytes reclaimed, as reported by the store
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    public long milliseconds() {
+        return milliseconds;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkCollectorReport{"
+                + "retainedSnapshots=" + retainedSnapshots
+                + ", expiredSnapshots=" + expiredSnapshots
+                + ", candidates=" + candidates
+                + ", deleted=" + deleted
+                + ", bytes=" + bytes
+                + ", milliseconds=" + milliseconds
+                + '}';
+    }
+}
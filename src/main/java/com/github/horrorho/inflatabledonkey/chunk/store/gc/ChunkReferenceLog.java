@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of the chunk checksums referenced by the assets of a single snapshot. A torn trailing entry, as left
+ * by an interrupted download, is ignored on reading.
+ * <p>
+ * Entry: (UTF) asset name | (int) count | count * ((byte) checksum length | (bytes) checksum)
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class ChunkReferenceLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkReferenceLog.class);
+
+    public static ChunkReferenceLog open(Path file) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        DataOutputStream dos
+                = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, CREATE, WRITE, APPEND)));
+        return new ChunkReferenceLog(file, dos);
+    }
+
+    public static void read(Path file, BiConsumer<String, List<byte[]>> consumer) throws IOException {
+        try (InputStream is = Files.newInputStream(file, READ);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+            while (true) {
+                String name;
+                try {
+                    name = dis.readUTF();
+                } catch (EOFException ex) {
+                    return;
+                }
+                try {
+                    int count = dis.readInt();
+                    List<byte[]> checksums = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        byte[] checksum = new byte[dis.readUnsignedByte()];
+                        dis.readFully(checksum);
+                        checksums.add(checksum);
+                    }
+                    consumer.accept(name, checksums);
+                } catch (EOFException ex) {
+                    logger.warn("-- read() - torn entry ignored: {} {}", file, name);
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Path file;
+    @GuardedBy("this")
+    private final DataOutputStream dos;
+
+    ChunkReferenceLog(Path file, DataOutputStream dos) {
+        this.file = file;
+        this.dos = dos;
+    }
+
+    public synchronized void add(String name, Collection<byte[]> checksums) throws IOException {
+        dos.writeUTF(name);
+        dos.writeInt(checksums.size());
+        for (byte[] checksum : checksums) {
+            if (checksum.length > 0xFF) {
+                throw new IllegalArgumentException("bad checksum length: " + checksum.length);
+            }
+            dos.writeByte(checksum.length);
+            dos.write(checksum);
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        dos.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        dos.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkReferenceLog{" + "file=" + file + '}';
+    }
+}
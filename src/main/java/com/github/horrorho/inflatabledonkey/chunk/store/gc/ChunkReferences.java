@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Chunk reference logs, one per device snapshot, laid out under the references folder as
+ * {@code <device>/<snapshot date>.refs} mirroring the snapshot output folders.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class ChunkReferences {
+
+    static final String SUFFIX = ".refs";
+
+    private final Path folder;
+
+    public ChunkReferences(Path folder) {
+        this.folder = Objects.requireNonNull(folder).normalize().toAbsolutePath();
+    }
+
+    /**
+     * @param relativePath device/ snapshot relative path
+     * @return reference log, appending to any existing log
+     * @throws IOException
+     */
+    public ChunkReferenceLog log(Path relativePath) throws IOException {
+        return ChunkReferenceLog.open(file(relativePath));
+    }
+
+    Path file(Path relativePath) {
+        Path path = folder.resolve(relativePath);
+        return path.resolveSibling(path.getFileName() + SUFFIX);
+    }
+
+    /**
+     * @return device to reference logs, logs in ascending snapshot order
+     * @throws IOException
+     */
+    public Map<String, List<Path>> snapshots() throws IOException {
+        Map<String, List<Path>> snapshots = new TreeMap<>();
+        if (!Files.isDirectory(folder)) {
+            return snapshots;
+        }
+        try (Stream<Path> paths = Files.walk(folder, 2)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(u -> u.getFileName().toString().endsWith(SUFFIX))
+                    .filter(u -> u.getParent() != null && !u.getParent().equals(folder))
+                    .forEach(u -> snapshots.computeIfAbsent(u.getParent().getFileName().toString(),
+                            k -> new ArrayList<>()).add(u));
+        }
+        snapshots.values().forEach(Collections::sort);
+        return snapshots;
+    }
+
+    public Path folder() {
+        return folder;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkReferences{" + "folder=" + folder + '}';
+    }
+}
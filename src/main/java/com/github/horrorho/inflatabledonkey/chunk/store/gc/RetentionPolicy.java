@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Chunk reference retention policy. Selects the snapshot reference logs whose chunks are retained.
+ *
+ * @author Ahseya
+ */
+@FunctionalInterface
+public interface RetentionPolicy {
+
+    /**
+     * @param snapshots device to reference logs, logs in ascending snapshot order
+     * @return retained reference logs
+     */
+    Collection<Path> retain(Map<String, List<Path>> snapshots);
+
+    /**
+     * @param count snapshots retained per device
+     * @return policy retaining the last count snapshots per device
+     */
+    static RetentionPolicy keepLast(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("bad snapshot retention count: " + count);
+        }
+        return snapshots -> snapshots.values()
+                .stream()
+                .flatMap(u -> u.subList(Math.max(0, u.size() - count), u.size()).stream())
+                .collect(toList());
+    }
+}
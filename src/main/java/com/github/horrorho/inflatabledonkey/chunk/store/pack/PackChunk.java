@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.pack;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Optional;
+import net.jcip.annotations.ThreadSafe;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Pack backed chunk. The pack location is resolved on each call, as the underlying data may be deleted from the store.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class PackChunk implements Chunk {
+
+    private final byte[] checksum;
+    private final PackChunkStore store;
+
+    PackChunk(byte[] checksum, PackChunkStore store) {
+        this.checksum = Arrays.copyOf(checksum, checksum.length);
+        this.store = Objects.requireNonNull(store, "store");
+    }
+
+    @Override
+    public byte[] checksum() {
+        return Arrays.copyOf(checksum, checksum.length);
+    }
+
+    @Override
+    public Optional<InputStream> inputStream() throws IOException {
+        return store.inputStream(checksum);
+    }
+
+    @Override
+    public Optional<ByteBuffer> buffer() throws IOException {
+        return store.buffer(checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 97 * hash + java.util.Arrays.hashCode(this.checksum);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final PackChunk other = (PackChunk) obj;
+        if (!java.util.Arrays.equals(this.checksum, other.checksum)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PackChunk{"
+                + "checksum=" + Hex.toHexString(checksum)
+                + '}';
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.pack;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
+import com.github.horrorho.inflatabledonkey.exception.BadDataException;
+import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
+import com.github.horrorho.inflatabledonkey.io.FileChannelBuffers;
+import com.github.horrorho.inflatabledonkey.io.FileChannelInputStream;
+import com.github.horrorho.inflatabledonkey.io.FileChannelOutputStream;
+import com.github.horrorho.inflatabledonkey.io.HookOutputStream;
+import com.github.horrorho.inflatabledonkey.io.IOConsumer;
+import com.google.protobuf.ByteString;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.io.DigestOutputStream;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.io.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread safe append only packfile chunk store. Verified chunks are appended as records to a small number of large
+ * segment files with their locations held in a persistent offset index, avoiding the per chunk file, directory and
+ * inode overhead of {@link com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore}.
+ * <p>
+ * Record: (int) magic | (byte) checksum length | (bytes) checksum | (int) data length | (bytes) data
+ * <p>
+ * Chunk data is streamed straight into a segment, not buffered in memory. Each writer claims exclusive use of a segment
+ * tail for the duration of its stream, so concurrent writers append to different segments without locking. On close
+ * the data is verified, the record header is filled in and the record is indexed, or the tail is truncated back.
+ * Streams that are garbage collected without being closed are discarded and their tail released. The
+ * segment size is a soft limit, a segment is retired once a record takes it past the limit. Reads are positional and
+ * lock free.
+ * <p>
+ * On opening, the index is replayed and the tail of each segment beyond its last indexed record is rescanned. Intact
+ * records are re-indexed, the segment is truncated at the first torn or corrupt record.
+ * <p>
+ * There is no compaction. Deletes are recorded in the index only and the space of deleted records is never reclaimed,
+ * segments only grow. The reclaimable byte count is logged on opening. Stores that are routinely garbage collected
+ * should use {@link com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore}.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class PackChunkStore implements ChunkStore, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackChunkStore.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    static final int MAGIC = 0x50434B31; // PCK1
+    static final String INDEX_FILENAME = "index.log";
+    static final String SEGMENT_SUFFIX = ".pack";
+    static final Pattern SEGMENT_PATTERN = Pattern.compile("(\\d{8})\\" + SEGMENT_SUFFIX);
+
+    static String segmentFilename(int segment) {
+        return String.format("%08d", segment) + SEGMENT_SUFFIX;
+    }
+
+    static Optional<Integer> segment(Path file) {
+        Matcher matcher = SEGMENT_PATTERN.matcher(file.getFileName().toString());
+        return matcher.matches()
+                ? Optional.of(Integer.parseInt(matcher.group(1)))
+                : Optional.empty();
+    }
+
+    static int headerLength(int keyLength) {
+        return 4 + 1 + keyLength + 4;
+    }
+
+    private final Map<Integer, FileChannel> channels = new ConcurrentHashMap<>();
+    private final Map<Tail, Writer> writers = new ConcurrentHashMap<>();
+    private final ReferenceQueue<OutputStream> abandoned = new ReferenceQueue<>();
+    private final Object appendLock = new Object();
+    private final Supplier<Digest> digests;
+    private final BiPredicate<byte[], byte[]> testDigest;
+    private final Path folder;
+    private final long segmentSize;
+    private final PackIndex index;
+    @GuardedBy("appendLock")
+    private final Deque<Tail> tails = new ArrayDeque<>();
+    @GuardedBy("appendLock")
+    private int segment;
+
+    public PackChunkStore(Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest, Path folder,
+            long segmentSize) throws IOException {
+        if (!DirectoryAssistant.create(folder)) {
+            throw new IOException("PackChunkStore failed to create pack folder: "
+                    + folder.normalize().toAbsolutePath());
+        }
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("bad segment size: " + segmentSize);
+        }
+        this.digests = Objects.requireNonNull(digests);
+        this.testDigest = Objects.requireNonNull(testDigest);
+        this.folder = folder.normalize().toAbsolutePath();
+        this.segmentSize = segmentSize;
+        this.index = PackIndex.open(this.folder.resolve(INDEX_FILENAME), digests.get().getDigestSize());
+        recover();
+    }
+
+    public PackChunkStore(Supplier<Digest> digests, BiPredicate<byte[], byte[]> testDigest, Path folder)
+            throws IOException {
+        this(digests, testDigest, folder, DEFAULT_SEGMENT_SIZE);
+    }
+
+    void recover() throws IOException {
+        long timestamp = System.currentTimeMillis();
+        TreeSet<Integer> segments = new TreeSet<>();
+        try (Stream<Path> paths = Files.list(folder)) {
+            paths.map(PackChunkStore::segment)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .forEach(segments::add);
+        }
+
+        // Index entries referencing data that never reached the disk.
+        Map<Integer, Long> sizes = new HashMap<>();
+        for (int s : segments) {
+            sizes.put(s, Files.size(path(s)));
+        }
+        List<byte[]> truncated = new ArrayList<>();
+        index.forEach((checksum, location) -> {
+            if (location.end() > sizes.getOrDefault(location.segment(), 0L)) {
+                logger.warn("-- recover() - dropping truncated chunk: {} {}", Hex.toHexString(checksum), location);
+                truncated.add(checksum);
+            }
+        });
+        for (byte[] checksum : truncated) {
+            index.remove(checksum);
+        }
+
+        Map<Integer, Long> ends = index.ends();
+        long total = 0;
+        for (int s : segments) {
+            scan(s, ends.getOrDefault(s, 0L));
+            total += channel(s).size();
+        }
+
+        synchronized (appendLock) {
+            segment = segments.isEmpty() ? -1 : segments.last();
+            for (int s : segments) {
+                long size = channel(s).size();
+                if (size < segmentSize) {
+                    tails.push(new Tail(s, size));
+                }
+            }
+        }
+        long[] live = new long[1];
+        int headerLength = headerLength(index.keyLength());
+        index.forEach((checksum, location) -> live[0] += headerLength + location.length());
+        logger.info("-- recover() - pack folder: {} segments: {} chunks: {} reclaimable (bytes): {} time (ms): {}",
+                folder, segments.size(), index.size(), total - live[0], System.currentTimeMillis() - timestamp);
+    }
+
+    void scan(int segment, long from) throws IOException {
+        FileChannel channel = channel(segment);
+        int keyLength = index.keyLength();
+        ByteBuffer header = ByteBuffer.allocate(headerLength(keyLength));
+        long size = channel.size();
+        long offset = from;
+
+        while (offset < size) {
+            header.clear();
+            if (read(channel, header, offset) < header.capacity()) {
+                break;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.get() != keyLength) {
+                break;
+            }
+            byte[] checksum = new byte[keyLength];
+            header.get(checksum);
+            int length = header.getInt();
+            long dataOffset = offset + header.capacity();
+            if (length < 0 || dataOffset + length > size) {
+                break;
+            }
+            ByteBuffer data = ByteBuffer.allocate(length);
+            read(channel, data, dataOffset);
+            Digest digest = digests.get();
+            digest.update(data.array(), 0, length);
+            byte[] out = new byte[digest.getDigestSize()];
+            digest.doFinal(out, 0);
+            if (!testDigest.test(out, checksum)) {
+                logger.warn("-- scan() - corrupt record: {} offset: {}", segmentFilename(segment), offset);
+                break;
+            }
+            if (!index.contains(checksum)) {
+                index.put(checksum, new PackLocation(segment, dataOffset, length));
+            }
+            offset = dataOffset + length;
+        }
+
+        if (offset < size) {
+            logger.warn("-- scan() - truncating torn segment tail: {} {} > {}", segmentFilename(segment), size, offset);
+            channel.truncate(offset);
+        }
+    }
+
+    static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean contains(byte[] checksum) {
+        return index.contains(checksum);
+    }
+
+    @Override
+    public BitSet contains(List<ByteString> checksums) {
+        return index.contains(checksums);
+    }
+
+    @Override
+    public Optional<Chunk> chunk(byte[] checksum) {
+        return contains(checksum)
+                ? Optional.of(new PackChunk(checksum, this))
+                : Optional.empty();
+    }
+
+    Optional<InputStream> inputStream(byte[] checksum) throws IOException {
+        Optional<PackLocation> location = index.location(checksum);
+        if (!location.isPresent()) {
+            return Optional.empty();
+        }
+        PackLocation l = location.get();
+        return Optional.of(new FileChannelInputStream(channel(l.segment()), l.offset(), l.length()));
+    }
+
+    Optional<ByteBuffer> buffer(byte[] checksum) throws IOException {
+        Optional<PackLocation> location = index.location(checksum);
+        if (!location.isPresent()) {
+            return Optional.empty();
+        }
+        PackLocation l = location.get();
+        return Optional.of(FileChannelBuffers.buffer(channel(l.segment()), l.offset(), l.length()));
+    }
+
+    /**
+     * The returned stream claims a segment tail until closed and SHOULD be closed promptly, ideally with
+     * try-with-resources. A stream that is abandoned without closing holds its tail, pushing concurrent writers onto
+     * new segments, until it is garbage collected. Its data is then discarded and the tail released.
+     *
+     * @param checksum
+     * @return OutputStream, or empty if the chunk is already present
+     * @throws IOException
+     */
+    @Override
+    public Optional<OutputStream> outputStream(byte[] checksum) throws IOException {
+        // Optimistic. Competing writers are resolved on commit, the first writer wins.
+        if (contains(checksum)) {
+            return Optional.empty();
+        }
+        if (checksum.length != index.keyLength()) {
+            throw new IOException("PackChunkStore append, bad checksum length: " + checksum.length);
+        }
+        Tail tail = claim();
+        FileChannelOutputStream fcos;
+        try {
+            // The header is written on commit. Until then its zero filled gap marks a torn record.
+            fcos = new FileChannelOutputStream(channel(tail.segment), tail.position + headerLength(checksum.length));
+        } catch (IOException ex) {
+            release(tail);
+            throw ex;
+        }
+        DigestOutputStream dos = new DigestOutputStream(digests.get());
+        TeeOutputStream tos = new TeeOutputStream(new BufferedOutputStream(fcos, BUFFER_SIZE), dos);
+
+        HookOutputStream<OutputStream> hos = new HookOutputStream<>(tos, callback(checksum, dos, tail, fcos));
+        writers.put(tail, new Writer(hos, abandoned, tail));
+        return Optional.of(hos);
+    }
+
+    IOConsumer<OutputStream> callback(byte[] checksum, DigestOutputStream dos, Tail tail,
+            FileChannelOutputStream fcos) {
+        return os -> append(checksum, dos, tail, fcos);
+    }
+
+    void append(byte[] checksum, DigestOutputStream dos, Tail tail, FileChannelOutputStream fcos)
+            throws IOException {
+        Writer writer = writers.remove(tail);
+        if (writer == null) {
+            // Expunged, the tail is no longer ours.
+            throw new IOException("PackChunkStore append, stream abandoned: " + Hex.toHexString(checksum));
+        }
+        writer.clear();
+        long offset = tail.position;
+        try {
+            byte[] digest = dos.getDigest();
+            if (testDigest.test(digest, checksum)) {
+                logger.debug("-- append() - positive checksum match: {}", Hex.toHexString(digest));
+            } else {
+                throw new BadDataException("PackChunkStore append, bad digest/ corrupt data: "
+                        + Hex.toHexString(digest));
+            }
+
+            long dataOffset = offset + headerLength(checksum.length);
+            long length = fcos.position() - dataOffset;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("PackChunkStore append, chunk too large: " + length);
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerLength(checksum.length))
+                    .putInt(MAGIC)
+                    .put((byte) checksum.length)
+                    .put(checksum)
+                    .putInt((int) length);
+            header.flip();
+            FileChannel channel = channel(tail.segment);
+            while (header.hasRemaining()) {
+                channel.write(header, offset + header.position());
+            }
+
+            synchronized (appendLock) {
+                if (index.contains(checksum)) {
+                    logger.debug("-- append() - duplicate chunk ignored: {}", Hex.toHexString(checksum));
+                    return;
+                }
+                index.put(checksum, new PackLocation(tail.segment, dataOffset, (int) length));
+                tail.position = dataOffset + length;
+                logger.debug("-- append() - chunk appended: {} {} {}",
+                        Hex.toHexString(checksum), segmentFilename(tail.segment), offset);
+            }
+        } finally {
+            if (tail.position == offset) {
+                // Not committed, discard the streamed data.
+                channel(tail.segment).truncate(offset);
+            }
+            release(tail);
+        }
+    }
+
+    Tail claim() throws IOException {
+        synchronized (appendLock) {
+            expunge();
+            while (!tails.isEmpty()) {
+                Tail tail = tails.pop();
+                if (tail.position < segmentSize) {
+                    return tail;
+                }
+                logger.debug("-- claim() - segment full: {}", segmentFilename(tail.segment));
+            }
+            segment++;
+            logger.debug("-- claim() - new segment: {}", segmentFilename(segment));
+            return new Tail(segment, 0);
+        }
+    }
+
+    /**
+     * Discards the data of garbage collected streams that were never closed and releases their tails.
+     *
+     * @return number of tails released
+     * @throws IOException
+     */
+    int expunge() throws IOException {
+        int n = 0;
+        for (Writer writer; (writer = (Writer) abandoned.poll()) != null;) {
+            if (!writers.remove(writer.tail, writer)) {
+                continue;
+            }
+            logger.warn("-- expunge() - stream not closed, discarding: {} {}",
+                    segmentFilename(writer.tail.segment), writer.tail.position);
+            channel(writer.tail.segment).truncate(writer.tail.position);
+            release(writer.tail);
+            n++;
+        }
+        return n;
+    }
+
+    void release(Tail tail) {
+        synchronized (appendLock) {
+            tails.push(tail);
+        }
+    }
+
+    @Override
+    public boolean delete(byte[] checksum) throws IOException {
+        synchronized (appendLock) {
+            return index.remove(checksum);
+        }
+    }
+
+    FileChannel channel(int segment) throws IOException {
+        try {
+            return channels.computeIfAbsent(segment, s -> {
+                try {
+                    return FileChannel.open(path(s), CREATE, READ, WRITE);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    Path path(int segment) {
+        return folder.resolve(segmentFilename(segment));
+    }
+
+    /**
+     * Forces segment and index data to the storage device.
+     *
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        synchronized (appendLock) {
+            for (FileChannel channel : channels.values()) {
+                channel.force(false);
+            }
+            index.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            IOException exception = null;
+            for (FileChannel channel : channels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    exception = ex;
+                }
+            }
+            channels.clear();
+            index.close();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PackChunkStore{"
+                + "digests=" + digests
+                + ", folder=" + folder
+                + ", segmentSize=" + segmentSize
+                + ", index=" + index
+                + '}';
+    }
+
+    /**
+     * Append position of a segment. Owned by a single writer between claim and release.
+     */
+    @NotThreadSafe
+    static final class Tail {
+
+        final int segment;
+        long position;
+
+        Tail(int segment, long position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Open stream tracker. Enqueued once its stream is garbage collected.
+     */
+    static final class Writer extends PhantomReference<OutputStream> {
+
+        final Tail tail;
+
+        Writer(OutputStream referent, ReferenceQueue<? super OutputStream> queue, Tail tail) {
+            super(referent, queue);
+            this.tail = tail;
+        }
+    }
+}
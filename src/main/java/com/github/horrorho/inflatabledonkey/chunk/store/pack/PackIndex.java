@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.pack;
+
+import com.github.horrorho.inflatabledonkey.chunk.store.ChecksumTable;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkIndex;
+import com.google.protobuf.ByteString;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent chunk checksum to pack location index. Backed by an append only log of fixed length put/ delete entries,
+ * replayed on opening. A torn trailing entry is truncated.
+ * <p>
+ * Entry: (byte) op | (bytes) checksum | (int) segment | (long) offset | (int) length
+ * <p>
+ * In memory, locations are held in {@link ChecksumTable}s as with {@link ChunkIndex}, checksums and locations are
+ * packed into primitive arrays and no per entry objects are created. Each slot costs the checksum length plus 17
+ * bytes, 38 bytes for 21 byte checksums, or ~51-101 MB per million chunks.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+final class PackIndex implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackIndex.class);
+
+    private static final byte PUT = 0x01;
+    private static final byte DELETE = 0x02;
+
+    private static final int SEGMENTS = 16;                 // power of 2
+    private static final int INITIAL_CAPACITY = 1024;       // per segment, power of 2
+
+    static PackIndex open(Path file, int keyLength) throws IOException {
+        Table[] tables = tables(keyLength);
+        Map<Integer, Long> ends = new ConcurrentHashMap<>();
+        int entryLength = 1 + keyLength + 4 + 8 + 4;
+        long entries = 0;
+        if (Files.exists(file)) {
+            try (InputStream is = Files.newInputStream(file, READ);
+                    DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+                byte[] checksum = new byte[keyLength];
+                while (true) {
+                    byte op;
+                    try {
+                        op = dis.readByte();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                    try {
+                        dis.readFully(checksum);
+                        int segment = dis.readInt();
+                        long offset = dis.readLong();
+                        int length = dis.readInt();
+                        apply(tables, op, checksum, segment, offset, length);
+                        ends.merge(segment, offset + length, Math::max);
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                    entries++;
+                }
+            }
+        }
+
+        FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+        long valid = entries * entryLength;
+        if (channel.size() > valid) {
+            logger.warn("-- open() - truncating torn index tail: {} {} > {}", file, channel.size(), valid);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        PackIndex index = new PackIndex(channel, keyLength, tables, ends);
+        logger.debug("-- open() - index: {} entries: {} chunks: {} memory (bytes): {}",
+                file, entries, index.size(), index.memory());
+        return index;
+    }
+
+    static Table[] tables(int keyLength) {
+        Table[] tables = new Table[SEGMENTS];
+        Arrays.setAll(tables, i -> new Table(keyLength, INITIAL_CAPACITY));
+        return tables;
+    }
+
+    static void apply(Table[] tables, byte op, byte[] checksum, int segment, long offset, int length)
+            throws IOException {
+        int hash = ChunkIndex.hash(checksum);
+        switch (op) {
+            case PUT:
+                table(tables, hash).put(checksum, hash, segment, offset, length);
+                break;
+            case DELETE:
+                table(tables, hash).remove(checksum, hash);
+                break;
+            default:
+                throw new IOException("PackIndex, bad entry op: " + op);
+        }
+    }
+
+    static Table table(Table[] tables, int hash) {
+        return tables[hash >>> 28 & (SEGMENTS - 1)];
+    }
+
+    private final FileChannel channel;
+    private final int keyLength;
+    private final Table[] tables;
+    private final Map<Integer, Long> ends;
+
+    PackIndex(FileChannel channel, int keyLength, Table[] tables, Map<Integer, Long> ends) {
+        this.channel = Objects.requireNonNull(channel);
+        this.keyLength = keyLength;
+        this.tables = Objects.requireNonNull(tables);
+        this.ends = Objects.requireNonNull(ends);
+    }
+
+    int keyLength() {
+        return keyLength;
+    }
+
+    boolean contains(byte[] checksum) {
+        return location(checksum).isPresent();
+    }
+
+    /**
+     * Bulk membership test, checksums are copied out into a single scratch array.
+     *
+     * @param checksums
+     * @return bit i set if checksums.get(i) is present
+     */
+    BitSet contains(List<ByteString> checksums) {
+        BitSet found = new BitSet(checksums.size());
+        byte[] checksum = new byte[keyLength];
+        for (int i = 0; i < checksums.size(); i++) {
+            ByteString bs = checksums.get(i);
+            if (bs.size() != keyLength) {
+                continue;
+            }
+            bs.copyTo(checksum, 0);
+            int hash = ChunkIndex.hash(checksum);
+            if (table(tables, hash).location(checksum, hash) != null) {
+                found.set(i);
+            }
+        }
+        return found;
+    }
+
+    Optional<PackLocation> location(byte[] checksum) {
+        if (checksum.length != keyLength) {
+            return Optional.empty();
+        }
+        int hash = ChunkIndex.hash(checksum);
+        return Optional.ofNullable(table(tables, hash).location(checksum, hash));
+    }
+
+    long size() {
+        long size = 0;
+        for (Table table : tables) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return approximate heap use in bytes
+     */
+    long memory() {
+        long memory = 0;
+        for (Table table : tables) {
+            memory += table.memory();
+        }
+        return memory;
+    }
+
+    void forEach(BiConsumer<byte[], PackLocation> consumer) {
+        for (Table table : tables) {
+            table.forEach(consumer);
+        }
+    }
+
+    /**
+     * @return highest indexed data end offset per segment, including since deleted entries
+     */
+    Map<Integer, Long> ends() {
+        return new HashMap<>(ends);
+    }
+
+    synchronized void put(byte[] checksum, PackLocation location) throws IOException {
+        write(PUT, checksum, location);
+        int hash = ChunkIndex.hash(checksum);
+        table(tables, hash).put(checksum, hash, location.segment(), location.offset(), location.length());
+        ends.merge(location.segment(), location.end(), Math::max);
+    }
+
+    synchronized boolean remove(byte[] checksum) throws IOException {
+        Optional<PackLocation> location = location(checksum);
+        if (!location.isPresent()) {
+            return false;
+        }
+        write(DELETE, checksum, location.get());
+        int hash = ChunkIndex.hash(checksum);
+        table(tables, hash).remove(checksum, hash);
+        return true;
+    }
+
+    @GuardedBy("this")
+    void write(byte op, byte[] checksum, PackLocation location) throws IOException {
+        if (checksum.length != keyLength) {
+            throw new IllegalArgumentException("bad checksum length: " + checksum.length);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(1 + keyLength + 4 + 8 + 4)
+                .put(op)
+                .put(checksum)
+                .putInt(location.segment())
+                .putLong(location.offset())
+                .putInt(location.length());
+        entry.flip();
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PackIndex{" + "keyLength=" + keyLength + ", size=" + size() + ", memory=" + memory() + '}';
+    }
+
+    /**
+     * Location values: (long) offset, (int) segment | (int) length.
+     */
+    @ThreadSafe
+    static final class Table {
+
+        @GuardedBy("this")
+        private final ChecksumTable table;
+
+        Table(int keyLength, int capacity) {
+            this.table = new ChecksumTable(keyLength, 2, capacity);
+        }
+
+        synchronized PackLocation location(byte[] checksum, int hash) {
+            int slot = table.find(checksum, 0, hash);
+            return slot < 0
+                    ? null
+                    : location(slot);
+        }
+
+        synchronized void put(byte[] checksum, int hash, int segment, long offset, int length) {
+            int slot = table.find(checksum, 0, hash);
+            if (slot < 0) {
+                slot = table.add(checksum, hash);
+            }
+            table.value(slot, 0, offset);
+            table.value(slot, 1, (long) segment << 32 | length & 0xFFFFFFFFL);
+        }
+
+        synchronized boolean remove(byte[] checksum, int hash) {
+            return table.remove(checksum, hash);
+        }
+
+        synchronized void forEach(BiConsumer<byte[], PackLocation> consumer) {
+            table.forEach((checksum, slot) -> consumer.accept(checksum, location(slot)));
+        }
+
+        synchronized int size() {
+            return table.size();
+        }
+
+        synchronized long memory() {
+            return table.memory();
+        }
+
+        @GuardedBy("this")
+        PackLocation location(int slot) {
+            long segmentLength = table.value(slot, 1);
+            return new PackLocation((int) (segmentLength >>> 32), table.value(slot, 0), (int) segmentLength);
+        }
+    }
+}
@@ -25,17 +25,26 @@ package com.github.horrorho.inflatabledonkey.cloud;
 
 import com.github.horrorho.inflatabledonkey.data.backup.Asset;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.FileGroups;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
+import java.time.Instant;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
@@ -47,6 +56,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Pending assets and their outstanding chunks. Authorization is serialized, chunk completion is not.
+ * <p>
+ * Each authorization response is tracked separately so that its containers can be fetched before the remaining
+ * responses arrive. Containers are routed to the trackers of the responses that issued them by their first chunk
+ * checksum, containers that are unknown to the index go to all trackers. Re-authorized containers may be laid out
+ * differently, they are additionally routed to the trackers of the assets they were reissued for. Routing to a
+ * tracker that does not reference a container's chunks is harmless, missing one is not.
  *
  * @author Ahseya
  */
@@ -65,13 +81,22 @@ public class AssetPool {
                 .collect(toSet());
     }
 
+    static Optional<ByteString> index(StorageHostChunkList container) {
+        return container.getChunkInfoCount() == 0
+                ? Optional.empty()
+                : Optional.of(container.getChunkInfo(0).getChunkChecksum());
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(AssetPool.class);
 
     private final Object lock;
     private final AuthorizeAssetsClient authorizeAssets;
     private final VoodooChunkEncryptionKeyMapper keyMapper;
+    @GuardedBy("lock")
     private Set<Asset> assets;
-    private ItemElements<Asset, ByteString> assetChunks = null;
+    private final List<CompletionTracker<Asset, ByteString>> trackers = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<ByteString, CopyOnWriteArrayList<CompletionTracker<Asset, ByteString>>>
+            containerTrackers = new ConcurrentHashMap<>();
 
     public AssetPool(Object lock, AuthorizeAssetsClient authorizeAssets, VoodooChunkEncryptionKeyMapper keyMapper,
             Set<Asset> assets) {
@@ -85,50 +110,202 @@ public class AssetPool {
         this(new Object(), authorizeAssets, keyMapper, assets);
     }
 
+    public AssetPool(AuthorizeAssetsClient authorizeAssets, Set<Asset> assets) {
+        this(authorizeAssets, VoodooChunkEncryptionKeyMapper.defaultInstance(), assets);
+    }
+
     public AssetPool(Set<Asset> assets) {
-        this(AuthorizeAssetsClient.backupd(), VoodooChunkEncryptionKeyMapper.defaultInstance(), assets);
+        this(AuthorizeAssetsClient.backupd(), assets);
     }
 
     public Collection<StorageHostChunkList> authorize(HttpClient httpClient) throws IOException {
+        List<StorageHostChunkList> containers = new ArrayList<>();
+        authorize(httpClient, containers::addAll);
+        return containers;
+    }
+
+    /**
+     * Authorizes the pool, streaming containers to the consumer as each authorization response arrives. Chunk
+     * tracking for a response is in place before its containers are passed on. Responses that fail do not hold back
+     * the others, their assets are dropped.
+     *
+     * @param httpClient
+     * @param consumer
+     * @throws IOException on the first failed response, once the remainder have been consumed
+     * @throws IllegalStateException if the pool has already been authorized, use
+     * {@link #authorize(HttpClient, Set)} to re-authorize pending assets
+     */
+    public void authorize(HttpClient httpClient, Consumer<Collection<StorageHostChunkList>> consumer)
+            throws IOException {
         synchronized (lock) {
             logger.trace("<< authorize()");
-            Set<Asset> a = assets == null
-                    ? assetChunks.items()
-                    : assets;
+            // Trackers are read lock free by put, they are never cleared.
+            if (assets == null) {
+                throw new IllegalStateException("already authorized");
+            }
             Map<ByteString, Asset> fileSignatureToAsset
-                    = a.stream().collect(toMap(u -> ByteString.copyFrom(u.fileSignature().get()), Function.identity()));
-            Collection<StorageHostChunkList> containers = authorize(httpClient, fileSignatureToAsset);
-            logger.trace(">> authorize() - containers: {}", containers.size());
-            return containers;
+                    = assets.stream().collect(toMap(u -> ByteString.copyFrom(u.fileSignature().get()), Function.identity()));
+            try {
+                authorize(httpClient, fileSignatureToAsset, consumer);
+            } finally {
+                assets = null;
+            }
+            logger.trace(">> authorize() - trackers: {}", trackers.size());
+        }
+    }
+
+    /**
+     * Re-authorizes the specified assets, ignoring those that are no longer pending. Chunk tracking is untouched, the
+     * assets' chunk lists are unchanged by re-authorization. Fresh containers are merged against it instead, those
+     * without outstanding chunks are dropped.
+     *
+     * @param httpClient
+     * @param assets
+     * @return fresh containers with outstanding chunks
+     * @throws IOException
+     * @throws IllegalStateException if the pool has not been authorized
+     */
+    public Collection<StorageHostChunkList> authorize(HttpClient httpClient, Set<Asset> assets) throws IOException {
+        logger.trace("<< authorize() - assets: {}", assets.size());
+        if (trackers.isEmpty()) {
+            throw new IllegalStateException("not authorized");
+        }
+        Map<ByteString, Asset> fileSignatureToAsset = assets.stream()
+                .filter(this::isPending)
+                .collect(toMap(u -> ByteString.copyFrom(u.fileSignature().get()), Function.identity()));
+        if (fileSignatureToAsset.isEmpty()) {
+            logger.trace(">> authorize() - no pending assets");
+            return Collections.emptyList();
         }
+        List<CompletionTracker<Asset, ByteString>> owners = trackers.stream()
+                .filter(u -> fileSignatureToAsset.values().stream().anyMatch(u::isPending))
+                .collect(toList());
+        Collection<StorageHostChunkList> containers = voodoos(httpClient, fileSignatureToAsset)
+                .stream()
+                .map(Voodoo::containers)
+                .flatMap(Collection::stream)
+                .peek(u -> index(u, owners))
+                .filter(this::isOutstanding)
+                .collect(toList());
+        logger.trace(">> authorize() - pending assets: {} containers: {}", fileSignatureToAsset.size(),
+                containers.size());
+        return containers;
+    }
+
+    boolean isPending(Asset asset) {
+        return trackers.stream().anyMatch(u -> u.isPending(asset));
+    }
+
+    boolean isOutstanding(StorageHostChunkList container) {
+        // Chunks that are not yet put and are referenced by pending assets.
+        List<CompletionTracker<Asset, ByteString>> list = trackers(container);
+        return container.getChunkInfoList()
+                .stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .anyMatch(u -> list.stream().anyMatch(t -> !t.items(u).isEmpty()));
+    }
+
+    /**
+     * @param container
+     * @return pending assets that reference the container's chunks
+     */
+    public Set<Asset> assets(StorageHostChunkList container) {
+        List<CompletionTracker<Asset, ByteString>> list = trackers(container);
+        return container.getChunkInfoList()
+                .stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .flatMap(u -> list.stream().map(t -> t.items(u)))
+                .flatMap(Collection::stream)
+                .collect(toSet());
+    }
+
+    /**
+     * @param container
+     * @return pending assets that reference the container's chunks, with their chunk lists
+     */
+    public Map<Asset, List<ByteString>> chunks(StorageHostChunkList container) {
+        Map<Asset, List<ByteString>> map = new HashMap<>();
+        for (CompletionTracker<Asset, ByteString> tracker : trackers(container)) {
+            container.getChunkInfoList()
+                    .stream()
+                    .map(ChunkInfo::getChunkChecksum)
+                    .map(tracker::items)
+                    .flatMap(Collection::stream)
+                    .forEach(u -> map.computeIfAbsent(u, tracker::elements));
+        }
+        return map;
+    }
+
+    /**
+     * @param container
+     * @param asset
+     * @return true if the asset is pending, consulting only the trackers that issued the container
+     */
+    public boolean isPending(StorageHostChunkList container, Asset asset) {
+        return trackers(container).stream().anyMatch(u -> u.isPending(asset));
+    }
+
+    /**
+     * @param container
+     * @return earliest download token expiration of the pending assets that reference the container's chunks
+     */
+    public Optional<Instant> tokenExpiration(StorageHostChunkList container) {
+        return assets(container)
+                .stream()
+                .map(Asset::downloadTokenExpiration)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .min(Comparator.naturalOrder());
+    }
+
+    List<CompletionTracker<Asset, ByteString>> trackers(StorageHostChunkList container) {
+        return index(container)
+                .<List<CompletionTracker<Asset, ByteString>>>map(containerTrackers::get)
+                .orElse(trackers);
+    }
+
+    void index(StorageHostChunkList container, List<CompletionTracker<Asset, ByteString>> list) {
+        index(container).ifPresent(k -> {
+            CopyOnWriteArrayList<CompletionTracker<Asset, ByteString>> indexed
+                    = containerTrackers.computeIfAbsent(k, x -> new CopyOnWriteArrayList<>());
+            list.forEach(indexed::addIfAbsent);
+        });
     }
 
     @GuardedBy("lock")
-    Collection<StorageHostChunkList>
-            authorize(HttpClient httpClient, Map<ByteString, Asset> fileSignatureToAsset)
-            throws IOException {
+    void authorize(HttpClient httpClient, Map<ByteString, Asset> fileSignatureToAsset,
+            Consumer<Collection<StorageHostChunkList>> consumer) throws IOException {
+        authorizeAssets.apply(httpClient, fileSignatureToAsset.values(), fileGroups -> {
+            List<Voodoo> voodooList = voodoos(fileGroups, fileSignatureToAsset);
+            CompletionTracker<Asset, ByteString> tracker = assetChunks(voodooList, fileSignatureToAsset);
+            List<StorageHostChunkList> containers = voodooList.stream()
+                    .map(Voodoo::containers)
+                    .collect(ArrayList::new, List::addAll, List::addAll);
+            containers.forEach(u -> index(u, Collections.singletonList(tracker)));
+            trackers.add(tracker);
+            logger.debug("-- authorize() - assets: {} containers: {}", tracker.pending(), containers.size());
+            consumer.accept(containers);
+        });
+    }
 
-        List<Voodoo> voodooList = voodoos(httpClient, fileSignatureToAsset);
-        assetChunks = assetChunks(voodooList, fileSignatureToAsset);
-        assets = null;
-        return voodooList.stream()
-                .map(Voodoo::containers)
+    List<Voodoo> voodoos(HttpClient httpClient, Map<ByteString, Asset> fileSignatureToAsset) throws IOException {
+        return authorizeAssets.apply(httpClient, fileSignatureToAsset.values())
+                .stream()
+                .map(u -> voodoos(u, fileSignatureToAsset))
                 .collect(ArrayList::new, List::addAll, List::addAll);
     }
 
-    List<Voodoo> voodoos(HttpClient httpClient, Map<ByteString, Asset> fileSignatureToAsset) throws IOException {
+    List<Voodoo> voodoos(FileGroups fileGroups, Map<ByteString, Asset> fileSignatureToAsset) {
         Function<ByteString, Optional<byte[]>> keyEncryptionKey
                 = u -> Optional.ofNullable(fileSignatureToAsset.get(u)).flatMap(Asset::keyEncryptionKey);
 
-        return authorizeAssets.apply(httpClient, fileSignatureToAsset.values())
+        return VoodooFactory.from(fileGroups)
                 .stream()
-                .map(VoodooFactory::from)
-                .flatMap(Collection::stream)
                 .map(u -> keyMapper.apply(u, keyEncryptionKey))
                 .collect(toList());
     }
 
-    ItemElements<Asset, ByteString>
+    CompletionTracker<Asset, ByteString>
             assetChunks(List<Voodoo> voodoos, Map<ByteString, Asset> fileSignatureToAsset) {
         Map<Asset, List<ByteString>> map = voodoos.stream()
                 .map(Voodoo::fileSignatureToChunkChecksumList)
@@ -150,32 +327,40 @@ public class AssetPool {
                             }
                             return u;
                         }));
-        return new ItemElements<>(map);
+        return new CompletionTracker<>(map);
     }
 
+    /**
+     * Lock free, concurrent workers completing containers do not block one another.
+     *
+     * @param container
+     * @param chunkChecksums chunks of the container that are present
+     * @return completed assets with their chunk lists, and failed assets with empty
+     */
     public Map<Asset, Optional<List<ByteString>>>
             put(StorageHostChunkList container, Collection<ByteString> chunkChecksums) {
-        synchronized (lock) {
-            if (assetChunks == null) {
-                throw new IllegalStateException("not authorized");
-            }
-            Set<ByteString> missing = container.getChunkInfoList()
-                    .stream()
-                    .map(ChunkInfo::getChunkChecksum)
-                    .collect(toSet());
-            missing.removeAll(chunkChecksums);
-            logger.debug("-- debug() - missing: {}", missing);
+        if (trackers.isEmpty()) {
+            throw new IllegalStateException("not authorized");
+        }
+        Set<ByteString> missing = container.getChunkInfoList()
+                .stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .collect(toSet());
+        missing.removeAll(chunkChecksums);
+        logger.debug("-- debug() - missing: {}", missing);
 
-            Map<Asset, Optional<List<ByteString>>> map = putElements(chunkChecksums);
-            map.putAll(voidElements(missing));
-            return map;
+        Map<Asset, Optional<List<ByteString>>> map = new HashMap<>();
+        for (CompletionTracker<Asset, ByteString> tracker : trackers(container)) {
+            map.putAll(putElements(tracker, chunkChecksums));
+            map.putAll(voidElements(tracker, missing));
         }
+        return map;
     }
 
-    @GuardedBy("lock")
-    Map<Asset, Optional<List<ByteString>>> putElements(Collection<ByteString> chunkChecksums) {
+    Map<Asset, Optional<List<ByteString>>>
+            putElements(CompletionTracker<Asset, ByteString> tracker, Collection<ByteString> chunkChecksums) {
         logger.trace("<< putElements() - chunk checksums: {}", chunkChecksums);
-        Map<Asset, Optional<List<ByteString>>> map = assetChunks.putElements(chunkChecksums)
+        Map<Asset, Optional<List<ByteString>>> map = tracker.putElements(chunkChecksums)
                 .entrySet()
                 .stream()
                 .map(e -> new SimpleImmutableEntry<>(e.getKey(), Optional.of(e.getValue())))
@@ -184,10 +369,10 @@ public class AssetPool {
         return map;
     }
 
-    @GuardedBy("lock")
-    Map<Asset, Optional<List<ByteString>>> voidElements(Collection<ByteString> chunkChecksums) {
+    Map<Asset, Optional<List<ByteString>>>
+            voidElements(CompletionTracker<Asset, ByteString> tracker, Collection<ByteString> chunkChecksums) {
         logger.trace("<< voidElements() - chunk checksums: {}", chunkChecksums);
-        Map<Asset, Optional<List<ByteString>>> map = assetChunks.voidElements(chunkChecksums)
+        Map<Asset, Optional<List<ByteString>>> map = tracker.voidElements(chunkChecksums)
                 .stream()
                 .collect(toMap(Function.identity(), u -> Optional.<List<ByteString>>empty()));
         logger.trace(">> voidElements() - assets: {}", map.size());
@@ -197,7 +382,7 @@ public class AssetPool {
     public boolean isEmpty() {
         synchronized (lock) {
             return assets == null
-                    ? assetChunks.isEmpty()
+                    ? trackers.stream().allMatch(CompletionTracker::isEmpty)
                     : assets.isEmpty();
         }
     }
@@ -24,18 +24,27 @@
 package com.github.horrorho.inflatabledonkey.cloud;
 
 import com.github.horrorho.inflatabledonkey.data.backup.Asset;
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
 import com.github.horrorho.inflatabledonkey.io.IOBiFunction;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.FileGroups;
 import com.github.horrorho.inflatabledonkey.protobuf.CloudKit;
 import com.github.horrorho.inflatabledonkey.requests.AuthorizeGetRequestFactory;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import static java.util.stream.Collectors.toList;
 import net.jcip.annotations.Immutable;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
@@ -44,7 +53,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Authorizes assets, returning their FileGroups.
+ * <p>
+ * Assets are grouped by content base URL and split into requests of at most batchSize file tokens. Requests run
+ * concurrently on the supplied executor, which bounds the number in flight.
  *
  * @author Ahseya
  */
@@ -55,22 +67,52 @@ public final class AuthorizeAssetsClient implements IOBiFunction<HttpClient, Col
         return BACKUPD;
     }
 
+    public static AuthorizeAssetsClient backupd(Executor executor, int batchSize) {
+        return new AuthorizeAssetsClient(BACKUPD_CONTAINER, DEFAULT_ZONE, executor, batchSize);
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(AuthorizeAssetsClient.class);
 
     private static final long FALLBACK_DURATION_MS = 55 * 60 * 1000;    // conservative 55 minutes (default: 60 minutes)
 
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final int DEFAULT_THREADS = 4;
+
     private static final ResponseHandler<FileGroups> RESPONSE_HANDLER
             = new AuthorizeAssetsResponseHandler(FALLBACK_DURATION_MS);
-    private static final AuthorizeAssetsClient BACKUPD = new AuthorizeAssetsClient("com.apple.backup.ios");
+    private static final Executor EXECUTOR = Executors.newFixedThreadPool(DEFAULT_THREADS, r -> {
+        Thread thread = new Thread(r, "authorize");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final String BACKUPD_CONTAINER = "com.apple.backup.ios";
+    private static final String DEFAULT_ZONE = "_defaultZone";
+    private static final AuthorizeAssetsClient BACKUPD = new AuthorizeAssetsClient(BACKUPD_CONTAINER);
 
     private final ResponseHandler<FileGroups> responseHandler;
     private final String container;
     private final String zone;
+    private final Executor executor;
+    private final int batchSize;
 
-    public AuthorizeAssetsClient(ResponseHandler<FileGroups> responseHandler, String container, String zone) {
+    public AuthorizeAssetsClient(ResponseHandler<FileGroups> responseHandler, String container, String zone,
+            Executor executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("bad batch size: " + batchSize);
+        }
         this.responseHandler = Objects.requireNonNull(responseHandler);
         this.container = Objects.requireNonNull(container);
         this.zone = Objects.requireNonNull(zone);
+        this.executor = Objects.requireNonNull(executor);
+        this.batchSize = batchSize;
+    }
+
+    public AuthorizeAssetsClient(ResponseHandler<FileGroups> responseHandler, String container, String zone) {
+        this(responseHandler, container, zone, EXECUTOR, DEFAULT_BATCH_SIZE);
+    }
+
+    public AuthorizeAssetsClient(String container, String zone, Executor executor, int batchSize) {
+        this(RESPONSE_HANDLER, container, zone, executor, batchSize);
     }
 
     public AuthorizeAssetsClient(String container, String zone) {
@@ -78,28 +120,75 @@ public final class AuthorizeAssetsClient implements IOBiFunction<HttpClient, Col
     }
 
     public AuthorizeAssetsClient(String container) {
-        this(container, "_defaultZone");
+        this(container, DEFAULT_ZONE);
     }
 
     @Override
     public List<FileGroups> apply(HttpClient httpClient, Collection<Asset> assets) throws IOException {
+        List<FileGroups> fileGroups = new ArrayList<>();
+        apply(httpClient, assets, fileGroups::add);
+        return fileGroups;
+    }
+
+    /**
+     * Streams FileGroups to the consumer, on the calling thread, as each request completes. A failed request does
+     * not hold back the others, the first failure is thrown once the remainder have been consumed.
+     *
+     * @param httpClient
+     * @param assets
+     * @param consumer
+     * @throws IOException
+     * @throws UncheckedInterruptedException
+     */
+    public void apply(HttpClient httpClient, Collection<Asset> assets, Consumer<FileGroups> consumer)
+            throws IOException {
         logger.trace("<< apply() - assets: {}", assets.size());
+        // Only expecting one contentBaseUrl. 
+        List<Map.Entry<String, List<CloudKit.Asset>>> batches = batches(ckAssets(assets));
+        CompletionService<FileGroups> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<FileGroups>> futures = batches.stream()
+                .map(e -> completionService.submit(() -> fileGroups(httpClient, e.getKey(), e.getValue())))
+                .collect(Collectors.toList());
+        logger.debug("-- apply() - requests: {}", futures.size());
+
+        IOException exception = null;
         try {
-            List<CloudKit.Asset> ckAssets = ckAssets(assets);
-            // Only expecting one contentBaseUrl. 
-            // Can probably simplify code to handle only one.
-            List<FileGroups> fileGroups = ckAssets.stream()
-                    .collect(Collectors.groupingBy(CloudKit.Asset::getContentBaseURL))
-                    .entrySet()
-                    .stream()
-                    .map(e -> fileGroups(httpClient, e.getKey(), e.getValue()))
-                    .collect(toList());
-            logger.trace(">> apply() - fileGroups: {}", fileGroups.size());
-            return fileGroups;
-
-        } catch (UncheckedIOException ex) {
-            throw ex.getCause();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    consumer.accept(completionService.take().get());
+                } catch (ExecutionException ex) {
+                    IOException cause = ioException(ex);
+                    logger.debug("-- apply() - {} {}", cause.getClass().getCanonicalName(), cause.getMessage());
+                    if (exception == null) {
+                        exception = cause;
+                    } else {
+                        exception.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new UncheckedInterruptedException(ex);
+        } finally {
+            futures.forEach(u -> u.cancel(true));
         }
+        if (exception != null) {
+            throw exception;
+        }
+        logger.trace(">> apply() - fileGroups: {}", futures.size());
+    }
+
+    IOException ioException(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
     }
 
     List<CloudKit.Asset> ckAssets(Collection<Asset> assets) {
@@ -110,8 +199,21 @@ public final class AuthorizeAssetsClient implements IOBiFunction<HttpClient, Col
                 .collect(Collectors.toList());
     }
 
+    List<Map.Entry<String, List<CloudKit.Asset>>> batches(List<CloudKit.Asset> ckAssets) {
+        List<Map.Entry<String, List<CloudKit.Asset>>> batches = new ArrayList<>();
+        ckAssets.stream()
+                .collect(Collectors.groupingBy(CloudKit.Asset::getContentBaseURL))
+                .forEach((k, v) -> {
+                    for (int i = 0; i < v.size(); i += batchSize) {
+                        List<CloudKit.Asset> batch = v.subList(i, Math.min(i + batchSize, v.size()));
+                        batches.add(new SimpleImmutableEntry<>(k, batch));
+                    }
+                });
+        return batches;
+    }
+
     FileGroups fileGroups(HttpClient httpClient, String contentBaseUrl, Collection<CloudKit.Asset> ckAssets)
-            throws UncheckedIOException {
+            throws IOException {
         logger.debug("-- fileGroups() - contentBaseUrl: {} ckAssets: {}", contentBaseUrl, ckAssets.size());
         String dsPrsID = dsPrsID(ckAssets);
         CloudKit.FileTokens fileTokens = FileTokensFactory.from(ckAssets);
@@ -119,15 +221,10 @@ public final class AuthorizeAssetsClient implements IOBiFunction<HttpClient, Col
     }
 
     FileGroups fileGroups(HttpClient httpClient, String dsPrsID, String contentBaseUrl, CloudKit.FileTokens fileTokens)
-            throws UncheckedIOException {
-        try {
-            HttpUriRequest request = AuthorizeGetRequestFactory.instance()
-                    .newRequest(dsPrsID, contentBaseUrl, container, zone, fileTokens);
-            return httpClient.execute(request, responseHandler);
-
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
-        }
+            throws IOException {
+        HttpUriRequest request = AuthorizeGetRequestFactory.instance()
+                .newRequest(dsPrsID, contentBaseUrl, container, zone, fileTokens);
+        return httpClient.execute(request, responseHandler);
     }
 
     String dsPrsID(Collection<CloudKit.Asset> ckAssets) {
@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.github.horrorho.inflatabledonkey.util.CSR;
+import com.github.horrorho.inflatabledonkey.util.Interner;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Concurrent variant of {@link ItemElements}. Items complete once all their elements have been put and fail once any
+ * of their elements is voided. Each item completes or fails exactly once.
+ * <p>
+ * Items hold atomic countdowns of their outstanding distinct elements, each element is counted down at most once.
+ * No global lock is held, concurrent workers putting disjoint elements do not contend. As with
+ * {@link InternedItemElements}, items and elements are interned and adjacency is held in immutable CSR int arrays.
+ *
+ * @author Ahseya
+ * @param <T> item type
+ * @param <U> element type
+ */
+@ThreadSafe
+public final class CompletionTracker<T, U> {
+
+    private static final int PENDING = 0;
+    private static final int COMPLETE = 1;
+    private static final int VOID = 2;
+
+    // Interners and CSRs are read only once constructed.
+    private final Interner<T> items;
+    private final Interner<U> elements;
+    private final CSR lists;
+    private final CSR elementToItems;
+    private final AtomicIntegerArray outstanding;
+    private final AtomicIntegerArray states;
+    private final AtomicIntegerArray put;
+    private final AtomicInteger pending;
+
+    CompletionTracker(InternedEdges<T, U> edges) {
+        this.items = edges.items;
+        this.elements = edges.elements;
+        this.lists = edges.lists();
+        CSR distinct = edges.distinct();
+        this.elementToItems = distinct.transpose(elements.size());
+        this.outstanding = new AtomicIntegerArray(items.size());
+        this.states = new AtomicIntegerArray(items.size());
+        int count = 0;
+        for (int i = 0; i < items.size(); i++) {
+            outstanding.set(i, distinct.degree(i));
+            if (distinct.degree(i) == 0) {
+                // Never pending, as per ItemElements#items.
+                states.set(i, VOID);
+            } else {
+                count++;
+            }
+        }
+        this.put = new AtomicIntegerArray(elements.size());
+        this.pending = new AtomicInteger(count);
+    }
+
+    public CompletionTracker(Map<T, List<U>> itemToElements) {
+        this(InternedEdges.of(itemToElements));
+    }
+
+    /**
+     * @return pending items, snapshot
+     */
+    public Set<T> items() {
+        Set<T> set = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (states.get(i) == PENDING) {
+                set.add(items.get(i));
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @param element
+     * @return pending items referencing the element if not yet put, snapshot
+     */
+    public Set<T> items(U element) {
+        int id = elements.id(element);
+        if (id == -1 || put.get(id) == 1) {
+            return Collections.emptySet();
+        }
+        Set<T> set = new HashSet<>();
+        for (int i = elementToItems.start(id), end = elementToItems.end(id); i < end; i++) {
+            int item = elementToItems.column(i);
+            if (states.get(item) == PENDING) {
+                set.add(items.get(item));
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @param item
+     * @return the item's element list, or empty if unknown
+     */
+    public List<U> elements(T item) {
+        int id = items.id(item);
+        return id == -1
+                ? Collections.emptyList()
+                : InternedEdges.list(lists, elements, id);
+    }
+
+    public boolean isPending(T item) {
+        int id = items.id(item);
+        return id != -1 && states.get(id) == PENDING;
+    }
+
+    public Map<T, List<U>> putElements(Collection<U> elements) {
+        Map<T, List<U>> map = new HashMap<>();
+        elements.forEach(u -> putElement(u, map));
+        return map;
+    }
+
+    public Map<T, List<U>> putElement(U element) {
+        Map<T, List<U>> map = new HashMap<>();
+        putElement(element, map);
+        return map;
+    }
+
+    void putElement(U element, Map<T, List<U>> completed) {
+        int id = elements.id(element);
+        if (id == -1 || !put.compareAndSet(id, 0, 1)) {
+            return;
+        }
+        for (int i = elementToItems.start(id), end = elementToItems.end(id); i < end; i++) {
+            int item = elementToItems.column(i);
+            if (outstanding.decrementAndGet(item) == 0 && transition(item, COMPLETE)) {
+                completed.put(items.get(item), InternedEdges.list(lists, elements, item));
+            }
+        }
+    }
+
+    public Set<T> voidElements(Collection<U> elements) {
+        Set<T> set = new HashSet<>();
+        elements.forEach(u -> voidElement(u, set));
+        return set;
+    }
+
+    public Set<T> voidElement(U element) {
+        Set<T> set = new HashSet<>();
+        voidElement(element, set);
+        return set;
+    }
+
+    void voidElement(U element, Set<T> voided) {
+        // Unrecoverable items. Elements already put are retained.
+        int id = elements.id(element);
+        if (id == -1 || put.get(id) == 1) {
+            return;
+        }
+        for (int i = elementToItems.start(id), end = elementToItems.end(id); i < end; i++) {
+            int item = elementToItems.column(i);
+            if (transition(item, VOID)) {
+                voided.add(items.get(item));
+            }
+        }
+    }
+
+    boolean transition(int item, int state) {
+        if (states.compareAndSet(item, PENDING, state)) {
+            pending.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CompletionTracker{"
+                + "items=" + items.size()
+                + ", elements=" + elements.size()
+                + ", pending=" + pending
+                + '}';
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.github.horrorho.inflatabledonkey.data.backup.Asset;
+import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.google.protobuf.ByteString;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import java.util.stream.Stream;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.http.client.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expiry aware container scheduler.
+ * <p>
+ * Containers are handed out earliest deadline first, the deadline being the earlier of the container's expiry and the
+ * download token expiration of the pending assets behind it. A background task re-authorizes only the pending assets
+ * behind containers that are close to expiring and swaps the fresh containers into the queue ahead of time, so fetch
+ * workers do not stall on expired URLs. Containers whose assets' download tokens are about to lapse are renewed once
+ * while re-authorization is still possible. Containers that expire or fail in flight are renewed urgently and abandoned
+ * if renewal fails, containers that fail permanently are abandoned without renewal. Containers reissued with a lifetime
+ * shorter than the margin, or not reissued at all, are not renewed ahead of time again, they are used as they are and
+ * renewed urgently should they expire in flight.
+ * <p>
+ * Abandoned containers are handed to the abandon callback on the worker threads, from within {@link #take()}, rather
+ * than on the renewal thread. Workers blocked in {@link #take()} are compensated when running in a
+ * {@link ForkJoinPool}.
+ * <p>
+ * Fresh containers are merged with the existing work: containers without outstanding chunks are dropped by the pool
+ * and containers already in flight are not queued twice.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class ContainerScheduler implements Closeable {
+
+    static List<ByteString> key(StorageHostChunkList container) {
+        return container.getChunkInfoList()
+                .stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .collect(toList());
+    }
+
+    static long expiry(StorageHostChunkList container) {
+        return container.getHostInfo().getExpiry();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ContainerScheduler.class);
+
+    static final int MAX_URGENT_RENEWALS = 3;
+
+    private final Object lock = new Object();
+    private final ForkJoinPool.ManagedBlocker wait = new Wait();
+    private final AssetPool pool;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService executor;
+    private final Consumer<StorageHostChunkList> abandon;
+    private final long renewMarginMs;
+    @GuardedBy("lock")
+    private final PriorityQueue<Scheduled> queue = new PriorityQueue<>(Comparator.comparingLong(Scheduled::deadline));
+    @GuardedBy("lock")
+    private final Map<List<ByteString>, Scheduled> queued = new HashMap<>();
+    @GuardedBy("lock")
+    private final Map<List<ByteString>, Integer> inFlight = new HashMap<>();
+    @GuardedBy("lock")
+    private final Set<List<ByteString>> renewing = new HashSet<>();
+    @GuardedBy("lock")
+    private final Set<List<ByteString>> tokenRenewed = new HashSet<>();
+    @GuardedBy("lock")
+    private final Set<List<ByteString>> shortLived = new HashSet<>();
+    @GuardedBy("lock")
+    private final List<StorageHostChunkList> urgent = new ArrayList<>();
+    @GuardedBy("lock")
+    private final Map<List<ByteString>, Integer> urgentRenewals = new HashMap<>();
+    @GuardedBy("lock")
+    private final Queue<StorageHostChunkList> abandoned = new ArrayDeque<>();
+    @GuardedBy("lock")
+    private int active;
+    @GuardedBy("lock")
+    private int renewals;
+    @GuardedBy("lock")
+    private int holds;
+    @GuardedBy("lock")
+    private boolean closed;
+    private final ScheduledFuture<?> scan;
+
+    /**
+     * @param pool authorized asset pool
+     * @param httpClient
+     * @param executor runs renewals, not shut down on close
+     * @param abandon receives containers that expired or failed and could not be renewed, called on the threads
+     * calling {@link #take()}
+     * @param renewMarginMs renew containers expiring within this margin
+     * @param scanIntervalMs expiry scan interval
+     */
+    public ContainerScheduler(AssetPool pool, HttpClient httpClient, ScheduledExecutorService executor,
+            Consumer<StorageHostChunkList> abandon, long renewMarginMs, long scanIntervalMs) {
+        this.pool = Objects.requireNonNull(pool, "pool");
+        this.httpClient = Objects.requireNonNull(httpClient, "httpClient");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.abandon = Objects.requireNonNull(abandon, "abandon");
+        this.renewMarginMs = renewMarginMs;
+        this.scan = executor.scheduleWithFixedDelay(this::scan, scanIntervalMs, scanIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void submit(Collection<StorageHostChunkList> containers) {
+        List<Scheduled> list = scheduled(containers);
+        synchronized (lock) {
+            list.forEach(this::offer);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Holds the scheduler open while containers are still to be submitted, {@link #take()} blocks rather than
+     * reporting the end of work. Each hold must be followed by a call to {@link #release()}.
+     */
+    public void hold() {
+        synchronized (lock) {
+            holds++;
+        }
+    }
+
+    public void release() {
+        synchronized (lock) {
+            holds--;
+            lock.notifyAll();
+        }
+    }
+
+    List<Scheduled> scheduled(Collection<StorageHostChunkList> containers) {
+        // Token lookups outside the lock.
+        return containers.stream()
+                .map(u -> new Scheduled(u, pool.tokenExpiration(u)))
+                .collect(toList());
+    }
+
+    @GuardedBy("lock")
+    void offer(Scheduled scheduled) {
+        // Fresh containers replace queued containers with the same chunks.
+        Scheduled old = queued.put(scheduled.key(), scheduled);
+        if (old != null) {
+            queue.remove(old);
+        }
+        queue.add(scheduled);
+    }
+
+    /**
+     * Blocks until a container is available, running the abandon callback for any abandoned containers meanwhile. Each
+     * container taken must be followed by a call to {@link #done(StorageHostChunkList)}.
+     *
+     * @return earliest deadline container, or empty if there is no further work
+     * @throws UncheckedInterruptedException
+     */
+    public Optional<StorageHostChunkList> take() {
+        while (true) {
+            StorageHostChunkList container;
+            synchronized (lock) {
+                while (true) {
+                    if (closed) {
+                        return Optional.empty();
+                    }
+                    container = abandoned.poll();
+                    if (container != null) {
+                        break;
+                    }
+                    Scheduled scheduled = queue.poll();
+                    if (scheduled != null) {
+                        queued.remove(scheduled.key());
+                        inFlight.merge(scheduled.key(), 1, Integer::sum);
+                        active++;
+                        return Optional.of(scheduled.container());
+                    }
+                    if (active == 0 && renewals == 0 && holds == 0 && urgent.isEmpty()) {
+                        return Optional.empty();
+                    }
+                    try {
+                        ForkJoinPool.managedBlock(wait);
+                    } catch (InterruptedException ex) {
+                        throw new UncheckedInterruptedException(ex);
+                    }
+                }
+            }
+            // Outside the lock, the callback assembles files.
+            notifyAbandoned(container);
+        }
+    }
+
+    public void done(StorageHostChunkList container) {
+        synchronized (lock) {
+            inFlight.computeIfPresent(key(container), (k, v) -> v == 1 ? null : v - 1);
+            active--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Queues an urgent renewal for a container that expired in flight. Call before
+     * {@link #done(StorageHostChunkList)}.
+     *
+     * @param container
+     */
+    public void expired(StorageHostChunkList container) {
+        urgent(container);
+    }
+
+    /**
+     * Queues an urgent renewal for a container whose fetch failed, the fresh container may be served by another host.
+     * Call before {@link #done(StorageHostChunkList)}.
+     *
+     * @param container
+     */
+    public void failed(StorageHostChunkList container) {
+        urgent(container);
+    }
+
+    /**
+     * Abandons a container whose fetch failed permanently, without renewal. Call before
+     * {@link #done(StorageHostChunkList)}.
+     *
+     * @param container
+     */
+    public void unrecoverable(StorageHostChunkList container) {
+        abandon(container);
+    }
+
+    void urgent(StorageHostChunkList container) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            urgent.add(container);
+            renewals++;
+        }
+        try {
+            executor.execute(this::renew);
+        } catch (RejectedExecutionException ex) {
+            logger.warn("-- urgent() - renewal rejected: {}", ex.getMessage());
+            synchronized (lock) {
+                urgent.remove(container);
+                renewals--;
+                lock.notifyAll();
+            }
+            abandon(container);
+        }
+    }
+
+    void scan() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            renewals++;
+        }
+        renew();
+    }
+
+    void renew() {
+        try {
+            doRenew();
+        } catch (RuntimeException ex) {
+            logger.warn("-- renew() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+        } finally {
+            synchronized (lock) {
+                renewals--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void doRenew() {
+        List<StorageHostChunkList> retry = new ArrayList<>();
+        List<StorageHostChunkList> unrecoverable = new ArrayList<>();
+        List<Scheduled> expiring;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            for (StorageHostChunkList container : urgent) {
+                int count = urgentRenewals.merge(key(container), 1, Integer::sum);
+                if (count > MAX_URGENT_RENEWALS) {
+                    unrecoverable.add(container);
+                } else {
+                    retry.add(container);
+                }
+            }
+            urgent.clear();
+            long now = System.currentTimeMillis();
+            long threshold = now + renewMarginMs;
+            List<Scheduled> candidates = queue.stream()
+                    .filter(u -> isExpiring(u, threshold) || isTokenLapsing(u, now, threshold))
+                    .collect(toList());
+            expiring = new ArrayList<>();
+            for (Scheduled scheduled : candidates) {
+                if (!renewing.add(scheduled.key())) {
+                    continue;
+                }
+                // Last chance renewal while the token is still valid, once per container and only once renewing.
+                if (!isExpiring(scheduled, threshold)) {
+                    tokenRenewed.add(scheduled.key());
+                }
+                expiring.add(scheduled);
+            }
+        }
+        unrecoverable.forEach(this::abandon);
+        if (retry.isEmpty() && expiring.isEmpty()) {
+            return;
+        }
+
+        Set<Asset> assets = Stream.concat(retry.stream(), expiring.stream().map(Scheduled::container))
+                .map(pool::assets)
+                .flatMap(Collection::stream)
+                .collect(toSet());
+        logger.debug("-- doRenew() - urgent: {} expiring: {} assets: {}", retry.size(), expiring.size(), assets.size());
+
+        List<Scheduled> fresh;
+        try {
+            fresh = scheduled(pool.authorize(httpClient, assets));
+        } catch (IOException ex) {
+            // Expiring containers remain queued, they will be retried on the next scan or expire in flight.
+            logger.warn("-- doRenew() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+            synchronized (lock) {
+                expiring.forEach(u -> renewing.remove(u.key()));
+            }
+            retry.forEach(this::abandon);
+            return;
+        }
+
+        Set<ByteString> renewed = fresh.stream()
+                .map(Scheduled::key)
+                .flatMap(Collection::stream)
+                .collect(toSet());
+        Set<List<ByteString>> retryKeys = retry.stream()
+                .map(ContainerScheduler::key)
+                .collect(toSet());
+        int offered = 0;
+        synchronized (lock) {
+            long threshold = System.currentTimeMillis() + renewMarginMs;
+            expiring.forEach(u -> {
+                renewing.remove(u.key());
+                if (!renewed.containsAll(u.key())) {
+                    // Not reissued, the old container is kept and renewed urgently should it expire in flight.
+                    shortLived.add(u.key());
+                    return;
+                }
+                if (queued.get(u.key()) == u) {
+                    queued.remove(u.key());
+                    queue.remove(u);
+                }
+            });
+            for (Scheduled scheduled : fresh) {
+                // Renewing containers that expire within the margin anyway would only reissue them on every scan.
+                if (scheduled.expiry() < threshold) {
+                    shortLived.add(scheduled.key());
+                } else {
+                    shortLived.remove(scheduled.key());
+                }
+                // In flight containers either complete or come back to us as urgent.
+                if (!inFlight.containsKey(scheduled.key()) || retryKeys.contains(scheduled.key())) {
+                    offer(scheduled);
+                    offered++;
+                }
+            }
+            lock.notifyAll();
+        }
+        logger.debug("-- doRenew() - fresh containers: {} queued: {}", fresh.size(), offered);
+
+        // Urgent containers whose chunks were not reissued are unrecoverable.
+        retry.stream()
+                .filter(u -> !renewed.containsAll(key(u)))
+                .forEach(this::abandon);
+    }
+
+    @GuardedBy("lock")
+    boolean isExpiring(Scheduled scheduled, long threshold) {
+        return scheduled.expiry() < threshold && !shortLived.contains(scheduled.key());
+    }
+
+    @GuardedBy("lock")
+    boolean isTokenLapsing(Scheduled scheduled, long now, long threshold) {
+        return scheduled.isTokenLapsing(now, threshold) && !tokenRenewed.contains(scheduled.key());
+    }
+
+    void abandon(StorageHostChunkList container) {
+        logger.debug("-- abandon() - container: {}", container.getHostInfo().getUri());
+        synchronized (lock) {
+            abandoned.add(container);
+            lock.notifyAll();
+        }
+    }
+
+    void notifyAbandoned(StorageHostChunkList container) {
+        try {
+            abandon.accept(container);
+        } catch (RuntimeException ex) {
+            logger.warn("-- notifyAbandoned() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            urgent.clear();
+            lock.notifyAll();
+        }
+        scan.cancel(false);
+    }
+
+    /**
+     * Waits once on the lock, which the caller holds.
+     */
+    final class Wait implements ForkJoinPool.ManagedBlocker {
+
+        @Override
+        public boolean block() throws InterruptedException {
+            synchronized (lock) {
+                lock.wait();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return false;
+        }
+    }
+
+    @Immutable
+    static final class Scheduled {
+
+        private final StorageHostChunkList container;
+        private final List<ByteString> key;
+        private final long tokenExpiry;
+
+        Scheduled(StorageHostChunkList container, Optional<Instant> tokenExpiration) {
+            this.container = Objects.requireNonNull(container);
+            this.key = ContainerScheduler.key(container);
+            this.tokenExpiry = tokenExpiration.map(Instant::toEpochMilli).orElse(Long.MAX_VALUE);
+        }
+
+        StorageHostChunkList container() {
+            return container;
+        }
+
+        List<ByteString> key() {
+            return key;
+        }
+
+        long expiry() {
+            return ContainerScheduler.expiry(container);
+        }
+
+        long deadline() {
+            return Math.min(expiry(), tokenExpiry);
+        }
+
+        boolean isTokenLapsing(long now, long threshold) {
+            return tokenExpiry > now && tokenExpiry < threshold;
+        }
+    }
+}
@@ -25,97 +25,206 @@ package com.github.horrorho.inflatabledonkey.cloud;
 
 import com.github.horrorho.inflatabledonkey.chunk.Chunk;
 import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkClient;
+import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkRanges;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
 import com.github.horrorho.inflatabledonkey.data.backup.Asset;
+import com.github.horrorho.inflatabledonkey.exception.ContainerExpiredException;
 import com.github.horrorho.inflatabledonkey.exception.UncheckedInterruptedException;
-import com.github.horrorho.inflatabledonkey.file.FileAssembler;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
 import com.google.protobuf.ByteString;
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
-import net.jcip.annotations.Immutable;
+import java.util.stream.IntStream;
+import net.jcip.annotations.ThreadSafe;
 import org.apache.http.client.HttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Donkeys created without a renewal executor own theirs and must be closed.
  *
  * @author Ahseya
  */
-@Immutable
-public final class Donkey {
+@ThreadSafe
+public final class Donkey implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(Donkey.class);
 
+    private static final long DEFAULT_RENEW_MARGIN_MS = 10 * 60 * 1000;
+    private static final long RENEW_SCAN_INTERVAL_MS = 15 * 1000;
+
     private final ChunkClient chunkClient;
     private final ChunkStore store;
     private final int fragmentationThreshold;
+    private final ScheduledExecutorService renewals;
+    private final boolean ownsRenewals;
+    private final long renewMarginMs;
+    private final AuthorizeAssetsClient authorizeAssets;
 
-    public Donkey(ChunkClient chunkClient, ChunkStore store, int fragmentationThreshold) {
+    Donkey(ChunkClient chunkClient, ChunkStore store, int fragmentationThreshold, ScheduledExecutorService renewals,
+            boolean ownsRenewals, long renewMarginMs, AuthorizeAssetsClient authorizeAssets) {
         this.chunkClient = Objects.requireNonNull(chunkClient);
         this.store = Objects.requireNonNull(store);
         this.fragmentationThreshold = fragmentationThreshold;
+        this.renewals = Objects.requireNonNull(renewals);
+        this.ownsRenewals = ownsRenewals;
+        this.renewMarginMs = renewMarginMs;
+        this.authorizeAssets = Objects.requireNonNull(authorizeAssets);
+    }
+
+    /**
+     * @param chunkClient
+     * @param store
+     * @param fragmentationThreshold
+     * @param renewals runs container renewals, not shut down on close
+     * @param renewMarginMs
+     * @param authorizeAssets
+     */
+    public Donkey(ChunkClient chunkClient, ChunkStore store, int fragmentationThreshold,
+            ScheduledExecutorService renewals, long renewMarginMs, AuthorizeAssetsClient authorizeAssets) {
+        this(chunkClient, store, fragmentationThreshold, renewals, false, renewMarginMs, authorizeAssets);
+    }
+
+    public Donkey(ChunkClient chunkClient, ChunkStore store, int fragmentationThreshold,
+            ScheduledExecutorService renewals, long renewMarginMs) {
+        this(chunkClient, store, fragmentationThreshold, renewals, renewMarginMs, AuthorizeAssetsClient.backupd());
     }
 
-    public void apply(HttpClient httpClient, Optional<ForkJoinPool> aux, Set<Asset> assets, FileAssembler consumer) {
+    public Donkey(ChunkClient chunkClient, ChunkStore store, int fragmentationThreshold) {
+        this(chunkClient, store, fragmentationThreshold, Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "renew");
+            thread.setDaemon(true);
+            return thread;
+        }), true, DEFAULT_RENEW_MARGIN_MS, AuthorizeAssetsClient.backupd());
+    }
+
+    /**
+     * Shuts down the renewal executor if this Donkey created it.
+     */
+    @Override
+    public void close() {
+        if (ownsRenewals) {
+            renewals.shutdownNow();
+        }
+    }
+
+    public void apply(HttpClient httpClient, Optional<ForkJoinPool> aux, Set<Asset> assets,
+            BiConsumer<Asset, Optional<List<Chunk>>> consumer) {
+        apply(httpClient, aux, assets, consumer, Optional.empty());
+    }
+
+    /**
+     * @param httpClient
+     * @param aux
+     * @param assets
+     * @param consumer receives completed assets with their chunks, and failed assets with empty
+     * @param progress receives pending assets as their containers land
+     */
+    public void apply(HttpClient httpClient, Optional<ForkJoinPool> aux, Set<Asset> assets,
+            BiConsumer<Asset, Optional<List<Chunk>>> consumer, Optional<AssetProgress> progress) {
         logger.trace("<< apply() - assets: {}", assets.size());
         if (assets.isEmpty()) {
             return;
         }
 
         if (logger.isDebugEnabled()) {
-            int bytes = assets.stream()
-                    .mapToInt(u -> u.size().map(Long::intValue).orElse(0))
+            long bytes = assets.stream()
+                    .mapToLong(u -> u.size().orElse(0L))
                     .sum();
             logger.debug("-- apply() - assets total: {} size (bytes): {}", assets.size(), bytes);
         }
 
-        AssetPool pool = new AssetPool(assets);
-
-        while (true) {
-            try {
-                if (assets.size() > fragmentationThreshold && aux.isPresent()) {
-                    processConcurrent(httpClient, aux.get(), pool, consumer);
-                } else {
-                    process(httpClient, pool, consumer);
-                }
-                break;
-            } catch (IllegalStateException ex) {
-                // Our StorageHostChunkLists have expired.
-                // TOFIX potentially unsafe. Use a more specific exception.
-                logger.debug("-- apply() - IllegalStateException: {}", ex.getMessage());
-            } catch (IllegalArgumentException | IOException ex) {
-                logger.warn("-- apply() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
-                break;
+        AssetPool pool = new AssetPool(authorizeAssets, assets);
+        try (ContainerScheduler scheduler = new ContainerScheduler(pool, httpClient, renewals,
+                u -> complete(u, pool, consumer, progress), renewMarginMs, RENEW_SCAN_INTERVAL_MS)) {
+            if (assets.size() > fragmentationThreshold && aux.isPresent()) {
+                processConcurrent(httpClient, aux.get(), scheduler, pool, consumer, progress);
+            } else {
+                authorize(httpClient, scheduler, pool);
+                process(httpClient, scheduler, pool, consumer, progress);
             }
+        } catch (IllegalArgumentException | IOException ex) {
+            logger.warn("-- apply() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
         }
         logger.trace(">> apply() - pool empty: {}", pool.isEmpty());
     }
 
-    void process(HttpClient httpClient, AssetPool pool, FileAssembler consumer) throws IOException {
+    void authorize(HttpClient httpClient, ContainerScheduler scheduler, AssetPool pool) {
+        // Containers are submitted as each authorization response arrives.
+        scheduler.hold();
+        try {
+            pool.authorize(httpClient, scheduler::submit);
+        } catch (IOException ex) {
+            // Assets of failed responses are dropped, the remainder proceed.
+            logger.warn("-- authorize() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    void process(HttpClient httpClient, ContainerScheduler scheduler, AssetPool pool,
+            BiConsumer<Asset, Optional<List<Chunk>>> consumer, Optional<AssetProgress> progress) {
         logger.trace("<< process()");
-        pool.authorize(httpClient).forEach(u -> processContainer(httpClient, u, pool, consumer));
+        for (Optional<StorageHostChunkList> container = scheduler.take();
+                container.isPresent();
+                container = scheduler.take()) {
+            try {
+                processContainer(httpClient, container.get(), pool, consumer, progress);
+            } catch (ContainerExpiredException ex) {
+                logger.debug("-- process() - container expired: {}", container.get().getHostInfo().getUri());
+                scheduler.expired(container.get());
+            } catch (IOException ex) {
+                logger.warn("-- process() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+                if (ChunkClient.isRetryable(ex)) {
+                    scheduler.failed(container.get());
+                } else {
+                    // Corrupt data or a client error, re-authorization will not help.
+                    scheduler.unrecoverable(container.get());
+                }
+            } finally {
+                scheduler.done(container.get());
+            }
+        }
         logger.trace(">> process()");
     }
 
-    void processConcurrent(HttpClient httpClient, ForkJoinPool fjp, AssetPool pool, FileAssembler consumer)
-            throws IOException {
+    void processConcurrent(HttpClient httpClient, ForkJoinPool fjp, ContainerScheduler scheduler, AssetPool pool,
+            BiConsumer<Asset, Optional<List<Chunk>>> consumer, Optional<AssetProgress> progress) throws IOException {
         logger.trace("<< processConcurrent()");
         try {
-            Collection<StorageHostChunkList> containers = pool.authorize(httpClient);
-            fjp.submit(() -> containers.parallelStream().forEach(u -> processContainer(httpClient, u, pool, consumer)))
-                    .get();
+            // Workers start on the first containers while authorization is still under way.
+            List<ForkJoinTask<?>> workers;
+            scheduler.hold();
+            try {
+                workers = IntStream.range(0, fjp.getParallelism())
+                        .mapToObj(i -> fjp.submit(() -> process(httpClient, scheduler, pool, consumer, progress)))
+                        .collect(toList());
+                authorize(httpClient, scheduler, pool);
+            } finally {
+                scheduler.release();
+            }
+            for (ForkJoinTask<?> worker : workers) {
+                worker.get();
+            }
 
         } catch (InterruptedException ex) {
             throw new UncheckedInterruptedException(ex);
@@ -132,32 +241,62 @@ public final class Donkey {
         logger.trace("<< processConcurrent()");
     }
 
-    void processContainer(HttpClient httpClient, StorageHostChunkList container, AssetPool pool, FileAssembler consumer) {
+    void processContainer(HttpClient httpClient, StorageHostChunkList container, AssetPool pool,
+            BiConsumer<Asset, Optional<List<Chunk>>> consumer, Optional<AssetProgress> progress) throws IOException {
         fetchContainer(httpClient, container);
+        complete(container, pool, consumer, progress);
+    }
+
+    void complete(StorageHostChunkList container, AssetPool pool, BiConsumer<Asset, Optional<List<Chunk>>> consumer,
+            Optional<AssetProgress> progress) {
+        // Put chunks no longer map to their assets, the pending assets are collected beforehand.
+        Map<Asset, List<ByteString>> pending = progress.isPresent()
+                ? pool.chunks(container)
+                : Collections.emptyMap();
         Collection<ByteString> chunkChecksums = anyChunks(container.getChunkInfoList());
         pool.put(container, chunkChecksums)
                 .forEach((k, v) -> {
+                    pending.remove(k);
                     Optional<List<Chunk>> chunks = v.flatMap(this::chunks);
                     consumer.accept(k, chunks);
                 });
+        progress.ifPresent(p -> pending.forEach((k, v) -> {
+            try {
+                p.accept(k, lazyChunks(v), () -> pool.isPending(container, k));
+            } catch (RuntimeException ex) {
+                logger.warn("-- complete() - progress: {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
+            }
+        }));
+    }
+
+    List<Optional<Chunk>> lazyChunks(List<ByteString> checksums) {
+        return new AbstractList<Optional<Chunk>>() {
+            @Override
+            public Optional<Chunk> get(int index) {
+                return store.chunk(checksums.get(index).toByteArray());
+            }
+
+            @Override
+            public int size() {
+                return checksums.size();
+            }
+        };
     }
 
-    void fetchContainer(HttpClient httpClient, StorageHostChunkList container) {
+    void fetchContainer(HttpClient httpClient, StorageHostChunkList container) throws IOException {
         ChunkServer.HostInfo hostInfo = container.getHostInfo();
         logger.trace("<< fetchContainer() - uri: {}", hostInfo.getHostname() + "/" + hostInfo.getUri());
 
         if (logger.isDebugEnabled()) {
-            int size = container.getChunkInfoList()
+            long size = container.getChunkInfoList()
                     .stream()
-                    .mapToInt(ChunkInfo::getChunkLength)
+                    .mapToLong(ChunkRanges::length)
                     .sum();
             logger.debug("-- fetchContainer() - chunks: {} size: {}", container.getChunkInfoCount(), size);
         }
 
         try {
             chunkClient.apply(httpClient, container, store);
-        } catch (IOException ex) {
-            logger.warn("-- fetchContainer() - {} {}", ex.getClass().getCanonicalName(), ex.getMessage());
         } catch (IllegalArgumentException ex) {
             // Shouldn't happen unless we pass non type 0x01 keys.
             logger.warn("-- fetchContainer() - internal error: {}", ex.getMessage());
@@ -167,9 +306,12 @@ public final class Donkey {
     }
 
     Set<ByteString> anyChunks(Collection<ChunkInfo> chunks) {
-        return chunks.stream()
-                .map(chunkInfo -> chunkInfo.getChunkChecksum())
-                .filter(checksum -> store.contains(checksum.toByteArray()))
+        List<ByteString> checksums = chunks.stream()
+                .map(ChunkInfo::getChunkChecksum)
+                .collect(toList());
+        return store.contains(checksums)
+                .stream()
+                .mapToObj(checksums::get)
                 .collect(toSet());
     }
 
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.github.horrorho.inflatabledonkey.util.CSR;
+import com.github.horrorho.inflatabledonkey.util.Interner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Item to element lists interned as dense int ids and edge arrays.
+ *
+ * @author Ahseya
+ * @param <T> item type
+ * @param <U> element type
+ */
+@Immutable
+final class InternedEdges<T, U> {
+
+    static <T, U> InternedEdges<T, U> of(Map<T, List<U>> itemToElements) {
+        int length = itemToElements.values()
+                .stream()
+                .mapToInt(List::size)
+                .sum();
+        Interner<T> items = new Interner<>(itemToElements.size());
+        Interner<U> elements = new Interner<>(length);
+        int[] itemIds = new int[length];
+        int[] elementIds = new int[length];
+        int n = 0;
+        for (Map.Entry<T, List<U>> entry : itemToElements.entrySet()) {
+            int item = items.intern(entry.getKey());
+            for (U element : entry.getValue()) {
+                itemIds[n] = item;
+                elementIds[n++] = elements.intern(element);
+            }
+        }
+        items.trimToSize();
+        elements.trimToSize();
+        return new InternedEdges<>(items, elements, itemIds, elementIds);
+    }
+
+    final Interner<T> items;
+    final Interner<U> elements;
+    final int[] itemIds;
+    final int[] elementIds;
+
+    InternedEdges(Interner<T> items, Interner<U> elements, int[] itemIds, int[] elementIds) {
+        this.items = items;
+        this.elements = elements;
+        this.itemIds = itemIds;
+        this.elementIds = elementIds;
+    }
+
+    /**
+     * @return item to element lists, in order, duplicates retained
+     */
+    CSR lists() {
+        return CSR.of(items.size(), itemIds, elementIds, itemIds.length, false);
+    }
+
+    /**
+     * @return item to distinct elements
+     */
+    CSR distinct() {
+        return CSR.of(items.size(), itemIds, elementIds, itemIds.length, true);
+    }
+
+    static <U> List<U> list(CSR lists, Interner<U> elements, int item) {
+        List<U> list = new ArrayList<>(lists.degree(item));
+        for (int i = lists.start(item), end = lists.end(item); i < end; i++) {
+            list.add(elements.get(lists.column(i)));
+        }
+        return list;
+    }
+}
@@ -75,6 +75,10 @@ public final class ItemElements<T, U> {
         return biMap.valueSet();
     }
 
+    public Set<T> items(U element) {
+        return biMap.keys(element);
+    }
+
     public Map<T, List<U>> putElements(Collection<U> elements) {
         return elements.stream()
                 .map(this::putElement)
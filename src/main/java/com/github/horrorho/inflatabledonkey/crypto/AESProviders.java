@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import com.github.horrorho.inflatabledonkey.args.Property;
+import com.github.horrorho.inflatabledonkey.args.PropertyCryptoProvider;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import net.jcip.annotations.Immutable;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AES providers. JCE engines pick up the HotSpot AES intrinsics (AES-NI) where present.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public enum AESProviders implements AESProvider {
+    BC() {
+        @Override
+        public BlockCipher engine() {
+            return new AESFastEngine();
+        }
+
+        @Override
+        public BlockCipher cbc() {
+            return new CBCBlockCipher(new AESFastEngine());
+        }
+
+        @Override
+        public StreamCipher cfb() {
+            return new CFBBlockCipher(new AESFastEngine(), 128);
+        }
+    },
+    JCE() {
+        @Override
+        public BlockCipher engine() {
+            return new JCEBlockCipher(JCE_ECB);
+        }
+
+        @Override
+        public BlockCipher cbc() {
+            return new JCEBlockCipher(JCE_CBC);
+        }
+
+        @Override
+        public StreamCipher cfb() {
+            return new JCECFBStreamCipher();
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(AESProviders.class);
+
+    static final String JCE_ECB = "AES/ECB/NoPadding";
+    static final String JCE_CBC = "AES/CBC/NoPadding";
+
+    private static final class Holder {
+
+        private static final AESProvider INSTANCE = create();
+    }
+
+    /**
+     * @return provider as configured by Property.CRYPTO_PROVIDER
+     */
+    public static AESProvider instance() {
+        return Holder.INSTANCE;
+    }
+
+    static AESProvider create() {
+        PropertyCryptoProvider provider = Property.CRYPTO_PROVIDER.as(PropertyCryptoProvider::valueOf)
+                .orElse(PropertyCryptoProvider.AUTO);
+        switch (provider) {
+            case BC:
+                logger.debug("-- create() - BouncyCastle");
+                return BC;
+            case JCE:
+                logger.debug("-- create() - JCE");
+                return JCE;
+            default:
+                boolean isJCEAvailable = isJCEAvailable();
+                logger.debug("-- create() - JCE available: {}", isJCEAvailable);
+                return isJCEAvailable ? JCE : BC;
+        }
+    }
+
+    /**
+     * @return true if the JCE supports 256 bit AES ECB and CBC
+     */
+    public static boolean isJCEAvailable() {
+        try {
+            SecretKeySpec key = new SecretKeySpec(new byte[32], "AES");
+            Cipher.getInstance(JCE_ECB).init(Cipher.ENCRYPT_MODE, key);
+            Cipher.getInstance(JCE_CBC);
+            return true;
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            logger.warn("-- isJCEAvailable() - JCE AES unavailable: {}", ex.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import com.github.horrorho.inflatabledonkey.args.Property;
+import com.github.horrorho.inflatabledonkey.args.PropertyCryptoProvider;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import net.jcip.annotations.Immutable;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SHA digests. JCE digests pick up the HotSpot SHA intrinsics where present. Provider selection follows
+ * Property.CRYPTO_PROVIDER, as with {@link AESProviders}.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class Digests {
+
+    private static final Logger logger = LoggerFactory.getLogger(Digests.class);
+
+    private static final int SHA_BYTE_LENGTH = 64;
+
+    private static final class Holder {
+
+        private static final boolean USE_JCE = useJCE();
+    }
+
+    static boolean useJCE() {
+        PropertyCryptoProvider provider = Property.CRYPTO_PROVIDER.as(PropertyCryptoProvider::valueOf)
+                .orElse(PropertyCryptoProvider.AUTO);
+        switch (provider) {
+            case BC:
+                return false;
+            case JCE:
+                return true;
+            default:
+                boolean isJCEAvailable = isJCEAvailable();
+                logger.debug("-- useJCE() - JCE available: {}", isJCEAvailable);
+                return isJCEAvailable;
+        }
+    }
+
+    /**
+     * @return true if the JCE supports SHA-1 and SHA-256
+     */
+    public static boolean isJCEAvailable() {
+        try {
+            MessageDigest.getInstance("SHA-1");
+            MessageDigest.getInstance("SHA-256");
+            return true;
+        } catch (NoSuchAlgorithmException ex) {
+            logger.warn("-- isJCEAvailable() - JCE SHA unavailable: {}", ex.toString());
+            return false;
+        }
+    }
+
+    public static ExtendedDigest sha1() {
+        return Holder.USE_JCE
+                ? new JCEDigest("SHA-1", SHA_BYTE_LENGTH)
+                : new SHA1Digest();
+    }
+
+    public static ExtendedDigest sha256() {
+        return Holder.USE_JCE
+                ? new JCEDigest("SHA-256", SHA_BYTE_LENGTH)
+                : new SHA256Digest();
+    }
+
+    private Digests() {
+    }
+}
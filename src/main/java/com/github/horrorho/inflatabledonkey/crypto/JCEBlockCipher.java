@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import net.jcip.annotations.NotThreadSafe;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * BouncyCastle BlockCipher over a JCE AES NoPadding Cipher, e.g. "AES/ECB/NoPadding" or "AES/CBC/NoPadding".
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public final class JCEBlockCipher implements BlockCipher {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final Cipher cipher;
+    private final String algorithmName;
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private SecretKeySpec key;
+    private byte[] iv;
+    private boolean forEncryption;
+
+    JCEBlockCipher(Cipher cipher, String algorithmName) {
+        this.cipher = Objects.requireNonNull(cipher, "cipher");
+        this.algorithmName = Objects.requireNonNull(algorithmName, "algorithmName");
+    }
+
+    public JCEBlockCipher(String transformation) {
+        this(cipher(transformation), transformation);
+    }
+
+    static Cipher cipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+        if (params instanceof ParametersWithIV) {
+            ParametersWithIV parametersWithIV = (ParametersWithIV) params;
+            iv = parametersWithIV.getIV().clone();
+            params = parametersWithIV.getParameters();
+            if (params == null && key == null) {
+                throw new IllegalArgumentException("no key");
+            }
+        }
+        if (params instanceof KeyParameter) {
+            key = new SecretKeySpec(((KeyParameter) params).getKey(), "AES");
+        } else if (params != null) {
+            throw new IllegalArgumentException("invalid params: " + params.getClass().getName());
+        }
+        this.forEncryption = forEncryption;
+        doInit();
+    }
+
+    void doInit() {
+        try {
+            int mode = forEncryption ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+            if (iv == null) {
+                cipher.init(mode, key);
+            } else {
+                cipher.init(mode, key, new IvParameterSpec(iv));
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public int processBlock(byte[] in, int inOff, byte[] out, int outOff)
+            throws DataLengthException, IllegalStateException {
+        if (key == null) {
+            throw new IllegalStateException("not initialised");
+        }
+        if (inOff + BLOCK_SIZE > in.length) {
+            throw new DataLengthException("input buffer too short");
+        }
+        if (outOff + BLOCK_SIZE > out.length) {
+            throw new OutputLengthException("output buffer too short");
+        }
+        try {
+            if (in == out) {
+                // In place block, avoid overlapping buffer handling.
+                System.arraycopy(in, inOff, buffer, 0, BLOCK_SIZE);
+                return cipher.update(buffer, 0, BLOCK_SIZE, out, outOff);
+            }
+            return cipher.update(in, inOff, BLOCK_SIZE, out, outOff);
+        } catch (ShortBufferException ex) {
+            throw new OutputLengthException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (key != null) {
+            doInit();
+        }
+    }
+}
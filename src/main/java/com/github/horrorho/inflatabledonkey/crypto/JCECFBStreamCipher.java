@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import net.jcip.annotations.NotThreadSafe;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * AES CFB 128 StreamCipher over a JCE AES ECB Cipher.
+ * <p>
+ * JCE AES/CFB/NoPadding withholds partial blocks until doFinal, which does not fit the StreamCipher contract, so the
+ * feedback is driven here instead. Decryption is parallel: the keystream for all complete blocks is produced with a
+ * single ECB call over the preceding cipher text blocks. Encryption is inherently serial and proceeds block by block.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public final class JCECFBStreamCipher implements StreamCipher {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final Cipher cipher;
+    private final byte[] register = new byte[BLOCK_SIZE];
+    private final byte[] keystream = new byte[BLOCK_SIZE];
+    private byte[] iv = new byte[BLOCK_SIZE];
+    private byte[] feedback = new byte[0];
+    private boolean forEncryption;
+    private boolean initialised;
+    private int used;
+
+    JCECFBStreamCipher(Cipher cipher) {
+        this.cipher = Objects.requireNonNull(cipher, "cipher");
+    }
+
+    public JCECFBStreamCipher() {
+        this(JCEBlockCipher.cipher(AESProviders.JCE_ECB));
+    }
+
+    @Override
+    public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+        if (params instanceof ParametersWithIV) {
+            ParametersWithIV parametersWithIV = (ParametersWithIV) params;
+            byte[] bs = parametersWithIV.getIV();
+            if (bs.length > BLOCK_SIZE) {
+                throw new IllegalArgumentException("bad IV length: " + bs.length);
+            }
+            // Short IVs are zero padded on the left, as per BouncyCastle CFBBlockCipher.
+            iv = new byte[BLOCK_SIZE];
+            System.arraycopy(bs, 0, iv, BLOCK_SIZE - bs.length, bs.length);
+            params = parametersWithIV.getParameters();
+        } else {
+            iv = new byte[BLOCK_SIZE];
+        }
+        if (params instanceof KeyParameter) {
+            try {
+                // CFB runs the block cipher forwards in both directions.
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(((KeyParameter) params).getKey(), "AES"));
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+        } else if (params != null || !initialised) {
+            throw new IllegalArgumentException("invalid params: " + (params == null ? null : params.getClass()));
+        }
+        this.forEncryption = forEncryption;
+        initialised = true;
+        reset();
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "AES/CFB128";
+    }
+
+    @Override
+    public byte returnByte(byte in) {
+        byte[] bs = new byte[]{in};
+        processBytes(bs, 0, 1, bs, 0);
+        return bs[0];
+    }
+
+    @Override
+    public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) throws DataLengthException {
+        if (!initialised) {
+            throw new IllegalStateException("not initialised");
+        }
+        if (inOff + len > in.length) {
+            throw new DataLengthException("input buffer too short");
+        }
+        if (outOff + len > out.length) {
+            throw new OutputLengthException("output buffer too short");
+        }
+        int n = 0;
+        // Complete the current block.
+        while (used < BLOCK_SIZE && n < len) {
+            out[outOff + n] = processByte(in[inOff + n]);
+            n++;
+        }
+        if (!forEncryption) {
+            int blocks = (len - n) / BLOCK_SIZE;
+            if (blocks > 0) {
+                decryptBlocks(in, inOff + n, out, outOff + n, blocks);
+                n += blocks * BLOCK_SIZE;
+            }
+        }
+        while (n < len) {
+            out[outOff + n] = processByte(in[inOff + n]);
+            n++;
+        }
+        return len;
+    }
+
+    byte processByte(byte in) {
+        if (used == BLOCK_SIZE) {
+            encrypt(register, 0, keystream, 0, BLOCK_SIZE);
+            used = 0;
+        }
+        byte out = (byte) (in ^ keystream[used]);
+        register[used++] = forEncryption ? out : in;
+        return out;
+    }
+
+    void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        // Precondition: used == BLOCK_SIZE, register holds the last complete cipher text block.
+        int length = blocks * BLOCK_SIZE;
+        if (feedback.length < length) {
+            feedback = new byte[length];
+        }
+        System.arraycopy(register, 0, feedback, 0, BLOCK_SIZE);
+        System.arraycopy(in, inOff, feedback, BLOCK_SIZE, length - BLOCK_SIZE);
+        System.arraycopy(in, inOff + length - BLOCK_SIZE, register, 0, BLOCK_SIZE);
+        encrypt(feedback, 0, feedback, 0, length);
+        for (int i = 0; i < length; i++) {
+            out[outOff + i] = (byte) (in[inOff + i] ^ feedback[i]);
+        }
+    }
+
+    void encrypt(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        try {
+            cipher.update(in, inOff, length, out, outOff);
+        } catch (ShortBufferException ex) {
+            throw new OutputLengthException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public void reset() {
+        System.arraycopy(iv, 0, register, 0, BLOCK_SIZE);
+        Arrays.fill(keystream, (byte) 0);
+        used = BLOCK_SIZE;
+    }
+}
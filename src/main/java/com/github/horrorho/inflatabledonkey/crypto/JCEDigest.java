@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import net.jcip.annotations.NotThreadSafe;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.OutputLengthException;
+
+/**
+ * BouncyCastle Digest over a JCE MessageDigest.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public final class JCEDigest implements ExtendedDigest {
+
+    private final MessageDigest digest;
+    private final String algorithmName;
+    private final int byteLength;
+
+    JCEDigest(MessageDigest digest, String algorithmName, int byteLength) {
+        this.digest = Objects.requireNonNull(digest, "digest");
+        this.algorithmName = Objects.requireNonNull(algorithmName, "algorithmName");
+        this.byteLength = byteLength;
+    }
+
+    public JCEDigest(String algorithm, int byteLength) {
+        this(messageDigest(algorithm), algorithm, byteLength);
+    }
+
+    static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    @Override
+    public int getDigestSize() {
+        return digest.getDigestLength();
+    }
+
+    @Override
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    @Override
+    public void update(byte in) {
+        digest.update(in);
+    }
+
+    @Override
+    public void update(byte[] in, int inOff, int len) {
+        digest.update(in, inOff, len);
+    }
+
+    @Override
+    public int doFinal(byte[] out, int outOff) {
+        try {
+            return digest.digest(out, outOff, digest.getDigestLength());
+        } catch (DigestException ex) {
+            throw new OutputLengthException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public void reset() {
+        digest.reset();
+    }
+}
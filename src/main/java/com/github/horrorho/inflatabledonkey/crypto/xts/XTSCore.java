@@ -23,12 +23,12 @@
  */
 package com.github.horrorho.inflatabledonkey.crypto.xts;
 
+import com.github.horrorho.inflatabledonkey.crypto.AESProviders;
 import java.util.Arrays;
 import java.util.Objects;
 import net.jcip.annotations.NotThreadSafe;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.DataLengthException;
-import org.bouncycastle.crypto.engines.AESFastEngine;
 import org.bouncycastle.crypto.params.KeyParameter;
 
 /**
@@ -50,7 +50,7 @@ class XTSCore {
     }
 
     XTSCore(XTSTweak tweak) {
-        this(new AESFastEngine(), tweak);
+        this(AESProviders.instance().engine(), tweak);
     }
 
     XTSCore() {
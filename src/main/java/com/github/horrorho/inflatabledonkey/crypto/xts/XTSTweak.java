@@ -23,13 +23,13 @@
  */
 package com.github.horrorho.inflatabledonkey.crypto.xts;
 
+import com.github.horrorho.inflatabledonkey.crypto.AESProviders;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.function.LongFunction;
 import net.jcip.annotations.NotThreadSafe;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.DataLengthException;
-import org.bouncycastle.crypto.engines.AESFastEngine;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.util.Pack;
 
@@ -69,7 +69,7 @@ class XTSTweak {
     }
 
     XTSTweak(LongFunction<byte[]> tweakFunction) {
-        this(new AESFastEngine(), tweakFunction);
+        this(AESProviders.instance().engine(), tweakFunction);
     }
 
     XTSTweak() {
@@ -24,14 +24,13 @@
 package com.github.horrorho.inflatabledonkey.dataprotection;
 
 import com.github.horrorho.inflatabledonkey.args.Property;
+import com.github.horrorho.inflatabledonkey.crypto.AESProviders;
 import java.util.Objects;
 import java.util.function.IntFunction;
 import net.jcip.annotations.NotThreadSafe;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
@@ -83,7 +82,7 @@ public class DPAESCBCCipher implements BlockCipher {
     }
 
     public DPAESCBCCipher(int blockSize) {
-        this(new CBCBlockCipher(new AESEngine()), blockSize);
+        this(AESProviders.instance().cbc(), blockSize);
     }
 
     public DPAESCBCCipher() {
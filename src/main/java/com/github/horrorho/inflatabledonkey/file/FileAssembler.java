@@ -26,14 +26,8 @@ package com.github.horrorho.inflatabledonkey.file;
 import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
 import com.github.horrorho.inflatabledonkey.chunk.Chunk;
 import com.github.horrorho.inflatabledonkey.data.backup.Asset;
-import com.github.horrorho.inflatabledonkey.io.IOSupplier;
-import com.github.horrorho.inflatabledonkey.io.IOSupplierSequenceStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -41,6 +35,7 @@ import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 import net.jcip.annotations.Immutable;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.util.encoders.Hex;
@@ -103,49 +98,60 @@ public final class FileAssembler
     }
 
     boolean assemble(Asset asset, List<Chunk> chunks) {
-        return filePath.apply(asset)
-                .filter(DirectoryAssistant::createParent)
+        return path(asset)
                 .filter(path -> assemble(path, asset, chunks))
-                .filter(path -> FileTruncater.truncate(path, asset))
-                .map(path -> FileTimestamp.set(path, asset))
+                .map(path -> complete(path, asset))
                 .orElse(false);
     }
 
     boolean assemble(Path path, Asset asset, List<Chunk> chunks) {
         String info = info(asset);
+        return keyCipher(asset)
+                .map(u -> write(path, info, chunks, u, asset.fileChecksum()))
+                .orElse(false);
+    }
+
+    /**
+     * @param asset
+     * @return key cipher, empty key cipher if the asset is not encrypted, or empty if the key failed to unwrap
+     */
+    Optional<Optional<XFileKey>> keyCipher(Asset asset) {
         return asset.encryptionKey()
-                .map(u -> decrypt(path, info, chunks, u, asset.fileChecksum()))
-                .orElseGet(() -> write(path, info, chunks, Optional.empty(), asset.fileChecksum()));
+                .map(this::decrypt)
+                .orElse(Optional.of(Optional.empty()));
     }
 
-    boolean decrypt(Path path, String info, List<Chunk> chunks, byte[] encryptionKey, Optional<byte[]> signature) {
-        return fileKeys.apply(encryptionKey)
+    Optional<Optional<XFileKey>> decrypt(byte[] encryptionKey) {
+        Optional<Optional<XFileKey>> keyCipher = fileKeys.apply(encryptionKey)
                 .map(Optional::of)
-                .map(mutator)
-                .map(u -> write(path, info, chunks, u, signature))
-                .orElseGet(() -> {
-                    logger.warn("-- decrypt() - failed to unwrap encryption key");
-                    return false;
-                });
+                .map(mutator);
+        if (!keyCipher.isPresent()) {
+            logger.warn("-- decrypt() - failed to unwrap encryption key");
+        }
+        return keyCipher;
+    }
+
+    Optional<Path> path(Asset asset) {
+        return filePath.apply(asset)
+                .filter(DirectoryAssistant::createParent);
+    }
+
+    boolean complete(Path path, Asset asset) {
+        return FileTruncater.truncate(path, asset) && FileTimestamp.set(path, asset);
     }
 
     boolean write(Path path, String info, List<Chunk> chunks, Optional<XFileKey> keyCipher, Optional<byte[]> signature) {
         logger.debug("-- write() - path: {} key cipher: {} signature: 0x{}",
                 path, keyCipher, signature.map(Hex::toHexString).orElse("NULL"));
 
-        try (OutputStream out = Files.newOutputStream(path);
-                InputStream in = chunkStream(chunks)) {
-            boolean status = FileStreamWriter.copy(in, out, keyCipher, signature);
-
-            if (keyCipher.isPresent()) {
-                XFileKey kc = keyCipher.get();
-                logger.info("-- write() - written: {} status: {} mode: {} flags: 0x{}",
-                        path, status, kc.ciphers(), Hex.toHexString(kc.flags()));
-                System.out.println(">> " + info + " " + kc.ciphers() + " " + Hex.toHexString(kc.flags()));
-            } else {
-                logger.info("-- write() - written: {} status: {}", path, status);
-                System.out.println(">> " + info);
-            }
+        try {
+            // Chunk buffers are written through a cursor, mapped where large enough, one chunk at a time.
+            FileCursor cursor = FileCursor.create(path, keyCipher, signature);
+            cursor.append(chunks.stream()
+                    .map(Optional::of)
+                    .collect(Collectors.toList()));
+            boolean status = cursor.finish();
+            written(path, info, keyCipher, status);
             return status;
 
         } catch (IOException | DataLengthException | IllegalStateException ex) {
@@ -154,17 +160,16 @@ public final class FileAssembler
         }
     }
 
-    InputStream chunkStream(List<Chunk> chunks) throws IOException {
-        // Changed from java.io.SequenceInputStream which required open InputStreams as this was causing 'Too many open 
-        // files' exceptions on assets with huge numbers of chunks.
-        List<IOSupplier<InputStream>> suppliers = new ArrayList<>();
-        for (Chunk chunk : chunks) {
-            IOSupplier<InputStream> ios = () -> chunk.inputStream()
-                    .orElseThrow(()
-                            -> new IllegalStateException("chunk deleted: 0x" + Hex.toHexString(chunk.checksum())));
-            suppliers.add(ios);
+    void written(Path path, String info, Optional<XFileKey> keyCipher, boolean status) {
+        if (keyCipher.isPresent()) {
+            XFileKey kc = keyCipher.get();
+            logger.info("-- written() - written: {} status: {} mode: {} flags: 0x{}",
+                    path, status, kc.ciphers(), Hex.toHexString(kc.flags()));
+            System.out.println(">> " + info + " " + kc.ciphers() + " " + Hex.toHexString(kc.flags()));
+        } else {
+            logger.info("-- written() - written: {} status: {}", path, status);
+            System.out.println(">> " + info);
         }
-        return new IOSupplierSequenceStream(suppliers);
     }
 
     String info(Asset asset) {
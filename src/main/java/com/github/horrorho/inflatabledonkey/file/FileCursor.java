@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.file;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import net.jcip.annotations.NotThreadSafe;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write cursor over a file's chunk list. Chunks are appended, hashed and decrypted in order, carrying digest and cipher
+ * state between calls, as with {@link FileStreamWriter#copy}. The file is only held open while appending.
+ * <p>
+ * Chunk buffers are fed to the digest and cipher in bulk copied slices and written out through a FileChannel. There is
+ * no InputStream layer.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+final class FileCursor {
+
+    static FileCursor create(Path path, Optional<XFileKey> keyCipher, Optional<byte[]> signature) throws IOException {
+        Files.newOutputStream(path).close();
+        return new FileCursor(path, keyCipher, keyCipher.map(FileStreamWriter::decryptCipher),
+                FileStreamWriter.digest(signature), signature);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(FileCursor.class);
+
+    private final Path path;
+    private final Optional<XFileKey> keyCipher;
+    private final Optional<BufferedBlockCipher> cipher;
+    private final Digest digest;
+    private final Optional<byte[]> signature;
+    private final byte[] buffer = new byte[FileStreamWriter.BUFFER_SIZE];
+    private byte[] out = new byte[0];
+    private int index;
+    private long bytes;
+
+    FileCursor(Path path, Optional<XFileKey> keyCipher, Optional<BufferedBlockCipher> cipher, Digest digest,
+            Optional<byte[]> signature) {
+        this.path = Objects.requireNonNull(path, "path");
+        this.keyCipher = Objects.requireNonNull(keyCipher, "keyCipher");
+        this.cipher = Objects.requireNonNull(cipher, "cipher");
+        this.digest = Objects.requireNonNull(digest, "digest");
+        this.signature = Objects.requireNonNull(signature, "signature");
+    }
+
+    Path path() {
+        return path;
+    }
+
+    Optional<XFileKey> keyCipher() {
+        return keyCipher;
+    }
+
+    /**
+     * @return index of the next chunk to append
+     */
+    int index() {
+        return index;
+    }
+
+    /**
+     * Appends the contiguous run of present chunks from the cursor.
+     *
+     * @param chunks file chunks, empty where not yet available
+     * @return number of chunks appended
+     * @throws IOException
+     * @throws IllegalStateException if a chunk has been deleted
+     */
+    int append(List<Optional<Chunk>> chunks) throws IOException {
+        int from = index;
+        if (index >= chunks.size() || !chunks.get(index).isPresent()) {
+            return 0;
+        }
+        try (FileChannel output = FileChannel.open(path, WRITE, APPEND)) {
+            for (Optional<Chunk> chunk = chunks.get(index); chunk.isPresent();) {
+                append(chunk.get(), output);
+                index++;
+                if (index == chunks.size()) {
+                    break;
+                }
+                chunk = chunks.get(index);
+            }
+        }
+        logger.trace("-- append() - path: {} chunks: {} index: {} bytes: {}", path, index - from, index, bytes);
+        return index - from;
+    }
+
+    void append(Chunk chunk, FileChannel output) throws IOException {
+        ByteBuffer data = chunk.buffer()
+                .orElseThrow(() -> new IllegalStateException("chunk deleted: 0x" + Hex.toHexString(chunk.checksum())));
+        while (data.hasRemaining()) {
+            int n = Math.min(buffer.length, data.remaining());
+            // Chunk buffers are read only or mapped, the digest and cipher only accept arrays.
+            data.get(buffer, 0, n);
+            process(buffer, 0, n, output);
+        }
+    }
+
+    void process(byte[] b, int off, int len, FileChannel output) throws IOException {
+        digest.update(b, off, len);
+        if (cipher.isPresent()) {
+            BufferedBlockCipher c = cipher.get();
+            int length = c.processBytes(b, off, len, out(c.getUpdateOutputSize(len)), 0);
+            write(output, out, 0, length);
+        } else {
+            write(output, b, off, len);
+        }
+        bytes += len;
+    }
+
+    static void write(FileChannel output, byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    byte[] out(int length) {
+        if (out.length < length) {
+            out = new byte[length];
+        }
+        return out;
+    }
+
+    /**
+     * Flushes the cipher and tests the signature. The cursor must have reached the end of the chunk list.
+     *
+     * @return true if the signature matches
+     * @throws IOException
+     */
+    boolean finish() throws IOException {
+        if (cipher.isPresent()) {
+            BufferedBlockCipher c = cipher.get();
+            try (FileChannel output = FileChannel.open(path, WRITE, APPEND)) {
+                int length = c.doFinal(out(c.getOutputSize(0)), 0);
+                write(output, out, 0, length);
+            } catch (InvalidCipherTextException ex) {
+                throw new IOException(ex);
+            }
+        }
+        return FileStreamWriter.testSignature(digest, signature);
+    }
+
+    @Override
+    public String toString() {
+        return "FileCursor{" + "path=" + path + ", index=" + index + ", bytes=" + bytes + '}';
+    }
+}
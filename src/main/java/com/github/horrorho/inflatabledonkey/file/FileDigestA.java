@@ -23,9 +23,10 @@
  */
 package com.github.horrorho.inflatabledonkey.file;
 
+import com.github.horrorho.inflatabledonkey.crypto.Digests;
+import java.util.Objects;
 import net.jcip.annotations.NotThreadSafe;
 import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.util.encoders.Hex;
 
 /**
@@ -41,11 +42,15 @@ public class FileDigestA implements Digest {
 
     private final Digest digest;
 
-    public FileDigestA() {
-        digest = new SHA1Digest();
+    public FileDigestA(Digest digest) {
+        this.digest = Objects.requireNonNull(digest, "digest");
         digest.update(SALT, 0, SALT.length);
     }
 
+    public FileDigestA() {
+        this(Digests.sha1());
+    }
+
     @Override
     public String getAlgorithmName() {
         return "FileDigestA";
@@ -50,15 +50,13 @@ public final class FileStreamWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(FileStreamWriter.class);
 
-    private static final int BUFFER_SIZE = Property.FILE_WRITER_BUFFER_LENGTH.asInteger().orElse(8192);
+    static final int BUFFER_SIZE = Property.FILE_WRITER_BUFFER_LENGTH.asInteger().orElse(8192);
 
     public static boolean
             copy(InputStream in, OutputStream out, Optional<XFileKey> keyCipher, Optional<byte[]> signature)
             throws IOException {
 
-        Digest digest = signature.flatMap(FileSignature::type)
-                .orElse(FileSignature.ONE)
-                .newDigest();
+        Digest digest = digest(signature);
 
         DigestInputStream digestInputStream = new DigestInputStream(in, digest);
 
@@ -68,6 +66,12 @@ public final class FileStreamWriter {
         return testSignature(digestInputStream.getDigest(), signature);
     }
 
+    static Digest digest(Optional<byte[]> signature) {
+        return signature.flatMap(FileSignature::type)
+                .orElse(FileSignature.ONE)
+                .newDigest();
+    }
+
     static InputStream decryptStream(InputStream in, Optional<XFileKey> keyCipher) {
         return keyCipher
                 .map(kc -> decryptStream(in, kc))
@@ -75,9 +79,13 @@ public final class FileStreamWriter {
     }
 
     static InputStream decryptStream(InputStream in, XFileKey keyCipher) {
+        return new CipherInputStream(in, decryptCipher(keyCipher));
+    }
+
+    static BufferedBlockCipher decryptCipher(XFileKey keyCipher) {
         BlockCipher cipher = keyCipher.ciphers().get();
         cipher.init(false, new KeyParameter(keyCipher.key()));
-        return new CipherInputStream(in, new BufferedBlockCipher(cipher));
+        return new BufferedBlockCipher(cipher);
     }
 
     static boolean testSignature(Digest digest, Optional<byte[]> signature) {
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.file;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.cloud.AssetProgress;
+import com.github.horrorho.inflatabledonkey.data.backup.Asset;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import static java.util.stream.Collectors.toList;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.bouncycastle.crypto.DataLengthException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental FileAssembler.
+ * <p>
+ * As containers land, pending assets append, decrypt and hash the contiguous run of present chunks from their write
+ * cursor. On completion the remaining chunks are appended from the cursor, so large files finish shortly after their
+ * last container and are not read twice. Assets without a cursor, or whose cursor failed, are assembled in full by the
+ * underlying {@link FileAssembler}.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class StreamingFileAssembler
+        implements BiConsumer<Asset, Optional<List<Chunk>>>, BiPredicate<Asset, Optional<List<Chunk>>>, AssetProgress {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingFileAssembler.class);
+
+    private final FileAssembler assembler;
+    private final ConcurrentMap<Asset, Entry> entries = new ConcurrentHashMap<>();
+
+    public StreamingFileAssembler(FileAssembler assembler) {
+        this.assembler = Objects.requireNonNull(assembler, "assembler");
+    }
+
+    @Override
+    public void accept(Asset asset, List<Optional<Chunk>> chunks, BooleanSupplier isPending) {
+        Entry entry = entries.computeIfAbsent(asset, u -> new Entry());
+        synchronized (entry) {
+            if (entry.closed) {
+                return;
+            }
+            // The entry is visible before the pending test, completion either finds it or has already finished.
+            if (!isPending.getAsBoolean()) {
+                if (entry.cursor == null) {
+                    entries.remove(asset, entry);
+                }
+                return;
+            }
+            if (entry.cursor == null) {
+                entry.cursor = cursor(asset);
+                if (entry.cursor == null) {
+                    entry.closed = true;
+                    return;
+                }
+            }
+            try {
+                entry.cursor.append(chunks);
+            } catch (IOException | DataLengthException | IllegalStateException ex) {
+                logger.warn("-- accept() - cursor failed, falling back to assembly: {} {}", entry.cursor, ex);
+                entry.closed = true;
+            }
+        }
+    }
+
+    FileCursor cursor(Asset asset) {
+        Optional<Path> path = assembler.path(asset);
+        Optional<Optional<XFileKey>> keyCipher = assembler.keyCipher(asset);
+        if (!path.isPresent() || !keyCipher.isPresent()) {
+            return null;
+        }
+        try {
+            return FileCursor.create(path.get(), keyCipher.get(), asset.fileChecksum());
+        } catch (IOException ex) {
+            logger.warn("-- cursor() - failed to create: {} {}", path.get(), ex);
+            return null;
+        }
+    }
+
+    @Override
+    public void accept(Asset asset, Optional<List<Chunk>> chunks) {
+        boolean test = test(asset, chunks);
+        if (!test) {
+            logger.debug("-- accept() - failed to write asset: {}", asset.relativePath());
+        }
+    }
+
+    @Override
+    public boolean test(Asset asset, Optional<List<Chunk>> chunks) {
+        Entry entry = entries.remove(asset);
+        if (entry == null) {
+            return assembler.test(asset, chunks);
+        }
+        synchronized (entry) {
+            boolean closed = entry.closed;
+            entry.closed = true;
+            if (entry.cursor == null) {
+                return assembler.test(asset, chunks);
+            }
+            if (closed || !chunks.isPresent()) {
+                // Failed cursor or failed asset, the partial file is discarded.
+                delete(entry.cursor.path());
+                return assembler.test(asset, chunks);
+            }
+            logger.trace("<< test() - asset: {} chunks: {} cursor: {}", asset, chunks.get().size(), entry.cursor);
+            return finish(asset, entry.cursor, chunks.get())
+                    .orElseGet(() -> assembler.test(asset, chunks));
+        }
+    }
+
+    @GuardedBy("entry")
+    Optional<Boolean> finish(Asset asset, FileCursor cursor, List<Chunk> chunks) {
+        // Empty if assembly should fall back to the full chunk list.
+        try {
+            cursor.append(chunks.stream().map(Optional::of).collect(toList()));
+            if (cursor.index() != chunks.size()) {
+                logger.warn("-- finish() - bad cursor: {} chunks: {}", cursor, chunks.size());
+                return Optional.empty();
+            }
+            boolean status = cursor.finish();
+            assembler.written(cursor.path(), assembler.info(asset), cursor.keyCipher(), status);
+            return Optional.of(status && assembler.complete(cursor.path(), asset));
+
+        } catch (IOException | DataLengthException | IllegalStateException ex) {
+            logger.warn("-- finish() - cursor failed, falling back to assembly: {} {}", cursor, ex);
+            return Optional.empty();
+        }
+    }
+
+    void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("-- delete() - failed to delete partial file: {} {}", path, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingFileAssembler{" + "assembler=" + assembler + ", entries=" + entries.size() + '}';
+    }
+
+    static final class Entry {
+
+        @GuardedBy("this")
+        FileCursor cursor;
+        @GuardedBy("this")
+        boolean closed;
+    }
+}
@@ -24,8 +24,10 @@
 package com.github.horrorho.inflatabledonkey.io;
 
 import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.stream.Stream;
 import net.jcip.annotations.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -91,7 +93,7 @@ public final class DirectoryAssistant {
                     logger.warn("-- doDeleteEmptyBranch() - not a directory: {}", directory);
                     break;
                 }
-                if (Files.list(directory).findFirst().isPresent()) {
+                if (!isEmpty(directory)) {
                     logger.debug("-- doDeleteEmptyBranch() - directory not empty: {}", directory);
                     break;
                 }
@@ -102,9 +104,18 @@ public final class DirectoryAssistant {
 
                 directory = directory.getParent();
             }
+        } catch (DirectoryNotEmptyException ex) {
+            // Lost a race with a concurrent writer.
+            logger.debug("-- doDeleteEmptyBranch() - directory no longer empty: {}", ex.getFile());
         } catch (IOException ex) {
             logger.warn("-- doDeleteEmptyBranch() - IOException: ", ex);
         }
         return deleted;
     }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return !stream.findFirst().isPresent();
+        }
+    }
 }
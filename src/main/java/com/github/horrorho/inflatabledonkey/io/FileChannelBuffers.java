@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import net.jcip.annotations.Immutable;
+
+/**
+ * FileChannel region to ByteBuffer. Regions at or above the map threshold are memory mapped, smaller regions are read
+ * into heap buffers as mapping costs outweigh a single positional read. Mapped regions remain valid after the channel
+ * is closed.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class FileChannelBuffers {
+
+    public static final int DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
+    public static ByteBuffer buffer(FileChannel channel, long position, int length) throws IOException {
+        return buffer(channel, position, length, DEFAULT_MAP_THRESHOLD);
+    }
+
+    public static ByteBuffer buffer(FileChannel channel, long position, int length, int mapThreshold)
+            throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("bad region, position: " + position + " length: " + length);
+        }
+        return length >= mapThreshold
+                ? channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                : read(channel, position, length);
+    }
+
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n == -1) {
+                throw new EOFException("FileChannelBuffers, unexpected end of channel at: "
+                        + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
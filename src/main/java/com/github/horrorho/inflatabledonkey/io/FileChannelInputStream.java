@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Bounded InputStream view into a region of a FileChannel. Reads are positional, the channel's own position is left
+ * untouched and the channel may be shared. Closing this stream does not close the channel.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long limit;
+    private long position;
+
+    public FileChannelInputStream(FileChannel channel, long position, long length) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("bad region, position: " + position + " length: " + length);
+        }
+        this.channel = Objects.requireNonNull(channel);
+        this.position = position;
+        this.limit = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1
+                ? -1
+                : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.requireNonNull(b);
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (position >= limit) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n = (int) Math.min(len, limit - position);
+        int read = channel.read(ByteBuffer.wrap(b, off, n), position);
+        if (read == -1) {
+            throw new IOException("FileChannelInputStream, unexpected end of channel at: " + position);
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, limit - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, limit - position);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.io;
+
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Token bucket rate limiter. Tokens accrue at the specified rate up to the specified capacity.
+ * <p>
+ * Acquisitions may overdraw the bucket, the caller then sleeps until the debt is repaid. Subsequent callers queue
+ * behind the debt so the aggregate rate holds irrespective of request sizes. Rates may be adjusted at runtime.
+ *
+ * @author Ahseya
+ */
+@ThreadSafe
+public final class TokenBucket {
+
+    public static TokenBucket perSecond(long rate) {
+        return new TokenBucket(rate, rate);
+    }
+
+    @GuardedBy("this")
+    private double tokensPerNano;
+    @GuardedBy("this")
+    private long capacity;
+    @GuardedBy("this")
+    private double tokens;
+    @GuardedBy("this")
+    private long timestamp;
+
+    public TokenBucket(long ratePerSecond, long capacity) {
+        validate(ratePerSecond, capacity);
+        this.tokensPerNano = ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.timestamp = System.nanoTime();
+    }
+
+    static void validate(long ratePerSecond, long capacity) {
+        if (ratePerSecond < 1) {
+            throw new IllegalArgumentException("bad rate: " + ratePerSecond);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("bad capacity: " + capacity);
+        }
+    }
+
+    /**
+     * Adjusts the rate and capacity. Tokens accrued so far, or outstanding debt, carry over.
+     *
+     * @param ratePerSecond
+     * @param capacity
+     */
+    public synchronized void setRate(long ratePerSecond, long capacity) {
+        validate(ratePerSecond, capacity);
+        refill();
+        this.tokensPerNano = ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * Adjusts the rate with a one second capacity, as per {@link #perSecond(long)}.
+     *
+     * @param ratePerSecond
+     */
+    public void setRate(long ratePerSecond) {
+        setRate(ratePerSecond, ratePerSecond);
+    }
+
+    /**
+     * Acquires the specified number of tokens, blocking as required.
+     *
+     * @param n tokens
+     * @throws InterruptedException
+     */
+    public void acquire(long n) throws InterruptedException {
+        long wait = reserve(n);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Reserves the specified number of tokens without blocking.
+     *
+     * @param n tokens
+     * @return nanoseconds the caller should wait before proceeding, 0 if none
+     */
+    public synchronized long reserve(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("bad token count: " + n);
+        }
+        refill();
+        tokens -= n;
+        return tokens < 0
+                ? (long) Math.ceil(-tokens / tokensPerNano)
+                : 0;
+    }
+
+    @GuardedBy("this")
+    void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - timestamp) * tokensPerNano);
+        timestamp = now;
+    }
+
+    public synchronized long ratePerSecond() {
+        return Math.round(tokensPerNano * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TokenBucket{"
+                + "ratePerSecond=" + ratePerSecond()
+                + ", capacity=" + capacity
+                + '}';
+    }
+}
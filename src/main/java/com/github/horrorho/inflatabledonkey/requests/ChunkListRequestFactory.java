@@ -26,6 +26,7 @@ package com.github.horrorho.inflatabledonkey.requests;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer;
 import java.util.function.Function;
 import net.jcip.annotations.Immutable;
+import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.message.BasicHeader;
@@ -59,4 +60,10 @@ public final class ChunkListRequestFactory implements Function<ChunkServer.HostI
                 .forEach(request::addHeader);
         return request;
     }
+
+    public HttpUriRequest apply(ChunkServer.HostInfo hostInfo, ByteRange range) {
+        HttpUriRequest request = apply(hostInfo);
+        request.setHeader(HttpHeaders.RANGE, range.header());
+        return request;
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.responsehandler;
+
+import com.github.horrorho.inflatabledonkey.io.IOBiFunction;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import net.jcip.annotations.Immutable;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+
+/**
+ * Range request InputStream ResponseHandler. The function is passed true for 206 Partial Content responses and false
+ * for servers that ignored the Range header and returned the full entity.
+ *
+ * @author Ahseya
+ * @param <T> return type
+ */
+@Immutable
+public final class RangeResponseHandler<T> implements ResponseHandler<T> {
+
+    private final IOBiFunction<InputStream, Boolean, T> function;
+
+    public RangeResponseHandler(IOBiFunction<InputStream, Boolean, T> function) {
+        this.function = Objects.requireNonNull(function);
+    }
+
+    @Override
+    public T handleResponse(HttpResponse response) throws IOException {
+        boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+        return new InputStreamResponseHandler<>(is -> function.apply(is, partial))
+                .handleResponse(response);
+    }
+}
@@ -31,7 +31,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import net.jcip.annotations.NotThreadSafe;
 
 /**
@@ -42,7 +42,7 @@ import net.jcip.annotations.NotThreadSafe;
 @NotThreadSafe
 public class BatchSetIterator<T> implements Iterator<Set<T>> {
 
-    public static <T> List<Set<T>> batchedSetList(Set<T> batch, ToIntFunction<T> size, int threshold) {
+    public static <T> List<Set<T>> batchedSetList(Set<T> batch, ToLongFunction<T> size, long threshold) {
         BatchSetIterator<T> it = new BatchSetIterator<>(batch, size, threshold);
         List<Set<T>> list = new ArrayList<>();
         while (it.hasNext()) {
@@ -53,18 +53,18 @@ public class BatchSetIterator<T> implements Iterator<Set<T>> {
 
     private final Iterator<T> iterator;
     private final Set<T> batch;
-    private final ToIntFunction<T> size;
-    private final int threshold;
-    private int batchSize;
+    private final ToLongFunction<T> size;
+    private final long threshold;
+    private long batchSize;
 
-    BatchSetIterator(Iterator<T> iterator, Set<T> batch, ToIntFunction<T> size, int threshold) {
+    BatchSetIterator(Iterator<T> iterator, Set<T> batch, ToLongFunction<T> size, long threshold) {
         this.iterator = Objects.requireNonNull(iterator);
         this.batch = Objects.requireNonNull(batch);
         this.size = Objects.requireNonNull(size);
         this.threshold = threshold;
     }
 
-    public BatchSetIterator(Collection<T> items, ToIntFunction<T> size, int threshold) {
+    public BatchSetIterator(Collection<T> items, ToLongFunction<T> size, long threshold) {
         this(new HashSet<>(items).iterator(), new HashSet<>(), size, threshold);
     }
 
@@ -77,7 +77,7 @@ public class BatchSetIterator<T> implements Iterator<Set<T>> {
     public Set<T> next() {
         while (iterator.hasNext()) {
             T item = iterator.next();
-            int itemSize = size.applyAsInt(item);
+            long itemSize = size.applyAsLong(item);
             if (itemSize > threshold) {
                 HashSet<T> set = new HashSet<>();
                 set.add(item);
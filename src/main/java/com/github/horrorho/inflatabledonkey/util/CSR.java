@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.util;
+
+import java.util.Arrays;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Compressed sparse row adjacency over dense int ids. Row r holds columns [start(r), end(r)), in insertion order
+ * unless built distinct, in which case they are ascending and unique.
+ * <p>
+ * Two int arrays in total, versus a boxed collection per row.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class CSR {
+
+    /**
+     * @param rows row count
+     * @param rowIds edge rows
+     * @param columnIds edge columns, indexed as rowIds
+     * @param length edge count
+     * @param distinct if true, duplicate edges are discarded
+     * @return adjacency
+     */
+    public static CSR of(int rows, int[] rowIds, int[] columnIds, int length, boolean distinct) {
+        int[] offsets = new int[rows + 1];
+        for (int i = 0; i < length; i++) {
+            offsets[rowIds[i] + 1]++;
+        }
+        for (int r = 0; r < rows; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+        int[] columns = new int[length];
+        int[] cursor = Arrays.copyOf(offsets, rows);
+        for (int i = 0; i < length; i++) {
+            columns[cursor[rowIds[i]]++] = columnIds[i];
+        }
+        return distinct
+                ? distinct(offsets, columns)
+                : new CSR(offsets, columns);
+    }
+
+    static CSR distinct(int[] offsets, int[] columns) {
+        // Sort and compact each row in place.
+        int rows = offsets.length - 1;
+        int to = 0;
+        int start = 0;
+        for (int r = 0; r < rows; r++) {
+            int end = offsets[r + 1];
+            Arrays.sort(columns, start, end);
+            offsets[r] = to;
+            for (int i = start; i < end; i++) {
+                if (i == start || columns[i] != columns[i - 1]) {
+                    columns[to++] = columns[i];
+                }
+            }
+            start = end;
+        }
+        offsets[rows] = to;
+        return new CSR(offsets, to == columns.length ? columns : Arrays.copyOf(columns, to));
+    }
+
+    private final int[] offsets;
+    private final int[] columns;
+
+    CSR(int[] offsets, int[] columns) {
+        this.offsets = offsets;
+        this.columns = columns;
+    }
+
+    /**
+     * @param columnCount column count
+     * @return transposed adjacency, columns ascending
+     */
+    public CSR transpose(int columnCount) {
+        int[] rowIds = new int[columns.length];
+        for (int r = 0; r < rows(); r++) {
+            Arrays.fill(rowIds, offsets[r], offsets[r + 1], r);
+        }
+        return of(columnCount, columns, rowIds, columns.length, false);
+    }
+
+    public int rows() {
+        return offsets.length - 1;
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public int start(int row) {
+        return offsets[row];
+    }
+
+    public int end(int row) {
+        return offsets[row + 1];
+    }
+
+    public int degree(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    public int column(int index) {
+        return columns[index];
+    }
+
+    @Override
+    public String toString() {
+        return "CSR{" + "rows=" + rows() + ", size=" + size() + '}';
+    }
+}
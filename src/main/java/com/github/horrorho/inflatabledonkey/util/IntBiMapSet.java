@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.util;
+
+import java.util.Arrays;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * {@link BiMapSet} over dense int keys and values. Remove only.
+ * <p>
+ * Adjacency is held in two {@link CSR} instances with live degree counts. Removal is in place, marking the key or
+ * value dead and decrementing the degrees of its live neighbours, no sets are copied or rebuilt. A key or value is live
+ * whilst its degree is non-zero, so keys without values are absent as per BiMapSet.
+ *
+ * @author Ahseya
+ */
+@NotThreadSafe
+public final class IntBiMapSet {
+
+    /**
+     * @param keys key count
+     * @param values value count
+     * @param keyIds edge keys
+     * @param valueIds edge values, indexed as keyIds
+     * @param length edge count
+     * @return bi-map, duplicate edges discarded
+     */
+    public static IntBiMapSet of(int keys, int values, int[] keyIds, int[] valueIds, int length) {
+        CSR keyToValues = CSR.of(keys, keyIds, valueIds, length, true);
+        return new IntBiMapSet(keyToValues, keyToValues.transpose(values));
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private final CSR keyToValues;
+    private final CSR valueToKeys;
+    private final int[] keyDegrees;
+    private final int[] valueDegrees;
+    private int keyCount;
+    private int valueCount;
+    private int[] buffer = new int[16];
+
+    IntBiMapSet(CSR keyToValues, CSR valueToKeys) {
+        this.keyToValues = keyToValues;
+        this.valueToKeys = valueToKeys;
+        this.keyDegrees = degrees(keyToValues);
+        this.valueDegrees = degrees(valueToKeys);
+        this.keyCount = (int) Arrays.stream(keyDegrees).filter(u -> u > 0).count();
+        this.valueCount = (int) Arrays.stream(valueDegrees).filter(u -> u > 0).count();
+    }
+
+    static int[] degrees(CSR csr) {
+        int[] degrees = new int[csr.rows()];
+        for (int r = 0; r < degrees.length; r++) {
+            degrees[r] = csr.degree(r);
+        }
+        return degrees;
+    }
+
+    public boolean containsKey(int key) {
+        return key >= 0 && key < keyDegrees.length && keyDegrees[key] > 0;
+    }
+
+    public boolean containsValue(int value) {
+        return value >= 0 && value < valueDegrees.length && valueDegrees[value] > 0;
+    }
+
+    /**
+     * @param value
+     * @return live keys mapped to the value
+     */
+    public int[] keys(int value) {
+        return containsValue(value)
+                ? live(valueToKeys, value, keyDegrees)
+                : EMPTY;
+    }
+
+    /**
+     * @param key
+     * @return live values mapped to the key
+     */
+    public int[] values(int key) {
+        return containsKey(key)
+                ? live(keyToValues, key, valueDegrees)
+                : EMPTY;
+    }
+
+    /**
+     * @param key
+     * @return values left without keys, which are removed in turn
+     */
+    public int[] removeKey(int key) {
+        return containsKey(key)
+                ? remove(key, true)
+                : EMPTY;
+    }
+
+    /**
+     * @param value
+     * @return keys left without values, which are removed in turn
+     */
+    public int[] removeValue(int value) {
+        return containsValue(value)
+                ? remove(value, false)
+                : EMPTY;
+    }
+
+    public int keyCount() {
+        return keyCount;
+    }
+
+    public int valueCount() {
+        return valueCount;
+    }
+
+    public boolean isEmpty() {
+        return keyCount == 0 && valueCount == 0;
+    }
+
+    int[] live(CSR csr, int row, int[] degrees) {
+        int n = 0;
+        for (int i = csr.start(row), end = csr.end(row); i < end; i++) {
+            int column = csr.column(i);
+            if (degrees[column] > 0) {
+                add(n++, column);
+            }
+        }
+        return Arrays.copyOf(buffer, n);
+    }
+
+    int[] remove(int row, boolean isKey) {
+        CSR csr = isKey ? keyToValues : valueToKeys;
+        int[] rowDegrees = isKey ? keyDegrees : valueDegrees;
+        int[] columnDegrees = isKey ? valueDegrees : keyDegrees;
+        rowDegrees[row] = 0;
+        int n = 0;
+        for (int i = csr.start(row), end = csr.end(row); i < end; i++) {
+            int column = csr.column(i);
+            if (columnDegrees[column] > 0 && --columnDegrees[column] == 0) {
+                add(n++, column);
+            }
+        }
+        if (isKey) {
+            keyCount--;
+            valueCount -= n;
+        } else {
+            valueCount--;
+            keyCount -= n;
+        }
+        return n == 0 ? EMPTY : Arrays.copyOf(buffer, n);
+    }
+
+    void add(int index, int id) {
+        if (index == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[index] = id;
+    }
+
+    @Override
+    public String toString() {
+        return "IntBiMapSet{"
+                + "keys=" + keyCount
+                + ", values=" + valueCount
+                + ", edges=" + keyToValues.size()
+                + '}';
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Maps objects to dense int ids, 0 upwards, in order of first appearance. Safe for concurrent reads once published.
+ *
+ * @author Ahseya
+ * @param <T> object type
+ */
+@NotThreadSafe
+public final class Interner<T> {
+
+    private final Map<T, Integer> ids;
+    private final ArrayList<T> objects;
+
+    public Interner(int expectedSize) {
+        this.ids = new HashMap<>(expectedSize * 4 / 3 + 1);
+        this.objects = new ArrayList<>(expectedSize);
+    }
+
+    public Interner() {
+        this(16);
+    }
+
+    /**
+     * @param t not null
+     * @return id, assigned if absent
+     */
+    public int intern(T t) {
+        Integer id = ids.get(Objects.requireNonNull(t, "t"));
+        if (id == null) {
+            id = objects.size();
+            ids.put(t, id);
+            objects.add(t);
+        }
+        return id;
+    }
+
+    /**
+     * @param t
+     * @return id, or -1 if absent
+     */
+    public int id(T t) {
+        Integer id = t == null ? null : ids.get(t);
+        return id == null ? -1 : id;
+    }
+
+    public T get(int id) {
+        return objects.get(id);
+    }
+
+    public List<T> objects() {
+        return Collections.unmodifiableList(objects);
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    public void trimToSize() {
+        objects.trimToSize();
+    }
+
+    @Override
+    public String toString() {
+        return "Interner{" + "size=" + objects.size() + '}';
+    }
+}
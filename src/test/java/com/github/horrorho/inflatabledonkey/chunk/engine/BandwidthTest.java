@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class BandwidthTest {
+
+    private static final String HOST = "host";
+    private static final int RATE = 65536;
+
+    static long readMs(Bandwidth bandwidth, String host, int length) throws IOException {
+        byte[] data = new byte[length];
+        long start = System.nanoTime();
+        try (InputStream is = bandwidth.throttle(host, new ByteArrayInputStream(data))) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testUnlimited() throws IOException {
+        assertTrue(readMs(Bandwidth.unlimited(), HOST, 4 * RATE) < 400);
+    }
+
+    @Test
+    public void testGlobalRate() throws IOException {
+        // One second burst then throttled.
+        assertTrue(readMs(new Bandwidth(RATE, 0), HOST, RATE + RATE / 2) >= 400);
+    }
+
+    @Test
+    public void testHostRate() throws IOException {
+        Bandwidth bandwidth = new Bandwidth(0, 0);
+        bandwidth.setHostRate(HOST, RATE);
+        assertEquals(RATE, bandwidth.hostRate(HOST));
+        assertEquals(0, bandwidth.hostRate("other"));
+        assertTrue(readMs(bandwidth, "other", 4 * RATE) < 400);
+        assertTrue(readMs(bandwidth, HOST, RATE + RATE / 2) >= 400);
+    }
+
+    @Test
+    public void testAdjust() throws IOException {
+        Bandwidth bandwidth = new Bandwidth(RATE, RATE);
+        bandwidth.setGlobalRate(0);
+        bandwidth.setDefaultHostRate(0);
+        assertEquals(Optional.empty(), bandwidth.globalRate());
+        assertTrue(readMs(bandwidth, HOST, 4 * RATE) < 400);
+
+        bandwidth.setGlobalRate(2 * RATE);
+        assertEquals(Optional.of((long) 2 * RATE), bandwidth.globalRate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRate() {
+        new Bandwidth(-1, 0);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import static com.github.horrorho.inflatabledonkey.chunk.engine.ChunkListDecrypterTestVector.*;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore;
+import com.github.horrorho.inflatabledonkey.exception.BadDataException;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.HostInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.github.horrorho.inflatabledonkey.requests.ChunkListRequestFactory;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class ChunkClientTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+    }
+
+    private static final HostInfo HOSTINFO = HostInfo.newBuilder()
+            .setHostname("DUMMY")
+            .setPort(80)
+            .setMethod("GET")
+            .setUri("null")
+            .setTransportProtocol("HTTP")
+            .setTransportProtocolVersion("1.1")
+            .setScheme("http")
+            .setExpiry(Long.MAX_VALUE / 2)
+            .build();
+
+    private static final List<ChunkListDecrypterTestVector> VECTORS
+            = Arrays.asList(VECTOR_1, VECTOR_2, VECTOR_3, VECTOR_4, VECTOR_5, VECTOR_6);
+
+    /**
+     * Serves the container, the first response stream is wrapped with the specified function.
+     */
+    static final class StubHttpClient implements InvocationHandler {
+
+        private final byte[] data;
+        private final BiFunction<HttpUriRequest, InputStream, InputStream> first;
+        private final List<String> ranges = new CopyOnWriteArrayList<>();
+        private final AtomicInteger requests = new AtomicInteger();
+
+        StubHttpClient(byte[] data, BiFunction<HttpUriRequest, InputStream, InputStream> first) {
+            this.data = data;
+            this.first = first;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws IOException {
+            if (!method.getName().equals("execute")
+                    || args.length != 2
+                    || !(args[0] instanceof HttpUriRequest)
+                    || !(args[1] instanceof ResponseHandler)) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+            return ((ResponseHandler<?>) args[1]).handleResponse(response((HttpUriRequest) args[0]));
+        }
+
+        HttpResponse response(HttpUriRequest request) {
+            Header range = request.getFirstHeader(HttpHeaders.RANGE);
+            boolean isFirst = requests.getAndIncrement() == 0;
+            ranges.add(range == null ? null : range.getValue());
+            int start = 0;
+            int end = data.length;
+            if (range != null) {
+                String[] split = range.getValue().substring("bytes=".length()).split("-");
+                start = Integer.parseInt(split[0]);
+                end = Integer.parseInt(split[1]) + 1;
+            }
+            InputStream is = new ByteArrayInputStream(data, start, end - start);
+            if (isFirst) {
+                is = first.apply(request, is);
+            }
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+                    range == null ? HttpStatus.SC_OK : HttpStatus.SC_PARTIAL_CONTENT, "");
+            response.setEntity(new InputStreamEntity(is, end - start));
+            return response;
+        }
+
+        HttpClient client() {
+            return (HttpClient) Proxy.newProxyInstance(
+                    HttpClient.class.getClassLoader(), new Class<?>[]{HttpClient.class}, this);
+        }
+
+        List<String> ranges() {
+            return ranges;
+        }
+    }
+
+    static final class DroppingInputStream extends InputStream {
+
+        private final InputStream is;
+        private final AtomicInteger remaining;
+
+        DroppingInputStream(InputStream is, int dropAfter) {
+            this.is = is;
+            this.remaining = new AtomicInteger(dropAfter);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining.getAndDecrement() <= 0) {
+                throw new IOException("connection reset");
+            }
+            return is.read();
+        }
+    }
+
+    /**
+     * Serves the container, the first response fails after the specified number of bytes.
+     */
+    static StubHttpClient dropping(byte[] data, int dropAfter) {
+        return new StubHttpClient(data, (request, is) -> new DroppingInputStream(is, dropAfter));
+    }
+
+    /**
+     * Serves the container, the first response stalls until its request is aborted.
+     */
+    static StubHttpClient stalling(byte[] data) {
+        return new StubHttpClient(data, (request, is) -> {
+            CountDownLatch aborted = new CountDownLatch(1);
+            ((HttpExecutionAware) request).setCancellable(() -> {
+                aborted.countDown();
+                return true;
+            });
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        aborted.await();
+                    } catch (InterruptedException ex) {
+                        throw new InterruptedIOException();
+                    }
+                    throw new IOException("request aborted");
+                }
+            };
+        });
+    }
+
+    StorageHostChunkList container(List<ChunkListDecrypterTestVector> vectors, ByteArrayOutputStream data)
+            throws IOException {
+        List<ChunkInfo> chunkInfos = new ArrayList<>();
+        for (ChunkListDecrypterTestVector vector : vectors) {
+            byte[] ciphertext = vector.ciphertext();
+            chunkInfos.add(ChunkInfo.newBuilder()
+                    .setChunkChecksum(ByteString.copyFrom(vector.chunkChecksum()))
+                    .setChunkEncryptionKey(ByteString.copyFrom(vector.keyTypeOne()))
+                    .setChunkLength(ciphertext.length)
+                    .setChunkOffset(data.size())
+                    .build());
+            data.write(ciphertext);
+        }
+        return StorageHostChunkList.newBuilder()
+                .setHostInfo(HOSTINFO)
+                .setStorageContainerKey("test")
+                .setStorageContainerAuthorizationToken("test")
+                .addAllChunkInfo(chunkInfos)
+                .build();
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        DiskChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"),
+                base.resolve("temp"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = container(VECTORS, data);
+        ChunkInfo dropped = container.getChunkInfo(3);
+        StubHttpClient httpClient
+                = dropping(data.toByteArray(), dropped.getChunkOffset() + dropped.getChunkLength() / 2);
+
+        ChunkListRequestFactory factory = ChunkListRequestFactory.instance();
+        ChunkClient client = new ChunkClient(factory, factory::apply, 0, Optional.empty(), 3, 0,
+                ChunkListDecrypter.instance());
+        client.apply(httpClient.client(), container, store);
+
+        for (ChunkListDecrypterTestVector vector : VECTORS) {
+            assertTrue(vector.id(), store.contains(vector.chunkChecksum()));
+        }
+        assertEquals(Arrays.asList(null, "bytes=" + dropped.getChunkOffset() + "-" + (data.size() - 1)),
+                httpClient.ranges());
+        assertEquals(1, client.resumes());
+        assertEquals(dropped.getChunkOffset(), client.resumeBytesSaved());
+    }
+
+    @Test
+    public void testBadDataNotRetried() throws IOException {
+        DiskChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"),
+                base.resolve("temp"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = container(Arrays.asList(VECTOR_FAIL_CHECKSUM), data);
+        StubHttpClient httpClient = dropping(data.toByteArray(), Integer.MAX_VALUE);
+
+        ChunkListRequestFactory factory = ChunkListRequestFactory.instance();
+        ChunkClient client = new ChunkClient(factory, factory::apply, 0, Optional.empty(), 3, 0,
+                ChunkListDecrypter.instance());
+        try {
+            client.apply(httpClient.client(), container, store);
+            fail("expected BadDataException");
+        } catch (BadDataException ex) {
+            assertEquals(1, httpClient.ranges().size());
+        }
+    }
+
+    @Test
+    public void testResumeRangeFetch() throws IOException {
+        DiskChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"),
+                base.resolve("temp"));
+        ChunkListRequestFactory factory = ChunkListRequestFactory.instance();
+        ChunkClient client = new ChunkClient(factory, factory::apply, 0, Optional.of(0L), 3, 0,
+                ChunkListDecrypter.instance());
+
+        // Last chunk already present, not counted as saved by the resume.
+        ByteArrayOutputStream cached = new ByteArrayOutputStream();
+        StorageHostChunkList cachedContainer = container(Arrays.asList(VECTOR_6), cached);
+        client.apply(dropping(cached.toByteArray(), Integer.MAX_VALUE).client(), cachedContainer, store);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = container(VECTORS, data);
+        ChunkInfo dropped = container.getChunkInfo(3);
+        ChunkInfo last = container.getChunkInfo(5);
+        StubHttpClient httpClient
+                = dropping(data.toByteArray(), dropped.getChunkOffset() + dropped.getChunkLength() / 2);
+        client.apply(httpClient.client(), container, store);
+
+        for (ChunkListDecrypterTestVector vector : VECTORS) {
+            assertTrue(vector.id(), store.contains(vector.chunkChecksum()));
+        }
+        assertEquals(Arrays.asList(
+                "bytes=0-" + (last.getChunkOffset() - 1),
+                "bytes=" + dropped.getChunkOffset() + "-" + (last.getChunkOffset() - 1)),
+                httpClient.ranges());
+        assertEquals(1, client.resumes());
+        assertEquals(dropped.getChunkOffset(), client.resumeBytesSaved());
+    }
+
+    @Test(timeout = 30000)
+    public void testHedgeWithHostLimitOne() throws IOException, InterruptedException {
+        DiskChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"),
+                base.resolve("temp"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = container(VECTORS, data);
+        StubHttpClient httpClient = stalling(data.toByteArray());
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Hedger hedger = new Hedger(scheduler, executor, 10, 0, 1, 16);
+            for (int i = 0; i < 16; i++) {
+                hedger.record(Double.MAX_VALUE);
+            }
+            ChunkListRequestFactory factory = ChunkListRequestFactory.instance();
+            ChunkClient client = new ChunkClient(factory, factory::apply, 0, Optional.empty(), 0, 0,
+                    ChunkListDecrypter.instance(), new HostLimiter(1, 1, 1), Bandwidth.unlimited(),
+                    Optional.of(hedger));
+            client.apply(httpClient.client(), container, store);
+
+            for (ChunkListDecrypterTestVector vector : VECTORS) {
+                assertTrue(vector.id(), store.contains(vector.chunkChecksum()));
+            }
+            assertEquals(2, httpClient.ranges().size());
+            assertEquals(1, client.hedges());
+            assertEquals(1, client.hedgesWon());
+        } finally {
+            scheduler.shutdownNow();
+            executor.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -30,35 +30,42 @@ import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
 import com.github.horrorho.inflatabledonkey.chunk.store.ChunkStore;
 import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore;
-import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.HostInfo;
 import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.github.horrorho.inflatabledonkey.requests.ByteRange;
 import com.google.protobuf.ByteString;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.io.SequenceInputStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import static java.util.stream.Collectors.toList;
+import java.util.stream.IntStream;
 import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
 import org.apache.commons.io.IOUtils;
-import org.junit.AfterClass;
-import org.junit.BeforeClass;
+import org.apache.commons.io.input.NullInputStream;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Before;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Ignore;
@@ -75,26 +82,22 @@ public class ChunkListDecrypterTest {
     @Rule
     public final ExpectedException thrown = ExpectedException.none();
 
-    @BeforeClass
-    public static void setUpClass() throws Exception {
-    }
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
 
-    @AfterClass
-    public static void tearDownClass() throws Exception {
-        if (Files.exists(TEMP)) {
-            DirectoryAssistant.deleteEmptyBranch(BASE, TEMP);
-        }
-        if (Files.exists(CACHE)) {
-            DirectoryAssistant.deleteEmptyBranch(BASE, CACHE);
-        }
+    private Path base;
+    private Path cache;
+    private Path temp;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+        cache = base.resolve("cache");
+        temp = base.resolve("temp");
     }
 
     private static final Logger logger = LoggerFactory.getLogger(ChunkListDecrypterTest.class);
 
-    private static final Path BASE = Paths.get("");
-    private static final Path TEMP = BASE.resolve("testDiskChunkStore").resolve("temp");
-    private static final Path CACHE = BASE.resolve("testDiskChunkStore").resolve("cache");
-
     private static final HostInfo HOSTINFO = HostInfo.newBuilder()
             .setHostname("DUMMY")
             .setPort(80)
@@ -109,7 +112,7 @@ public class ChunkListDecrypterTest {
     @Test
     @Parameters
     public void test(List<ChunkListDecrypterTestVector> vectors) throws IOException {
-        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, CACHE, TEMP);
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
 
         ByteArrayOutputStream data = new ByteArrayOutputStream();
         StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data);
@@ -166,13 +169,101 @@ public class ChunkListDecrypterTest {
         };
     }
 
+    @Test
+    @Parameters(method = "parametersForTest")
+    public void testPipelined(List<ChunkListDecrypterTestVector> vectors) throws IOException {
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data);
+            // Single in-flight buffer, the reader blocks on each worker.
+            ChunkListDecrypter decrypter = ChunkListDecrypter.pipelined(executor, 1);
+            decrypter.apply(container, new ByteArrayInputStream(data.toByteArray()), store);
+
+            Optional<List<Chunk>> chunks = chunks(container, store);
+            assertTrue("not all chunks are present", chunks.isPresent());
+            for (Chunk chunk : chunks.get()) {
+                ChunkListDecrypterTestVector vector = vectors.stream()
+                        .filter(u -> Arrays.equals(u.chunkChecksum(), chunk.checksum()))
+                        .findFirst()
+                        .orElseThrow(() -> new AssertionError("unknown checksum"));
+                try (InputStream chunkIs = chunk.inputStream()
+                        .orElseThrow(() -> new IllegalStateException("chunk deleted"))) {
+                    assertArrayEquals("plaintext: " + vector.id(), vector.plaintext(), IOUtils.toByteArray(chunkIs));
+                }
+            }
+            for (Chunk chunk : chunks.get()) {
+                store.delete(chunk.checksum());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Parameters(method = "parametersForTestIOException")
+    public void testPipelinedIOException(List<ChunkListDecrypterTestVector> vectors) throws IOException {
+        thrown.expect(IOException.class);
+
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data);
+            ChunkListDecrypter decrypter = ChunkListDecrypter.pipelined(executor, 4);
+            decrypter.apply(container, new ByteArrayInputStream(data.toByteArray()), store);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Parameters(method = "parametersForTest")
+    public void testRange(List<ChunkListDecrypterTestVector> vectors) throws IOException {
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data);
+        byte[] bs = data.toByteArray();
+        List<ChunkInfo> chunkInfos = container.getChunkInfoList()
+                .stream()
+                .sorted(Comparator.comparing(ChunkInfo::getChunkOffset))
+                .collect(toList());
+
+        // Every other chunk treated as present, discontiguous ranges.
+        BitSet present = new BitSet();
+        for (int i = 1; i < chunkInfos.size(); i += 2) {
+            present.set(i);
+        }
+        ChunkListDecrypter decrypter = ChunkListDecrypter.instance();
+        List<ByteRange> ranges = ChunkRanges.missing(chunkInfos, present, 0);
+        for (ByteRange range : ranges) {
+            InputStream is = new ByteArrayInputStream(bs, (int) range.start(), (int) range.length());
+            decrypter.apply(container, is, store, range);
+        }
+
+        for (ChunkInfo chunkInfo : chunkInfos) {
+            ByteString checksum = chunkInfo.getChunkChecksum();
+            boolean fetched = IntStream.range(0, chunkInfos.size())
+                    .filter(i -> !present.get(i))
+                    .anyMatch(i -> chunkInfos.get(i).getChunkChecksum().equals(checksum));
+            assertEquals("chunk: " + Hex.toHexString(checksum.toByteArray()),
+                    fetched, store.contains(checksum.toByteArray()));
+        }
+
+        for (ChunkInfo chunkInfo : chunkInfos) {
+            store.delete(chunkInfo.getChunkChecksum().toByteArray());
+        }
+    }
+
     @Ignore
     @Test
     @Parameters
     public void testIOException(List<ChunkListDecrypterTestVector> vectors) throws IOException {
         thrown.expect(IOException.class);
 
-        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, CACHE, TEMP);
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
 
         ByteArrayOutputStream data = new ByteArrayOutputStream();
         StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data);
@@ -192,7 +283,7 @@ public class ChunkListDecrypterTest {
     public void testIllegalArgumentException() throws IOException {
         thrown.expect(IllegalArgumentException.class);
 
-        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, CACHE, TEMP);
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
         ByteArrayOutputStream data = new ByteArrayOutputStream();
         List<ChunkListDecrypterTestVector> vectors = Arrays.asList(VECTOR_1, VECTOR_2);
         StorageHostChunkList container = container(vectors, ChunkListDecrypterTestVector::keyTypeTwo, data);
@@ -201,6 +292,48 @@ public class ChunkListDecrypterTest {
         decrypter.apply(container, dataIs, store);
     }
 
+    @Test
+    public void testOver2Gb() throws IOException {
+        ChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
+        List<ChunkListDecrypterTestVector> vectors = Arrays.asList(VECTOR_1, VECTOR_PAD, VECTOR_2, VECTOR_3);
+        long base = (1L << 31) + 7;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        StorageHostChunkList container = shift(
+                container(vectors, ChunkListDecrypterTestVector::keyTypeOne, data), base);
+        assertEquals(base + data.size(), ChunkRanges.length(container.getChunkInfoList()));
+
+        // Synthetic container, zero filled up to the chunks. Nothing is buffered.
+        InputStream is = new SequenceInputStream(
+                new NullInputStream(base), new ByteArrayInputStream(data.toByteArray()));
+        ChunkListDecrypter.instance().apply(container, is, store);
+        assertTrue("not all chunks are present", chunks(container, store).isPresent());
+        for (byte[] checksum : checksums(container)) {
+            store.delete(checksum);
+        }
+
+        // Range request past 2 Gb.
+        ChunkInfo last = container.getChunkInfo(container.getChunkInfoCount() - 1);
+        ByteRange range = new ByteRange(ChunkRanges.offset(last), ChunkRanges.offset(last) + ChunkRanges.length(last));
+        is = new ByteArrayInputStream(data.toByteArray(), (int) (range.start() - base), (int) range.length());
+        ChunkListDecrypter.instance().apply(container, is, store, range);
+        assertTrue(store.contains(last.getChunkChecksum().toByteArray()));
+        store.delete(last.getChunkChecksum().toByteArray());
+    }
+
+    StorageHostChunkList shift(StorageHostChunkList container, long base) {
+        List<ChunkInfo> chunkInfos = container.getChunkInfoList()
+                .stream()
+                .map(u -> u.toBuilder()
+                        .setChunkOffset((int) (base + ChunkRanges.offset(u)))
+                        .build())
+                .collect(toList());
+        return container.toBuilder()
+                .clearChunkInfo()
+                .addAllChunkInfo(chunkInfos)
+                .build();
+    }
+
     Optional<List<Chunk>> chunks(StorageHostChunkList container, ChunkStore store) {
         List<byte[]> checksums = checksums(container);
         return store.allChunks(checksums);
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.requests.ByteRange;
+import com.google.protobuf.ByteString;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class ChunkRangesTest {
+
+    private static List<ChunkInfo> chunkInfos(int count, int length) {
+        List<ChunkInfo> chunkInfos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chunkInfos.add(ChunkInfo.newBuilder()
+                    .setChunkChecksum(ByteString.copyFrom(new byte[]{(byte) i}))
+                    .setChunkOffset(i * length)
+                    .setChunkLength(length)
+                    .build());
+        }
+        return chunkInfos;
+    }
+
+    private static BitSet present(int... indices) {
+        BitSet present = new BitSet();
+        Arrays.stream(indices).forEach(present::set);
+        return present;
+    }
+
+    @Test
+    @Parameters
+    public void testMissing(BitSet present, long gap, List<ByteRange> expected) {
+        assertEquals(expected, ChunkRanges.missing(chunkInfos(8, 100), present, gap));
+    }
+
+    public static Object[] parametersForTestMissing() {
+        return new Object[]{
+            new Object[]{present(), 0, Arrays.asList(new ByteRange(0, 800))},
+            new Object[]{present(0, 1, 2, 3, 4, 5, 6, 7), 0, Collections.emptyList()},
+            new Object[]{present(0, 1, 2, 3), 0, Arrays.asList(new ByteRange(400, 800))},
+            new Object[]{present(1, 2, 5), 0,
+                Arrays.asList(new ByteRange(0, 100), new ByteRange(300, 500), new ByteRange(600, 800))},
+            new Object[]{present(1, 2, 5), 100,
+                Arrays.asList(new ByteRange(0, 100), new ByteRange(300, 800))},
+            new Object[]{present(1, 2, 5), 200, Arrays.asList(new ByteRange(0, 800))}
+        };
+    }
+
+    @Test
+    public void testLength() {
+        assertEquals(800, ChunkRanges.length(chunkInfos(8, 100)));
+    }
+
+    @Test
+    public void testUnsignedOffset() {
+        // uint32 offsets beyond 2 Gb are negative as Java ints.
+        long offset = 3L << 30;
+        List<ChunkInfo> chunkInfos = Arrays.asList(ChunkInfo.newBuilder()
+                .setChunkChecksum(ByteString.copyFrom(new byte[]{0}))
+                .setChunkOffset((int) offset)
+                .setChunkLength(100)
+                .build());
+        assertEquals(offset, ChunkRanges.offset(chunkInfos.get(0)));
+        assertEquals(offset + 100, ChunkRanges.length(chunkInfos));
+        assertEquals(Arrays.asList(new ByteRange(offset, offset + 100)),
+                ChunkRanges.missing(chunkInfos, present(), 0));
+    }
+
+    @Test
+    public void testHeader() {
+        assertEquals("bytes=300-499", new ByteRange(300, 500).header());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class HedgerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    Hedger hedger(double bytesPerSecond) {
+        Hedger hedger = new Hedger(scheduler, executor, 10, 100, 1, 16);
+        for (int i = 0; i < 16; i++) {
+            hedger.record(bytesPerSecond);
+        }
+        return hedger;
+    }
+
+    /**
+     * Reads a trickling stream, one byte every 10 ms, until cancelled or timed out.
+     */
+    static long trickle(Hedger.Transfer transfer) throws IOException {
+        InputStream is = transfer.track(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return 0;
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            is.read();
+        }
+        return -1;
+    }
+
+    static void trickle1(Hedger.Transfer transfer) throws IOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(10);
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+        transfer.track(new ByteArrayInputStream(new byte[1])).read();
+    }
+
+    @Test
+    public void testNoHedgeWithoutSamples() throws IOException {
+        Hedger hedger = new Hedger(scheduler, executor, 10, 0, 1, 16);
+        assertEquals(1, hedger.apply(t -> 1L, t -> 2L));
+        assertEquals(0, hedger.started());
+    }
+
+    @Test
+    public void testHedgeWins() throws IOException {
+        Hedger hedger = hedger(1e9);
+        assertEquals(2, hedger.apply(HedgerTest::trickle, t -> 2L));
+        assertEquals(1, hedger.started());
+        assertEquals(1, hedger.won());
+    }
+
+    @Test
+    public void testHedgeCancelled() throws IOException {
+        Hedger hedger = hedger(1e9);
+        long start = System.nanoTime();
+        assertEquals(1, hedger.apply(t -> {
+            while (hedger.started() == 0) {
+                trickle1(t);
+            }
+            return 1L;
+        }, HedgerTest::trickle));
+        executor.shutdown();
+        try {
+            assertTrue("hedge cancelled", executor.awaitTermination(5, TimeUnit.SECONDS));
+        } catch (InterruptedException ex) {
+            fail();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(0, hedger.won());
+    }
+
+    @Test
+    public void testBothFail() {
+        Hedger hedger = hedger(1e9);
+        try {
+            hedger.apply(t -> {
+                trickle1(t);
+                while (hedger.started() == 0) {
+                    trickle1(t);
+                }
+                throw new IOException("primary");
+            }, t -> {
+                throw new IOException("hedge");
+            });
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertEquals("primary", ex.getMessage());
+            assertEquals("hedge", ex.getSuppressed()[0].getMessage());
+        }
+    }
+
+    @Test
+    public void testThreshold() {
+        Hedger hedger = new Hedger(scheduler, executor, 10, 0, 1, 16);
+        for (int i = 0; i < 100; i++) {
+            hedger.record(i);
+        }
+        // Window holds the last 16 samples: 84..99.
+        assertEquals(85, hedger.threshold().getAsDouble(), 0);
+    }
+}
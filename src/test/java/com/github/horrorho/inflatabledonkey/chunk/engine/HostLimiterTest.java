@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class HostLimiterTest {
+
+    private static final String HOST = "host";
+
+    private final AtomicLong clock = new AtomicLong();
+
+    HostLimiter limiter(int initialLimit, int maxLimit, int failureThreshold) {
+        return new HostLimiter(clock::get, initialLimit, maxLimit, failureThreshold);
+    }
+
+    static HostStats stats(HostLimiter limiter) {
+        return limiter.stats().get(0);
+    }
+
+    static boolean blocks(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException ex) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        HostLimiter limiter = limiter(2, 8, 5);
+        HostLimiter.Permit a = limiter.acquire(HOST);
+        limiter.acquire(HOST);
+
+        CompletableFuture<HostLimiter.Permit> c = CompletableFuture.supplyAsync(() -> limiter.acquire(HOST));
+        assertTrue("blocked at limit", blocks(c));
+
+        a.success(1024);
+        a.success(1024);
+        assertNotNull(c.get(5, TimeUnit.SECONDS));
+        assertEquals(1, stats(limiter).requests());
+    }
+
+    @Test
+    public void testHostsIndependent() {
+        HostLimiter limiter = limiter(1, 1, 5);
+        limiter.acquire("a");
+        limiter.acquire("b");
+        assertEquals(2, limiter.stats().size());
+    }
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() {
+        HostLimiter limiter = limiter(2, 4, 100);
+        for (int i = 0; i < 64; i++) {
+            // Saturate the current limit.
+            List<HostLimiter.Permit> permits = new ArrayList<>();
+            permits.add(limiter.acquire(HOST));
+            for (int j = stats(limiter).limit(); j > 1; j--) {
+                permits.add(limiter.acquire(HOST));
+            }
+            permits.forEach(u -> u.success(65536));
+        }
+        assertEquals("grows to max", 4, stats(limiter).limit());
+
+        limiter.acquire(HOST).failure();
+        assertEquals("halves", 2, stats(limiter).limit());
+        assertEquals(1, stats(limiter).failures());
+    }
+
+    @Test
+    public void testUnderutilizedLimitDoesNotGrow() {
+        HostLimiter limiter = limiter(4, 32, 100);
+        for (int i = 0; i < 64; i++) {
+            limiter.acquire(HOST).success(65536);
+        }
+        assertEquals(4, stats(limiter).limit());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        HostLimiter limiter = limiter(4, 4, 2);
+        limiter.acquire(HOST).failure();
+        assertEquals("CLOSED", stats(limiter).circuit());
+        limiter.acquire(HOST).failure();
+        assertEquals("OPEN", stats(limiter).circuit());
+        assertEquals(1, stats(limiter).opened());
+
+        CompletableFuture<HostLimiter.Permit> trial = CompletableFuture.supplyAsync(() -> limiter.acquire(HOST));
+        assertTrue("backs off while open", blocks(trial));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        HostLimiter.Permit permit = trial.get(5, TimeUnit.SECONDS);
+        assertEquals("HALF_OPEN", stats(limiter).circuit());
+
+        CompletableFuture<HostLimiter.Permit> second = CompletableFuture.supplyAsync(() -> limiter.acquire(HOST));
+        assertTrue("single trial", blocks(second));
+
+        permit.success(1024);
+        assertEquals("CLOSED", stats(limiter).circuit());
+        second.get(5, TimeUnit.SECONDS).cancel();
+    }
+
+    @Test
+    public void testCircuitReopens() {
+        HostLimiter limiter = limiter(4, 4, 1);
+        limiter.acquire(HOST).failure();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.acquire(HOST).failure();
+        assertEquals("OPEN", stats(limiter).circuit());
+        assertEquals(2, stats(limiter).opened());
+    }
+
+    @Test
+    public void testLatencyDecrease() {
+        HostLimiter limiter = limiter(4, 4, 100);
+        for (int i = 0; i < 32; i++) {
+            HostLimiter.Permit permit = limiter.acquire(HOST);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+            permit.success(65536);
+        }
+        assertEquals(4, stats(limiter).limit());
+
+        for (int i = 0; i < 8; i++) {
+            HostLimiter.Permit permit = limiter.acquire(HOST);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+            permit.success(65536);
+        }
+        assertTrue("latency backs off", stats(limiter).limit() < 4);
+    }
+
+    @Test
+    public void testThroughput() {
+        HostLimiter limiter = limiter(4, 4, 100);
+        HostLimiter.Permit permit = limiter.acquire(HOST);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        permit.success(4000000);
+        assertEquals(2000, stats(limiter).activeMilliseconds());
+        assertEquals(2, stats(limiter).megabytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testUnlimited() {
+        HostLimiter limiter = HostLimiter.unlimited();
+        for (int i = 0; i < 1024; i++) {
+            limiter.acquire(HOST);
+        }
+        assertTrue(limiter.stats().isEmpty());
+    }
+}
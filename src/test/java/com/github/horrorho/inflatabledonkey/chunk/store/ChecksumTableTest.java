@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ChecksumTableTest.
+ *
+ * @author Ahseya
+ */
+public class ChecksumTableTest {
+
+    private static final int KEY_LENGTH = 21;
+
+    @Test
+    public void testValues() {
+        ChecksumTable table = new ChecksumTable(KEY_LENGTH, 2, 16);
+        Map<ByteBuffer, Long> reference = new HashMap<>();
+        Random random = new Random(0);
+
+        // Grown from 16 slots and churned through tombstones, values follow their checksums across rehashes.
+        for (int i = 0; i < 20000; i++) {
+            byte[] checksum = ChunkIndexTest.checksum(random);
+            int slot = table.add(checksum, ChunkIndex.hash(checksum));
+            table.value(slot, 0, i);
+            table.value(slot, 1, -i);
+            reference.put(ByteBuffer.wrap(checksum), (long) i);
+            if (i % 2 == 0) {
+                assertTrue("remove", table.remove(checksum, ChunkIndex.hash(checksum)));
+                reference.remove(ByteBuffer.wrap(checksum));
+            }
+        }
+        assertEquals("size", reference.size(), table.size());
+
+        for (Map.Entry<ByteBuffer, Long> entry : reference.entrySet()) {
+            byte[] checksum = entry.getKey().array();
+            int slot = table.find(checksum, 0, ChunkIndex.hash(checksum));
+            assertTrue("present", slot >= 0);
+            assertEquals("value 0", (long) entry.getValue(), table.value(slot, 0));
+            assertEquals("value 1", -entry.getValue(), table.value(slot, 1));
+        }
+
+        Map<ByteBuffer, Long> iterated = new HashMap<>();
+        table.forEach((checksum, slot) -> iterated.put(ByteBuffer.wrap(checksum), table.value(slot, 0)));
+        assertEquals("forEach", reference, iterated);
+    }
+}
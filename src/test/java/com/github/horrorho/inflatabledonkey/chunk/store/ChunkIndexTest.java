@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ChunkIndexTest.
+ *
+ * @author Ahseya
+ */
+public class ChunkIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkIndexTest.class);
+
+    private static final int KEY_LENGTH = 21;
+
+    static byte[] checksum(Random random) {
+        byte[] checksum = new byte[KEY_LENGTH];
+        random.nextBytes(checksum);
+        checksum[0] = 0x01;
+        return checksum;
+    }
+
+    @Test
+    public void testAddRemove() {
+        ChunkIndex index = new ChunkIndex(KEY_LENGTH);
+        Set<ByteBuffer> reference = new HashSet<>();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 200000; i++) {
+            byte[] checksum = checksum(random);
+            assertEquals("add", reference.add(ByteBuffer.wrap(checksum)), index.add(checksum));
+        }
+        assertEquals("size", reference.size(), index.size());
+
+        int i = 0;
+        for (ByteBuffer checksum : new HashSet<>(reference)) {
+            if (i++ % 3 == 0) {
+                assertTrue("remove", index.remove(checksum.array()));
+                assertFalse("removed twice", index.remove(checksum.array()));
+                reference.remove(checksum);
+            }
+        }
+        assertEquals("size after removal", reference.size(), index.size());
+
+        for (ByteBuffer checksum : reference) {
+            assertTrue("contains", index.contains(checksum.array()));
+            assertFalse("duplicate add", index.add(checksum.array()));
+        }
+        for (int j = 0; j < 10000; j++) {
+            assertFalse("not contains", index.contains(checksum(random)));
+        }
+
+        Set<ByteBuffer> iterated = new HashSet<>();
+        index.forEach(u -> iterated.add(ByteBuffer.wrap(u)));
+        assertEquals("forEach", reference, iterated);
+    }
+
+    @Test
+    public void testBulkContains() {
+        ChunkIndex index = new ChunkIndex(KEY_LENGTH);
+        Random random = new Random(2);
+        List<ByteString> checksums = new ArrayList<>();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 500; i++) {
+            byte[] checksum = checksum(random);
+            if (random.nextBoolean()) {
+                index.add(checksum);
+                expected.set(i);
+            }
+            checksums.add(ByteString.copyFrom(checksum));
+        }
+        checksums.add(ByteString.copyFrom(new byte[KEY_LENGTH - 1]));
+        assertEquals("bulk contains", expected, index.contains(checksums));
+    }
+
+    @Test
+    public void testBadLength() {
+        ChunkIndex index = new ChunkIndex(KEY_LENGTH);
+        assertFalse(index.contains(new byte[KEY_LENGTH - 1]));
+        assertFalse(index.remove(new byte[KEY_LENGTH + 1]));
+        try {
+            index.add(new byte[KEY_LENGTH - 1]);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testMemory() {
+        ChunkIndex index = new ChunkIndex(KEY_LENGTH);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000000; i++) {
+            index.add(checksum(random));
+        }
+        long memory = index.memory();
+        logger.info("-- testMemory() - 1M checksums, index memory (bytes): {}", memory);
+        assertTrue("under 64 MB per million", memory < 64L * 1024 * 1024);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import net.jcip.annotations.Immutable;
+import org.bouncycastle.crypto.Digest;
+
+/**
+ * Chunk store test helpers.
+ *
+ * @author Ahseya
+ */
+@Immutable
+public final class ChunkStoreSupport {
+
+    public static byte[] digest(Supplier<Digest> digests, byte[] data) {
+        Digest digest = digests.get();
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.update(data, 0, data.length);
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    /**
+     * Writes the data into the store.
+     *
+     * @param store
+     * @param digests
+     * @param data
+     * @return checksum
+     * @throws IOException
+     * @throws IllegalStateException if the chunk is already present
+     */
+    public static byte[] put(ChunkStore store, Supplier<Digest> digests, byte[] data) throws IOException {
+        byte[] checksum = digest(digests, data);
+        try (OutputStream os = store.outputStream(checksum)
+                .orElseThrow(() -> new IllegalStateException("OutputStream not present"))) {
+            os.write(data);
+        }
+        return checksum;
+    }
+
+    public static byte[] put(ChunkStore store, Supplier<Digest> digests, String string) throws IOException {
+        return put(store, digests, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ChunkStoreSupport() {
+        // Utility class.
+    }
+}
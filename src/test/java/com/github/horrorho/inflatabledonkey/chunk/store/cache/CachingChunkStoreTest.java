@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.cache;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.put;
+import com.github.horrorho.inflatabledonkey.io.FileChannelBuffers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class CachingChunkStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMappedChunkCachedOnHeap() throws IOException {
+        Path base = folder.getRoot().toPath();
+        DiskChunkStore disk
+                = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"), base.resolve("temp"));
+
+        byte[] data = new byte[FileChannelBuffers.DEFAULT_MAP_THRESHOLD * 2];
+        new Random(0).nextBytes(data);
+        byte[] checksum = put(disk, ChunkDigest::new, data);
+        assertTrue("mapped", disk.chunk(checksum).get().buffer().get().isDirect());
+
+        ChunkCache cache = new ChunkCache(1024 * 1024);
+        CachingChunkStore store = new CachingChunkStore(disk, cache);
+        Chunk chunk = store.chunk(checksum).get();
+
+        ByteBuffer buffer = chunk.buffer().get();
+        assertFalse("returned on heap", buffer.isDirect());
+        assertEquals("returned data", ByteBuffer.wrap(data), buffer);
+
+        ByteBuffer cached = cache.get(checksum).get();
+        assertFalse("cached on heap", cached.isDirect());
+        assertEquals("cached data", ByteBuffer.wrap(data), cached);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.cache;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class ChunkCacheTest {
+
+    private static byte[] checksum(int i) {
+        return ByteBuffer.allocate(21).put((byte) 0x01).putInt(i).array();
+    }
+
+    @Test
+    public void testHitMiss() {
+        ChunkCache cache = new ChunkCache(1024 * 1024, 1024);
+        byte[] data = new byte[]{0x00, 0x01, 0x02};
+        cache.put(checksum(0), ByteBuffer.wrap(data));
+
+        assertEquals("hit", ByteBuffer.wrap(data), cache.get(checksum(0)).get());
+        assertFalse("miss", cache.get(checksum(1)).isPresent());
+        assertEquals("hits", 1, cache.hits());
+        assertEquals("misses", 1, cache.misses());
+
+        cache.remove(checksum(0));
+        assertFalse("removed", cache.get(checksum(0)).isPresent());
+        assertEquals("size", 0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        ChunkCache cache = new ChunkCache(64 * 1024, 1024);
+        for (int i = 0; i < 1024; i++) {
+            cache.put(checksum(i), ByteBuffer.allocate(1024));
+            assertTrue("bounded", cache.size() <= cache.capacity());
+        }
+    }
+
+    @Test
+    public void testScanResistance() {
+        ChunkCache cache = new ChunkCache(64 * 1024, 1024);
+        // Frequently referenced working set.
+        for (int round = 0; round < 8; round++) {
+            for (int i = 0; i < 32; i++) {
+                if (!cache.get(checksum(i)).isPresent()) {
+                    cache.put(checksum(i), ByteBuffer.allocate(1024), false);
+                }
+            }
+        }
+        // One-off scan.
+        for (int i = 1000; i < 2000; i++) {
+            if (!cache.get(checksum(i)).isPresent()) {
+                cache.put(checksum(i), ByteBuffer.allocate(1024), false);
+            }
+        }
+        int retained = 0;
+        for (int i = 0; i < 32; i++) {
+            if (cache.get(checksum(i)).isPresent()) {
+                retained++;
+            }
+        }
+        assertEquals("working set retained", 32, retained);
+    }
+
+    @Test
+    public void testCommitCountsAsAccess() {
+        ChunkCache cache = new ChunkCache(64 * 1024, 1024);
+        // Main region filled with chunks read once.
+        for (int i = 0; i < 64; i++) {
+            assertFalse(cache.get(checksum(i)).isPresent());
+            cache.put(checksum(i), ByteBuffer.allocate(1024), false);
+        }
+        // Committed then read back once, it now outranks the chunks read once.
+        cache.put(checksum(1000), ByteBuffer.allocate(1024));
+        if (!cache.get(checksum(1000)).isPresent()) {
+            cache.put(checksum(1000), ByteBuffer.allocate(1024), false);
+        }
+        assertTrue("committed chunk admitted", cache.get(checksum(1000)).isPresent());
+    }
+
+    @Test
+    public void testDuplicates() {
+        ChunkCache cache = new ChunkCache(1024 * 1024, 1024);
+        cache.put(checksum(0), ByteBuffer.wrap(new byte[]{0x00, 0x01, 0x02}));
+
+        ByteBuffer a = cache.get(checksum(0)).get();
+        a.get();
+        ByteBuffer b = cache.get(checksum(0)).get();
+        assertTrue("read only", b.isReadOnly());
+        assertEquals("independent position", 3, b.remaining());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.io.TokenBucket;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.put;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.bouncycastle.crypto.Digest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class DiskChunkScrubberTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+    private Path cache;
+    private Path temp;
+    private Path quarantine;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+        cache = base.resolve("cache");
+        temp = base.resolve("temp");
+        quarantine = base.resolve("quarantine");
+    }
+
+    private static String repeat(String string, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(string);
+        }
+        return sb.toString();
+    }
+
+    private static void corrupt(Path file) throws IOException {
+        byte[] bs = Files.readAllBytes(file);
+        bs[bs.length - 1] ^= 0x01;
+        Files.write(file, bs);
+    }
+
+    private static void assertPruned(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path) && !path.equals(folder)) {
+                    try (Stream<Path> children = Files.list(path)) {
+                        assertTrue("no empty folders: " + path, children.findFirst().isPresent());
+                    }
+                }
+            }
+        }
+    }
+
+    private static final Supplier<Digest> DIGESTS = ChunkDigest::new;
+
+    @Test
+    public void testScrub() throws IOException {
+        DiskChunkStore store = new DiskChunkStore(true, DIGESTS, ChunkDigests::test, cache, temp);
+        byte[] good = put(store, DIGESTS, "good");
+        byte[] badRaw = put(store, DIGESTS, "bad raw");
+        byte[] goodDeflated = put(store, DIGESTS, repeat("good deflated ", 4096));
+        byte[] badDeflated = put(store, DIGESTS, repeat("bad deflated ", 4096));
+
+        Path badRawFile = cache.resolve(DiskChunkFiles.filename(badRaw));
+        Path badDeflatedFile = DiskChunkFiles.deflated(cache.resolve(DiskChunkFiles.filename(badDeflated)));
+        assertTrue(Files.exists(badRawFile));
+        assertTrue(Files.exists(badDeflatedFile));
+        corrupt(badRawFile);
+        corrupt(badDeflatedFile);
+
+        Files.write(temp.resolve("0123456789abcdef.tmp"), new byte[]{0x01});
+        Files.write(cache.resolve("data.enc"), new byte[]{0x02});
+
+        DiskChunkScrubber scrubber = new DiskChunkScrubber(DIGESTS, ChunkDigests::test, cache, temp,
+                Optional.of(quarantine), Optional.of(TokenBucket.perSecond(1 << 20)), 4);
+        DiskChunkScrubberReport report = scrubber.scrub();
+
+        assertEquals("checked", 4, report.checked());
+        assertEquals("bad", 2, report.bad());
+        assertEquals("swept", 1, report.swept());
+        assertFalse(Files.exists(badRawFile));
+        assertFalse(Files.exists(badDeflatedFile));
+        assertTrue(Files.exists(quarantine.resolve(DiskChunkFiles.filename(badRaw))));
+        assertTrue(Files.exists(DiskChunkFiles.deflated(quarantine.resolve(DiskChunkFiles.filename(badDeflated)))));
+        assertTrue(Files.exists(cache.resolve("data.enc")));
+        assertPruned(cache);
+
+        DiskChunkStore reopened = new DiskChunkStore(DIGESTS, ChunkDigests::test, cache, temp);
+        assertTrue(reopened.contains(good));
+        assertTrue(reopened.contains(goodDeflated));
+        assertFalse(reopened.contains(badRaw));
+        assertFalse(reopened.contains(badDeflated));
+
+        DiskChunkScrubberReport rescrub = new DiskChunkScrubber(DIGESTS, ChunkDigests::test, cache, temp,
+                Optional.empty(), Optional.empty(), 1).scrub();
+        assertEquals("rescrub checked", 2, rescrub.checked());
+        assertEquals("rescrub bad", 0, rescrub.bad());
+    }
+
+    @Test
+    public void testScrubDelete() throws IOException {
+        DiskChunkStore store = new DiskChunkStore(true, DIGESTS, ChunkDigests::test, cache, temp);
+        byte[] good = put(store, DIGESTS, repeat("good deflated ", 4096));
+        byte[] badLength = put(store, DIGESTS, repeat("bad length ", 4096));
+        byte[] truncated = put(store, DIGESTS, repeat("truncated ", 4096));
+
+        // Intact zlib stream, wrong plaintext length header.
+        Path badLengthFile = DiskChunkFiles.deflated(cache.resolve(DiskChunkFiles.filename(badLength)));
+        byte[] bs = Files.readAllBytes(badLengthFile);
+        bs[DiskChunkFiles.DEFLATE_HEADER_LENGTH - 1] ^= 0x01;
+        Files.write(badLengthFile, bs);
+        // Shorter than the length header.
+        Path truncatedFile = DiskChunkFiles.deflated(cache.resolve(DiskChunkFiles.filename(truncated)));
+        Files.write(truncatedFile, new byte[]{0x00, 0x01});
+
+        DiskChunkScrubberReport report = new DiskChunkScrubber(DIGESTS, ChunkDigests::test, cache, temp,
+                Optional.empty(), Optional.empty(), 2).scrub();
+
+        assertEquals("checked", 3, report.checked());
+        assertEquals("bad", 2, report.bad());
+        assertEquals("swept", 0, report.swept());
+        assertFalse(Files.exists(badLengthFile));
+        assertFalse(Files.exists(truncatedFile));
+        assertFalse("nothing quarantined", Files.exists(quarantine));
+        assertPruned(cache);
+
+        DiskChunkStore reopened = new DiskChunkStore(DIGESTS, ChunkDigests::test, cache, temp);
+        assertTrue(reopened.contains(good));
+        assertFalse(reopened.contains(badLength));
+        assertFalse(reopened.contains(truncated));
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkListDecrypterTestVector;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.io.DirectoryAssistant;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.digest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.Digest;
+import org.junit.AfterClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compression benchmark. Commits the decrypter test vector plaintexts, which are incompressible and must be stored raw,
+ * and synthetic compressible chunks, then verifies round trips and reports throughput and on-disk size.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DiskChunkStoreCompressionTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (Files.exists(TEMP)) {
+            DirectoryAssistant.deleteEmptyBranch(BASE, TEMP);
+        }
+        if (Files.exists(CACHE)) {
+            DirectoryAssistant.deleteEmptyBranch(BASE, CACHE);
+        }
+    }
+
+    private static final Supplier<Digest> DIGESTS = ChunkDigest::new;
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskChunkStoreCompressionTest.class);
+
+    private static final Path BASE = Paths.get("");
+    private static final Path TEMP = BASE.resolve("testDiskChunkStoreCompression").resolve("temp");
+    private static final Path CACHE = BASE.resolve("testDiskChunkStoreCompression").resolve("cache");
+
+    private static final int CHUNKS = 1024;
+    private static final int CHUNK_LENGTH = 65536;
+    private static final int PAGE_LENGTH = 4096;
+
+    @Ignore
+    @Test
+    @Parameters
+    public void testVector(ChunkListDecrypterTestVector vector) throws Exception {
+        DiskChunkStore store = new DiskChunkStore(true, ChunkDigest::new,
+                ChunkDigests::test, CACHE, TEMP);
+        byte[] checksum = vector.chunkChecksum();
+        byte[] plaintext = vector.plaintext();
+
+        put(store, checksum, plaintext);
+        Path file = CACHE.resolve(DiskChunkFiles.filename(checksum));
+        assertFalse("incompressible data stored raw", Files.exists(DiskChunkFiles.deflated(file)));
+        verify(store, checksum, plaintext);
+
+        assertTrue(store.delete(checksum));
+        assertFalse(store.contains(checksum));
+    }
+
+    public static Object[] parametersForTestVector() {
+        return new Object[]{
+            ChunkListDecrypterTestVector.VECTOR_1,
+            ChunkListDecrypterTestVector.VECTOR_2,
+            ChunkListDecrypterTestVector.VECTOR_3,
+            ChunkListDecrypterTestVector.VECTOR_4,
+            ChunkListDecrypterTestVector.VECTOR_5,
+            ChunkListDecrypterTestVector.VECTOR_6};
+    }
+
+    @Ignore
+    @Test
+    @Parameters
+    public void testThroughput(String kind, boolean compress) throws Exception {
+        DiskChunkStore store = new DiskChunkStore(compress, ChunkDigest::new,
+                ChunkDigests::test, CACHE, TEMP);
+
+        Random random = new Random(CHUNKS);
+        List<byte[]> data = new ArrayList<>();
+        List<byte[]> checksums = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) {
+            byte[] bs = chunk(kind, random);
+            data.add(bs);
+            checksums.add(digest(DIGESTS, bs));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CHUNKS; i++) {
+            put(store, checksums.get(i), data.get(i));
+        }
+        long writeNanos = System.nanoTime() - start;
+
+        long onDisk = 0;
+        for (byte[] checksum : checksums) {
+            Path file = CACHE.resolve(DiskChunkFiles.filename(checksum));
+            Path deflated = DiskChunkFiles.deflated(file);
+            onDisk += Files.exists(deflated) ? Files.size(deflated) : Files.size(file);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < CHUNKS; i++) {
+            verify(store, checksums.get(i), data.get(i));
+        }
+        long readNanos = System.nanoTime() - start;
+
+        long total = (long) CHUNKS * CHUNK_LENGTH;
+        logger.info("-- testThroughput() - kind: {} compress: {} write: {} MB/s read: {} MB/s on disk: {}/{} ratio: {}",
+                kind, compress, mbs(total, writeNanos), mbs(total, readNanos), onDisk, total,
+                String.format("%.3f", (double) onDisk / total));
+        if (compress && !kind.equals("random")) {
+            assertTrue("compressible data shrinks", onDisk < total);
+        }
+        if (kind.equals("random")) {
+            assertTrue("incompressible data stored raw", onDisk == total);
+        }
+
+        for (byte[] checksum : checksums) {
+            assertTrue(store.delete(checksum));
+        }
+    }
+
+    public static Object[] parametersForTestThroughput() {
+        return new Object[]{
+            new Object[]{"random", false},
+            new Object[]{"random", true},
+            new Object[]{"text", false},
+            new Object[]{"text", true},
+            new Object[]{"pages", false},
+            new Object[]{"pages", true}};
+    }
+
+    @Test
+    @Parameters({
+        "empty, 0, false",
+        "zeros, 1000, true",
+        "random, 1000, false",
+        "zeros, 100000, true",
+        "random, 100000, false",
+        "mixed, 100000, true"})
+    public void testStoredForm(String kind, int length, boolean deflated) throws Exception {
+        Path base = folder.newFolder().toPath();
+        Path cache = base.resolve("cache");
+        Path temp = base.resolve("temp");
+        DiskChunkStore store = new DiskChunkStore(true, ChunkDigest::new, ChunkDigests::test, cache, temp);
+
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        if (kind.equals("random")) {
+            random.nextBytes(data);
+        } else if (kind.equals("mixed")) {
+            // Compressible probe, incompressible remainder. The probe decides.
+            byte[] tail = new byte[length - DeflateSink.PROBE_LENGTH];
+            random.nextBytes(tail);
+            System.arraycopy(tail, 0, data, DeflateSink.PROBE_LENGTH, tail.length);
+        }
+        byte[] checksum = digest(DIGESTS, data);
+
+        // Written in pieces, straddling the probe length.
+        try (OutputStream os = store.outputStream(checksum)
+                .orElseThrow(() -> new AssertionError("missing output stream"))) {
+            for (int off = 0; off < length; off += 999) {
+                os.write(data, off, Math.min(999, length - off));
+            }
+        }
+        Path file = cache.resolve(DiskChunkFiles.filename(checksum));
+        assertEquals("deflated", deflated, Files.exists(DiskChunkFiles.deflated(file)));
+        assertEquals("raw", !deflated, Files.exists(file));
+        verify(store, checksum, data);
+        try (Stream<Path> paths = Files.list(temp)) {
+            assertFalse("temp folder is empty", paths.findFirst().isPresent());
+        }
+    }
+
+    static byte[] chunk(String kind, Random random) {
+        byte[] bs = new byte[CHUNK_LENGTH];
+        switch (kind) {
+            case "random":
+                random.nextBytes(bs);
+                break;
+            case "text":
+                // Log/plist style text.
+                StringBuilder sb = new StringBuilder();
+                while (sb.length() < CHUNK_LENGTH) {
+                    sb.append("<key>item").append(random.nextInt(1000)).append("</key><string>")
+                            .append(Long.toHexString(random.nextLong())).append("</string>\n");
+                }
+                System.arraycopy(sb.toString().getBytes(StandardCharsets.UTF_8), 0, bs, 0, CHUNK_LENGTH);
+                break;
+            case "pages":
+                // SQLite style pages: short random record area, zero filled remainder.
+                for (int off = 0; off < CHUNK_LENGTH; off += PAGE_LENGTH) {
+                    byte[] record = new byte[random.nextInt(PAGE_LENGTH / 4)];
+                    random.nextBytes(record);
+                    System.arraycopy(record, 0, bs, off + PAGE_LENGTH - record.length, record.length);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown kind: " + kind);
+        }
+        return bs;
+    }
+
+    static void put(DiskChunkStore store, byte[] checksum, byte[] data) throws IOException {
+        Optional<OutputStream> os = store.outputStream(checksum);
+        assertTrue(os.isPresent());
+        try (OutputStream o = os.get()) {
+            o.write(data);
+        }
+        assertTrue(store.contains(checksum));
+    }
+
+    static void verify(DiskChunkStore store, byte[] checksum, byte[] data) throws IOException {
+        Chunk chunk = store.chunk(checksum).orElseThrow(() -> new AssertionError("missing chunk"));
+        try (InputStream is = chunk.inputStream().orElseThrow(() -> new AssertionError("missing stream"))) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+        ByteBuffer buffer = chunk.buffer().orElseThrow(() -> new AssertionError("missing buffer"));
+        byte[] bs = new byte[buffer.remaining()];
+        buffer.get(bs);
+        assertTrue(Arrays.equals(data, bs));
+    }
+
+    static String mbs(long bytes, long nanos) {
+        return String.format("%.1f", bytes / (nanos / 1e9) / (1 << 20));
+    }
+}
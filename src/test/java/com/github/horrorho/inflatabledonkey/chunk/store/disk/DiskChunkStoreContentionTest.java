@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.digest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.Digest;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Contention test. Multiple threads commit and delete overlapping chunk sets, the first writer must win and every
+ * chunk must be readable and intact afterwards. Includes a contention benchmark.
+ *
+ * @author Ahseya
+ */
+public class DiskChunkStoreContentionTest {
+
+    private static final Supplier<Digest> DIGESTS = ChunkDigest::new;
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskChunkStoreContentionTest.class);
+
+    private static final int THREADS = 8;
+    private static final int CHUNKS = 256;
+    private static final int CHUNK_LENGTH = 1024;
+    private static final int WRITES_PER_THREAD = 256;
+
+    private static final int BENCHMARK_THREADS = 32;
+    private static final int BENCHMARK_CHUNKS = 4096;
+    private static final int BENCHMARK_CHUNK_LENGTH = 4096;
+    private static final int BENCHMARK_WRITES_PER_THREAD = 512;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void test() throws Exception {
+        Path temp = base.resolve("temp");
+        DiskChunkStore store = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"), temp);
+
+        Random random = new Random(0);
+        List<byte[]> data = new ArrayList<>();
+        List<byte[]> checksums = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) {
+            byte[] bs = new byte[CHUNK_LENGTH];
+            random.nextBytes(bs);
+            data.add(bs);
+            checksums.add(digest(DIGESTS, bs));
+        }
+
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                // Overlapping random picks, threads race on the same chunks and prune each other's folders.
+                Random r = new Random(seed);
+                for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                    int index = r.nextInt(CHUNKS);
+                    byte[] checksum = checksums.get(index);
+                    try {
+                        if (r.nextInt(8) == 0) {
+                            store.delete(checksum);
+                            continue;
+                        }
+                        Optional<OutputStream> os = store.outputStream(checksum);
+                        if (os.isPresent()) {
+                            try (OutputStream o = os.get()) {
+                                o.write(data.get(index));
+                            }
+                            written.incrementAndGet();
+                        } else {
+                            skipped.incrementAndGet();
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        logger.debug("-- test() - written: {} skipped: {}", written.get(), skipped.get());
+
+        for (int i = 0; i < CHUNKS; i++) {
+            Optional<Chunk> chunk = store.chunk(checksums.get(i));
+            if (!chunk.isPresent()) {
+                continue;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (InputStream is = chunk.get().inputStream()
+                    .orElseThrow(() -> new IllegalStateException("chunk deleted"))) {
+                IOUtils.copy(is, baos);
+            }
+            assertArrayEquals("data match", data.get(i), baos.toByteArray());
+            assertTrue("was deleted", store.delete(checksums.get(i)));
+        }
+        try (Stream<Path> paths = Files.list(temp)) {
+            assertFalse("temp folder is empty", paths.findFirst().isPresent());
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testThroughput() throws Exception {
+        DiskChunkStore store
+                = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, base.resolve("cache"), base.resolve("temp"));
+
+        Random random = new Random(BENCHMARK_CHUNKS);
+        List<byte[]> data = new ArrayList<>();
+        List<byte[]> checksums = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_CHUNKS; i++) {
+            byte[] bs = new byte[BENCHMARK_CHUNK_LENGTH];
+            random.nextBytes(bs);
+            data.add(bs);
+            checksums.add(digest(DIGESTS, bs));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(BENCHMARK_THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < BENCHMARK_THREADS; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                // Overlapping random picks, threads race on the same chunks.
+                Random r = new Random(seed);
+                for (int i = 0; i < BENCHMARK_WRITES_PER_THREAD; i++) {
+                    int index = r.nextInt(BENCHMARK_CHUNKS);
+                    byte[] checksum = checksums.get(index);
+                    store.contains(checksum);
+                    try {
+                        Optional<OutputStream> os = store.outputStream(checksum);
+                        if (os.isPresent()) {
+                            try (OutputStream o = os.get()) {
+                                o.write(data.get(index));
+                            }
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        int operations = BENCHMARK_THREADS * BENCHMARK_WRITES_PER_THREAD;
+        double opsPerSecond = operations / (nanos / 1e9);
+        logger.info("-- testThroughput() - threads: {} operations: {} ops/s: {}",
+                BENCHMARK_THREADS, operations, String.format("%.0f", opsPerSecond));
+    }
+}
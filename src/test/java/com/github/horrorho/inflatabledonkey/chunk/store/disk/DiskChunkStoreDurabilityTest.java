@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.disk;
+
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.digest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.Digest;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durability tests. Chunks committed under each sync policy must survive close and reopen. The benchmark has multiple
+ * threads commit small chunks under each sync policy, reporting commits per second. Group commit timings include the
+ * final flush on close.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DiskChunkStoreDurabilityTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+    private Path cache;
+    private Path temp;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+        cache = base.resolve("cache");
+        temp = base.resolve("temp");
+    }
+
+    private static final Supplier<Digest> DIGESTS = ChunkDigest::new;
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskChunkStoreDurabilityTest.class);
+
+    private static final int THREADS = 8;
+    private static final int CHUNKS = 2048;
+    private static final int CHUNK_LENGTH = 1024;
+
+    private static byte[] read(DiskChunkStore store, byte[] checksum) throws IOException {
+        Chunk chunk = store.chunk(checksum)
+                .orElseThrow(() -> new IllegalStateException("chunk not present"));
+        try (InputStream is = chunk.inputStream()
+                .orElseThrow(() -> new IllegalStateException("chunk deleted"))) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    DiskChunkSync sync(String mode, long groupIntervalMs) {
+        return mode.equals("SYNC")
+                ? DiskChunkSyncs.immediate(cache)
+                : mode.equals("GROUP")
+                ? DiskChunkSyncs.group(cache, temp, groupIntervalMs)
+                : DiskChunkSyncs.none();
+    }
+
+    @Test
+    @Parameters(method = "parametersForTestThroughput")
+    public void testCommit(String mode) throws Exception {
+        // No scheduled group flush runs, close alone must sync the pending chunks.
+        DiskChunkSync sync = sync(mode, TimeUnit.HOURS.toMillis(1));
+        DiskChunkStore store = new DiskChunkStore(true, sync, ChunkDigest::new, ChunkDigests::test, cache, temp);
+
+        Random random = new Random(CHUNK_LENGTH);
+        List<byte[]> data = new ArrayList<>();
+        List<byte[]> checksums = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            // Even chunks compress, odd chunks are stored raw.
+            byte[] bs = new byte[CHUNK_LENGTH];
+            if (i % 2 == 1) {
+                random.nextBytes(bs);
+            }
+            bs[0] = (byte) i;
+            byte[] checksum = digest(DIGESTS, bs);
+            try (OutputStream os = store.outputStream(checksum).get()) {
+                os.write(bs);
+            }
+            data.add(bs);
+            checksums.add(checksum);
+        }
+        store.close();
+
+        if (sync instanceof GroupDiskChunkSync) {
+            assertEquals("pending group syncs flushed on close", 0, ((GroupDiskChunkSync) sync).flush());
+            try {
+                sync.afterMove(cache);
+                fail("IOException expected after close");
+            } catch (IOException ex) {
+                logger.debug("-- testCommit() - closed: {}", ex.getMessage());
+            }
+        }
+
+        DiskChunkStore reopened = new DiskChunkStore(ChunkDigest::new, ChunkDigests::test, cache, temp);
+        for (int i = 0; i < data.size(); i++) {
+            assertTrue("present on reopen", reopened.contains(checksums.get(i)));
+            assertArrayEquals("data match on reopen", data.get(i), read(reopened, checksums.get(i)));
+        }
+        try (Stream<Path> paths = Files.list(temp)) {
+            assertFalse("temp folder is empty", paths.findFirst().isPresent());
+        }
+    }
+
+    @Ignore
+    @Test
+    @Parameters
+    public void testThroughput(String mode) throws Exception {
+        DiskChunkSync sync = sync(mode, 100);
+        DiskChunkStore store = new DiskChunkStore(false, sync, ChunkDigest::new,
+                ChunkDigests::test, cache, temp);
+
+        Random random = new Random(CHUNKS);
+        List<byte[]> data = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) {
+            byte[] bs = new byte[CHUNK_LENGTH];
+            random.nextBytes(bs);
+            data.add(bs);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < CHUNKS; i += THREADS) {
+                    byte[] bs = data.get(i);
+                    try (OutputStream os = store.outputStream(digest(DIGESTS, bs)).get()) {
+                        os.write(bs);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        store.close();
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        logger.info("-- testThroughput() - mode: {} chunks: {} commits/s: {}",
+                mode, CHUNKS, String.format("%.0f", CHUNKS / (nanos / 1e9)));
+        for (byte[] bs : data) {
+            assertTrue(store.contains(digest(DIGESTS, bs)));
+        }
+    }
+
+    public static Object[] parametersForTestThroughput() {
+        return new Object[]{"NONE", "GROUP", "SYNC"};
+    }
+}
@@ -30,6 +30,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -107,6 +108,12 @@ public class DiskChunkStoreTest {
         }
         assertArrayEquals("data match", data, baos.toByteArray());
 
+        ByteBuffer buffer = chunk.buffer()
+                .orElseThrow(() -> new IllegalStateException("chunk deleted"));
+        byte[] bufferData = new byte[buffer.remaining()];
+        buffer.get(bufferData);
+        assertArrayEquals("buffer data match", data, bufferData);
+
         Optional<OutputStream> duplicateOutputStream = store.outputStream(checksum);
         assertFalse("duplicate OutputStream not present", duplicateOutputStream.isPresent());
 
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.gc;
+
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.chunk.store.disk.DiskChunkStore;
+import com.github.horrorho.inflatabledonkey.chunk.store.pack.PackChunkStore;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.put;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import org.junit.Before;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class ChunkCollectorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+    }
+
+    private static final Supplier<Digest> DIGESTS = SHA1Digest::new;
+
+    DiskChunkStore store() throws IOException {
+        return new DiskChunkStore(DIGESTS, ChunkDigests::test, base.resolve("cache"), base.resolve("temp"));
+    }
+
+    @Test
+    public void testKeepLast() throws IOException {
+        DiskChunkStore store = store();
+        ChunkReferences references = new ChunkReferences(base.resolve("refs"));
+
+        byte[] a = put(store, DIGESTS, "0123456789");
+        byte[] b = put(store, DIGESTS, "01234567890123456789");
+        byte[] c = put(store, DIGESTS, "012345678901234567890123456789");
+        byte[] d = put(store, DIGESTS, "orphan");
+
+        Path device = Paths.get("DEVICE");
+        try (ChunkReferenceLog log = references.log(device.resolve("20160101"))) {
+            log.add("asset0", Arrays.asList(a, b));
+        }
+        try (ChunkReferenceLog log = references.log(device.resolve("20160201"))) {
+            log.add("asset1", Arrays.asList(b));
+            log.add("asset2", Arrays.asList(c));
+        }
+
+        ChunkCollector collector
+                = new ChunkCollector(store, references, RetentionPolicy.keepLast(1), DIGESTS.get().getDigestSize(), 2);
+        ChunkCollectorReport report = collector.collect();
+
+        assertEquals("candidates", 1, report.candidates());
+        assertEquals("deleted", 1, report.deleted());
+        assertEquals("bytes reclaimed", "0123456789".length(), report.bytes());
+        assertEquals("expired snapshots", 1, report.expiredSnapshots());
+        assertFalse("a collected", store.contains(a));
+        assertTrue("b retained", store.contains(b));
+        assertTrue("c retained", store.contains(c));
+        assertTrue("d unlogged, retained", store.contains(d));
+    }
+
+    @Test
+    public void testUnloggedChunksSurvive() throws IOException {
+        DiskChunkStore store = store();
+        ChunkReferences references = new ChunkReferences(base.resolve("refs"));
+
+        // Chunks cached before reference logging existed.
+        byte[] a = put(store, DIGESTS, "0123456789");
+        byte[] b = put(store, DIGESTS, "01234567890123456789");
+
+        ChunkCollector collector
+                = new ChunkCollector(store, references, RetentionPolicy.keepLast(1), DIGESTS.get().getDigestSize(), 2);
+        ChunkCollectorReport report = collector.collect();
+
+        assertEquals("deleted", 0, report.deleted());
+        assertTrue("a retained", store.contains(a));
+        assertTrue("b retained", store.contains(b));
+    }
+
+    long onDisk(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            return paths.filter(Files::isRegularFile)
+                    .mapToLong(u -> u.toFile().length())
+                    .sum();
+        }
+    }
+
+    ChunkReferences expire(byte[] checksum) throws IOException {
+        ChunkReferences references = new ChunkReferences(base.resolve("refs"));
+        Path device = Paths.get("DEVICE");
+        try (ChunkReferenceLog log = references.log(device.resolve("20160101"))) {
+            log.add("asset0", Arrays.asList(checksum));
+        }
+        try (ChunkReferenceLog log = references.log(device.resolve("20160201"))) {
+            log.add("asset1", Arrays.<byte[]>asList());
+        }
+        return references;
+    }
+
+    @Test
+    public void testCompressedReclaimsOnDiskSize() throws IOException {
+        DiskChunkStore store
+                = new DiskChunkStore(true, DIGESTS, ChunkDigests::test, base.resolve("cache"), base.resolve("temp"));
+        byte[] a = put(store, DIGESTS, new byte[100000]);
+        long size = onDisk(base.resolve("cache"));
+
+        ChunkCollector collector = new ChunkCollector(store, expire(a), RetentionPolicy.keepLast(1),
+                DIGESTS.get().getDigestSize(), 2);
+        ChunkCollectorReport report = collector.collect();
+
+        assertEquals("deleted", 1, report.deleted());
+        assertTrue("deflated", size < 100000);
+        assertEquals("bytes reclaimed", size, report.bytes());
+    }
+
+    @Test
+    public void testPackReclaimsNothing() throws IOException {
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, base.resolve("pack"))) {
+            byte[] a = put(store, DIGESTS, "0123456789");
+
+            ChunkCollector collector = new ChunkCollector(store, expire(a), RetentionPolicy.keepLast(1),
+                    DIGESTS.get().getDigestSize(), 2);
+            ChunkCollectorReport report = collector.collect();
+
+            assertEquals("deleted", 1, report.deleted());
+            assertEquals("bytes reclaimed", 0, report.bytes());
+            assertFalse("a collected", store.contains(a));
+        }
+    }
+
+    @Test
+    public void testFailedReclaimStaysIndexed() throws IOException {
+        DiskChunkStore store
+                = new DiskChunkStore(DIGESTS, ChunkDigests::test, base.resolve("cache"), base.resolve("temp"));
+        byte[] a = put(store, DIGESTS, "0123456789");
+        Path file;
+        try (Stream<Path> paths = Files.walk(base.resolve("cache"))) {
+            file = paths.filter(Files::isRegularFile)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("chunk file not present"));
+        }
+        // A non-empty directory in place of the chunk file, the delete fails.
+        Files.delete(file);
+        Files.createDirectories(file.resolve("blocker"));
+
+        try {
+            store.reclaim(a);
+            fail("IOException expected");
+        } catch (IOException ex) {
+            assertTrue("a still indexed", store.contains(a));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.pack;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigests;
+import com.github.horrorho.inflatabledonkey.exception.BadDataException;
+import com.github.horrorho.inflatabledonkey.io.FileChannelBuffers;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.digest;
+import static com.github.horrorho.inflatabledonkey.chunk.store.ChunkStoreSupport.put;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.APPEND;
+import java.util.function.Supplier;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class PackChunkStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path pack;
+
+    @Before
+    public void setUp() throws IOException {
+        pack = folder.getRoot().toPath();
+    }
+
+    private static byte[] get(PackChunkStore store, byte[] checksum) throws IOException {
+        Chunk chunk = store.chunk(checksum)
+                .orElseThrow(() -> new IllegalStateException("chunk not present"));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = chunk.inputStream()
+                .orElseThrow(() -> new IllegalStateException("chunk deleted"))) {
+            IOUtils.copy(is, baos);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] buffer(PackChunkStore store, byte[] checksum) throws IOException {
+        ByteBuffer buffer = store.chunk(checksum)
+                .orElseThrow(() -> new IllegalStateException("chunk not present"))
+                .buffer()
+                .orElseThrow(() -> new IllegalStateException("chunk deleted"));
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static final Supplier<Digest> DIGESTS = SHA1Digest::new;
+
+    private static final byte[][] DATA = new byte[][]{
+        "".getBytes(StandardCharsets.UTF_8),
+        "0123456789".getBytes(StandardCharsets.UTF_8),
+        "01234567890123456789".getBytes(StandardCharsets.UTF_8),
+        "0123456789012345678901234567890123456789".getBytes(StandardCharsets.UTF_8),
+        new byte[FileChannelBuffers.DEFAULT_MAP_THRESHOLD + 1]};
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[][] checksums = new byte[DATA.length][];
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack, 64)) {
+            for (int i = 0; i < DATA.length; i++) {
+                checksums[i] = put(store, DIGESTS, DATA[i]);
+            }
+            for (int i = 0; i < DATA.length; i++) {
+                assertArrayEquals("data match", DATA[i], get(store, checksums[i]));
+                assertArrayEquals("buffer data match", DATA[i], buffer(store, checksums[i]));
+            }
+            assertFalse("duplicate OutputStream not present", store.outputStream(checksums[0]).isPresent());
+            assertTrue("was deleted", store.delete(checksums[1]));
+            assertFalse("deleted not present", store.chunk(checksums[1]).isPresent());
+        }
+
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack, 64)) {
+            assertFalse("deleted not present on reopen", store.contains(checksums[1]));
+            for (int i = 0; i < DATA.length; i++) {
+                if (i != 1) {
+                    assertArrayEquals("data match on reopen", DATA[i], get(store, checksums[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        byte[][] checksums = new byte[DATA.length][];
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            for (int i = 0; i < DATA.length; i++) {
+                checksums[i] = put(store, DIGESTS, DATA[i]);
+            }
+        }
+        Path segment = pack.resolve(PackChunkStore.segmentFilename(0));
+        Path index = pack.resolve(PackChunkStore.INDEX_FILENAME);
+        long segmentSize = Files.size(segment);
+
+        // Lost index tail with a torn index entry and a torn segment record.
+        long entryLength = Files.size(index) / DATA.length;
+        byte[] entries = Files.readAllBytes(index);
+        Files.write(index, java.util.Arrays.copyOf(entries, (int) (entryLength * 2 + 3)));
+        Files.write(segment, new byte[]{0x50, 0x43, 0x4B}, APPEND);
+
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            for (int i = 0; i < DATA.length; i++) {
+                assertArrayEquals("data match after recovery", DATA[i], get(store, checksums[i]));
+            }
+        }
+        assertEquals("torn segment tail truncated", segmentSize, Files.size(segment));
+        assertEquals("index rebuilt", entryLength * DATA.length, Files.size(index));
+    }
+
+    @Test
+    public void testBadDataDiscarded() throws IOException {
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            byte[] checksum = put(store, DIGESTS, DATA[1]);
+            Path segment = pack.resolve(PackChunkStore.segmentFilename(0));
+            long segmentSize = Files.size(segment);
+
+            byte[] bad = digest(DIGESTS, DATA[2]);
+            OutputStream os = store.outputStream(bad)
+                    .orElseThrow(() -> new IllegalStateException("OutputStream not present"));
+            os.write(DATA[3]);
+            try {
+                os.close();
+                fail("BadDataException expected");
+            } catch (BadDataException ex) {
+                // expected
+            }
+            assertFalse("bad chunk not present", store.contains(bad));
+            assertEquals("streamed data discarded", segmentSize, Files.size(segment));
+
+            put(store, DIGESTS, DATA[2]);
+            assertArrayEquals("data match", DATA[1], get(store, checksum));
+            assertArrayEquals("data match after discard", DATA[2], get(store, bad));
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws IOException {
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            byte[] a = digest(DIGESTS, DATA[1]);
+            byte[] b = digest(DIGESTS, DATA[2]);
+            OutputStream osA = store.outputStream(a)
+                    .orElseThrow(() -> new IllegalStateException("OutputStream not present"));
+            OutputStream osB = store.outputStream(b)
+                    .orElseThrow(() -> new IllegalStateException("OutputStream not present"));
+            osA.write(DATA[1]);
+            osB.write(DATA[2]);
+            osB.close();
+            osA.close();
+
+            assertTrue("second segment", Files.exists(pack.resolve(PackChunkStore.segmentFilename(1))));
+            assertArrayEquals("data match", DATA[1], get(store, a));
+            assertArrayEquals("data match", DATA[2], get(store, b));
+        }
+    }
+
+    @Test
+    public void testUnclosedWriterRecovery() throws IOException {
+        byte[] checksum;
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            checksum = put(store, DIGESTS, DATA[1]);
+            // Torn, the writer never closes and the record header is never written.
+            store.outputStream(digest(DIGESTS, DATA[3]))
+                    .orElseThrow(() -> new IllegalStateException("OutputStream not present"))
+                    .write(new byte[64 * 1024]);
+        }
+        Path segment = pack.resolve(PackChunkStore.segmentFilename(0));
+        long segmentSize = PackChunkStore.headerLength(DIGESTS.get().getDigestSize()) + DATA[1].length;
+
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            assertArrayEquals("data match after recovery", DATA[1], get(store, checksum));
+            assertFalse("torn chunk not present", store.contains(digest(DIGESTS, DATA[3])));
+        }
+        assertEquals("torn record truncated", segmentSize, Files.size(segment));
+    }
+
+    @Test
+    public void testAbandonedWriterReleased() throws Exception {
+        try (PackChunkStore store = new PackChunkStore(DIGESTS, ChunkDigests::test, pack)) {
+            // Never closed, the stream is dropped.
+            store.outputStream(digest(DIGESTS, DATA[3]))
+                    .orElseThrow(() -> new IllegalStateException("OutputStream not present"))
+                    .write(new byte[64 * 1024]);
+
+            int released = 0;
+            for (int i = 0; i < 100 && released == 0; i++) {
+                System.gc();
+                Thread.sleep(10);
+                released = store.expunge();
+            }
+            assertEquals("tail released", 1, released);
+
+            byte[] checksum = put(store, DIGESTS, DATA[1]);
+            assertFalse("no second segment", Files.exists(pack.resolve(PackChunkStore.segmentFilename(1))));
+            assertEquals("abandoned data discarded",
+                    PackChunkStore.headerLength(DIGESTS.get().getDigestSize()) + DATA[1].length,
+                    Files.size(pack.resolve(PackChunkStore.segmentFilename(0))));
+            assertArrayEquals("data match", DATA[1], get(store, checksum));
+            assertFalse("abandoned chunk not present", store.contains(digest(DIGESTS, DATA[3])));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.chunk.store.pack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * PackIndexTest.
+ *
+ * @author Ahseya
+ */
+public class PackIndexTest {
+
+    private static final int KEY_LENGTH = 21;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("testPackIndex", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testPutRemoveReopen() throws IOException {
+        Map<ByteBuffer, Long> reference = new HashMap<>();
+        Random random = new Random(0);
+
+        try (PackIndex index = PackIndex.open(file, KEY_LENGTH)) {
+            List<byte[]> checksums = new ArrayList<>();
+            for (int i = 0; i < 50000; i++) {
+                byte[] checksum = new byte[KEY_LENGTH];
+                random.nextBytes(checksum);
+                index.put(checksum, new PackLocation(i % 7, i * 16L, i));
+                reference.put(ByteBuffer.wrap(checksum), i * 16L);
+                checksums.add(checksum);
+            }
+            for (int i = 0; i < checksums.size(); i += 3) {
+                assertTrue("remove", index.remove(checksums.get(i)));
+                assertFalse("removed twice", index.remove(checksums.get(i)));
+                reference.remove(ByteBuffer.wrap(checksums.get(i)));
+            }
+            // Relocated.
+            index.put(checksums.get(1), new PackLocation(9, 1, 2));
+            reference.put(ByteBuffer.wrap(checksums.get(1)), 1L);
+            assertEquals("size", reference.size(), index.size());
+        }
+
+        try (PackIndex index = PackIndex.open(file, KEY_LENGTH)) {
+            assertEquals("size on reopen", reference.size(), index.size());
+            for (Map.Entry<ByteBuffer, Long> entry : reference.entrySet()) {
+                PackLocation location = index.location(entry.getKey().array())
+                        .orElseThrow(() -> new AssertionError("location present"));
+                assertEquals("offset", (long) entry.getValue(), location.offset());
+            }
+            Map<ByteBuffer, Long> iterated = new HashMap<>();
+            index.forEach((checksum, location) -> iterated.put(ByteBuffer.wrap(checksum), location.offset()));
+            assertEquals("forEach", reference, iterated);
+            assertFalse("bad length not present", index.contains(new byte[KEY_LENGTH - 1]));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.github.horrorho.inflatabledonkey.protobuf.CloudKit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.summingInt;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class AuthorizeAssetsClientTest {
+
+    static List<CloudKit.Asset> ckAssets(int a, int b) {
+        List<CloudKit.Asset> list = new ArrayList<>();
+        for (int i = 0; i < a + b; i++) {
+            list.add(CloudKit.Asset.newBuilder()
+                    .setContentBaseURL(i < a ? "a" : "b")
+                    .setDsPrsID("1")
+                    .build());
+        }
+        return list;
+    }
+
+    @Test
+    @Parameters({
+        "1, 0, 0, 0",
+        "1, 5, 3, 8",
+        "4, 5, 3, 3",
+        "4, 8, 0, 2",
+        "1024, 2049, 1, 4"})
+    public void testBatches(int batchSize, int a, int b, int expected) {
+        AuthorizeAssetsClient client = new AuthorizeAssetsClient("container", "zone", Runnable::run, batchSize);
+        List<Map.Entry<String, List<CloudKit.Asset>>> batches = client.batches(ckAssets(a, b));
+
+        assertEquals(expected, batches.size());
+        batches.forEach(e -> {
+            assertTrue(e.getValue().size() <= batchSize);
+            e.getValue().forEach(u -> assertEquals(e.getKey(), u.getContentBaseURL()));
+        });
+        Map<String, Integer> counts = batches.stream()
+                .collect(groupingBy(Map.Entry::getKey, summingInt(e -> e.getValue().size())));
+        assertEquals(a, (int) counts.getOrDefault("a", 0));
+        assertEquals(b, (int) counts.getOrDefault("b", 0));
+    }
+}
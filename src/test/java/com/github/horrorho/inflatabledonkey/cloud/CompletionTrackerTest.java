@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CompletionTracker must match ItemElements semantics.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class CompletionTrackerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionTrackerTest.class);
+
+    private static final int BENCHMARK_ASSETS = 1_000_000;
+    private static final int BENCHMARK_REFERENCES = 10_000_000;
+    private static final int BENCHMARK_CONTAINER = 64;
+    private static final int BENCHMARK_THREADS = 8;
+
+    static Map<String, List<Integer>> map() {
+        Map<String, List<Integer>> map = new HashMap<>();
+        map.put("a", Arrays.asList(1, 2, 3));
+        map.put("b", Arrays.asList(3, 4, 4));
+        map.put("c", Arrays.asList(5));
+        return map;
+    }
+
+    /**
+     * Random item to element references, elements are shared between items.
+     */
+    static Map<Integer, List<Integer>> map(int items, int references, Random random) {
+        int perItem = references / items;
+        int elements = references / 2;
+        Map<Integer, List<Integer>> map = new HashMap<>(items * 4 / 3 + 1);
+        for (int i = 0; i < items; i++) {
+            List<Integer> list = new ArrayList<>(perItem);
+            for (int j = 0; j < perItem; j++) {
+                list.add(random.nextInt(elements));
+            }
+            map.put(i, list);
+        }
+        return map;
+    }
+
+    static List<List<Integer>> containers(Map<Integer, List<Integer>> map, Random random) {
+        List<Integer> elements = new ArrayList<>();
+        map.values().forEach(elements::addAll);
+        Collections.shuffle(elements, random);
+        List<List<Integer>> containers = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i += BENCHMARK_CONTAINER) {
+            containers.add(elements.subList(i, Math.min(elements.size(), i + BENCHMARK_CONTAINER)));
+        }
+        return containers;
+    }
+
+    @Test
+    public void testPut() {
+        CompletionTracker<String, Integer> tracker = new CompletionTracker<>(map());
+        assertEquals(3, tracker.pending());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), tracker.items(3));
+
+        assertTrue(tracker.putElements(Arrays.asList(1, 2, 4)).isEmpty());
+        Map<String, List<Integer>> completed = tracker.putElement(3);
+        assertEquals(2, completed.size());
+        assertEquals(Arrays.asList(1, 2, 3), completed.get("a"));
+        assertEquals(Arrays.asList(3, 4, 4), completed.get("b"));
+        assertTrue("put once", tracker.putElement(3).isEmpty());
+        assertFalse(tracker.isPending("a"));
+        assertEquals(Collections.singleton("c"), tracker.items());
+        assertFalse(tracker.isEmpty());
+    }
+
+    @Test
+    public void testVoid() {
+        CompletionTracker<String, Integer> tracker = new CompletionTracker<>(map());
+        tracker.putElements(Arrays.asList(1, 2, 4));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), tracker.voidElement(3));
+        assertTrue("void once", tracker.voidElement(3).isEmpty());
+        assertTrue(tracker.putElement(3).isEmpty());
+        assertEquals(Collections.singleton("c"), tracker.putElement(5).keySet());
+        assertTrue(tracker.isEmpty());
+        assertTrue(tracker.items().isEmpty());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Random random = new Random(0);
+        Map<Integer, List<Integer>> map = map(10_000, 100_000, random);
+        List<List<Integer>> containers = containers(map, random);
+        // Duplicate deliveries, as per retried or overlapping containers.
+        containers.addAll(containers.subList(0, containers.size() / 4));
+        Collections.shuffle(containers, random);
+
+        CompletionTracker<Integer, Integer> tracker = new CompletionTracker<>(map);
+        Map<Integer, Integer> completed = new ConcurrentHashMap<>();
+        run(containers, u -> {
+            tracker.putElements(u).keySet().forEach(k -> completed.merge(k, 1, Integer::sum));
+            return null;
+        }, 4);
+
+        assertEquals(map.keySet(), completed.keySet());
+        assertTrue("completed once", completed.values().stream().allMatch(u -> u == 1));
+        assertTrue(tracker.isEmpty());
+    }
+
+    static double run(List<List<Integer>> containers, Function<List<Integer>, ?> put, int threads)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < containers.size()) {
+                        put.apply(containers.get(index));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Ignore
+    @Test
+    @Parameters({"LOCKED", "CONCURRENT"})
+    public void testThroughput(String mode) throws Exception {
+        // LOCKED is the former AssetPool#put, ItemElements under the pool-wide lock. Requires a large heap, e.g.
+        // -DargLine=-Xmx6g.
+        Random random = new Random(0);
+        Map<Integer, List<Integer>> map = map(BENCHMARK_ASSETS, BENCHMARK_REFERENCES, random);
+        List<List<Integer>> containers = containers(map, random);
+        AtomicInteger completed = new AtomicInteger();
+
+        double seconds;
+        if (mode.equals("LOCKED")) {
+            Object lock = new Object();
+            ItemElements<Integer, Integer> itemElements = new ItemElements<>(map);
+            map = null;
+            seconds = run(containers, u -> {
+                synchronized (lock) {
+                    return completed.addAndGet(itemElements.putElements(u).size());
+                }
+            }, BENCHMARK_THREADS);
+        } else {
+            CompletionTracker<Integer, Integer> tracker = new CompletionTracker<>(map);
+            map = null;
+            seconds = run(containers, u -> completed.addAndGet(tracker.putElements(u).size()), BENCHMARK_THREADS);
+        }
+        assertEquals(BENCHMARK_ASSETS, completed.get());
+        logger.info("-- testThroughput() - mode: {} threads: {} containers: {} seconds: {} containers/s: {}",
+                mode, BENCHMARK_THREADS, containers.size(), String.format("%.3f", seconds),
+                String.format("%.0f", containers.size() / seconds));
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.github.horrorho.inflatabledonkey.data.backup.Asset;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.ChunkInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.HostInfo;
+import com.github.horrorho.inflatabledonkey.protobuf.ChunkServer.StorageHostChunkList;
+import com.google.protobuf.ByteString;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import static java.util.stream.Collectors.toList;
+import org.apache.http.client.HttpClient;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ahseya
+ */
+public class ContainerSchedulerTest {
+
+    private static final long MARGIN_MS = 60000;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private static final HttpClient HTTP_CLIENT = (HttpClient) Proxy.newProxyInstance(
+            HttpClient.class.getClassLoader(), new Class<?>[]{HttpClient.class}, (proxy, method, args) -> {
+                throw new UnsupportedOperationException(method.toString());
+            });
+
+    /**
+     * Re-authorizes with the current response, regardless of the assets.
+     */
+    static final class StubAssetPool extends AssetPool {
+
+        private final AtomicInteger authorizations = new AtomicInteger();
+        private final AtomicReference<Runnable> onAuthorize = new AtomicReference<>();
+        private final Map<List<ByteString>, Instant> tokenExpirations = new ConcurrentHashMap<>();
+        private volatile List<StorageHostChunkList> response = Collections.emptyList();
+
+        StubAssetPool() {
+            super(new AuthorizeAssetsClient("container", "zone", Runnable::run, 1), Collections.emptySet());
+        }
+
+        @Override
+        public Collection<StorageHostChunkList> authorize(HttpClient httpClient, Set<Asset> assets) {
+            authorizations.incrementAndGet();
+            Runnable hook = onAuthorize.getAndSet(null);
+            if (hook != null) {
+                hook.run();
+            }
+            return response;
+        }
+
+        @Override
+        public Set<Asset> assets(StorageHostChunkList container) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Optional<Instant> tokenExpiration(StorageHostChunkList container) {
+            return Optional.ofNullable(tokenExpirations.get(ContainerScheduler.key(container)));
+        }
+
+        void response(StorageHostChunkList... containers) {
+            response = Arrays.asList(containers);
+        }
+
+        /**
+         * Runs once, during the next authorization.
+         */
+        void onAuthorize(Runnable hook) {
+            onAuthorize.set(hook);
+        }
+
+        int authorizations() {
+            return authorizations.get();
+        }
+    }
+
+    /**
+     * Runs submitted tasks and the periodic scan only when told to.
+     */
+    static final class ManualExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Runnable scan;
+
+        void runTasks() {
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                task.run();
+            }
+        }
+
+        void scan() {
+            scan.run();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                TimeUnit unit) {
+            scan = command;
+            return new NullScheduledFuture();
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>(tasks);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    static final class NullScheduledFuture implements ScheduledFuture<Object> {
+
+        private volatile boolean cancelled;
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return 0;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+
+    static StorageHostChunkList container(String uri, long expiry, String... checksums) {
+        HostInfo hostInfo = HostInfo.newBuilder()
+                .setHostname("DUMMY")
+                .setPort(80)
+                .setMethod("GET")
+                .setUri(uri)
+                .setTransportProtocol("HTTP")
+                .setTransportProtocolVersion("1.1")
+                .setScheme("http")
+                .setExpiry(expiry)
+                .build();
+        List<ChunkInfo> chunkInfos = Arrays.stream(checksums)
+                .map(u -> ChunkInfo.newBuilder()
+                        .setChunkChecksum(ByteString.copyFrom(u, StandardCharsets.UTF_8))
+                        .setChunkLength(1)
+                        .build())
+                .collect(toList());
+        return StorageHostChunkList.newBuilder()
+                .setHostInfo(hostInfo)
+                .setStorageContainerKey(uri)
+                .setStorageContainerAuthorizationToken(uri)
+                .addAllChunkInfo(chunkInfos)
+                .build();
+    }
+
+    static String take(ContainerScheduler scheduler) {
+        StorageHostChunkList container = scheduler.take().get();
+        scheduler.done(container);
+        return container.getHostInfo().getUri();
+    }
+
+    ContainerScheduler scheduler(StubAssetPool pool, ManualExecutor executor,
+            Consumer<StorageHostChunkList> abandon) {
+        return new ContainerScheduler(pool, HTTP_CLIENT, executor, abandon, MARGIN_MS, 1000);
+    }
+
+    @Test
+    public void testEarliestDeadlineFirst() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        StorageHostChunkList a = container("a", now + 3 * HOUR_MS, "a");
+        pool.tokenExpirations.put(ContainerScheduler.key(a), Instant.ofEpochMilli(now + HOUR_MS / 2));
+        try (ContainerScheduler scheduler = scheduler(pool, new ManualExecutor(), u -> fail("abandoned"))) {
+            scheduler.submit(Arrays.asList(
+                    a,
+                    container("b", now + 2 * HOUR_MS, "b"),
+                    container("c", now + HOUR_MS, "c"),
+                    container("d", now + 4 * HOUR_MS, "d")));
+
+            assertEquals("a", take(scheduler));
+            assertEquals("c", take(scheduler));
+            assertEquals("b", take(scheduler));
+            assertEquals("d", take(scheduler));
+            assertFalse(scheduler.take().isPresent());
+        }
+    }
+
+    @Test
+    public void testRenewAhead() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        pool.response(container("fresh", now + HOUR_MS, "a", "b"));
+        ManualExecutor executor = new ManualExecutor();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, u -> fail("abandoned"))) {
+            scheduler.submit(Arrays.asList(
+                    container("expiring", now + MARGIN_MS / 2, "a", "b"),
+                    container("other", now + 2 * HOUR_MS, "c")));
+            executor.scan();
+            executor.scan();
+
+            assertEquals(1, pool.authorizations());
+            assertEquals("fresh", take(scheduler));
+            assertEquals("other", take(scheduler));
+            assertFalse(scheduler.take().isPresent());
+        }
+    }
+
+    @Test
+    public void testShortLivedNotRenewedAgain() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        pool.response(container("fresh", now + MARGIN_MS / 2, "a"));
+        ManualExecutor executor = new ManualExecutor();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, u -> fail("abandoned"))) {
+            scheduler.submit(Arrays.asList(container("expiring", now + MARGIN_MS / 2, "a")));
+            executor.scan();
+            executor.scan();
+            executor.scan();
+
+            assertEquals(1, pool.authorizations());
+            assertEquals("fresh", take(scheduler));
+        }
+    }
+
+    @Test
+    public void testExpiringNotReissuedKept() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        ManualExecutor executor = new ManualExecutor();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, u -> fail("abandoned"))) {
+            scheduler.submit(Arrays.asList(container("expiring", now + MARGIN_MS / 2, "a", "b")));
+            pool.response(container("partial", now + HOUR_MS, "a"));
+            executor.scan();
+            executor.scan();
+
+            assertEquals(1, pool.authorizations());
+            assertEquals("expiring", take(scheduler));
+            assertEquals("partial", take(scheduler));
+            assertFalse(scheduler.take().isPresent());
+        }
+    }
+
+    @Test
+    public void testTokenLapsingWhileRenewingKept() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        StorageHostChunkList original = container("original", now + HOUR_MS, "a");
+        pool.tokenExpirations.put(ContainerScheduler.key(original), Instant.ofEpochMilli(now + MARGIN_MS / 2));
+        pool.response(container("short", now + MARGIN_MS / 2, "a"));
+        ManualExecutor executor = new ManualExecutor();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, u -> fail("abandoned"))) {
+            scheduler.submit(Arrays.asList(original));
+            StorageHostChunkList inFlight = scheduler.take().get();
+            scheduler.submit(Arrays.asList(container("expiring", now + MARGIN_MS / 2, "a")));
+
+            // Whilst the expiring container is renewing, an urgent renewal reissues it short lived and a scan finds
+            // its token lapsing.
+            pool.onAuthorize(() -> {
+                scheduler.failed(inFlight);
+                executor.runTasks();
+                executor.scan();
+            });
+            executor.scan();
+            assertEquals(2, pool.authorizations());
+
+            // The last chance token renewal was not spent.
+            executor.scan();
+            assertEquals(3, pool.authorizations());
+            executor.scan();
+            assertEquals(3, pool.authorizations());
+            scheduler.done(inFlight);
+        }
+    }
+
+    @Test
+    public void testUrgentRetriesThenAbandon() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        pool.response(container("fresh", now + HOUR_MS, "a"));
+        ManualExecutor executor = new ManualExecutor();
+        List<StorageHostChunkList> abandoned = new CopyOnWriteArrayList<>();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, abandoned::add)) {
+            scheduler.submit(Arrays.asList(container("original", now + HOUR_MS, "a")));
+
+            for (int i = 0; i <= ContainerScheduler.MAX_URGENT_RENEWALS; i++) {
+                StorageHostChunkList container = scheduler.take().get();
+                assertEquals(i == 0 ? "original" : "fresh", container.getHostInfo().getUri());
+                scheduler.failed(container);
+                executor.runTasks();
+                scheduler.done(container);
+            }
+            assertEquals(ContainerScheduler.MAX_URGENT_RENEWALS, pool.authorizations());
+            assertTrue(abandoned.isEmpty());
+
+            assertFalse(scheduler.take().isPresent());
+            assertEquals(1, abandoned.size());
+            assertEquals("fresh", abandoned.get(0).getHostInfo().getUri());
+        }
+    }
+
+    @Test
+    public void testUnrecoverableAbandonedWithoutRenewal() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        pool.response(container("fresh", now + HOUR_MS, "a"));
+        ManualExecutor executor = new ManualExecutor();
+        List<StorageHostChunkList> abandoned = new CopyOnWriteArrayList<>();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, abandoned::add)) {
+            scheduler.submit(Arrays.asList(container("corrupt", now + HOUR_MS, "a")));
+            StorageHostChunkList container = scheduler.take().get();
+            scheduler.unrecoverable(container);
+            executor.runTasks();
+            scheduler.done(container);
+
+            assertFalse(scheduler.take().isPresent());
+            assertEquals(0, pool.authorizations());
+            assertEquals(1, abandoned.size());
+            assertEquals("corrupt", abandoned.get(0).getHostInfo().getUri());
+        }
+    }
+
+    @Test
+    public void testAbandonOnTakeThread() {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        ManualExecutor executor = new ManualExecutor();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        try (ContainerScheduler scheduler = scheduler(pool, executor, u -> thread.set(Thread.currentThread()))) {
+            scheduler.submit(Arrays.asList(container("expired", now - 1, "a")));
+            StorageHostChunkList container = scheduler.take().get();
+            scheduler.expired(container);
+
+            Thread renewal = new Thread(executor::runTasks);
+            renewal.start();
+            renewal.join();
+            scheduler.done(container);
+            assertEquals(1, pool.authorizations());
+            assertNull(thread.get());
+
+            assertFalse(scheduler.take().isPresent());
+            assertSame(Thread.currentThread(), thread.get());
+        } catch (InterruptedException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testHoldRelease() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        try (ContainerScheduler scheduler = scheduler(pool, new ManualExecutor(), u -> fail("abandoned"))) {
+            List<String> taken = new CopyOnWriteArrayList<>();
+            Thread worker = new Thread(() -> {
+                for (Optional<StorageHostChunkList> container = scheduler.take();
+                        container.isPresent();
+                        container = scheduler.take()) {
+                    taken.add(container.get().getHostInfo().getUri());
+                    scheduler.done(container.get());
+                }
+            });
+            scheduler.hold();
+            worker.start();
+            worker.join(200);
+            assertTrue(worker.isAlive());
+
+            scheduler.submit(Arrays.asList(container("a", now + HOUR_MS, "a")));
+            worker.join(200);
+            assertTrue(worker.isAlive());
+
+            scheduler.release();
+            worker.join();
+            assertEquals(Arrays.asList("a"), taken);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTakeCompensatesForkJoinWorker() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        StubAssetPool pool = new StubAssetPool();
+        ForkJoinPool workers = new ForkJoinPool(1);
+        try (ContainerScheduler scheduler = scheduler(pool, new ManualExecutor(), u -> fail("abandoned"))) {
+            scheduler.hold();
+            ForkJoinTask<Optional<StorageHostChunkList>> taken = workers.submit(() -> scheduler.take());
+
+            // The only worker is blocked in take(), a spare must run this.
+            CountDownLatch latch = new CountDownLatch(1);
+            workers.execute(latch::countDown);
+            latch.await();
+
+            scheduler.submit(Arrays.asList(container("a", now + HOUR_MS, "a")));
+            StorageHostChunkList container = taken.join().get();
+            assertEquals("a", container.getHostInfo().getUri());
+            scheduler.done(container);
+            scheduler.release();
+        } finally {
+            workers.shutdown();
+        }
+    }
+}
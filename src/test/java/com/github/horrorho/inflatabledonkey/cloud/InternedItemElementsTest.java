@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.cloud;
+
+import com.google.protobuf.ByteString;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InternedItemElements must match ItemElements semantics.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class InternedItemElementsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InternedItemElementsTest.class);
+
+    private static final int FOOTPRINT_ITEMS = 2_000_000;
+    private static final int FOOTPRINT_REFERENCES = 6_000_000;
+    private static final int FOOTPRINT_ELEMENTS = 4_000_000;
+
+    static <U> Map<Integer, List<U>> map(int items, int references, List<U> elements, Random random) {
+        Map<Integer, List<U>> map = new HashMap<>(items * 4 / 3 + 1);
+        for (int i = 0; i < items; i++) {
+            map.put(i, new ArrayList<>());
+        }
+        for (int i = 0; i < references; i++) {
+            map.get(random.nextInt(items)).add(elements.get(random.nextInt(elements.size())));
+        }
+        return map;
+    }
+
+    static List<Integer> integers(int n) {
+        List<Integer> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    @Parameters({"0", "1", "2", "3"})
+    public void testRandom(long seed) {
+        Random random = new Random(seed);
+        Map<Integer, List<Integer>> map = map(100, 300, integers(200), random);
+        ItemElements<Integer, Integer> expected = new ItemElements<>(map);
+        InternedItemElements<Integer, Integer> actual = new InternedItemElements<>(map);
+        CompletionTracker<Integer, Integer> tracker = new CompletionTracker<>(map);
+        assertEquals(expected.items(), actual.items());
+        assertEquals(expected.elements(), actual.elements());
+
+        for (int i = 0; i < 150; i++) {
+            int element = random.nextInt(220);
+            assertEquals(expected.items(element), actual.items(element));
+            assertEquals(expected.items(element), tracker.items(element));
+            if (random.nextInt(8) == 0) {
+                assertEquals(expected.voidElement(element), actual.voidElement(element));
+                tracker.voidElement(element);
+            } else {
+                Map<Integer, List<Integer>> completed = expected.putElement(element);
+                assertEquals(completed, actual.putElement(element));
+                assertEquals(completed, tracker.putElement(element));
+            }
+            assertEquals(expected.items(), actual.items());
+            assertEquals(expected.items(), tracker.items());
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Ignore
+    @Test
+    @Parameters({"ITEM_ELEMENTS", "INTERNED_ITEM_ELEMENTS", "COMPLETION_TRACKER"})
+    public void testHeapFootprint(String type) {
+        // Retained heap, excluding the items and elements themselves. Requires a large heap, e.g. -DargLine=-Xmx4g.
+        Random random = new Random(0);
+        List<ByteString> checksums = new ArrayList<>(FOOTPRINT_ELEMENTS);
+        byte[] bs = new byte[20];
+        for (int i = 0; i < FOOTPRINT_ELEMENTS; i++) {
+            random.nextBytes(bs);
+            checksums.add(ByteString.copyFrom(bs));
+        }
+        Map<Integer, List<ByteString>> map = map(FOOTPRINT_ITEMS, FOOTPRINT_REFERENCES, checksums, random);
+
+        long before = usedHeap();
+        Object o;
+        switch (type) {
+            case "ITEM_ELEMENTS":
+                o = new ItemElements<>(map);
+                break;
+            case "INTERNED_ITEM_ELEMENTS":
+                o = new InternedItemElements<>(map);
+                break;
+            default:
+                o = new CompletionTracker<>(map);
+        }
+        long after = usedHeap();
+        assertNotNull(o);
+        logger.info("-- testHeapFootprint() - type: {} items: {} references: {} MB: {}",
+                type, FOOTPRINT_ITEMS, FOOTPRINT_REFERENCES, (after - before) / (1024 * 1024));
+    }
+}
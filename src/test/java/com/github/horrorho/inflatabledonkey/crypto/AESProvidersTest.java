@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JCE engines must be bit identical to their BouncyCastle counterparts.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class AESProvidersTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(AESProvidersTest.class);
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int BENCHMARK_LENGTH = 64 * 1024 * 1024;
+    private static final int BENCHMARK_ROUNDS = 8;
+
+    private static byte[] random(Random random, int length) {
+        byte[] bs = new byte[length];
+        random.nextBytes(bs);
+        return bs;
+    }
+
+    private static byte[] blocks(BlockCipher cipher, boolean forEncryption, CipherParameters params, byte[] in) {
+        cipher.init(forEncryption, params);
+        byte[] out = new byte[in.length];
+        for (int i = 0; i < in.length; i += BLOCK_SIZE) {
+            cipher.processBlock(in, i, out, i);
+        }
+        return out;
+    }
+
+    private static byte[] stream(StreamCipher cipher, boolean forEncryption, CipherParameters params, byte[] in,
+            Random random) {
+        cipher.init(forEncryption, params);
+        byte[] out = new byte[in.length];
+        int offset = 0;
+        while (offset < in.length) {
+            // Ragged writes exercise partial block carry over.
+            int length = Math.min(in.length - offset, random.nextInt(100));
+            cipher.processBytes(in, offset, length, out, offset);
+            offset += length;
+        }
+        return out;
+    }
+
+    @Test
+    @Parameters({"16", "32"})
+    public void testEngine(int keyLength) {
+        Random random = new Random(keyLength);
+        for (int i = 0; i < 64; i++) {
+            KeyParameter key = new KeyParameter(random(random, keyLength));
+            byte[] data = random(random, BLOCK_SIZE * (1 + random.nextInt(64)));
+
+            byte[] bc = blocks(AESProviders.BC.engine(), true, key, data);
+            assertArrayEquals(bc, blocks(AESProviders.JCE.engine(), true, key, data));
+            assertArrayEquals(data, blocks(AESProviders.JCE.engine(), false, key, bc));
+        }
+    }
+
+    @Test
+    @Parameters({"16", "32"})
+    public void testCBC(int keyLength) {
+        Random random = new Random(keyLength);
+        for (int i = 0; i < 64; i++) {
+            CipherParameters params
+                    = new ParametersWithIV(new KeyParameter(random(random, keyLength)), random(random, BLOCK_SIZE));
+            byte[] data = random(random, BLOCK_SIZE * (1 + random.nextInt(64)));
+
+            byte[] bc = blocks(AESProviders.BC.cbc(), true, params, data);
+            assertArrayEquals(bc, blocks(AESProviders.JCE.cbc(), true, params, data));
+            assertArrayEquals(data, blocks(AESProviders.JCE.cbc(), false, params, bc));
+        }
+    }
+
+    @Test
+    public void testCBCInPlace() {
+        Random random = new Random(0);
+        CipherParameters params = new ParametersWithIV(new KeyParameter(random(random, 32)), random(random, 16));
+        byte[] data = random(random, BLOCK_SIZE * 16);
+        byte[] expected = blocks(AESProviders.BC.cbc(), false, params, data);
+
+        BlockCipher cipher = AESProviders.JCE.cbc();
+        cipher.init(false, params);
+        for (int i = 0; i < data.length; i += BLOCK_SIZE) {
+            cipher.processBlock(data, i, data, i);
+        }
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    @Parameters({"16", "32"})
+    public void testCFB(int keyLength) {
+        Random random = new Random(keyLength);
+        for (int i = 0; i < 64; i++) {
+            KeyParameter key = new KeyParameter(random(random, keyLength));
+            CipherParameters params = i % 2 == 0
+                    ? key
+                    : new ParametersWithIV(key, random(random, BLOCK_SIZE));
+            byte[] data = random(random, random.nextInt(4096));
+
+            byte[] bc = stream(AESProviders.BC.cfb(), true, params, data, random);
+            assertArrayEquals(bc, stream(AESProviders.JCE.cfb(), true, params, data, random));
+            assertArrayEquals(data, stream(AESProviders.JCE.cfb(), false, params, bc, random));
+            assertArrayEquals(data, stream(AESProviders.BC.cfb(), false, params, bc, random));
+        }
+    }
+
+    @Test
+    public void testCFBInPlace() {
+        Random random = new Random(0);
+        KeyParameter key = new KeyParameter(random(random, 32));
+        byte[] data = random(random, 1000);
+        byte[] expected = stream(AESProviders.BC.cfb(), false, key, data, random);
+
+        StreamCipher cipher = AESProviders.JCE.cfb();
+        cipher.init(false, key);
+        cipher.processBytes(data, 0, 7, data, 0);
+        cipher.processBytes(data, 7, data.length - 7, data, 7);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    public void testCFBReset() {
+        Random random = new Random(0);
+        KeyParameter key = new KeyParameter(random(random, 32));
+        byte[] data = random(random, 100);
+
+        StreamCipher cipher = AESProviders.JCE.cfb();
+        cipher.init(false, key);
+        byte[] a = new byte[data.length];
+        cipher.processBytes(data, 0, data.length, a, 0);
+        cipher.reset();
+        byte[] b = new byte[data.length];
+        cipher.processBytes(data, 0, data.length, b, 0);
+        assertArrayEquals(a, b);
+    }
+
+    @Ignore
+    @Test
+    @Parameters({"BC", "JCE"})
+    public void testThroughput(AESProviders provider) {
+        // Single thread, so GB/s is per core. Warm up round discarded.
+        Random random = new Random(0);
+        KeyParameter key = new KeyParameter(random(random, 32));
+        CipherParameters params = new ParametersWithIV(key, random(random, BLOCK_SIZE));
+        byte[] data = random(random, BENCHMARK_LENGTH);
+        byte[] out = new byte[BENCHMARK_LENGTH];
+
+        double cfb = 0;
+        double cbc = 0;
+        double ecb = 0;
+        for (int i = 0; i <= BENCHMARK_ROUNDS; i++) {
+            long start = System.nanoTime();
+            StreamCipher cfbCipher = provider.cfb();
+            cfbCipher.init(false, key);
+            for (int j = 0; j < data.length; j += 8192) {
+                cfbCipher.processBytes(data, j, 8192, out, j);
+            }
+            double cfbGbs = gbs(data.length, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            BlockCipher cbcCipher = provider.cbc();
+            for (int j = 0; j < data.length; j += BLOCK_SIZE) {
+                if (j % 4096 == 0) {
+                    // Data protection CBC re-keys the IV every 4096 bytes.
+                    cbcCipher.init(false, params);
+                }
+                cbcCipher.processBlock(data, j, out, j);
+            }
+            double cbcGbs = gbs(data.length, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            BlockCipher ecbCipher = provider.engine();
+            ecbCipher.init(false, key);
+            for (int j = 0; j < data.length; j += BLOCK_SIZE) {
+                ecbCipher.processBlock(data, j, out, j);
+            }
+            double ecbGbs = gbs(data.length, System.nanoTime() - start);
+
+            if (i > 0) {
+                cfb += cfbGbs / BENCHMARK_ROUNDS;
+                cbc += cbcGbs / BENCHMARK_ROUNDS;
+                ecb += ecbGbs / BENCHMARK_ROUNDS;
+            }
+        }
+        logger.info("-- testThroughput() - provider: {} GB/s per core cfb: {} cbc: {} ecb/xts: {}",
+                provider, String.format("%.3f", cfb), String.format("%.3f", cbc), String.format("%.3f", ecb));
+    }
+
+    static double gbs(long bytes, long nanos) {
+        return (double) bytes / nanos;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.crypto;
+
+import com.github.horrorho.inflatabledonkey.chunk.engine.ChunkListDecrypterTestVector;
+import com.github.horrorho.inflatabledonkey.chunk.store.ChunkDigest;
+import com.github.horrorho.inflatabledonkey.file.FileDigestA;
+import java.util.Random;
+import java.util.function.Supplier;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JCE digests must be bit identical to their BouncyCastle counterparts.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DigestsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DigestsTest.class);
+
+    private static final int BENCHMARK_LENGTH = 64 * 1024 * 1024;
+    private static final int BENCHMARK_ROUNDS = 8;
+
+    private static byte[] digest(Digest digest, byte[] data, Random random) {
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, random.nextInt(200));
+            if (length == 1) {
+                digest.update(data[offset]);
+            } else {
+                digest.update(data, offset, length);
+            }
+            offset += length;
+        }
+        byte[] out = new byte[digest.getDigestSize() + 1];
+        assertEquals(digest.getDigestSize(), digest.doFinal(out, 1));
+        return out;
+    }
+
+    private static void test(Supplier<Digest> bc, Supplier<Digest> jce) {
+        Random random = new Random(0);
+        Digest reused = jce.get();
+        for (int i = 0; i < 64; i++) {
+            byte[] data = new byte[random.nextInt(4096)];
+            random.nextBytes(data);
+
+            byte[] expected = digest(bc.get(), data, random);
+            assertArrayEquals(expected, digest(jce.get(), data, random));
+            assertArrayEquals("reset on doFinal", expected, digest(reused, data, random));
+        }
+    }
+
+    @Test
+    public void testSHA1() {
+        test(SHA1Digest::new, () -> new JCEDigest("SHA-1", 64));
+        assertEquals(new SHA1Digest().getByteLength(), new JCEDigest("SHA-1", 64).getByteLength());
+    }
+
+    @Test
+    public void testSHA256() {
+        test(SHA256Digest::new, () -> new JCEDigest("SHA-256", 64));
+        assertEquals(new SHA256Digest().getByteLength(), new JCEDigest("SHA-256", 64).getByteLength());
+    }
+
+    @Test
+    public void testChunkDigest() {
+        test(() -> new ChunkDigest(new SHA256Digest()), () -> new ChunkDigest(new JCEDigest("SHA-256", 64)));
+    }
+
+    @Test
+    public void testFileDigestA() {
+        test(() -> new FileDigestA(new SHA1Digest()), () -> new FileDigestA(new JCEDigest("SHA-1", 64)));
+    }
+
+    @Test
+    public void testChunkDigestVector() {
+        ChunkListDecrypterTestVector vector = ChunkListDecrypterTestVector.VECTOR_1;
+        byte[] plaintext = vector.plaintext();
+        Digest digest = new ChunkDigest();
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.update(plaintext, 0, plaintext.length);
+        digest.doFinal(out, 0);
+        assertArrayEquals(vector.chunkChecksum(), out);
+    }
+
+    @Ignore
+    @Test
+    @Parameters({"BC", "JCE"})
+    public void testThroughput(String provider) {
+        // Single thread, so GB/s is per core. Warm up round discarded.
+        boolean jce = provider.equals("JCE");
+        byte[] data = new byte[BENCHMARK_LENGTH];
+        new Random(0).nextBytes(data);
+
+        double chunk = 0;
+        double file = 0;
+        for (int i = 0; i <= BENCHMARK_ROUNDS; i++) {
+            long start = System.nanoTime();
+            hash(new ChunkDigest(jce ? new JCEDigest("SHA-256", 64) : new SHA256Digest()), data);
+            double chunkGbs = gbs(data.length, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            hash(new FileDigestA(jce ? new JCEDigest("SHA-1", 64) : new SHA1Digest()), data);
+            double fileGbs = gbs(data.length, System.nanoTime() - start);
+
+            if (i > 0) {
+                chunk += chunkGbs / BENCHMARK_ROUNDS;
+                file += fileGbs / BENCHMARK_ROUNDS;
+            }
+        }
+        logger.info("-- testThroughput() - provider: {} GB/s per core chunk (SHA-256): {} file (SHA-1): {}",
+                provider, String.format("%.3f", chunk), String.format("%.3f", file));
+    }
+
+    static void hash(Digest digest, byte[] data) {
+        // 64 KiB chunks.
+        byte[] out = new byte[digest.getDigestSize()];
+        for (int i = 0; i < data.length; i += 65536) {
+            digest.update(data, i, 65536);
+            digest.doFinal(out, 0);
+        }
+    }
+
+    static double gbs(long bytes, long nanos) {
+        return (double) bytes / nanos;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.file;
+
+import com.github.horrorho.inflatabledonkey.chunk.Chunk;
+import com.github.horrorho.inflatabledonkey.dataprotection.DPAESCBCCipher;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.bouncycastle.crypto.Digest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * FileCursor must match FileStreamWriter regardless of the order in which chunks arrive.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class FileCursorTest {
+
+    static Chunk chunk(byte[] data, boolean arrayBacked) {
+        return new Chunk() {
+            @Override
+            public byte[] checksum() {
+                return new byte[0];
+            }
+
+            @Override
+            public Optional<InputStream> inputStream() {
+                return Optional.of(new ByteArrayInputStream(data));
+            }
+
+            @Override
+            public Optional<ByteBuffer> buffer() {
+                if (!arrayBacked) {
+                    return Optional.of(ByteBuffer.wrap(data).asReadOnlyBuffer());
+                }
+                // Offset into a larger array.
+                byte[] padded = new byte[data.length + 7];
+                System.arraycopy(data, 0, padded, 3, data.length);
+                return Optional.of(ByteBuffer.wrap(padded, 3, data.length).slice());
+            }
+        };
+    }
+
+    static List<byte[]> split(byte[] data, int count, Random random) {
+        List<Integer> cuts = new ArrayList<>();
+        for (int i = 0; i < count - 1; i++) {
+            cuts.add(random.nextInt(data.length));
+        }
+        cuts.add(0);
+        cuts.add(data.length);
+        Collections.sort(cuts);
+        List<byte[]> list = new ArrayList<>();
+        for (int i = 0; i < cuts.size() - 1; i++) {
+            list.add(Arrays.copyOfRange(data, cuts.get(i), cuts.get(i + 1)));
+        }
+        return list;
+    }
+
+    @Test
+    @Parameters({
+        "0, false, false",
+        "1, false, true",
+        "2, true, false",
+        "3, true, true"})
+    public void testAppend(long seed, boolean encrypted, boolean arrayBacked) throws Exception {
+        Random random = new Random(seed);
+        byte[] data = new byte[5 * 4096 + 48];
+        random.nextBytes(data);
+        Optional<XFileKey> keyCipher = encrypted
+                ? Optional.of(new XFileKey(new byte[32], DPAESCBCCipher::new))
+                : Optional.empty();
+        Digest digest = FileSignature.ONE.newDigest();
+        digest.update(data, 0, data.length);
+        Optional<byte[]> signature = Optional.of(FileStreamWriter.signature(digest));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        assertTrue(FileStreamWriter.copy(new ByteArrayInputStream(data), expected, keyCipher, signature));
+
+        List<byte[]> pieces = split(data, 12, random);
+        List<Optional<Chunk>> chunks = new ArrayList<>(Collections.nCopies(pieces.size(), Optional.empty()));
+        List<Integer> arrivals = new ArrayList<>();
+        for (int i = 0; i < pieces.size(); i++) {
+            arrivals.add(i);
+        }
+        Collections.shuffle(arrivals, random);
+
+        Path path = Files.createTempFile("FileCursorTest", ".bin");
+        try {
+            FileCursor cursor = FileCursor.create(path, keyCipher, signature);
+            for (int i : arrivals) {
+                chunks.set(i, Optional.of(chunk(pieces.get(i), arrayBacked)));
+                cursor.append(chunks);
+                assertEquals(chunks.indexOf(Optional.empty()) == -1 ? chunks.size() : chunks.indexOf(Optional.empty()),
+                        cursor.index());
+            }
+            assertTrue(cursor.finish());
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Ahseya.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.horrorho.inflatabledonkey.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import static java.util.stream.Collectors.toSet;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+
+/**
+ * IntBiMapSet must match BiMapSet semantics.
+ *
+ * @author Ahseya
+ */
+@RunWith(JUnitParamsRunner.class)
+public class IntBiMapSetTest {
+
+    static Set<Integer> set(int... ids) {
+        return Arrays.stream(ids).boxed().collect(toSet());
+    }
+
+    @Test
+    public void testCSR() {
+        int[] rows = {2, 0, 2, 2, 0};
+        int[] columns = {5, 1, 3, 5, 1};
+        CSR csr = CSR.of(3, rows, columns, rows.length, false);
+        assertEquals(5, csr.size());
+        assertEquals(0, csr.degree(1));
+        assertEquals(3, csr.degree(2));
+        assertEquals(5, csr.column(csr.start(2)));
+
+        CSR distinct = CSR.of(3, rows, columns, rows.length, true);
+        assertEquals(3, distinct.size());
+        assertEquals(1, distinct.degree(0));
+        assertEquals(2, distinct.degree(2));
+
+        CSR transposed = distinct.transpose(6);
+        assertEquals(6, transposed.rows());
+        assertEquals(1, transposed.degree(3));
+        assertEquals(2, transposed.column(transposed.start(5)));
+    }
+
+    @Test
+    @Parameters({"0", "1", "2", "3"})
+    public void testRandom(long seed) {
+        Random random = new Random(seed);
+        int keys = 50;
+        int values = 80;
+        Map<Integer, List<Integer>> map = new HashMap<>();
+        List<Integer> keyIds = new ArrayList<>();
+        List<Integer> valueIds = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            // Some keys without values.
+            int n = random.nextInt(6);
+            List<Integer> list = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int v = random.nextInt(values);
+                list.add(v);
+                keyIds.add(k);
+                valueIds.add(v);
+            }
+            map.put(k, list);
+        }
+        BiMapSet<Integer, Integer> expected = BiMapSet.from(map);
+        IntBiMapSet actual = IntBiMapSet.of(keys, values, keyIds.stream().mapToInt(u -> u).toArray(),
+                valueIds.stream().mapToInt(u -> u).toArray(), keyIds.size());
+
+        for (int i = 0; i < 200; i++) {
+            int k = random.nextInt(keys);
+            int v = random.nextInt(values);
+            assertEquals(expected.keys(v), set(actual.keys(v)));
+            assertEquals(expected.values(k), set(actual.values(k)));
+            if (random.nextBoolean()) {
+                assertEquals(expected.removeKey(k), set(actual.removeKey(k)));
+            } else {
+                assertEquals(expected.removeValue(v), set(actual.removeValue(v)));
+            }
+            assertEquals(expected.keySet().size(), actual.keyCount());
+            assertEquals(expected.valueSet().size(), actual.valueCount());
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+        }
+        assertEquals(expected.keySet(), new HashSet<>(filter(keys, actual::containsKey)));
+    }
+
+    static List<Integer> filter(int n, IntPredicate predicate) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (predicate.test(i)) {
+                list.add(i);
+            }
+        }
+        return list;
+    }
+}